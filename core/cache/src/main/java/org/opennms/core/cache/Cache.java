@@ -28,6 +28,8 @@
 
 package org.opennms.core.cache;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
@@ -84,6 +86,35 @@ public class Cache<K, V> {
         }
     }
 
+    /**
+     * Returns the values for all of the given keys. Missing values are loaded with a
+     * single call to {@link CacheLoader#loadAll(Iterable)} if the loader supports bulk
+     * loading, and one by one otherwise.
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+        Objects.requireNonNull(keys);
+        if (config.isEnabled()) {
+            return delegate.getAll(keys);
+        }
+        try {
+            return cacheLoader.loadAll(keys);
+        } catch (CacheLoader.UnsupportedLoadingOperationException e) {
+            final Map<K, V> values = new LinkedHashMap<>();
+            for (K key : keys) {
+                values.put(key, get(key));
+            }
+            return values;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    public void invalidate(K key) {
+        if (delegate != null) {
+            delegate.invalidate(key);
+        }
+    }
+
     public void invalidateAll() {
         if (delegate != null) {
             delegate.invalidateAll();
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of asynchronous tasks that are in flight, i.e. started
+ * but whose future did not complete yet.
+ *
+ * Tasks that exceed the limit are queued and started as soon as another task
+ * completes. The futures returned by {@link #execute(Supplier)} are completed
+ * on the given executor, so the threads that complete the tasks (i.e. the RPC
+ * threads) are never used to process the results.
+ *
+ * This is used by the daemons that run their {@link AsyncReadyRunnable}s
+ * against remote systems, so that a burst of schedules does not flood them.
+ */
+public class BoundedAsyncExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedAsyncExecutor.class);
+
+    private final int m_maxInFlight;
+
+    private final Executor m_executor;
+
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+
+    private final Queue<PendingTask<?>> m_pendingTasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger m_numPendingTasks = new AtomicInteger();
+
+    private class PendingTask<T> {
+        private final Supplier<CompletableFuture<T>> m_task;
+        private final CompletableFuture<T> m_future = new CompletableFuture<>();
+
+        private PendingTask(Supplier<CompletableFuture<T>> task) {
+            m_task = task;
+        }
+
+        private void start() {
+            CompletableFuture<T> future;
+            try {
+                future = m_task.get();
+            } catch (Throwable t) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(t);
+            }
+            future.whenComplete((result, t) -> {
+                m_inFlight.decrementAndGet();
+                startPendingTasks(true);
+                try {
+                    m_executor.execute(() -> complete(result, t));
+                } catch (RejectedExecutionException e) {
+                    // The daemon is shutting down
+                    LOG.debug("Dropping the result of a task: {}", e.getMessage());
+                }
+            });
+        }
+
+        private void complete(T result, Throwable t) {
+            if (t != null) {
+                m_future.completeExceptionally(t);
+            } else {
+                m_future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * @param maxInFlight the maximum number of tasks in flight
+     * @param executor the executor used to start the queued tasks and to process the results
+     */
+    public BoundedAsyncExecutor(int maxInFlight, Executor executor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of tasks in flight must be positive, got " + maxInFlight);
+        }
+        m_maxInFlight = maxInFlight;
+        m_executor = executor;
+    }
+
+    /**
+     * Starts the task if the limit allows it, queues it otherwise.
+     *
+     * @param task supplies the future of the task once it is started
+     * @return a future completed with the result of the task, on the executor
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> task) {
+        final PendingTask<T> pendingTask = new PendingTask<>(task);
+        m_pendingTasks.add(pendingTask);
+        m_numPendingTasks.incrementAndGet();
+        startPendingTasks(false);
+        return pendingTask.m_future;
+    }
+
+    /**
+     * Starts queued tasks while there are free slots. The tasks are started on the
+     * executor when called from a completing task, so that the threads completing
+     * the tasks are not used to start them, and long chains of tasks that complete
+     * immediately do not grow the stack.
+     */
+    private void startPendingTasks(boolean useExecutor) {
+        while (true) {
+            final int inFlight = m_inFlight.get();
+            if (inFlight >= m_maxInFlight || m_pendingTasks.isEmpty()) {
+                return;
+            }
+            if (!m_inFlight.compareAndSet(inFlight, inFlight + 1)) {
+                continue;
+            }
+            final PendingTask<?> pendingTask = m_pendingTasks.poll();
+            if (pendingTask == null) {
+                // Another thread took it, free the slot and check again
+                m_inFlight.decrementAndGet();
+                continue;
+            }
+            m_numPendingTasks.decrementAndGet();
+            if (!useExecutor) {
+                pendingTask.start();
+                continue;
+            }
+            try {
+                m_executor.execute(pendingTask::start);
+            } catch (RejectedExecutionException e) {
+                m_inFlight.decrementAndGet();
+                pendingTask.m_future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public int getMaxInFlight() {
+        return m_maxInFlight;
+    }
+
+    public int getNumInFlight() {
+        return m_inFlight.get();
+    }
+
+    public int getNumPending() {
+        return m_numPendingTasks.get();
+    }
+}
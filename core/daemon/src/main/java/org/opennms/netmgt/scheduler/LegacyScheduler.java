@@ -54,7 +54,7 @@ import org.springframework.util.Assert;
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http://www.opennms.org/">OpenNMS </a>
  */
-public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
+public class LegacyScheduler implements Runnable, PausableFiber, PooledScheduler {
     
     private static final Logger LOG = LoggerFactory.getLogger(LegacyScheduler.class);
     
@@ -301,6 +301,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return the sum of all the elements in the various queues
      */
+    @Override
     public int getScheduled() {
         return m_scheduled;
     }
@@ -311,6 +312,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return thread pool
      */
+    @Override
     public ExecutorService getRunner() {
         return m_runner;
     }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.scheduler;
 
 import java.util.Random;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -83,15 +84,36 @@ public class Schedule {
             
             if (!m_interval.scheduledSuspension()) {
                 try {
+                    if (m_schedulable instanceof AsyncReadyRunnable) {
+                        // Reschedule once the work completes instead of waiting for it
+                        ((AsyncReadyRunnable)m_schedulable).runAsync().whenComplete((v, t) -> {
+                            final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                            if (cause instanceof PostponeNecessary) {
+                                postpone();
+                                return;
+                            } else if (cause != null) {
+                                LOG.error("Schedule {} failed.", this, cause);
+                            }
+                            reschedule();
+                        });
+                        return;
+                    }
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
-                    // Chose a random number of seconds between 5 and 14 to wait before trying again
-                    m_timer.schedule(random.nextInt(10) * 1000L + 5000L, this);
+                    postpone();
                     return;
                 }
             }
-                
 
+            reschedule();
+        }
+
+        private void postpone() {
+            // Chose a random number of seconds between 5 and 14 to wait before trying again
+            m_timer.schedule(random.nextInt(10) * 1000L + 5000L, this);
+        }
+
+        private void reschedule() {
             // if it is expired by the current run then don't reschedule
             if (isExpired()) {
                 LOG.debug("Schedule {} expired.  No need to reschedule.", this);
@@ -101,7 +123,6 @@ public class Schedule {
             long interval = m_interval.getInterval();
             if (interval >= 0 && m_scheduled)
                 m_timer.schedule(interval, this);
-
         }
         
         @Override
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link PooledScheduler} used by a daemon.
+ *
+ * The implementation is selected with the
+ * <code>org.opennms.netmgt.scheduler.implementation</code> system property,
+ * which can be overridden for a single daemon with
+ * <code>org.opennms.netmgt.scheduler.&lt;name&gt;.implementation</code>.
+ * Supported values are <code>legacy</code> (the default) and
+ * <code>timing-wheel</code>. The tick, jitter and ready re-check durations of
+ * the timing wheel can be tuned in the same way using the
+ * <code>tickMillis</code>, <code>jitterMillis</code> and
+ * <code>readyRecheckMillis</code> suffixes. Invalid or out of range values are
+ * logged and replaced by the defaults.
+ */
+public abstract class Schedulers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Schedulers.class);
+
+    public static final String PROPERTY_PREFIX = "org.opennms.netmgt.scheduler.";
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timing-wheel";
+
+    /**
+     * Creates the scheduler configured for the given daemon.
+     *
+     * @param name
+     *            the name of the daemon, used as the thread name prefix and
+     *            to look up daemon specific properties
+     * @param maxSize
+     *            the maximum size of the thread pool
+     * @return a new scheduler
+     */
+    public static PooledScheduler create(final String name, final int maxSize) {
+        final String implementation = getProperty(name, "implementation", LEGACY);
+        if (TIMING_WHEEL.equalsIgnoreCase(implementation)) {
+            final long tickMillis = getLongProperty(name, "tickMillis", TimingWheelScheduler.DEFAULT_TICK_MILLIS, 1);
+            final long jitterMillis = getLongProperty(name, "jitterMillis", 0, 0);
+            final long readyRecheckMillis = getLongProperty(name, "readyRecheckMillis", TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS, 0);
+            LOG.info("Using the timing wheel scheduler for {}", name);
+            return new TimingWheelScheduler(name, maxSize, tickMillis, jitterMillis, readyRecheckMillis);
+        } else if (!LEGACY.equalsIgnoreCase(implementation)) {
+            LOG.warn("Unknown scheduler implementation '{}' for {}, using {}", implementation, name, LEGACY);
+        }
+        return new LegacyScheduler(name, maxSize);
+    }
+
+    private static String getProperty(final String name, final String key, final String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name + "." + key, System.getProperty(PROPERTY_PREFIX + key, defaultValue));
+    }
+
+    private static long getLongProperty(final String name, final String key, final long defaultValue, final long minValue) {
+        final String value = getProperty(name, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long longValue = Long.parseLong(value.trim());
+            if (longValue >= minValue) {
+                return longValue;
+            }
+        } catch (final NumberFormatException e) {
+            // Fall through
+        }
+        LOG.warn("Invalid value '{}' for scheduler property {} of {}, using {}", value, key, name, defaultValue);
+        return defaultValue;
+    }
+}
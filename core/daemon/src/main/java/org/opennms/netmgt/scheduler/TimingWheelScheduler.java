@@ -0,0 +1,565 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A scheduler built on a hierarchical hashed timing wheel.
+ *
+ * Scheduling a runnable never takes a lock: submissions are pushed onto a
+ * concurrent queue and placed into the wheel by the worker thread on the next
+ * tick. The wheel is made up of {@link #LEVELS} levels of {@link #WHEEL_SIZE}
+ * slots each; a runnable is placed in the lowest level that can represent its
+ * deadline and cascades down as the wheel turns, so both scheduling and
+ * expiration are O(1) regardless of how many runnables are scheduled.
+ *
+ * Expired runnables are only handed to the thread pool once
+ * {@link ReadyRunnable#isReady()} returns true, otherwise they are re-checked
+ * after {@link #getReadyRecheckMillis()}, which keeps the semantics of the
+ * {@link LegacyScheduler}.
+ *
+ * Runnables scheduled without a delay can optionally be spread over a jitter
+ * window. Since periodic runnables reschedule themselves relative to their
+ * previous run, this spreads runnables that share an interval evenly instead of
+ * having them all fire on the same tick.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, PooledScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /** Number of bits used to index the slots of a single level. */
+    private static final int WHEEL_BITS = 8;
+
+    /** Number of slots in each level of the wheel. */
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /** Number of levels in the wheel. */
+    static final int LEVELS = 4;
+
+    /** Default duration of a single tick. */
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    /** Default delay before re-checking an expired runnable that is not ready. */
+    public static final long DEFAULT_READY_RECHECK_MILLIS = 250;
+
+    /**
+     * A runnable waiting in the wheel. Entries are chained together to form
+     * the contents of a slot, so that placing an entry never allocates.
+     */
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private long m_deadline;
+        private long m_deadlineTick;
+        private Entry m_next;
+
+        private Entry(ReadyRunnable runnable, long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+    }
+
+    private final String m_name;
+
+    private final long m_tickMillis;
+
+    private final long m_jitterMillis;
+
+    private final long m_readyRecheckMillis;
+
+    /**
+     * Runnables that have been scheduled but not yet placed into the wheel.
+     */
+    private final Queue<Entry> m_submissions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The slots of the wheel, indexed by level and slot. Only accessed by the
+     * worker thread.
+     */
+    private final Entry[][] m_wheel = new Entry[LEVELS][WHEEL_SIZE];
+
+    /**
+     * Entries whose deadline lies beyond the range of the top level. Only
+     * accessed by the worker thread.
+     */
+    private final List<Entry> m_overflow = new ArrayList<>();
+
+    /**
+     * The last tick that has been processed. Only accessed by the worker thread.
+     */
+    private long m_currentTick;
+
+    private volatile long m_startTime;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicInteger m_pending = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final ExecutorService m_runner;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Histogram m_lateness;
+
+    private final Counter m_notReady;
+
+    private JmxReporter m_reporter;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    /**
+     * Constructs a new instance of the scheduler using the default tick
+     * duration and without jitter.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS, 0, DEFAULT_READY_RECHECK_MILLIS);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The duration of a single tick of the wheel.
+     * @param jitterMillis
+     *            The window over which runnables scheduled without a delay
+     *            are spread, 0 disables jitter.
+     * @param readyRecheckMillis
+     *            The delay before re-checking an expired runnable that is
+     *            not ready.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis, final long jitterMillis, final long readyRecheckMillis) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+        Assert.isTrue(jitterMillis >= 0, "jitterMillis must not be negative");
+        Assert.isTrue(readyRecheckMillis >= 0, "readyRecheckMillis must not be negative");
+
+        m_name = parent;
+        m_tickMillis = tickMillis;
+        m_jitterMillis = jitterMillis;
+        m_readyRecheckMillis = readyRecheckMillis;
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_worker = null;
+
+        m_lateness = m_metrics.histogram(MetricRegistry.name(parent, "lateness"));
+        m_notReady = m_metrics.counter(MetricRegistry.name(parent, "notReady"));
+        m_metrics.register(MetricRegistry.name(parent, "scheduled"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getScheduled();
+            }
+        });
+        m_metrics.register(MetricRegistry.name(parent, "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_pending.get();
+            }
+        });
+        m_metrics.register(MetricRegistry.name(parent, "executed"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getNumTasksExecuted();
+            }
+        });
+    }
+
+    /**
+     * Schedules a runnable to be executed as soon as it reports being ready.
+     * This mirrors {@link LegacyScheduler#schedule(ReadyRunnable, long)}, where
+     * the interval only selects the queue the runnable is added to.
+     *
+     * @param runnable
+     *            The element to run when it is ready.
+     * @param interval
+     *            The interval at which the runnable is scheduled.
+     */
+    public void schedule(ReadyRunnable runnable, long interval) {
+        schedule(0, runnable);
+    }
+
+    /**
+     * Schedules a runnable to be executed once the given delay has elapsed
+     * and it reports being ready.
+     *
+     * Jitter only applies to runnables scheduled without a delay: these are
+     * delayed by an offset within <code>[0, jitterMillis)</code> that is
+     * derived from the identity of the runnable, so a runnable that keeps
+     * rescheduling itself keeps the same offset. Runnables scheduled with a
+     * positive delay run at their deadline.
+     *
+     * @param interval
+     *            The delay in milliseconds, negative values are treated as 0.
+     * @param runnable
+     *            The element to run when it is ready.
+     */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        m_scheduled.incrementAndGet();
+        m_pending.incrementAndGet();
+        m_submissions.add(new Entry(runnable, getCurrentTime() + getDelay(interval, runnable)));
+    }
+
+    /**
+     * Returns the delay after which a runnable scheduled with the given
+     * interval is due, including its jitter offset.
+     */
+    long getDelay(long interval, final ReadyRunnable runnable) {
+        final long delay = Math.max(0, interval);
+        if (delay == 0 && m_jitterMillis > 0) {
+            // Use the identity of the runnable so that the offset is stable
+            return spread(System.identityHashCode(runnable)) % m_jitterMillis;
+        }
+        return delay;
+    }
+
+    private static long spread(int hash) {
+        // Mix the bits so that sequential identity hashes are spread out
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & 0x7fffffffL;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_startTime = getCurrentTime();
+        m_currentTick = 0;
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName()).build();
+        m_reporter.start();
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started with a tick of {}ms and a jitter of {}ms", m_tickMillis, m_jitterMillis);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+        if (m_reporter != null) {
+            m_reporter.stop();
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns the registry holding the lateness and queue depth metrics of
+     * this scheduler.
+     *
+     * @return the metric registry
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    public long getTickMillis() {
+        return m_tickMillis;
+    }
+
+    public long getJitterMillis() {
+        return m_jitterMillis;
+    }
+
+    public long getReadyRecheckMillis() {
+        return m_readyRecheckMillis;
+    }
+
+    /**
+     * The main method of the scheduler. On every tick, the pending
+     * submissions are placed into the wheel, the upper levels are cascaded
+     * and the runnables in the current slot are handed to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // exit
+                        break;
+                    }
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+            }
+
+            try {
+                final long now = getCurrentTime();
+                drainSubmissions();
+                final long targetTick = toTick(now);
+                while (m_currentTick < targetTick) {
+                    m_currentTick++;
+                    cascade();
+                    expire(m_currentTick & WHEEL_MASK, now);
+                }
+            } catch (RejectedExecutionException e) {
+                if (m_runner.isShutdown()) {
+                    break;
+                }
+                LOG.warn("run: failed to submit ready runnable", e);
+            }
+
+            final long nextTickTime = m_startTime + (m_currentTick + 1) * m_tickMillis;
+            final long sleep = nextTickTime - getCurrentTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleep));
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private long toTick(long time) {
+        return Math.max(0, (time - m_startTime) / m_tickMillis);
+    }
+
+    private void drainSubmissions() {
+        Entry entry;
+        while ((entry = m_submissions.poll()) != null) {
+            m_pending.decrementAndGet();
+            // Round up so that entries never fire before their deadline
+            entry.m_deadlineTick = Math.max(m_currentTick + 1, (entry.m_deadline - m_startTime + m_tickMillis - 1) / m_tickMillis);
+            place(entry);
+        }
+    }
+
+    /**
+     * Places the entry into the lowest level whose range covers its deadline.
+     * Within that level, the deadline and the current tick share the same
+     * upper bits, so the entry is guaranteed to be reached by a cascade (or by
+     * expiration on level 0) before its deadline passes.
+     */
+    private void place(Entry entry) {
+        final long deadlineTick = Math.max(entry.m_deadlineTick, m_currentTick + 1);
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = WHEEL_BITS * (level + 1);
+            if ((deadlineTick >>> shift) == (m_currentTick >>> shift)) {
+                final int slot = (int) ((deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                entry.m_next = m_wheel[level][slot];
+                m_wheel[level][slot] = entry;
+                return;
+            }
+        }
+        m_overflow.add(entry);
+    }
+
+    /**
+     * Moves the entries of the upper level slots that are due with the
+     * current tick down into the lower levels.
+     */
+    private void cascade() {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = WHEEL_BITS * level;
+            if ((m_currentTick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            final int slot = (int) ((m_currentTick >>> shift) & WHEEL_MASK);
+            Entry entry = m_wheel[level][slot];
+            m_wheel[level][slot] = null;
+            while (entry != null) {
+                final Entry next = entry.m_next;
+                entry.m_next = null;
+                place(entry);
+                entry = next;
+            }
+        }
+
+        if (!m_overflow.isEmpty() && (m_currentTick & ((1L << (WHEEL_BITS * LEVELS)) - 1)) == 0) {
+            final List<Entry> overflow = new ArrayList<>(m_overflow);
+            m_overflow.clear();
+            for (Entry entry : overflow) {
+                place(entry);
+            }
+        }
+    }
+
+    private void expire(long slot, long now) {
+        Entry entry = m_wheel[0][(int) slot];
+        m_wheel[0][(int) slot] = null;
+        while (entry != null) {
+            final Entry next = entry.m_next;
+            entry.m_next = null;
+            if (entry.m_deadlineTick > m_currentTick) {
+                // Deadline was pushed back while waiting for the runnable to become ready
+                place(entry);
+            } else if (entry.m_runnable.isReady()) {
+                m_scheduled.decrementAndGet();
+                m_lateness.update(Math.max(0, now - entry.m_deadline));
+                m_runner.execute(entry.m_runnable);
+                m_numTasksExecuted.incrementAndGet();
+            } else {
+                m_notReady.inc();
+                entry.m_deadlineTick = m_currentTick + Math.max(1, m_readyRecheckMillis / m_tickMillis);
+                place(entry);
+            }
+            entry = next;
+        }
+    }
+}
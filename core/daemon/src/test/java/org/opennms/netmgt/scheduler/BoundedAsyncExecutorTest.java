@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedAsyncExecutorTest {
+
+    private ExecutorService m_executor;
+
+    @Before
+    public void setUp() {
+        m_executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void canLimitTheTasksInFlight() throws Exception {
+        final BoundedAsyncExecutor executor = new BoundedAsyncExecutor(2, m_executor);
+        final List<CompletableFuture<String>> tasks = new ArrayList<>();
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final CompletableFuture<String> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(executor.execute(() -> task));
+        }
+
+        assertEquals(2, executor.getNumInFlight());
+        assertEquals(3, executor.getNumPending());
+
+        // Completing a task starts the next one
+        tasks.get(0).complete("0");
+        assertEquals("0", results.get(0).get(5, TimeUnit.SECONDS));
+        await().atMost(5, TimeUnit.SECONDS).until(executor::getNumPending, equalTo(2));
+        assertEquals(2, executor.getNumInFlight());
+
+        for (int i = 1; i < tasks.size(); i++) {
+            tasks.get(i).complete(Integer.toString(i));
+        }
+        for (int i = 1; i < tasks.size(); i++) {
+            assertEquals(Integer.toString(i), results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(executor::getNumInFlight, equalTo(0));
+        assertEquals(0, executor.getNumPending());
+    }
+
+    @Test
+    public void canHandleFailedTasks() throws Exception {
+        final BoundedAsyncExecutor executor = new BoundedAsyncExecutor(1, m_executor);
+        final CompletableFuture<String> failed = executor.execute(() -> {
+            throw new IllegalStateException("failed to start");
+        });
+        final CompletableFuture<String> next = executor.execute(() -> CompletableFuture.completedFuture("next"));
+
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("The task should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(executor::getNumInFlight, equalTo(0));
+    }
+
+    @Test
+    public void canRunManyTasksThatCompleteImmediately() throws Exception {
+        final BoundedAsyncExecutor executor = new BoundedAsyncExecutor(1, m_executor);
+        final CompletableFuture<String> blocked = new CompletableFuture<>();
+        executor.execute(() -> blocked);
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            results.add(executor.execute(() -> CompletableFuture.completedFuture("done")));
+        }
+        assertFalse(results.get(0).isDone());
+
+        blocked.complete("done");
+        for (CompletableFuture<String> result : results) {
+            assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        }
+    }
+}
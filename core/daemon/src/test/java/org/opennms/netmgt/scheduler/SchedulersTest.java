@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SchedulersTest {
+
+    private final List<PooledScheduler> m_schedulers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(Schedulers.PROPERTY_PREFIX)) {
+                System.clearProperty(key);
+            }
+        }
+        for (PooledScheduler scheduler : m_schedulers) {
+            scheduler.getRunner().shutdown();
+        }
+    }
+
+    @Test
+    public void shouldDefaultToTheLegacyScheduler() {
+        assertTrue(create("pollerd") instanceof LegacyScheduler);
+    }
+
+    @Test
+    public void shouldSelectTheTimingWheelWithDefaults() {
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "implementation", Schedulers.TIMING_WHEEL);
+
+        final TimingWheelScheduler scheduler = (TimingWheelScheduler)create("pollerd");
+        assertEquals(TimingWheelScheduler.DEFAULT_TICK_MILLIS, scheduler.getTickMillis());
+        assertEquals(0, scheduler.getJitterMillis());
+        assertEquals(TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS, scheduler.getReadyRecheckMillis());
+    }
+
+    @Test
+    public void shouldPreferTheDaemonSpecificProperties() {
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "implementation", Schedulers.TIMING_WHEEL);
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "jitterMillis", "1000");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "tickMillis", "50");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.jitterMillis", "5000");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.readyRecheckMillis", " 500 ");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "pollerd.implementation", Schedulers.LEGACY);
+
+        final TimingWheelScheduler collectd = (TimingWheelScheduler)create("collectd");
+        assertEquals(50, collectd.getTickMillis());
+        assertEquals(5000, collectd.getJitterMillis());
+        assertEquals(500, collectd.getReadyRecheckMillis());
+
+        final TimingWheelScheduler threshd = (TimingWheelScheduler)create("threshd");
+        assertEquals(50, threshd.getTickMillis());
+        assertEquals(1000, threshd.getJitterMillis());
+        assertEquals(TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS, threshd.getReadyRecheckMillis());
+
+        assertTrue(create("pollerd") instanceof LegacyScheduler);
+    }
+
+    @Test
+    public void shouldEnableTheTimingWheelForASingleDaemon() {
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.implementation", "TIMING-WHEEL");
+
+        assertTrue(create("collectd") instanceof TimingWheelScheduler);
+        assertTrue(create("pollerd") instanceof LegacyScheduler);
+    }
+
+    @Test
+    public void shouldFallBackOnInvalidValues() {
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "pollerd.implementation", "calendar");
+        assertTrue(create("pollerd") instanceof LegacyScheduler);
+
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.implementation", Schedulers.TIMING_WHEEL);
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.tickMillis", "fast");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.jitterMillis", "");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.readyRecheckMillis", "1.5");
+
+        final TimingWheelScheduler collectd = (TimingWheelScheduler)create("collectd");
+        assertEquals(TimingWheelScheduler.DEFAULT_TICK_MILLIS, collectd.getTickMillis());
+        assertEquals(0, collectd.getJitterMillis());
+        assertEquals(TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS, collectd.getReadyRecheckMillis());
+
+        // Values the timing wheel would reject
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.tickMillis", "0");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.jitterMillis", "-1000");
+        System.setProperty(Schedulers.PROPERTY_PREFIX + "collectd.readyRecheckMillis", "-1");
+
+        final TimingWheelScheduler outOfRange = (TimingWheelScheduler)create("collectd");
+        assertEquals(TimingWheelScheduler.DEFAULT_TICK_MILLIS, outOfRange.getTickMillis());
+        assertEquals(0, outOfRange.getJitterMillis());
+        assertEquals(TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS, outOfRange.getReadyRecheckMillis());
+    }
+
+    private PooledScheduler create(final String name) {
+        final PooledScheduler scheduler = Schedulers.create(name, 1);
+        m_schedulers.add(scheduler);
+        return scheduler;
+    }
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        // Use a short tick so that the upper levels of the wheel are exercised
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 10, 0, 20);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldNeverRunBeforeDeadline() throws InterruptedException {
+        final int numRunnables = 1000;
+        final CountDownLatch latch = new CountDownLatch(numRunnables);
+        final AtomicInteger early = new AtomicInteger(0);
+        final AtomicLong maxLateness = new AtomicLong(0);
+        final Random random = new Random(42);
+
+        for (int i = 0; i < numRunnables; i++) {
+            // Up to 6 seconds spans more than one rotation of the lowest level
+            final long delay = random.nextInt(6000);
+            final long deadline = System.currentTimeMillis() + delay;
+            m_scheduler.schedule(delay, new ReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void run() {
+                    final long lateness = System.currentTimeMillis() - deadline;
+                    if (lateness < 0) {
+                        early.incrementAndGet();
+                    }
+                    maxLateness.accumulateAndGet(lateness, Math::max);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        assertTrue("Runnables were late by up to " + maxLateness.get() + "ms", maxLateness.get() < 1000);
+        assertEquals(0, m_scheduler.getScheduled());
+        // The count is updated once the runnable has been handed to the pool, which can be after it ran
+        await().atMost(10, TimeUnit.SECONDS).until(m_scheduler::getNumTasksExecuted, equalTo((long)numRunnables));
+    }
+
+    @Test(timeout = 30000)
+    public void shouldWaitUntilReady() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long readyAt = System.currentTimeMillis() + 500;
+        final AtomicLong ranAt = new AtomicLong(0);
+
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return System.currentTimeMillis() >= readyAt;
+            }
+
+            @Override
+            public void run() {
+                ranAt.set(System.currentTimeMillis());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(ranAt.get() >= readyAt);
+    }
+
+    @Test
+    public void shouldJitterOnlyZeroDelays() {
+        final TimingWheelScheduler scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 1, 10, 500, 20);
+        try {
+            final Set<Long> offsets = new HashSet<>();
+            for (int i = 0; i < 1000; i++) {
+                final ReadyRunnable runnable = new NoOpRunnable();
+                final long offset = scheduler.getDelay(0, runnable);
+                assertTrue("Offset " + offset + " is outside of the jitter window", offset >= 0 && offset < 500);
+                // The offset of a given runnable never changes
+                assertEquals(offset, scheduler.getDelay(0, runnable));
+                assertEquals(offset, scheduler.getDelay(-1, runnable));
+                // Positive delays are left alone
+                assertEquals(1, scheduler.getDelay(1, runnable));
+                assertEquals(5000, scheduler.getDelay(5000, runnable));
+                offsets.add(offset);
+            }
+            assertTrue("Only " + offsets.size() + " distinct offsets", offsets.size() > 250);
+        } finally {
+            scheduler.getRunner().shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void shouldSpreadZeroDelaysOverTheJitterWindow() throws InterruptedException {
+        m_scheduler.stop();
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 10, 1000, 20);
+        m_scheduler.start();
+
+        final int numRunnables = 200;
+        final CountDownLatch latch = new CountDownLatch(numRunnables * 2);
+        final List<Long> offsets = new ArrayList<>();
+        final AtomicInteger early = new AtomicInteger(0);
+        final AtomicLong maxLateness = new AtomicLong(0);
+
+        for (int i = 0; i < numRunnables; i++) {
+            final PeriodicRunnable runnable = new PeriodicRunnable(2, latch, early, maxLateness);
+            offsets.add(m_scheduler.getDelay(0, runnable));
+            runnable.schedule();
+        }
+
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        assertTrue("Runnables were late by up to " + maxLateness.get() + "ms", maxLateness.get() < 500);
+        final long spread = offsets.stream().mapToLong(Long::longValue).max().getAsLong() - offsets.stream().mapToLong(Long::longValue).min().getAsLong();
+        assertTrue("Runnables were only spread over " + spread + "ms", spread > 500);
+    }
+
+    @Test(timeout = 30000)
+    public void shouldCountScheduledAndExecutedRunnables() {
+        m_scheduler.stop();
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 10, 0, 20);
+        final MetricRegistry metrics = m_scheduler.getMetrics();
+
+        // Nothing is placed into the wheel before the scheduler is started
+        for (int i = 0; i < 10; i++) {
+            m_scheduler.schedule(i * 10, new NoOpRunnable());
+        }
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void run() {
+            }
+        });
+        assertEquals(11, metrics.getGauges().get("TimingWheelSchedulerTest.scheduled").getValue());
+        assertEquals(11, metrics.getGauges().get("TimingWheelSchedulerTest.pending").getValue());
+        assertEquals(0L, metrics.getGauges().get("TimingWheelSchedulerTest.executed").getValue());
+
+        m_scheduler.start();
+        await().atMost(10, TimeUnit.SECONDS).until(m_scheduler::getNumTasksExecuted, equalTo(10L));
+
+        // The runnable that never becomes ready stays scheduled
+        assertEquals(1, metrics.getGauges().get("TimingWheelSchedulerTest.scheduled").getValue());
+        assertEquals(0, metrics.getGauges().get("TimingWheelSchedulerTest.pending").getValue());
+        assertEquals(10L, metrics.getGauges().get("TimingWheelSchedulerTest.executed").getValue());
+        assertEquals(10, metrics.histogram("TimingWheelSchedulerTest.lateness").getCount());
+        await().atMost(10, TimeUnit.SECONDS).until(() -> metrics.counter("TimingWheelSchedulerTest.notReady").getCount() > 0);
+    }
+
+    /**
+     * Reschedules itself without a delay after each run, the way the pollers
+     * and collectors do, and records how late each run was compared to the
+     * offset the scheduler reports for it.
+     */
+    private class PeriodicRunnable implements ReadyRunnable {
+        private final AtomicInteger m_runsLeft;
+        private final CountDownLatch m_latch;
+        private final AtomicInteger m_early;
+        private final AtomicLong m_maxLateness;
+        private volatile long m_deadline;
+
+        private PeriodicRunnable(int runs, CountDownLatch latch, AtomicInteger early, AtomicLong maxLateness) {
+            m_runsLeft = new AtomicInteger(runs);
+            m_latch = latch;
+            m_early = early;
+            m_maxLateness = maxLateness;
+        }
+
+        private void schedule() {
+            m_deadline = System.currentTimeMillis() + m_scheduler.getDelay(0, this);
+            m_scheduler.schedule(0, this);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final long lateness = System.currentTimeMillis() - m_deadline;
+            if (lateness < 0) {
+                m_early.incrementAndGet();
+            }
+            m_maxLateness.accumulateAndGet(lateness, Math::max);
+            m_latch.countDown();
+            if (m_runsLeft.decrementAndGet() > 0) {
+                schedule();
+            }
+        }
+    }
+
+    private static class NoOpRunnable implements ReadyRunnable {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -35,4 +35,8 @@ public class WriteFailedException extends Exception {
     public WriteFailedException(String message) {
         super(message);
     }
+
+    public WriteFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -236,6 +236,10 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                     return offHeapQueue.getNumOfMessages(sinkModule.getId());
                 }
             });
+            // Start draining messages recovered from a previous run without waiting for the first write
+            if (offHeapQueue.getNumOfMessages(sinkModule.getId()) > 0) {
+                firstWrite.countDown();
+            }
         }
 
         /** This is drain thread which polls data from OffHeapQueue, when data is available, it will push the data to the executor queue.
@@ -254,9 +258,11 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                         queue.put(() -> {
                             S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
                             syncDispatcher.send(message);
-                            CompletableFuture<S> future = offHeapFutureMap.get(keyValue.getKey());
-                            future.complete(message);
-                            offHeapFutureMap.remove(keyValue.getKey());
+                            // Messages recovered from a previous run have no pending future
+                            CompletableFuture<S> future = offHeapFutureMap.remove(keyValue.getKey());
+                            if (future != null) {
+                                future.complete(message);
+                            }
                         });
 
                     }
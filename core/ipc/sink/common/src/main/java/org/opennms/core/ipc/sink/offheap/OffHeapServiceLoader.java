@@ -28,10 +28,12 @@
 
 package org.opennms.core.ipc.sink.offheap;
 
+import java.util.Collection;
 import java.util.Dictionary;
 
 import org.opennms.core.ipc.sink.api.OffHeapQueue;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +46,8 @@ public class OffHeapServiceLoader {
     private static OffHeapQueue offHeapQueue;
     public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
     public static final String ENABLE_OFFHEAP = "enableOffHeap";
+    public static final String OFFHEAP_TYPE = "offHeapType";
+    public static final String DEFAULT_OFFHEAP_TYPE = "h2";
 
     public BundleContext getBundleContext() {
         return context;
@@ -82,7 +86,14 @@ public class OffHeapServiceLoader {
         }
         if (context != null) {
             try {
-                offHeapQueue = context.getService(context.getServiceReference(OffHeapQueue.class));
+                final String type = getOffHeapType();
+                final Collection<ServiceReference<OffHeapQueue>> references = context.getServiceReferences(OffHeapQueue.class, "(type=" + type + ")");
+                if (references.isEmpty()) {
+                    LOG.warn("No OffHeapQueue of type {} available, using the default", type);
+                    offHeapQueue = context.getService(context.getServiceReference(OffHeapQueue.class));
+                } else {
+                    offHeapQueue = context.getService(references.iterator().next());
+                }
                 return offHeapQueue;
             } catch (Exception e) {
                 LOG.error("Exception while retrieving OffHeapQueue Service from registry", e);
@@ -91,6 +102,16 @@ public class OffHeapServiceLoader {
         return null;
     }
 
+    private static String getOffHeapType() throws Exception {
+        ConfigurationAdmin configAdmin = context
+                .getService(context.getServiceReference(ConfigurationAdmin.class));
+        Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        if (properties != null && properties.get(OFFHEAP_TYPE) instanceof String) {
+            return (String) properties.get(OFFHEAP_TYPE);
+        }
+        return DEFAULT_OFFHEAP_TYPE;
+    }
+
     protected static void setOffHeapQueue(OffHeapQueue queue) {
         offHeapQueue = queue;
     }
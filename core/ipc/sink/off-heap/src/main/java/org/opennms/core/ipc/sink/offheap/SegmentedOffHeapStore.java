@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+/**
+ * {@link OffHeapQueue} backed by append-only, memory-mapped segment files.
+ *
+ * Each module has its own directory of segments. Messages are appended sequentially to the last segment and read
+ * directly from the mapped buffers. Records are marked as consumed in place, and a segment is deleted once all of
+ * its records have been consumed. Every record is protected by a CRC, so the pending messages can be recovered
+ * after a restart or crash.
+ *
+ * Record layout: record size (int), CRC32 of key and message (int), state (byte), key length (unsigned short),
+ * key, message.
+ */
+public class SegmentedOffHeapStore implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedOffHeapStore.class);
+    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_PATH = "offHeapPath";
+    private final static String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    private final static String DEFAULT_OFFHEAP_SIZE = "10MB";
+    private final static String DEFAULT_SEGMENT_SIZE = "16MB";
+    // Default wait time for each poll is 1000msec.
+    private final static long DEFAULT_WAIT_FOR_POLL = 1000L;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 2;
+    private static final byte STATE_PENDING = 0;
+    private static final byte STATE_CONSUMED = 1;
+
+    private JmxReporter reporter = null;
+    private MetricRegistry offheapMetrics = new MetricRegistry();
+    private final ConfigurationAdmin configAdmin;
+    private Path directory;
+    private long maxSizeInBytes;
+    private int segmentSize;
+    // Number of bytes used by messages which have not been consumed yet
+    private final AtomicLong size = new AtomicLong();
+    // Map of directory name of the module and the corresponding log
+    private final Map<String, ModuleLog> logs = new ConcurrentHashMap<>();
+
+    public SegmentedOffHeapStore(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        maxSizeInBytes = H2OffHeapStore.convertByteSizes(getProperty(properties, OFFHEAP_SIZE, DEFAULT_OFFHEAP_SIZE));
+        segmentSize = (int) Math.min(Integer.MAX_VALUE,
+                H2OffHeapStore.convertByteSizes(getProperty(properties, OFFHEAP_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE)));
+        directory = getDirectory(properties);
+        Files.createDirectories(directory);
+
+        // Recover the segments of all modules written before
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path moduleDirectory : modules) {
+                final ModuleLog log = new ModuleLog(moduleDirectory);
+                log.recover();
+                logs.put(moduleDirectory.getFileName().toString(), log);
+            }
+        }
+
+        reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
+        offheapMetrics.register(MetricRegistry.name("segmentedOffHeapSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getSize();
+            }
+        });
+        offheapMetrics.register(MetricRegistry.name("segmentedOffHeapSegments"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return logs.values().stream().mapToInt(ModuleLog::getNumOfSegments).sum();
+            }
+        });
+        reporter.start();
+        LOG.info("initializing segmented OffHeapStore in {} with max size : {}, segment size : {}, recovered size : {}",
+                directory, maxSizeInBytes, segmentSize, getSize());
+    }
+
+    /**
+     * Returns the directory holding the segments of all modules.
+     */
+    static Path getDirectory(Dictionary<String, Object> properties) {
+        return Paths.get(getProperty(properties, OFFHEAP_PATH,
+                Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "offheap").toString()));
+    }
+
+    /**
+     * Counts the segment files left in the given directory, without recovering them.
+     */
+    static int countSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int segments = 0;
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path moduleDirectory : modules) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(moduleDirectory, "*" + SEGMENT_SUFFIX)) {
+                    for (Path ignored : files) {
+                        segments++;
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+
+    static String getProperty(Dictionary<String, Object> properties, String key, String defaultValue) {
+        if (properties != null && properties.get(key) instanceof String) {
+            return (String) properties.get(key);
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        if (message == null || Strings.isNullOrEmpty(moduleName)) {
+            throw new WriteFailedException("Invalid message");
+        }
+        final byte[] keyBytes = Strings.nullToEmpty(key).getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new WriteFailedException("Invalid key");
+        }
+        final int recordSize = HEADER_SIZE + keyBytes.length + message.length;
+        if (size.get() + recordSize > maxSizeInBytes) {
+            throw new WriteFailedException("Offheap storage exhausted, size = " + maxSizeInBytes);
+        }
+        final ModuleLog log = logs.computeIfAbsent(toDirectoryName(moduleName), name -> {
+            LOG.info("initialized segmented log for module : {} ", moduleName);
+            return new ModuleLog(directory.resolve(name));
+        });
+        try {
+            log.append(keyBytes, message, recordSize);
+        } catch (IOException e) {
+            throw new WriteFailedException("Failed to write message for module " + moduleName, e);
+        }
+        return true;
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName)
+            throws InterruptedException {
+        final ModuleLog log = logs.get(toDirectoryName(moduleName));
+        if (log == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            return null;
+        }
+        // Poll for an item to be available, max wait is 1 second.
+        return log.poll(DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        LOG.info("closing segmented OffHeapStore, size = {} ", getSize());
+        logs.values().forEach(ModuleLog::close);
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return size.get();
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        final ModuleLog log = logs.get(toDirectoryName(moduleName));
+        if (log != null) {
+            return log.getNumOfMessages();
+        }
+        return 0;
+    }
+
+    private static String toDirectoryName(String moduleName) {
+        return moduleName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer data = buffer.duplicate();
+        data.limit(offset + length).position(offset);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The segments of a single module.
+     */
+    private class ModuleLog {
+        private final Path directory;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Deque<Segment> segments = new ArrayDeque<>();
+        private long nextSequence = 0;
+        private int count = 0;
+
+        private ModuleLog(Path directory) {
+            this.directory = directory;
+        }
+
+        private void recover() throws IOException {
+            final List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                files.forEach(paths::add);
+            }
+            Collections.sort(paths);
+
+            for (Path path : paths) {
+                final String fileName = path.getFileName().toString();
+                final long sequence;
+                try {
+                    sequence = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unknown file {} in offheap storage", path);
+                    continue;
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+
+                final Segment segment = new Segment(path, (int) Files.size(path));
+                final int pending = segment.recover();
+                if (pending == 0) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                segments.addLast(segment);
+                count += pending;
+            }
+        }
+
+        private void append(byte[] key, byte[] message, int recordSize) throws IOException {
+            lock.lock();
+            try {
+                Segment segment = segments.peekLast();
+                if (segment == null || segment.remaining() < recordSize) {
+                    Files.createDirectories(directory);
+                    final Path path = directory.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+                    segment = new Segment(path, Math.max(segmentSize, recordSize));
+                    segments.addLast(segment);
+                }
+                segment.write(key, message, recordSize);
+                count++;
+                size.addAndGet(recordSize);
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AbstractMap.SimpleImmutableEntry<String, byte[]> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    final Segment head = segments.peekFirst();
+                    if (head != null) {
+                        final AbstractMap.SimpleImmutableEntry<String, byte[]> entry = head.read();
+                        if (entry != null) {
+                            count--;
+                            return entry;
+                        }
+                        if (head != segments.peekLast()) {
+                            // All records of the segment are consumed and the writer moved on
+                            segments.pollFirst();
+                            head.delete();
+                            continue;
+                        }
+                    }
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int getNumOfMessages() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int getNumOfSegments() {
+            lock.lock();
+            try {
+                return segments.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                segments.forEach(Segment::flush);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    private class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePosition = 0;
+        private int readPosition = 0;
+
+        private Segment(Path path, int capacity) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel has been closed
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        private void write(byte[] key, byte[] message, int recordSize) {
+            final ByteBuffer record = buffer.duplicate();
+            record.position(writePosition + HEADER_SIZE);
+            record.put(key);
+            record.put(message);
+
+            buffer.putInt(writePosition + 4, crc(buffer, writePosition + HEADER_SIZE, key.length + message.length));
+            buffer.put(writePosition + 8, STATE_PENDING);
+            buffer.putShort(writePosition + 9, (short) key.length);
+            // The size is written last, so that partially written records are never valid
+            buffer.putInt(writePosition, recordSize);
+            writePosition += recordSize;
+        }
+
+        private AbstractMap.SimpleImmutableEntry<String, byte[]> read() {
+            while (readPosition < writePosition) {
+                final int recordSize = buffer.getInt(readPosition);
+                if (buffer.get(readPosition + 8) == STATE_PENDING) {
+                    final int keyLength = buffer.getShort(readPosition + 9) & 0xFFFF;
+                    final byte[] key = new byte[keyLength];
+                    final byte[] message = new byte[recordSize - HEADER_SIZE - keyLength];
+                    final ByteBuffer record = buffer.duplicate();
+                    record.position(readPosition + HEADER_SIZE);
+                    record.get(key);
+                    record.get(message);
+
+                    buffer.put(readPosition + 8, STATE_CONSUMED);
+                    readPosition += recordSize;
+                    size.addAndGet(-recordSize);
+                    return new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8), message);
+                }
+                readPosition += recordSize;
+            }
+            return null;
+        }
+
+        /**
+         * Scans the segment for valid records and positions the reader at the first pending record.
+         *
+         * @return the number of pending records
+         */
+        private int recover() {
+            int pending = 0;
+            int position = 0;
+            int firstPending = -1;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                final int recordSize = buffer.getInt(position);
+                if (recordSize == 0) {
+                    break;
+                }
+                final int keyLength = buffer.getShort(position + 9) & 0xFFFF;
+                final byte state = buffer.get(position + 8);
+                if (recordSize < HEADER_SIZE + keyLength || recordSize > buffer.capacity() - position
+                        || (state != STATE_PENDING && state != STATE_CONSUMED)
+                        || crc(buffer, position + HEADER_SIZE, recordSize - HEADER_SIZE) != buffer.getInt(position + 4)) {
+                    LOG.warn("Found corrupted record at offset {} in {}. Dropping the remainder of the segment.", position, path);
+                    // Clear the remainder, so that stale records are never picked up by a later recovery
+                    final ByteBuffer remainder = buffer.duplicate();
+                    remainder.position(position);
+                    final byte[] zeros = new byte[Math.min(remainder.remaining(), 64 * 1024)];
+                    while (remainder.hasRemaining()) {
+                        remainder.put(zeros, 0, Math.min(zeros.length, remainder.remaining()));
+                    }
+                    break;
+                }
+                if (state == STATE_PENDING) {
+                    if (firstPending < 0) {
+                        firstPending = position;
+                    }
+                    pending++;
+                    size.addAndGet(recordSize);
+                }
+                position += recordSize;
+            }
+            writePosition = position;
+            readPosition = firstPending < 0 ? position : firstPending;
+            return pending;
+        }
+
+        private void flush() {
+            buffer.force();
+        }
+
+        private void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete segment {}", path, e);
+            }
+        }
+    }
+}
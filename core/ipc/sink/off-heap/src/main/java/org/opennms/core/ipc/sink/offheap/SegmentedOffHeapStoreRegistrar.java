@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Objects;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and registers the {@link SegmentedOffHeapStore} only when off-heap storage is enabled
+ * and the segmented type is selected, so that no segment directory is created or recovered otherwise.
+ *
+ * Segments left over from a previous run while another type is selected are kept on disk untouched:
+ * they are neither delivered nor deleted, and are recovered once the segmented type is selected again.
+ */
+public class SegmentedOffHeapStoreRegistrar {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedOffHeapStoreRegistrar.class);
+    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    private static final String ENABLE_OFFHEAP = "enableOffHeap";
+    private static final String OFFHEAP_TYPE = "offHeapType";
+    private static final String DEFAULT_OFFHEAP_TYPE = "h2";
+    public static final String SEGMENTED_TYPE = "segmented";
+
+    private final BundleContext bundleContext;
+    private final ConfigurationAdmin configAdmin;
+    private SegmentedOffHeapStore store;
+    private ServiceRegistration<OffHeapQueue> registration;
+
+    public SegmentedOffHeapStoreRegistrar(BundleContext bundleContext, ConfigurationAdmin configAdmin) {
+        this.bundleContext = Objects.requireNonNull(bundleContext);
+        this.configAdmin = Objects.requireNonNull(configAdmin);
+    }
+
+    public void init() throws IOException {
+        final Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        final boolean enabled = Boolean.parseBoolean(SegmentedOffHeapStore.getProperty(properties, ENABLE_OFFHEAP, "false"));
+        final String type = SegmentedOffHeapStore.getProperty(properties, OFFHEAP_TYPE, DEFAULT_OFFHEAP_TYPE);
+
+        if (!enabled || !SEGMENTED_TYPE.equals(type)) {
+            final Path directory = SegmentedOffHeapStore.getDirectory(properties);
+            final int segments = SegmentedOffHeapStore.countSegments(directory);
+            if (segments > 0) {
+                LOG.warn("Found {} segment(s) of the segmented off-heap storage in {}, but the {} storage is in use. " +
+                        "The messages they hold are kept on disk and will only be delivered once {} is set to {} again. " +
+                        "Remove the directory to discard them.",
+                        segments, directory, enabled ? type : "in-memory", OFFHEAP_TYPE, SEGMENTED_TYPE);
+            }
+            return;
+        }
+
+        store = new SegmentedOffHeapStore(configAdmin);
+        store.init();
+        final Dictionary<String, Object> serviceProperties = new Hashtable<>();
+        serviceProperties.put("type", SEGMENTED_TYPE);
+        registration = bundleContext.registerService(OffHeapQueue.class, store, serviceProperties);
+    }
+
+    public void destroy() {
+        if (registration != null) {
+            registration.unregister();
+            registration = null;
+        }
+        if (store != null) {
+            store.destroy();
+            store = null;
+        }
+    }
+
+    protected SegmentedOffHeapStore getStore() {
+        return store;
+    }
+}
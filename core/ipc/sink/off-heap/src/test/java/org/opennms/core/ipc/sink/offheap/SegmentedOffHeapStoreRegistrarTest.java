@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class SegmentedOffHeapStoreRegistrarTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void doesNotCreateTheStoreUnlessSelected() throws IOException {
+        final File directory = new File(folder.getRoot(), "offheap");
+        final BundleContext bundleContext = mock(BundleContext.class);
+
+        for (Hashtable<String, Object> config : new Hashtable[] {
+                config(directory, "true", "h2"),
+                config(directory, "false", SegmentedOffHeapStoreRegistrar.SEGMENTED_TYPE),
+                config(directory, null, null)}) {
+            final SegmentedOffHeapStoreRegistrar registrar = new SegmentedOffHeapStoreRegistrar(bundleContext, configAdmin(config));
+            registrar.init();
+            assertNull(registrar.getStore());
+            registrar.destroy();
+        }
+
+        assertFalse(directory.exists());
+        verify(bundleContext, never()).registerService(eq(OffHeapQueue.class), any(OffHeapQueue.class), any(Dictionary.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void registersTheStoreWhenSelected() throws IOException {
+        final File directory = new File(folder.getRoot(), "offheap");
+        final BundleContext bundleContext = mock(BundleContext.class);
+        final ServiceRegistration<OffHeapQueue> registration = mock(ServiceRegistration.class);
+        when(bundleContext.registerService(eq(OffHeapQueue.class), any(OffHeapQueue.class), any(Dictionary.class))).thenReturn(registration);
+
+        final SegmentedOffHeapStoreRegistrar registrar = new SegmentedOffHeapStoreRegistrar(bundleContext,
+                configAdmin(config(directory, "true", SegmentedOffHeapStoreRegistrar.SEGMENTED_TYPE)));
+        registrar.init();
+        try {
+            assertNotNull(registrar.getStore());
+            verify(bundleContext).registerService(eq(OffHeapQueue.class), eq(registrar.getStore()), any(Dictionary.class));
+        } finally {
+            registrar.destroy();
+        }
+        verify(registration).unregister();
+    }
+
+    private static Hashtable<String, Object> config(File directory, String enabled, String type) {
+        final Hashtable<String, Object> config = new Hashtable<>();
+        config.put("offHeapPath", directory.getAbsolutePath());
+        config.put("offHeapSize", "1MB");
+        if (enabled != null) {
+            config.put("enableOffHeap", enabled);
+        }
+        if (type != null) {
+            config.put("offHeapType", type);
+        }
+        return config;
+    }
+
+    private static ConfigurationAdmin configAdmin(Hashtable<String, Object> config) throws IOException {
+        final ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration("org.opennms.core.ipc.sink.offheap").getProperties()).thenReturn(config);
+        return configAdmin;
+    }
+}
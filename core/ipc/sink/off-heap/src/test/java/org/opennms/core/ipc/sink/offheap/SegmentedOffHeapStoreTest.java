@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractMap;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class SegmentedOffHeapStoreTest {
+
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_PATH = "offHeapPath";
+    private final static String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedOffHeapStore queue;
+
+    @Before
+    public void setup() throws IOException {
+        queue = createStore();
+    }
+
+    @After
+    public void destroy() {
+        queue.destroy();
+    }
+
+    private SegmentedOffHeapStore createStore() throws IOException {
+        Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(OFFHEAP_SIZE, "1MB");
+        configProperties.put(OFFHEAP_SEGMENT_SIZE, "16KB");
+        configProperties.put(OFFHEAP_PATH, folder.getRoot().getAbsolutePath());
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        SegmentedOffHeapStore store = new SegmentedOffHeapStore(configAdmin);
+        store.init();
+        return store;
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            queue.writeMessage(("This is " + i + " trap message").getBytes(), "traps-test", Integer.toString(i));
+            queue.writeMessage(("This is " + i + " syslog message").getBytes(), "syslog-test", Integer.toString(i));
+        }
+        assertEquals(1000, queue.getNumOfMessages("traps-test"));
+        assertEquals(1000, queue.getNumOfMessages("syslog-test"));
+
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("syslog-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " syslog message", new String(keyValue.getValue()));
+        }
+
+        assertNull(queue.readNextMessage("traps-test"));
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+        assertEquals(0, queue.getSize());
+
+        // Consumed segments are deleted, only the segment currently written to remains
+        assertEquals(1, new File(folder.getRoot(), "traps-test").list().length);
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        final byte[] message = new byte[10 * 1024];
+        int written = 0;
+        try {
+            while (true) {
+                queue.writeMessage(message, "traps-test", Integer.toString(written));
+                written++;
+            }
+        } catch (WriteFailedException e) {
+            // expected
+        }
+        assertEquals(1024 * 1024 / (10 * 1024), written, 1);
+
+        // Space is available again once messages are consumed
+        queue.readNextMessage("traps-test");
+        queue.writeMessage(message, "traps-test", "last");
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            queue.writeMessage(("This is " + i + " event message").getBytes(), "events-test", Integer.toString(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            queue.readNextMessage("events-test");
+        }
+        queue.destroy();
+
+        queue = createStore();
+        assertEquals(90, queue.getNumOfMessages("events-test"));
+        for (int i = 10; i < 100; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("events-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " event message", new String(keyValue.getValue()));
+        }
+    }
+
+    @Test
+    public void testRecoveryOfCorruptedSegment() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.writeMessage(("This is " + i + " event message").getBytes(), "events-test", Integer.toString(i));
+        }
+        queue.destroy();
+
+        // Corrupt the last byte of the last message
+        final File segment = new File(folder.getRoot(), "events-test").listFiles()[0];
+        final long offset = 10 * (11 + 1 + "This is 0 event message".length()) - 1;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(offset);
+            final int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+
+        queue = createStore();
+        assertEquals(9, queue.getNumOfMessages("events-test"));
+        for (int i = 0; i < 9; i++) {
+            assertEquals(Integer.toString(i), queue.readNextMessage("events-test").getKey());
+        }
+
+        // New messages are appended after the last valid record
+        queue.writeMessage("new message".getBytes(), "events-test", "new");
+        assertEquals("new", queue.readNextMessage("events-test").getKey());
+        assertEquals(0, queue.getNumOfMessages("events-test"));
+    }
+}
@@ -34,12 +34,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -100,24 +104,41 @@ public class PropertiesCache {
             }
         }
         
+        /**
+         * Writes the properties to a temporary file in the same directory and
+         * moves it over the target, so that readers never see a truncated file.
+         */
         private void write() throws IOException {
             if(!m_file.getParentFile().mkdirs()) {
             	if(!m_file.getParentFile().exists()) {
             		LOG.warn("Could not make directory: {}", m_file.getParentFile().getPath());
             	}
             }
-            OutputStream out = null;
+            final File tmpFile = File.createTempFile(m_file.getName(), ".tmp", m_file.getParentFile());
             try {
-                out = new FileOutputStream(m_file);
-                m_properties.store(out, null);
-            } finally {
-                if (out != null) {
-                    try {
-                        out.close();
-                    } catch (IOException e) {
-                        // Ignore this exception
+                OutputStream out = null;
+                try {
+                    out = new FileOutputStream(tmpFile);
+                    m_properties.store(out, null);
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            // Ignore this exception
+                        }
                     }
                 }
+                try {
+                    Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (m_checkLastModify) {
+                    m_lastModify = m_file.lastModified();
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
             }
         }
 
@@ -163,8 +184,11 @@ public class PropertiesCache {
             }
         }
 
-        public void update(final Map<String, String> props) throws IOException {
-            if (props == null) return;
+        /**
+         * @return true if the file was written, false if all of the values were already present
+         */
+        public boolean update(final Map<String, String> props) throws IOException {
+            if (props == null) return false;
             lock.lock();
             try {
                 boolean save = false;
@@ -177,12 +201,16 @@ public class PropertiesCache {
                 if (save) {
                     write();
                 }
+                return save;
             } finally {
                 lock.unlock();
             }
         }
         
-        public void setProperty(final String key, final String value) throws IOException {
+        /**
+         * @return true if the file was written, false if the value was already present
+         */
+        public boolean setProperty(final String key, final String value) throws IOException {
             lock.lock();
             try {
                 // first we do get to make sure the properties are loaded
@@ -190,7 +218,9 @@ public class PropertiesCache {
                 if (!value.equals(get().get(key))) {
                     get().put(key, value);
                     write();
+                    return true;
                 }
+                return false;
             } finally {
                 lock.unlock();
             }
@@ -221,6 +251,10 @@ public class PropertiesCache {
 
     protected final Cache<String, PropertiesHolder> m_cache;
 
+    private final AtomicLong m_numWrites = new AtomicLong();
+
+    private final AtomicLong m_numAvoidedWrites = new AtomicLong();
+
     public PropertiesCache() {
         this(CacheBuilder.newBuilder());
     }
@@ -286,6 +320,7 @@ public class PropertiesCache {
      */
     public void saveProperties(final File propFile, final Properties properties) throws IOException {
         getHolder(propFile).put(properties);
+        m_numWrites.incrementAndGet();
     }
 
     public void saveProperties(final File propFile, final Map<String, String> attributeMappings) throws IOException {
@@ -303,7 +338,7 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void updateProperties(final File propFile, final Map<String, String> props) throws IOException {
-        getHolder(propFile).update(props);
+        count(getHolder(propFile).update(props));
     }
     
     /**
@@ -315,7 +350,7 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void setProperty(final File propFile, final String key, final String value) throws IOException {
-        getHolder(propFile).setProperty(key, value);
+        count(getHolder(propFile).setProperty(key, value));
     }
     
     /**
@@ -329,4 +364,31 @@ public class PropertiesCache {
     public String getProperty(final File propFile, final String key) throws IOException {
         return getHolder(propFile).getProperty(key);
     }
+
+    /**
+     * Returns the number of times a properties file was written through this cache.
+     *
+     * @return a long.
+     */
+    public long getNumWrites() {
+        return m_numWrites.get();
+    }
+
+    /**
+     * Returns the number of updates that did not change any value and
+     * therefore did not need to write the properties file.
+     *
+     * @return a long.
+     */
+    public long getNumAvoidedWrites() {
+        return m_numAvoidedWrites.get();
+    }
+
+    private void count(final boolean written) {
+        if (written) {
+            m_numWrites.incrementAndGet();
+        } else {
+            m_numAvoidedWrites.incrementAndGet();
+        }
+    }
 }
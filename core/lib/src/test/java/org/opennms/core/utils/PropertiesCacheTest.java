@@ -29,20 +29,28 @@
 package org.opennms.core.utils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
 
 public class PropertiesCacheTest {
     private final String FILE1 = "src/test/resources/share/rrd/snmp/1/strings.properties";
     private final String FILE2 = "src/test/resources/share/rrd/snmp/2/strings.properties";
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     static class FakeTicker extends Ticker {
         private final AtomicLong nanos = new AtomicLong();
 
@@ -96,4 +104,34 @@ public class PropertiesCacheTest {
 
         Assert.assertEquals(1L, propertiesCache.m_cache.size());
     }
+
+    @Test
+    public void testUnchangedValuesAreNotWritten() throws Exception {
+        final PropertiesCache propertiesCache = new PropertiesCache();
+        final File file = new File(tempFolder.getRoot(), "strings.properties");
+
+        propertiesCache.updateProperties(file, ImmutableMap.of("ifSpeed", "1000", "ifAlias", "uplink"));
+        Assert.assertEquals(1L, propertiesCache.getNumWrites());
+        Assert.assertEquals(0L, propertiesCache.getNumAvoidedWrites());
+
+        // Same values again, in a single update and one by one
+        propertiesCache.updateProperties(file, ImmutableMap.of("ifSpeed", "1000", "ifAlias", "uplink"));
+        propertiesCache.setProperty(file, "ifSpeed", "1000");
+        Assert.assertEquals(1L, propertiesCache.getNumWrites());
+        Assert.assertEquals(2L, propertiesCache.getNumAvoidedWrites());
+
+        // A single changed value rewrites the file once
+        propertiesCache.updateProperties(file, ImmutableMap.of("ifSpeed", "10000", "ifAlias", "uplink"));
+        Assert.assertEquals(2L, propertiesCache.getNumWrites());
+
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        Assert.assertEquals("10000", properties.getProperty("ifSpeed"));
+        Assert.assertEquals("uplink", properties.getProperty("ifAlias"));
+
+        // No temporary files are left behind
+        Assert.assertEquals(1, tempFolder.getRoot().list().length);
+    }
 }
@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.WorkerPool;
+import org.snmp4j.util.WorkerTask;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A small pool of long-lived SNMP sessions shared by all of the outgoing requests.
+ *
+ * Each session listens on a single UDP socket, and SNMP4J matches the responses
+ * to the pending requests using their request ids. The agents are spread over the
+ * sessions by address, so that the SNMPv3 users of an agent are always registered
+ * with the same USM. These are registered for the agent's authoritative engine id,
+ * which allows agents using the same security name with different credentials
+ * to share a session.
+ *
+ * The engine ids are discovered in the background, and the requests use a dedicated
+ * session until the engine id of their agent is known. A failed discovery is only
+ * retried after a backoff, so that an unreachable agent does not cost an additional
+ * timeout for every request.
+ *
+ * The timeout, retries and max-repetitions of the requests are still taken from
+ * the target and PDU of each request.
+ */
+class Snmp4JSessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * Number of shared sessions, 0 to create a new session for every request.
+     */
+    public static final String SIZE_PROPERTY = "org.opennms.snmp.snmp4j.sessionPool.size";
+
+    /**
+     * Number of threads used by every shared session to process the responses.
+     */
+    public static final String DISPATCHER_THREADS_PROPERTY = "org.opennms.snmp.snmp4j.sessionPool.dispatcherThreads";
+
+    private static final int DEFAULT_SIZE = 4;
+
+    private static final int DEFAULT_DISPATCHER_THREADS = 4;
+
+    /**
+     * Delay before retrying the discovery of an engine id after the first failure,
+     * doubled after every subsequent failure.
+     */
+    protected static final long MIN_DISCOVERY_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+    protected static final long MAX_DISCOVERY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private static Snmp4JSessionPool s_instance;
+
+    private final SharedSession[] m_sessions;
+
+    private final int m_dispatcherThreads;
+
+    private final ThreadPoolExecutor m_discoveryExecutor;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Counter m_requests = m_metrics.counter("requests");
+    private final Counter m_dedicatedSessions = m_metrics.counter("dedicatedSessions");
+    private final Counter m_engineDiscoveries = m_metrics.counter("engineDiscoveries");
+    private final Counter m_engineDiscoveryFailures = m_metrics.counter("engineDiscoveryFailures");
+    private final AtomicInteger m_pending = new AtomicInteger();
+    private final JmxReporter m_reporter;
+
+    public static synchronized Snmp4JSessionPool getInstance() {
+        if (s_instance == null) {
+            s_instance = new Snmp4JSessionPool(Math.max(0, Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE)),
+                    Math.max(1, Integer.getInteger(DISPATCHER_THREADS_PROPERTY, DEFAULT_DISPATCHER_THREADS)));
+        }
+        return s_instance;
+    }
+
+    /**
+     * Closes the shared sessions. The requests that are still pending
+     * will not receive a response.
+     */
+    public static synchronized void shutdown() {
+        if (s_instance != null) {
+            s_instance.close();
+            s_instance = null;
+        }
+    }
+
+    protected Snmp4JSessionPool(int size, int dispatcherThreads) {
+        m_sessions = new SharedSession[size];
+        m_dispatcherThreads = dispatcherThreads;
+        m_discoveryExecutor = new ThreadPoolExecutor(dispatcherThreads, dispatcherThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreadFactory("SNMP4J-Engine-Discovery"));
+        m_discoveryExecutor.allowCoreThreadTimeOut(true);
+
+        m_metrics.register("size", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_sessions.length;
+            }
+        });
+        m_metrics.register("open", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int open = 0;
+                synchronized (m_sessions) {
+                    for (SharedSession session : m_sessions) {
+                        if (session != null) {
+                            open++;
+                        }
+                    }
+                }
+                return open;
+            }
+        });
+        m_metrics.register("pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_pending.get();
+            }
+        });
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName() + ".sessionPool").build();
+        m_reporter.start();
+    }
+
+    /**
+     * Returns the shared session used to send requests to the given agent.
+     *
+     * @param agentConfig the agent's configuration
+     * @return the shared session, or null if the request should use a dedicated session
+     */
+    public Snmp getSession(Snmp4JAgentConfig agentConfig) {
+        if (m_sessions.length < 1) {
+            m_dedicatedSessions.inc();
+            return null;
+        }
+
+        final Address address = agentConfig.getTarget().getAddress();
+        final SharedSession session;
+        try {
+            session = getOrOpen(indexOf(address));
+        } catch (IOException e) {
+            LOG.warn("Could not open the shared SNMP session, using a dedicated session for agent {}", agentConfig, e);
+            m_dedicatedSessions.inc();
+            return null;
+        }
+        if (agentConfig.isSnmpV3()) {
+            try {
+                if (!session.registerUser(address, agentConfig)) {
+                    // The engine id is not known yet, SNMP4J discovers it when sending the request
+                    m_dedicatedSessions.inc();
+                    return null;
+                }
+            } catch (IllegalArgumentException e) {
+                // Invalid credentials, let the dedicated session report the error
+                LOG.debug("Could not register the SNMPv3 user for agent {}, using a dedicated session", agentConfig, e);
+                m_dedicatedSessions.inc();
+                return null;
+            }
+        }
+        m_requests.inc();
+        return session.m_snmp;
+    }
+
+    /**
+     * Must be called before sending a request using a shared session.
+     */
+    public void requestSent() {
+        m_pending.incrementAndGet();
+    }
+
+    /**
+     * Must be called once a request sent using a shared session completed, was
+     * cancelled or could not be sent.
+     *
+     * @param agentConfig the agent's configuration
+     * @param event the response event, or null if the request was not answered
+     */
+    public void requestCompleted(Snmp4JAgentConfig agentConfig, ResponseEvent event) {
+        m_pending.decrementAndGet();
+        if (agentConfig.isSnmpV3() && event != null && event.getResponse() != null && event.getResponse().getType() == PDU.REPORT) {
+            // The agent may have been replaced or reconfigured, rediscover its engine id
+            forgetEngine(agentConfig);
+        }
+    }
+
+    private void forgetEngine(Snmp4JAgentConfig agentConfig) {
+        final Address address = agentConfig.getTarget().getAddress();
+        final SharedSession session;
+        synchronized (m_sessions) {
+            session = m_sessions[indexOf(address)];
+        }
+        if (session != null) {
+            session.m_engineIds.remove(address);
+        }
+    }
+
+    /**
+     * Returns the index of the shared session used for the given agent.
+     */
+    protected int indexOf(Address address) {
+        return (address.hashCode() & Integer.MAX_VALUE) % m_sessions.length;
+    }
+
+    /**
+     * Discovers the authoritative engine id of the given agent, blocking for up
+     * to the given timeout.
+     *
+     * @return the engine id, or null if the agent did not answer
+     */
+    protected byte[] discoverEngineId(Snmp snmp, Address address, long timeout) {
+        return snmp.discoverAuthoritativeEngineID(address, timeout);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    private SharedSession getOrOpen(int index) throws IOException {
+        synchronized (m_sessions) {
+            if (m_sessions[index] == null) {
+                m_sessions[index] = new SharedSession(index);
+            }
+            return m_sessions[index];
+        }
+    }
+
+    protected void close() {
+        m_discoveryExecutor.shutdownNow();
+        synchronized (m_sessions) {
+            for (int i = 0; i < m_sessions.length; i++) {
+                if (m_sessions[i] != null) {
+                    m_sessions[i].close();
+                    m_sessions[i] = null;
+                }
+            }
+        }
+        m_reporter.stop();
+    }
+
+    private class SharedSession {
+        private final Snmp m_snmp;
+
+        private final USM m_usm;
+
+        private final DaemonWorkerPool m_threadPool;
+
+        /**
+         * Authoritative engine ids of the agents, keyed by address.
+         */
+        private final Map<Address, byte[]> m_engineIds = new ConcurrentHashMap<>();
+
+        /**
+         * Agents whose engine id is being discovered.
+         */
+        private final Set<Address> m_discovering = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Failed discoveries, keyed by address.
+         */
+        private final Map<Address, DiscoveryFailure> m_discoveryFailures = new ConcurrentHashMap<>();
+
+        /**
+         * Credentials of the registered users, keyed by engine id and security name.
+         */
+        private final Map<String, String> m_users = new ConcurrentHashMap<>();
+
+        private SharedSession(int index) throws IOException {
+            m_usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+
+            final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+            dispatcher.addMessageProcessingModel(new MPv1());
+            dispatcher.addMessageProcessingModel(new MPv2c());
+            dispatcher.addMessageProcessingModel(new MPv3(m_usm));
+
+            // Process the responses on a separate pool so that a slow callback
+            // does not delay the responses of the other requests
+            m_threadPool = new DaemonWorkerPool("SNMP4J-Shared-Session-" + index, m_dispatcherThreads);
+            m_snmp = new Snmp(new MultiThreadedMessageDispatcher(m_threadPool, dispatcher), new DefaultUdpTransportMapping());
+            m_snmp.listen();
+        }
+
+        /**
+         * Registers the agent's user with the USM of this session.
+         *
+         * @return false if the engine id of the agent is not known yet, in which
+         *   case the user was not registered
+         */
+        private boolean registerUser(Address address, Snmp4JAgentConfig agentConfig) {
+            final byte[] engineId = m_engineIds.get(address);
+            if (engineId == null) {
+                discoverEngine(address, agentConfig);
+                return false;
+            }
+
+            final OctetString engineIdString = new OctetString(engineId);
+            final String key = engineIdString.toHexString() + "/" + agentConfig.getSecurityName();
+            final String credentials = Objects.toString(agentConfig.getAuthProtocol()) + "/" + Objects.toString(agentConfig.getAuthPassPhrase())
+                    + "/" + Objects.toString(agentConfig.getPrivProtocol()) + "/" + Objects.toString(agentConfig.getPrivPassPhrase());
+            if (credentials.equals(m_users.get(key))) {
+                return true;
+            }
+            synchronized (this) {
+                if (!credentials.equals(m_users.get(key))) {
+                    m_usm.addUser(agentConfig.getSecurityName(), engineIdString, new UsmUser(
+                            agentConfig.getSecurityName(),
+                            agentConfig.getAuthProtocol(),
+                            agentConfig.getAuthPassPhrase(),
+                            agentConfig.getPrivProtocol(),
+                            agentConfig.getPrivPassPhrase()));
+                    m_users.put(key, credentials);
+                }
+            }
+            return true;
+        }
+
+        private void discoverEngine(Address address, Snmp4JAgentConfig agentConfig) {
+            final DiscoveryFailure failure = m_discoveryFailures.get(address);
+            if (failure != null && currentTimeMillis() < failure.m_retryAt) {
+                return;
+            }
+            if (!m_discovering.add(address)) {
+                return;
+            }
+            m_engineDiscoveries.inc();
+            try {
+                m_discoveryExecutor.execute(() -> {
+                    try {
+                        final byte[] engineId = discoverEngineId(m_snmp, address, agentConfig.getTimeout());
+                        if (engineId != null) {
+                            m_engineIds.put(address, engineId);
+                            m_discoveryFailures.remove(address);
+                        } else {
+                            final DiscoveryFailure next = new DiscoveryFailure(failure);
+                            LOG.debug("Could not discover the engine id of agent {}, retrying in {}ms", agentConfig, next.m_backoff);
+                            m_engineDiscoveryFailures.inc();
+                            m_discoveryFailures.put(address, next);
+                        }
+                    } finally {
+                        m_discovering.remove(address);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The pool is shutting down
+                m_discovering.remove(address);
+            }
+        }
+
+        private void close() {
+            try {
+                m_snmp.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing the shared SNMP session", e);
+            } finally {
+                m_threadPool.stop();
+            }
+        }
+    }
+
+    private class DiscoveryFailure {
+        private final long m_backoff;
+
+        private final long m_retryAt;
+
+        private DiscoveryFailure(DiscoveryFailure previous) {
+            m_backoff = previous == null ? MIN_DISCOVERY_BACKOFF_MS : Math.min(previous.m_backoff * 2, MAX_DISCOVERY_BACKOFF_MS);
+            m_retryAt = currentTimeMillis() + m_backoff;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, name + "." + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Unlike SNMP4J's {@link org.snmp4j.util.ThreadPool}, uses daemon threads so
+     * that the shared sessions never prevent the JVM from exiting.
+     */
+    private static class DaemonWorkerPool implements WorkerPool {
+        private final ThreadPoolExecutor m_executor;
+
+        private DaemonWorkerPool(String name, int threads) {
+            m_executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreadFactory(name));
+        }
+
+        @Override
+        public void execute(WorkerTask task) {
+            m_executor.execute(task);
+        }
+
+        @Override
+        public boolean tryToExecute(WorkerTask task) {
+            execute(task);
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            m_executor.shutdown();
+        }
+
+        @Override
+        public void cancel() {
+            m_executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isIdle() {
+            return m_executor.getActiveCount() == 0;
+        }
+    }
+}
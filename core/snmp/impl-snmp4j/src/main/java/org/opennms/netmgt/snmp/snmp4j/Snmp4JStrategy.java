@@ -303,6 +303,15 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse) {
+            final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+            final Snmp sharedSession = pool.getSession(agentConfig);
+            if (sharedSession != null) {
+                sendUsingSharedSession(pool, sharedSession, agentConfig, pdu, future);
+                return;
+            }
+        }
+
         Snmp session;
 
         try {
@@ -367,6 +376,29 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private static void sendUsingSharedSession(Snmp4JSessionPool pool, Snmp session, Snmp4JAgentConfig agentConfig, PDU pdu, CompletableFuture<SnmpValue[]> future) {
+        pool.requestSent();
+        try {
+            session.send(pdu, agentConfig.getTarget(), null, new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    // need to cancel the request here otherwise SNMP4J Keeps it around forever
+                    session.cancel(responseEvent.getRequest(), this);
+                    pool.requestCompleted(agentConfig, responseEvent);
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(new SnmpException(e));
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            pool.requestCompleted(agentConfig, null);
+            LOG.error("send: error during SNMP operation", e);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
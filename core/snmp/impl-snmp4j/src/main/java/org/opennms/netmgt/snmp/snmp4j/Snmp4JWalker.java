@@ -29,6 +29,7 @@
 package org.opennms.netmgt.snmp.snmp4j;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpException;
@@ -164,6 +165,9 @@ public class Snmp4JWalker extends SnmpWalker {
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
             m_session.cancel(responseEvent.getRequest(), this);
+            if (m_pool != null && m_pendingPdu.getAndSet(null) != null) {
+                m_pool.requestCompleted(m_agentConfig, responseEvent);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -189,6 +193,12 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    /**
+     * Set when {@link #m_session} is shared with other requests, in which case
+     * it must not be closed.
+     */
+    private Snmp4JSessionPool m_pool;
+    private final AtomicReference<PDU> m_pendingPdu = new AtomicReference<>();
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -222,9 +232,15 @@ public class Snmp4JWalker extends SnmpWalker {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
             if (m_session == null) {
-                m_session = m_agentConfig.createSnmpSession();
-                Snmp4JStrategy.trackSession(m_session);
-                m_session.listen();
+                final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+                m_session = pool.getSession(m_agentConfig);
+                if (m_session != null) {
+                    m_pool = pool;
+                } else {
+                    m_session = m_agentConfig.createSnmpSession();
+                    Snmp4JStrategy.trackSession(m_session);
+                    m_session.listen();
+                }
             }
         } catch (final IOException e) {
             close();
@@ -233,6 +249,10 @@ public class Snmp4JWalker extends SnmpWalker {
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
         try {
+            if (m_pool != null) {
+                m_pool.requestSent();
+                m_pendingPdu.set(snmp4JPduBuilder.getPdu());
+            }
             m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
@@ -247,7 +267,16 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() {
-        if (m_session != null) {
+        if (m_pool != null) {
+            // Leave the shared session open, but stop waiting for the response
+            final PDU pendingPdu = m_pendingPdu.getAndSet(null);
+            if (pendingPdu != null) {
+                m_session.cancel(pendingPdu, m_listener);
+                m_pool.requestCompleted(m_agentConfig, null);
+            }
+            m_session = null;
+            m_pool = null;
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.PDU;
+import org.snmp4j.ScopedPDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.security.UsmUserEntry;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+
+public class Snmp4JSessionPoolTest {
+
+    private static final byte[] ENGINE_ID = new OctetString("engine-one").getValue();
+
+    private static final byte[] OTHER_ENGINE_ID = new OctetString("engine-two").getValue();
+
+    private TestSessionPool m_pool;
+
+    @After
+    public void tearDown() {
+        if (m_pool != null) {
+            m_pool.close();
+        }
+        Snmp4JSessionPool.shutdown();
+    }
+
+    @Test
+    public void hashesAgentsOntoSessions() throws Exception {
+        m_pool = new TestSessionPool(4);
+
+        final Set<Snmp> sessions = new HashSet<>();
+        for (int port = 1161; port < 1181; port++) {
+            final Snmp4JAgentConfig agentConfig = v2cConfig("127.0.0.1", port, "public");
+            final Snmp session = m_pool.getSession(agentConfig);
+            assertNotNull(session);
+            // The same agent always uses the same session, whatever its community
+            assertSame(session, m_pool.getSession(agentConfig));
+            assertSame(session, m_pool.getSession(v2cConfig("127.0.0.1", port, "private")));
+
+            for (int other = 1161; other < port; other++) {
+                final Snmp4JAgentConfig otherConfig = v2cConfig("127.0.0.1", other, "public");
+                if (m_pool.indexOf(agentConfig.getTarget().getAddress()) == m_pool.indexOf(otherConfig.getTarget().getAddress())) {
+                    assertSame(session, m_pool.getSession(otherConfig));
+                } else {
+                    assertNotSame(session, m_pool.getSession(otherConfig));
+                }
+            }
+            sessions.add(session);
+        }
+        assertEquals(4, sessions.size());
+        assertEquals(4, m_pool.getMetrics().getGauges().get("open").getValue());
+        assertEquals(0, m_pool.getMetrics().counter("dedicatedSessions").getCount());
+    }
+
+    @Test
+    public void usesDedicatedSessionsWhenSizeIsZero() throws Exception {
+        m_pool = new TestSessionPool(0);
+
+        assertNull(m_pool.getSession(v2cConfig("127.0.0.1", 161, "public")));
+        assertNull(m_pool.getSession(v3Config("127.0.0.1", 161, "user", "password1")));
+
+        assertEquals(2, m_pool.getMetrics().counter("dedicatedSessions").getCount());
+        assertEquals(0, m_pool.getMetrics().counter("requests").getCount());
+        assertEquals(0, m_pool.getMetrics().counter("engineDiscoveries").getCount());
+        assertEquals(0, m_pool.getMetrics().getGauges().get("open").getValue());
+    }
+
+    @Test
+    public void reregistersUsersWhenTheirCredentialsChange() throws Exception {
+        m_pool = new TestSessionPool(1);
+        final Snmp4JAgentConfig agentConfig = v3Config("127.0.0.1", 1161, "user", "password1");
+        final Snmp4JAgentConfig otherAgentConfig = v3Config("127.0.0.1", 1162, "user", "password2");
+        m_pool.m_engineIds.put(agentConfig.getTarget().getAddress(), ENGINE_ID);
+        m_pool.m_engineIds.put(otherAgentConfig.getTarget().getAddress(), OTHER_ENGINE_ID);
+
+        final Snmp session = awaitSharedSession(agentConfig);
+        assertEquals("password1", getUser(session, ENGINE_ID, "user").getUsmUser().getAuthenticationPassphrase().toString());
+
+        // Agents using the same security name with different credentials share the session
+        assertSame(session, awaitSharedSession(otherAgentConfig));
+        assertEquals("password2", getUser(session, OTHER_ENGINE_ID, "user").getUsmUser().getAuthenticationPassphrase().toString());
+        assertEquals("password1", getUser(session, ENGINE_ID, "user").getUsmUser().getAuthenticationPassphrase().toString());
+
+        assertSame(session, m_pool.getSession(v3Config("127.0.0.1", 1161, "user", "password3")));
+        assertEquals("password3", getUser(session, ENGINE_ID, "user").getUsmUser().getAuthenticationPassphrase().toString());
+        assertEquals("password2", getUser(session, OTHER_ENGINE_ID, "user").getUsmUser().getAuthenticationPassphrase().toString());
+
+        // The engine ids are only discovered once
+        assertEquals(2, m_pool.m_discoveries.get());
+    }
+
+    @Test
+    public void rediscoversTheEngineIdAfterAReport() throws Exception {
+        m_pool = new TestSessionPool(1);
+        final Snmp4JAgentConfig agentConfig = v3Config("127.0.0.1", 1161, "user", "password1");
+        final Address address = agentConfig.getTarget().getAddress();
+        m_pool.m_engineIds.put(address, ENGINE_ID);
+
+        final Snmp session = awaitSharedSession(agentConfig);
+        m_pool.requestSent();
+        final ScopedPDU report = new ScopedPDU();
+        report.setType(PDU.REPORT);
+        m_pool.requestCompleted(agentConfig, new ResponseEvent(this, address, new ScopedPDU(), report, null));
+
+        m_pool.m_engineIds.put(address, OTHER_ENGINE_ID);
+        assertSame(session, awaitSharedSession(agentConfig));
+        assertNotNull(getUser(session, OTHER_ENGINE_ID, "user"));
+        assertEquals(2, m_pool.m_discoveries.get());
+    }
+
+    @Test
+    public void backsOffAfterFailedDiscoveries() throws Exception {
+        m_pool = new TestSessionPool(1);
+        final Snmp4JAgentConfig agentConfig = v3Config("127.0.0.1", 1161, "user", "password1");
+
+        // The caller does not wait for the discovery, and uses a dedicated session
+        assertNull(m_pool.getSession(agentConfig));
+        awaitFailedDiscoveries(1);
+        assertNull(m_pool.getSession(agentConfig));
+        assertEquals(1, m_pool.m_discoveries.get());
+
+        m_pool.m_now += Snmp4JSessionPool.MIN_DISCOVERY_BACKOFF_MS;
+        assertNull(m_pool.getSession(agentConfig));
+        awaitFailedDiscoveries(2);
+
+        // The backoff doubled
+        m_pool.m_now += Snmp4JSessionPool.MIN_DISCOVERY_BACKOFF_MS;
+        assertNull(m_pool.getSession(agentConfig));
+        assertEquals(2, m_pool.m_discoveries.get());
+
+        m_pool.m_engineIds.put(agentConfig.getTarget().getAddress(), ENGINE_ID);
+        m_pool.m_now += Snmp4JSessionPool.MIN_DISCOVERY_BACKOFF_MS;
+        final Snmp session = awaitSharedSession(agentConfig);
+        assertNotNull(getUser(session, ENGINE_ID, "user"));
+        assertEquals(3, m_pool.m_discoveries.get());
+        assertEquals(2, m_pool.getMetrics().counter("engineDiscoveryFailures").getCount());
+
+        for (int i = 0; i < 20; i++) {
+            m_pool.m_now += Snmp4JSessionPool.MAX_DISCOVERY_BACKOFF_MS;
+        }
+        assertSame(session, m_pool.getSession(agentConfig));
+        assertEquals(3, m_pool.m_discoveries.get());
+    }
+
+    @Test
+    public void tracksPendingRequests() throws Exception {
+        m_pool = new TestSessionPool(1);
+        final Snmp4JAgentConfig agentConfig = v2cConfig("127.0.0.1", 1161, "public");
+
+        m_pool.requestSent();
+        m_pool.requestSent();
+        assertEquals(2, m_pool.getMetrics().getGauges().get("pending").getValue());
+        m_pool.requestCompleted(agentConfig, null);
+        m_pool.requestCompleted(agentConfig, null);
+        assertEquals(0, m_pool.getMetrics().getGauges().get("pending").getValue());
+    }
+
+    @Test
+    public void cancelsThePendingRequestWhenClosingAWalker() throws Exception {
+        final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+        final SnmpWalker walker = new Snmp4JWalker(v2cConfig("127.0.0.1", unusedPort(), "public", (int)TimeUnit.MINUTES.toMillis(1)), "test",
+                new SingleInstanceTracker(SnmpObjId.get(".1.3.6.1.2.1.1.2"), SnmpInstId.INST_ZERO));
+        walker.start();
+        assertEquals(1, pool.getMetrics().getGauges().get("pending").getValue());
+
+        walker.close();
+        assertEquals(0, pool.getMetrics().getGauges().get("pending").getValue());
+        // Closing twice must not complete the request again
+        walker.close();
+        assertEquals(0, pool.getMetrics().getGauges().get("pending").getValue());
+    }
+
+    @Test
+    public void completesTheRequestWhenAWalkerTimesOut() throws Exception {
+        final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+        final SnmpWalker walker = new Snmp4JWalker(v2cConfig("127.0.0.1", unusedPort(), "public", 100), "test",
+                new SingleInstanceTracker(SnmpObjId.get(".1.3.6.1.2.1.1.2"), SnmpInstId.INST_ZERO));
+        walker.start();
+        assertTrue(walker.waitFor(TimeUnit.SECONDS.toMillis(30)));
+        assertTrue(walker.timedOut());
+        assertEquals(0, pool.getMetrics().getGauges().get("pending").getValue());
+        walker.close();
+        assertEquals(0, pool.getMetrics().getGauges().get("pending").getValue());
+    }
+
+    private Snmp awaitSharedSession(Snmp4JAgentConfig agentConfig) {
+        final Snmp[] session = new Snmp[1];
+        await().atMost(10, TimeUnit.SECONDS).until(() -> (session[0] = m_pool.getSession(agentConfig)) != null);
+        return session[0];
+    }
+
+    private void awaitFailedDiscoveries(long failures) {
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_pool.getMetrics().counter("engineDiscoveryFailures").getCount(), equalTo(failures));
+    }
+
+    private static UsmUserEntry getUser(Snmp session, byte[] engineId, String securityName) {
+        return session.getUSM().getUser(new OctetString(engineId), new OctetString(securityName));
+    }
+
+    private static int unusedPort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Snmp4JAgentConfig v2cConfig(String host, int port, String community) throws Exception {
+        return v2cConfig(host, port, community, 1000);
+    }
+
+    private static Snmp4JAgentConfig v2cConfig(String host, int port, String community, int timeout) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getByName(host));
+        config.setPort(port);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setReadCommunity(community);
+        config.setTimeout(timeout);
+        config.setRetries(0);
+        return new Snmp4JAgentConfig(config);
+    }
+
+    private static Snmp4JAgentConfig v3Config(String host, int port, String securityName, String authPassPhrase) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getByName(host));
+        config.setPort(port);
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityName(securityName);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_NOPRIV);
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase(authPassPhrase);
+        return new Snmp4JAgentConfig(config);
+    }
+
+    /**
+     * Answers the discoveries using the configured engine ids, and lets the
+     * tests control the clock.
+     */
+    private static class TestSessionPool extends Snmp4JSessionPool {
+        private final Map<Address, byte[]> m_engineIds = new ConcurrentHashMap<>();
+
+        private final AtomicInteger m_discoveries = new AtomicInteger();
+
+        private volatile long m_now = 0;
+
+        private TestSessionPool(int size) {
+            super(size, 1);
+        }
+
+        @Override
+        protected byte[] discoverEngineId(Snmp snmp, Address address, long timeout) {
+            m_discoveries.incrementAndGet();
+            return m_engineIds.get(address);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return m_now;
+        }
+    }
+}
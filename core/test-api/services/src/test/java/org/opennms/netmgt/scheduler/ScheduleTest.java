@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.scheduler;
 
+import java.util.concurrent.CompletableFuture;
 
 import junit.framework.TestCase;
 
@@ -81,6 +82,36 @@ public class ScheduleTest extends TestCase {
         
     }
     
+    class MockAsyncSchedulable implements AsyncReadyRunnable {
+        private volatile int runCount = 0;
+        private volatile CompletableFuture<Void> m_future;
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> runAsync() {
+            runCount++;
+            m_future = new CompletableFuture<>();
+            return m_future;
+        }
+
+        public int getRunCount() {
+            return runCount;
+        }
+
+        public CompletableFuture<Void> getFuture() {
+            return m_future;
+        }
+    }
+
     /*
      * @see TestCase#setUp()
      */
@@ -226,6 +257,44 @@ public class ScheduleTest extends TestCase {
         assertRunAndScheduled(1000, 1000, 2, 1);
     }
     
+    public void testAsyncSchedule() {
+        MockAsyncSchedulable schedulable = new MockAsyncSchedulable();
+        Schedule sched = new Schedule(schedulable, m_interval, m_scheduler);
+        sched.schedule();
+
+        assertEquals(1, m_scheduler.getEntryCount());
+
+        m_scheduler.next();
+
+        // the next run is not scheduled until the work completes
+        assertEquals(1, schedulable.getRunCount());
+        assertEquals(0, m_scheduler.getEntryCount());
+
+        schedulable.getFuture().complete(null);
+
+        assertEquals(1, m_scheduler.getEntryCount());
+        assertNotNull(m_scheduler.getEntries().get(Long.valueOf(1000)));
+
+        m_scheduler.next();
+
+        assertEquals(2, schedulable.getRunCount());
+        assertEquals(1000, m_scheduler.getCurrentTime());
+    }
+
+    public void testAsyncPostpone() {
+        MockAsyncSchedulable schedulable = new MockAsyncSchedulable();
+        Schedule sched = new Schedule(schedulable, m_interval, m_scheduler);
+        sched.schedule();
+
+        m_scheduler.next();
+        schedulable.getFuture().completeExceptionally(new PostponeNecessary("lock unavailable"));
+
+        // postponed by 5 to 14 seconds instead of the interval
+        assertEquals(1, m_scheduler.getEntryCount());
+        long next = m_scheduler.getNextTime();
+        assertTrue("unexpected postpone time " + next, next >= 5000 && next < 15000);
+    }
+
     private void assertRunAndScheduled(long currentTime, long interval, int count, int entryCount) {
         assertEquals(count, m_schedulable.getRunCount());
         assertEquals(currentTime, m_scheduler.getCurrentTime());
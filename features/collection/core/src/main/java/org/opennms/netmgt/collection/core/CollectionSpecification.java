@@ -33,6 +33,8 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
@@ -269,54 +271,89 @@ public class CollectionSpecification {
      * @throws org.opennms.netmgt.collection.api.CollectionException if any.
      */
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
+        try {
+            return collectAsync(agent).get();
+        } catch (InterruptedException e) {
+            final CollectionException ce = toCollectionException(e);
+            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
+            throw ce;
+        } catch (ExecutionException e) {
+            // The future is completed with a CollectionException, see collectAsync()
+            if (e.getCause() instanceof CollectionException) {
+                throw (CollectionException)e.getCause();
+            }
+            throw new CollectionException("Collection failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Issues the collection without waiting for it to complete.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @return a future completed with the collection set, or exceptionally with
+     *         a {@link org.opennms.netmgt.collection.api.CollectionException}
+     */
+    public CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent) {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        final CompletableFuture<CollectionSet> future;
         try {
-            final CollectionSet set = m_locationAwareCollectorClient.collect()
+            future = m_locationAwareCollectorClient.collect()
                 .withAgent(agent)
                 .withAttributes(getPropertyMap())
                 .withCollector(getCollector())
                 // Use the service interval as the TTL
                 .withTimeToLive(getService().getInterval())
-                .execute()
-                .get();
+                .execute();
+        } catch (RuntimeException e) {
+            m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+            throw e;
+        }
 
-            // There are collector implementations that never throw an exception just return a collection failed
-            if (CollectionStatus.FAILED.equals(set.getStatus())) {
-                m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
-            }
-            return set;
-        } catch (InterruptedException|ExecutionException e) {
-            final CollectionException ce = RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
-                @Override
-                public CollectionException onInterrupted(Throwable t) {
-                    return new CollectionUnknown("Interrupted.", t);
+        return future.handle((set, t) -> {
+            try {
+                if (t != null) {
+                    final CollectionException ce = toCollectionException(t);
+                    m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
+                    throw new CompletionException(ce);
                 }
-
-                @Override
-                public CollectionException onTimedOut(Throwable t) {
-                    return new CollectionUnknown("Request timed out.", t);
+                // There are collector implementations that never throw an exception just return a collection failed
+                if (CollectionStatus.FAILED.equals(set.getStatus())) {
+                    m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
                 }
+                return set;
+            } finally {
+                m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+            }
+        });
+    }
 
-                @Override
-                public CollectionException onRejected(Throwable t) {
-                    return new CollectionUnknown("Request rejected.", e);
-                }
+    private static CollectionException toCollectionException(Throwable e) {
+        return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
+            @Override
+            public CollectionException onInterrupted(Throwable t) {
+                return new CollectionUnknown("Interrupted.", t);
+            }
+
+            @Override
+            public CollectionException onTimedOut(Throwable t) {
+                return new CollectionUnknown("Request timed out.", t);
+            }
+
+            @Override
+            public CollectionException onRejected(Throwable t) {
+                return new CollectionUnknown("Request rejected.", e);
+            }
 
-                @Override
-                public CollectionException onUnknown(Throwable t) {
-                    if (t instanceof CollectionException) {
-                        return (CollectionException)t;
-                    } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
-                        return (CollectionException)t.getCause();
-                    }
-                    return new CollectionException("Collection failed.", t);
+            @Override
+            public CollectionException onUnknown(Throwable t) {
+                if (t instanceof CollectionException) {
+                    return (CollectionException)t;
+                } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
+                    return (CollectionException)t.getCause();
                 }
-            });
-            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
-            throw ce;
-        } finally {
-            m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
-        }
+                return new CollectionException("Collection failed.", t);
+            }
+        });
     }
 
     /**
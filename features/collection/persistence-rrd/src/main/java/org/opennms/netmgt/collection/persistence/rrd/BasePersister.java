@@ -29,6 +29,8 @@
 package org.opennms.netmgt.collection.persistence.rrd;
 
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.opennms.netmgt.collection.api.AbstractPersister;
@@ -58,6 +60,12 @@ public class BasePersister extends AbstractPersister {
     protected final ResourceStorageDao m_resourceStorageDao;
     private boolean m_dontReorderAttributes = false;
 
+    /**
+     * String attributes gathered while visiting a resource, keyed by path, so that
+     * they can be stored with a single write once the resource is complete.
+     */
+    private Map<ResourcePath, Map<String, String>> m_stringAttributes = null;
+
     /**
      * <p>Constructor for BasePersister.</p>
      *
@@ -95,8 +103,35 @@ public class BasePersister extends AbstractPersister {
         super.setBuilder(builder);
     }
 
+    @Override
+    public void visitResource(CollectionResource resource) {
+        super.visitResource(resource);
+        m_stringAttributes = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void completeResource(CollectionResource resource) {
+        final Map<ResourcePath, Map<String, String>> stringAttributes = m_stringAttributes;
+        m_stringAttributes = null;
+        if (stringAttributes != null) {
+            for (Map.Entry<ResourcePath, Map<String, String>> entry : stringAttributes.entrySet()) {
+                try {
+                    m_resourceStorageDao.setStringAttributes(entry.getKey(), entry.getValue());
+                } catch (Throwable t) {
+                    LOG.error("Unable to save string attributes {} at {}.", entry.getValue(), entry.getKey(), t);
+                }
+            }
+        }
+        super.completeResource(resource);
+    }
+
     @Override
     protected void persistStringAttribute(ResourcePath path, String key, String value) throws PersistException {
+        if (m_stringAttributes != null) {
+            // Defer until the resource is complete
+            m_stringAttributes.computeIfAbsent(path, p -> new LinkedHashMap<>()).put(key, value);
+            return;
+        }
         try {
             m_resourceStorageDao.setStringAttribute(path, key, value);
         } catch (Throwable t) {
@@ -30,7 +30,7 @@ package org.opennms.netmgt.enlinkd;
 
 import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 
 /**
@@ -45,7 +45,7 @@ public abstract class Discovery implements ReadyRunnable {
     /**
      * The scheduler object
      */
-    private LegacyScheduler m_scheduler;
+    private Scheduler m_scheduler;
 
     /**
      * The interval, default value 30 minutes
@@ -92,7 +92,7 @@ public abstract class Discovery implements ReadyRunnable {
      * 
      * @return a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler} object.
      */
-    public LegacyScheduler getScheduler() {
+    public Scheduler getScheduler() {
         return m_scheduler;
     }
 
@@ -105,7 +105,7 @@ public abstract class Discovery implements ReadyRunnable {
      *            a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler}
      *            object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
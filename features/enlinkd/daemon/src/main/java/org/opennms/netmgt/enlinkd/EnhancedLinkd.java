@@ -47,7 +47,8 @@ import org.opennms.netmgt.enlinkd.service.api.NodeTopologyService;
 import org.opennms.netmgt.enlinkd.service.api.Node;
 import org.opennms.netmgt.enlinkd.service.api.OspfTopologyService;
 import org.opennms.netmgt.events.api.EventForwarder;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.PooledScheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 //import org.opennms.netmgt.topologies.service.api.TopologyDao;
 import org.slf4j.Logger;
@@ -74,7 +75,7 @@ public class EnhancedLinkd extends AbstractServiceDaemon {
     /**
      * scheduler thread
      */
-    private LegacyScheduler m_scheduler;
+    private PooledScheduler m_scheduler;
 
     /**
      * The DB connection read and write handler
@@ -153,7 +154,7 @@ public class EnhancedLinkd extends AbstractServiceDaemon {
         //
         try {
             LOG.debug("init: Creating EnhancedLinkd scheduler");
-            setScheduler(new LegacyScheduler("EnhancedLinkd", getLinkdConfig().getThreads()));
+            setScheduler(Schedulers.create("EnhancedLinkd", getLinkdConfig().getThreads()));
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create EnhancedLinkd scheduler", e);
             throw e;
@@ -433,7 +434,7 @@ public class EnhancedLinkd extends AbstractServiceDaemon {
      * 
      * @return a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler} object.
      */
-    public LegacyScheduler getScheduler() {
+    public PooledScheduler getScheduler() {
         return m_scheduler;
     }
 
@@ -446,7 +447,7 @@ public class EnhancedLinkd extends AbstractServiceDaemon {
      *            a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler}
      *            object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(PooledScheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -32,11 +32,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -62,6 +62,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 
@@ -100,6 +101,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
+    /**
+     * Default maximum number of events handed to a listener thread at once.
+     */
+    public static final int DEFAULT_LISTENER_BATCH_SIZE = 100;
+
+    /**
+     * Default amount of time to wait for room in a listener's queue before
+     * discarding an event.
+     */
+    public static final long DEFAULT_LISTENER_QUEUE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
     /**
      * Hash table of list of event listeners keyed by event UEI
      */
@@ -115,6 +127,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Snapshot of the listener registrations used to dispatch the events,
+     * rebuilt whenever the registrations change.
+     */
+    private volatile EventListenerIndex<EventListenerExecutor> m_index = new EventListenerIndex<>(Collections.emptyList(), Collections.emptyMap());
+
     /**
      * The thread pool handling the events
      */
@@ -126,24 +144,67 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    private int m_listenerBatchSize = DEFAULT_LISTENER_BATCH_SIZE;
+
+    private long m_listenerQueueTimeoutMs = DEFAULT_LISTENER_QUEUE_TIMEOUT_MS;
+
     private final MetricRegistry m_registry;
 
     /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
+     * An event queued for a listener.
      */
-    private static class EventListenerExecutor {
+    private static class EventDelivery {
+        private final Event m_event;
+
+        private final long m_queuedAt = System.nanoTime();
+
+        /**
+         * Only set when the sender is waiting for the event to be handled.
+         */
+        private final CompletableFuture<Void> m_future;
+
+        EventDelivery(Event event, CompletableFuture<Void> future) {
+            m_event = event;
+            m_future = future;
+        }
+    }
+
+    /**
+     * The threads dedicated to each listener. The events meant for each listener
+     * are added to the listener's queue when 'broadcastNow()' is called. The
+     * threads take the events off of this queue in batches and send them to the
+     * listener.
+     *
+     * When the queue is full, the sender waits for room in the queue instead of
+     * discarding the event, which slows down the event handlers until the listener
+     * catches up.
+     */
+    private class EventListenerExecutor {
         /**
          * Listener to which this thread is dedicated
          */
         private final EventListener m_listener;
 
         /**
-         * The thread that is running this runnable.
+         * Events waiting to be handled by the listener.
+         */
+        private final BlockingQueue<EventDelivery> m_queue;
+
+        /**
+         * The threads that are handing the events to the listener.
          */
-        private final ExecutorService m_delegateThread;
+        private final List<Thread> m_threads = new ArrayList<>();
+
+        /**
+         * Maximum number of events taken off of the queue by a thread at once.
+         */
+        private final int m_batchSize;
+
+        private final String m_metricPrefix;
+
+        private final Counter m_discarded;
+
+        private volatile boolean m_running = true;
 
         /**
          * Constructor
@@ -156,52 +217,136 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                 numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
             }
 
-            m_delegateThread = new ThreadPoolExecutor(
-                    numThreads,
-                    numThreads,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), numThreads),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
-                    }
-            );
-        }
+            // Batches would keep the events from being spread over the threads
+            m_batchSize = numThreads > 1 ? 1 : Math.max(1, m_listenerBatchSize);
+
+            m_queue = handlerQueueLength == null ? new LinkedBlockingQueue<EventDelivery>() : new ArrayBlockingQueue<EventDelivery>(handlerQueueLength);
 
-        public CompletableFuture<Void> addEvent(final Event event) {
-            return CompletableFuture.runAsync(new Runnable() {
+            m_metricPrefix = MetricRegistry.name("eventlisteners", m_listener.getName());
+            m_registry.removeMatching((name, metric) -> name.startsWith(m_metricPrefix + "."));
+            m_registry.register(MetricRegistry.name(m_metricPrefix, "queued"), new Gauge<Integer>() {
                 @Override
-                public void run() {
-                    try {
-                         if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
+                public Integer getValue() {
+                    return m_queue.size();
+                }
+            });
+            m_registry.register(MetricRegistry.name(m_metricPrefix, "lag"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    // Time spent in the queue by the oldest event, in milliseconds
+                    final EventDelivery oldest = m_queue.peek();
+                    return oldest == null ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.m_queuedAt);
+                }
+            });
+            m_discarded = m_registry.counter(MetricRegistry.name(m_metricPrefix, "discarded"));
+
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles. Therefore, if Notifd
+            // registers for an event then all logs for handling that event will end up
+            // inside notifd.log.
+            final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                m_threads.add(threadFactory.newThread(this::run));
+            }
+            m_threads.forEach(Thread::start);
+        }
+
+        /**
+         * Queues the event for the listener.
+         *
+         * @param event the event
+         * @param synchronous whether or not the caller wants to wait for the listener
+         * @return a future that completes once the listener handled the event if
+         *   synchronous is set, null otherwise
+         */
+        public CompletableFuture<Void> addEvent(final Event event, boolean synchronous) {
+            final EventDelivery delivery = new EventDelivery(event, synchronous ? new CompletableFuture<>() : null);
+            if (!m_running || !enqueue(delivery)) {
+                m_discarded.inc();
+                if (delivery.m_future != null) {
+                    delivery.m_future.complete(null);
+                }
+            }
+            return delivery.m_future;
+        }
+
+        private boolean enqueue(EventDelivery delivery) {
+            if (m_queue.offer(delivery)) {
+                return true;
+            }
+
+            // The listener's own threads would never make room in the queue
+            if (m_threads.contains(Thread.currentThread())) {
+                LOG.warn("Listener {}'s event queue is full, discarding event sent by the listener itself", m_listener.getName());
+                return false;
+            }
+
+            LOG.debug("Listener {}'s event queue is full, waiting up to {}ms", m_listener.getName(), m_listenerQueueTimeoutMs);
+            try {
+                if (m_queue.offer(delivery, m_listenerQueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                LOG.warn("Listener {}'s event queue is still full after {}ms, discarding event", m_listener.getName(), m_listenerQueueTimeoutMs);
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for room in listener {}'s event queue, discarding event", m_listener.getName());
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private void run() {
+            final List<EventDelivery> batch = new ArrayList<>(m_batchSize);
+            while (true) {
+                try {
+                    // Wake up periodically to notice when the listener was stopped
+                    final EventDelivery first = m_queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        if (!m_running) {
+                            return;
                         }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                        continue;
                     }
+                    batch.add(first);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                m_queue.drainTo(batch, m_batchSize - 1);
+
+                for (EventDelivery delivery : batch) {
+                    deliver(delivery);
+                }
+                batch.clear();
+            }
+        }
+
+        private void deliver(EventDelivery delivery) {
+            try {
+                if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), delivery.m_event.toStringSimple());
+
+                // Make sure we restore our log4j logging prefix after onEvent is called
+                Map<String,String> mdc = Logging.getCopyOfContextMap();
+                try {
+                    m_listener.onEvent(delivery.m_event);
+                } finally {
+                    Logging.setContextMap(mdc);
+                }
+            } catch (Throwable t) {
+                LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+            } finally {
+                if (delivery.m_future != null) {
+                    delivery.m_future.complete(null);
                 }
-            }, m_delegateThread);
+            }
         }
 
         /**
-         * Stops the execution of this listener.
+         * Stops the execution of this listener. The events that were
+         * already queued are still handed to the listener.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            m_running = false;
+            m_registry.remove(MetricRegistry.name(m_metricPrefix, "queued"));
+            m_registry.remove(MetricRegistry.name(m_metricPrefix, "lag"));
         }
     }
 
@@ -296,65 +441,57 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        final EventListenerIndex<EventListenerExecutor> index = m_index;
+        if (LOG.isDebugEnabled() && index.getMatchAllListeners().isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
-        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
-
-        // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(event, listener));
-        }
-
         if (event.getUei() == null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Event ID {} does not have a UEI, so skipping UEI matching", event.getDbid());
             }
-            return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        // Send to listeners interested in receiving all events, and to
+        // the listeners who are interested in this event UEI
+        final List<EventListenerExecutor> listeners = index.getListeners(event.getUei());
+        if (LOG.isDebugEnabled() && event.getUei() != null && listeners.size() == index.getMatchAllListeners().size()) {
+            LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
         }
-        
-        if (sentToListeners.isEmpty()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
+
+        if (!synchronous) {
+            for (EventListenerExecutor listener : listeners) {
+                listener.addEvent(event, false);
             }
+            return;
         }
 
-        // If synchronous...
-        if (synchronous) {
-            // Wait for all of the listeners to complete before returning
-            CompletableFuture.allOf(listenerFutures.toArray(new CompletableFuture[0])).join();
+        final List<CompletableFuture<Void>> listenerFutures = new ArrayList<>(listeners.size());
+        for (EventListenerExecutor listener : listeners) {
+            listenerFutures.add(listener.addEvent(event, true));
         }
+        // Wait for all of the listeners to complete before returning
+        CompletableFuture.allOf(listenerFutures.toArray(new CompletableFuture[0])).join();
     }
 
-    private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+    /**
+     * Rebuilds the index used to dispatch the events. Must be called
+     * whenever the listener registrations change.
+     */
+    private void updateIndex() {
+        final List<EventListenerExecutor> matchAllListeners = new ArrayList<>(m_listeners.size());
+        for (EventListener listener : m_listeners) {
+            matchAllListeners.add(m_listenerThreads.get(listener.getName()));
+        }
+        final Map<String, List<EventListenerExecutor>> ueiListeners = new HashMap<>();
+        for (Map.Entry<String, List<EventListener>> entry : m_ueiListeners.entrySet()) {
+            final List<EventListenerExecutor> listeners = new ArrayList<>(entry.getValue().size());
+            for (EventListener listener : entry.getValue()) {
+                listeners.add(m_listenerThreads.get(listener.getName()));
+            }
+            ueiListeners.put(entry.getKey(), listeners);
+        }
+        m_index = new EventListenerIndex<>(matchAllListeners, ueiListeners);
     }
 
     /**
@@ -375,6 +512,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateIndex();
     }
 
     /**
@@ -404,6 +543,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateIndex();
     }
 
     /**
@@ -438,6 +579,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateIndex();
     }
 
     /**
@@ -457,6 +600,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateIndex();
     }
 
     /**
@@ -477,6 +622,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
+        updateIndex();
+
         // stop and remove the listener thread for this listener
         if (m_listenerThreads.containsKey(listener.getName())) {
             m_listenerThreads.get(listener.getName()).stop();
@@ -634,12 +781,26 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    /**
+     * <p>setListenerBatchSize</p>
+     *
+     * @param batchSize maximum number of events handed to a listener thread at once
+     */
+    public void setListenerBatchSize(int batchSize) {
+        m_listenerBatchSize = batchSize;
+    }
+
+    /**
+     * <p>setListenerQueueTimeout</p>
+     *
+     * @param timeoutMs how long to wait for room in a listener's queue before discarding an event
+     */
+    public void setListenerQueueTimeout(long timeoutMs) {
+        m_listenerQueueTimeoutMs = timeoutMs;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_index.hasUeiListeners(uei);
     }
 }
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable index used to resolve the listeners that are interested in
+ * a given event UEI.
+ *
+ * UEIs are registered either as exact matches or, when they end with a "/",
+ * as prefixes that match every UEI in that "directory". The listeners for a UEI
+ * are resolved once and memoized, so that the prefixes are only walked the
+ * first time a UEI is seen.
+ *
+ * A new index is built whenever the registrations change, which allows
+ * events to be dispatched without any locking.
+ *
+ * @param <T> type of the listeners
+ */
+class EventListenerIndex<T> {
+
+    /**
+     * Upper bound on the number of distinct UEIs for which the resolved
+     * listeners are memoized.
+     */
+    static final int MAX_RESOLVED_UEIS = 10000;
+
+    private final List<T> m_matchAllListeners;
+
+    private final Map<String, List<T>> m_ueiListeners;
+
+    private final Map<String, List<T>> m_resolved = new ConcurrentHashMap<>();
+
+    public EventListenerIndex(List<T> matchAllListeners, Map<String, List<T>> ueiListeners) {
+        m_matchAllListeners = Collections.unmodifiableList(new ArrayList<>(matchAllListeners));
+        final Map<String, List<T>> copy = new HashMap<>();
+        for (Map.Entry<String, List<T>> entry : ueiListeners.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            }
+        }
+        m_ueiListeners = copy;
+    }
+
+    /**
+     * @return the listeners that are interested in all events
+     */
+    public List<T> getMatchAllListeners() {
+        return m_matchAllListeners;
+    }
+
+    /**
+     * Returns the listeners that are interested in an event with the given UEI,
+     * starting with those that are interested in all events. Each listener is
+     * only returned once, even if it registered for the UEI and for some of its prefixes.
+     *
+     * @param uei the event's UEI, may be null
+     * @return the interested listeners
+     */
+    public List<T> getListeners(String uei) {
+        if (uei == null) {
+            return m_matchAllListeners;
+        }
+        List<T> listeners = m_resolved.get(uei);
+        if (listeners == null) {
+            listeners = resolve(uei);
+            if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                m_resolved.put(uei, listeners);
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * @return true if some listeners registered for exactly this UEI
+     */
+    public boolean hasUeiListeners(String uei) {
+        return m_ueiListeners.containsKey(uei);
+    }
+
+    private List<T> resolve(String uei) {
+        final Set<T> listeners = new LinkedHashSet<>(m_matchAllListeners);
+        final int numMatchAllListeners = listeners.size();
+        // Loop to attempt partial wild card "directory" matches.
+        for (String prefix = uei; prefix.length() > 0; ) {
+            final List<T> ueiListeners = m_ueiListeners.get(prefix);
+            if (ueiListeners != null) {
+                listeners.addAll(ueiListeners);
+            }
+
+            // Try wild cards: Find / before last character
+            int i = prefix.lastIndexOf("/", prefix.length() - 2);
+            if (i > 0) {
+                // Split at "/", including the /
+                prefix = prefix.substring(0, i + 1);
+            } else {
+                // No more wild cards to match
+                break;
+            }
+        }
+        if (listeners.size() == numMatchAllListeners) {
+            return m_matchAllListeners;
+        }
+        return Collections.unmodifiableList(new ArrayList<>(listeners));
+    }
+}
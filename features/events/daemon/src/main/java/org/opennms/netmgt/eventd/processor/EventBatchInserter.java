@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import javax.persistence.SequenceGenerator;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcOperations;
+
+/**
+ * Inserts a batch of {@link OnmsEvent}s, including their parameters, using
+ * JDBC batch statements instead of individual Hibernate saves.
+ *
+ * Identifiers are handed out from blocks reserved on the <code>eventsNxtId</code>
+ * sequence. The blocks are computed the same way as the hi/lo generator Hibernate
+ * uses for {@link OnmsEvent#getId()}, so that events saved through the {@link org.opennms.netmgt.dao.api.EventDao}
+ * never collide with the ones inserted here.
+ *
+ * The statements are executed with the given {@link JdbcOperations}, which must
+ * participate in the surrounding transaction.
+ */
+class EventBatchInserter {
+
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events ("
+            + "eventId, eventUei, nodeId, eventTime, eventHost, eventSource, ipAddr, systemId, eventSnmpHost, serviceId, "
+            + "eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, eventPathOutage, eventCorrelation, "
+            + "eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, eventNotification, "
+            + "eventTTicket, eventTTicketState, eventForward, eventMouseOverText, eventLog, eventDisplay, eventAckUser, eventAckTime, "
+            + "alarmId, ifIndex) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_EVENT_PARAMETER_SQL = "INSERT INTO event_parameters (eventID, name, value, type) VALUES (?, ?, ?, ?)";
+
+    private static final String NEXT_BLOCKS_SQL = "SELECT nextval('%s') FROM generate_series(1, ?)";
+
+    private final JdbcOperations m_jdbcOperations;
+
+    private final String m_nextBlocksSql;
+
+    private final int m_blockSize;
+
+    private long m_nextId = 0;
+
+    private long m_blockEnd = -1;
+
+    public EventBatchInserter(final JdbcOperations jdbcOperations) {
+        m_jdbcOperations = Objects.requireNonNull(jdbcOperations);
+
+        final SequenceGenerator sequence;
+        try {
+            sequence = OnmsEvent.class.getMethod("getId").getAnnotation(SequenceGenerator.class);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException("OnmsEvent has no identifier getter", e);
+        }
+        m_nextBlocksSql = String.format(NEXT_BLOCKS_SQL, sequence.sequenceName());
+        m_blockSize = sequence.allocationSize();
+    }
+
+    /**
+     * Assigns an identifier to each of the given events and inserts them along with
+     * their parameters.
+     *
+     * @param events the events to insert, in order
+     */
+    public void insert(final List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = allocateIds(events.size());
+        final List<OnmsEventParameter> parameters = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            final OnmsEvent event = events.get(i);
+            event.setId((int) ids[i]);
+            if (event.getEventParameters() != null) {
+                parameters.addAll(event.getEventParameters());
+            }
+        }
+
+        m_jdbcOperations.batchUpdate(INSERT_EVENT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                setEventValues(ps, events.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return events.size();
+            }
+        });
+
+        if (!parameters.isEmpty()) {
+            m_jdbcOperations.batchUpdate(INSERT_EVENT_PARAMETER_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                    final OnmsEventParameter parameter = parameters.get(i);
+                    ps.setInt(1, parameter.getEvent().getId());
+                    setString(ps, 2, parameter.getName());
+                    setString(ps, 3, parameter.getValue());
+                    setString(ps, 4, parameter.getType());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return parameters.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands out the next <code>count</code> identifiers, reserving as many new blocks
+     * on the sequence as needed in a single query.
+     *
+     * Identifiers left over in a block are kept for the next batch. Identifiers of a
+     * batch which is rolled back are not reused.
+     */
+    synchronized long[] allocateIds(final int count) {
+        final long[] ids = new long[count];
+        int i = 0;
+        while (i < count) {
+            while (i < count && m_nextId <= m_blockEnd) {
+                ids[i++] = m_nextId++;
+            }
+            if (i < count) {
+                // The first block of a fresh sequence is one short, in which case we go around again
+                final int missing = count - i;
+                final int blocks = (missing + m_blockSize - 1) / m_blockSize;
+                for (final Long hi : m_jdbcOperations.queryForList(m_nextBlocksSql, Long.class, blocks)) {
+                    // Same as Hibernate's legacy hi/lo algorithm, which never hands out 0
+                    m_nextId = hi * m_blockSize + (hi == 0 ? 1 : 0);
+                    m_blockEnd = hi * m_blockSize + m_blockSize - 1;
+                    while (i < count && m_nextId <= m_blockEnd) {
+                        ids[i++] = m_nextId++;
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void setEventValues(final PreparedStatement ps, final OnmsEvent event) throws SQLException {
+        int i = 1;
+        ps.setInt(i++, event.getId());
+        setString(ps, i++, event.getEventUei());
+        setInteger(ps, i++, event.getNode() != null ? event.getNode().getId() : null);
+        setTimestamp(ps, i++, event.getEventTime());
+        setString(ps, i++, event.getEventHost());
+        setString(ps, i++, event.getEventSource());
+        setString(ps, i++, event.getIpAddr() != null ? InetAddressUtils.str(event.getIpAddr()) : null);
+        setString(ps, i++, event.getDistPoller() != null ? event.getDistPoller().getId() : null);
+        setString(ps, i++, event.getEventSnmpHost());
+        setInteger(ps, i++, event.getServiceType() != null ? event.getServiceType().getId() : null);
+        setString(ps, i++, event.getEventSnmp());
+        setTimestamp(ps, i++, event.getEventCreateTime());
+        setString(ps, i++, event.getEventDescr());
+        setString(ps, i++, event.getEventLogGroup());
+        setString(ps, i++, event.getEventLogMsg());
+        setInteger(ps, i++, event.getEventSeverity());
+        setString(ps, i++, event.getEventPathOutage());
+        setString(ps, i++, event.getEventCorrelation());
+        setInteger(ps, i++, event.getEventSuppressedCount());
+        setString(ps, i++, event.getEventOperInstruct());
+        setString(ps, i++, event.getEventAutoAction());
+        setString(ps, i++, event.getEventOperAction());
+        setString(ps, i++, event.getEventOperActionMenuText());
+        setString(ps, i++, event.getEventNotification());
+        setString(ps, i++, event.getEventTTicket());
+        setInteger(ps, i++, event.getEventTTicketState());
+        setString(ps, i++, event.getEventForward());
+        setString(ps, i++, event.getEventMouseOverText());
+        setString(ps, i++, event.getEventLog());
+        setString(ps, i++, event.getEventDisplay());
+        setString(ps, i++, event.getEventAckUser());
+        setTimestamp(ps, i++, event.getEventAckTime());
+        setInteger(ps, i++, event.getAlarm() != null ? event.getAlarm().getId() : null);
+        setInteger(ps, i++, event.getIfIndex());
+    }
+
+    private static void setString(final PreparedStatement ps, final int index, final String value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.VARCHAR);
+        } else {
+            ps.setString(index, value);
+        }
+    }
+
+    private static void setInteger(final PreparedStatement ps, final int index, final Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, value);
+        }
+    }
+
+    private static void setTimestamp(final PreparedStatement ps, final int index, final Date value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(index, new Timestamp(value.getTime()));
+        }
+    }
+}
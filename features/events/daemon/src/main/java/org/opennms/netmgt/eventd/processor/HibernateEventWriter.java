@@ -29,14 +29,18 @@
 package org.opennms.netmgt.eventd.processor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.DistPollerDao;
-import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.api.MonitoringSystemDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
@@ -58,11 +62,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -82,6 +88,11 @@ import com.codahale.metrics.Timer.Context;
  * Values for the ' <parms>' block are loaded with each parm name and parm value
  * delimited with the NAME_VAL_DELIM.
  * 
+ * Logs processed concurrently are written together in a single transaction: the
+ * thread which holds the batch lock writes the events of all of the logs queued up
+ * behind it, using JDBC batch inserts, while the other threads wait for their events
+ * to have been assigned their database IDs.
+ * 
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#MULTIPLE_VAL_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#DB_ATTRIB_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#NAME_VAL_DELIM
@@ -97,6 +108,12 @@ public class HibernateEventWriter implements EventWriter {
     public static final String LOG_MSG_DEST_LOG_AND_DISPLAY = "logndisplay";
     public static final String LOG_MSG_DEST_LOG_ONLY = "logonly";
     public static final String LOG_MSG_DEST_DISPLAY_ONLY = "displayonly";
+
+    /**
+     * Maximum number of events written in a single transaction, unless a single log
+     * holds more events than that.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
     
     @Autowired
     private TransactionOperations m_transactionManager;
@@ -110,19 +127,36 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private DistPollerDao distPollerDao;
     
-    @Autowired
-    private EventDao eventDao;
-
     @Autowired
     private ServiceTypeDao serviceTypeDao;
 
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private final Timer writeTimer;
 
+    private final Timer batchWriteTimer;
+
+    private final Histogram batchSizeHistogram;
+
+    /**
+     * Logs waiting to be written by whichever thread next acquires {@link #m_batchLock}.
+     */
+    private final Queue<PendingLog> m_pendingLogs = new ConcurrentLinkedQueue<>();
+
+    private final Lock m_batchLock = new ReentrantLock();
+
+    private int m_maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private EventBatchInserter m_eventBatchInserter;
+
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        batchWriteTimer = registry.timer("eventlogs.process.write.batch");
+        batchSizeHistogram = registry.histogram("eventlogs.process.write.batch.size");
     }
 
     /**
@@ -181,47 +215,142 @@ public class HibernateEventWriter implements EventWriter {
 
             // Time the transaction and insertions
             try (Context context = writeTimer.time()) {
-                final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
-
-                m_transactionManager.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus status) {
-                        for (Event eachEvent : eventsToPersist) {
-                            try {
-                                process(eventLog.getHeader(), eachEvent);
-                            } catch (EventProcessorException e) {
-                                exception.set(e);
-                                return;
-                            }
-                        }
+                final PendingLog pendingLog = new PendingLog(eventLog.getHeader(), eventsToPersist);
+                m_pendingLogs.add(pendingLog);
+
+                // Whoever holds the lock writes all of the logs queued up behind it in a single
+                // transaction, so by the time we acquire it our log may already have been written
+                m_batchLock.lock();
+                try {
+                    while (!pendingLog.isDone()) {
+                        writeBatch(drainPendingLogs());
                     }
-                });
+                } finally {
+                    m_batchLock.unlock();
+                }
 
-                if (exception.get() != null) {
-                    throw exception.get();
+                if (pendingLog.getException() != null) {
+                    throw pendingLog.getException();
                 }
             }
         }
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * The method that inserts the event into the database
+     * Removes pending logs from the queue until their events fill up a batch.
+     * At least one log is always returned, regardless of its size.
      */
-    private void process(final Header eventHeader, final Event event) throws EventProcessorException {
-        LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+    private List<PendingLog> drainPendingLogs() {
+        final List<PendingLog> batch = new ArrayList<>();
+        int numEvents = 0;
+        PendingLog pendingLog;
+        while (numEvents < m_maxBatchSize && (pendingLog = m_pendingLogs.poll()) != null) {
+            batch.add(pendingLog);
+            numEvents += pendingLog.getEvents().size();
+        }
+        return batch;
+    }
 
-        try {
-            final OnmsEvent ovent = createOnmsEvent(eventHeader, event);
-            eventDao.save(ovent);
+    /**
+     * Writes the events of the given logs in a single transaction.
+     *
+     * If the transaction fails, each of the logs is retried in a transaction
+     * of its own so that a single bad event does not fail the whole batch.
+     */
+    private void writeBatch(final List<PendingLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
 
-            // Update the event with the database ID of the event stored in the database
-            event.setDbid(ovent.getId());
-        } catch (DeadlockLoserDataAccessException e) {
-            throw new EventProcessorException("Encountered deadlock when inserting event: " + event.toString(), e);
+        final int numEvents = batch.stream().mapToInt(l -> l.getEvents().size()).sum();
+        batchSizeHistogram.update(numEvents);
+
+        try (Context context = batchWriteTimer.time()) {
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    final List<OnmsEvent> ovents = new ArrayList<>(numEvents);
+                    for (PendingLog pendingLog : batch) {
+                        for (Event eachEvent : pendingLog.getEvents()) {
+                            LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", eachEvent.getUei(), eachEvent.getNodeid(), eachEvent.getInterface(), eachEvent.getService(), eachEvent.getTime());
+                            ovents.add(createOnmsEvent(pendingLog.getHeader(), eachEvent));
+                        }
+                    }
+                    getEventBatchInserter().insert(ovents);
+
+                    // Update the events with the database IDs of the events stored in the database before
+                    // returning to the callers, the processors that follow rely on them
+                    final Iterator<OnmsEvent> oventIterator = ovents.iterator();
+                    for (PendingLog pendingLog : batch) {
+                        for (Event eachEvent : pendingLog.getEvents()) {
+                            eachEvent.setDbid(oventIterator.next().getId());
+                        }
+                    }
+                }
+            });
         } catch (Throwable e) {
-            throw new EventProcessorException("Unexpected exception while storing event: " + event.toString(), e);
+            if (batch.size() > 1) {
+                LOG.warn("Failed to store a batch of {} events from {} logs. Retrying each log individually.", numEvents, batch.size(), e);
+                for (PendingLog pendingLog : batch) {
+                    writeBatch(Collections.singletonList(pendingLog));
+                }
+            } else if (e instanceof DeadlockLoserDataAccessException) {
+                batch.get(0).fail(new EventProcessorException("Encountered deadlock when inserting events: " + batch.get(0).getEvents(), e));
+            } else {
+                batch.get(0).fail(new EventProcessorException("Unexpected exception while storing events: " + batch.get(0).getEvents(), e));
+            }
+            return;
+        }
+
+        for (PendingLog pendingLog : batch) {
+            pendingLog.complete();
+        }
+    }
+
+    private EventBatchInserter getEventBatchInserter() {
+        if (m_eventBatchInserter == null) {
+            m_eventBatchInserter = new EventBatchInserter(jdbcTemplate);
+        }
+        return m_eventBatchInserter;
+    }
+
+    /**
+     * A log whose events are waiting to be written as part of a batch.
+     */
+    private static class PendingLog {
+        private final Header m_header;
+        private final List<Event> m_events;
+        private volatile boolean m_done = false;
+        private volatile EventProcessorException m_exception;
+
+        public PendingLog(final Header header, final List<Event> events) {
+            m_header = header;
+            m_events = events;
+        }
+
+        public Header getHeader() {
+            return m_header;
+        }
+
+        public List<Event> getEvents() {
+            return m_events;
+        }
+
+        public boolean isDone() {
+            return m_done;
+        }
+
+        public EventProcessorException getException() {
+            return m_exception;
+        }
+
+        public void complete() {
+            m_done = true;
+        }
+
+        public void fail(final EventProcessorException exception) {
+            m_exception = exception;
+            m_done = true;
         }
     }
 
@@ -405,4 +534,8 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        m_maxBatchSize = maxBatchSize;
+    }
 }
@@ -612,9 +612,8 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         manager.addEventListener(slowListener);
 
         // Send 10 events. The first one will be executed on the listener thread,
-        // the next 5 will be enqueued, then the last 4 will be discarded because
-        // the queue is full. After the time has expired, the first 6 events will 
-        // have passed through the listener.
+        // the next 5 will be enqueued, then we will wait for room in the queue
+        // before enqueuing the last 4. All 10 events will pass through the listener.
         //
         for (int i = 0; i < 10; i++) {
             EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/" + i, "testSlowEventListener");
@@ -622,7 +621,61 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
             manager.broadcastNow(e, false);
         }
 
-        await().pollInterval(1, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(6)));
+        // The last events were only queued once the listener handled the first one
+        assertTrue("expected the sender to wait for the listener", counter.get() >= 1);
+
+        await().untilAtomic(counter, is(equalTo(10)));
+        assertEquals(0, m_registry.counter("eventlisteners.testSlowEventListener.discarded").getCount());
+    }
+
+    public void testSlowEventListenerDiscardsAfterTimeout() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger();
+
+        EventListener stuckListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testSlowEventListenerDiscardsAfterTimeout";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(5);
+        manager.setListenerQueueTimeout(100);
+        DefaultEventHandlerImpl handler = new DefaultEventHandlerImpl(m_registry);
+        manager.setEventHandler(handler);
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(stuckListener);
+
+        // Send 10 events. The first one will be taken by the listener thread and
+        // the next 5 will be enqueued. The last 4 will be discarded since the queue
+        // is still full once the timeout expires.
+        //
+        final EventBuilder first = new EventBuilder("uei.opennms.org/foo/0", "testSlowEventListenerDiscardsAfterTimeout");
+        manager.broadcastNow(first.getEvent(), false);
+        await().until(() -> (Integer)m_registry.getGauges().get("eventlisteners.testSlowEventListenerDiscardsAfterTimeout.queued").getValue(), is(equalTo(0)));
+        for (int i = 1; i < 10; i++) {
+            EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/" + i, "testSlowEventListenerDiscardsAfterTimeout");
+            manager.broadcastNow(bldr.getEvent(), false);
+        }
+
+        assertEquals(5, m_registry.getGauges().get("eventlisteners.testSlowEventListenerDiscardsAfterTimeout.queued").getValue());
+        assertTrue((Long)m_registry.getGauges().get("eventlisteners.testSlowEventListenerDiscardsAfterTimeout.lag").getValue() >= 400);
+        assertEquals(4, m_registry.counter("eventlisteners.testSlowEventListenerDiscardsAfterTimeout.discarded").getCount());
+
+        latch.countDown();
+        await().untilAtomic(counter, is(equalTo(6)));
     }
 
     /**
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.enhanced.OptimizerFactory.LegacyHiLoAlgorithmOptimizer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcOperations;
+
+/**
+ * Verifies that the identifiers handed out by the {@link EventBatchInserter}
+ * are the same as the ones Hibernate's legacy hi/lo generator hands out for
+ * the <code>eventsNxtId</code> sequence.
+ */
+public class EventBatchInserterTest {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private JdbcOperations jdbcOperations;
+
+    private EventBatchInserter inserter;
+
+    @Before
+    public void setUp() {
+        jdbcOperations = mock(JdbcOperations.class);
+        // Answers nextval() on the sequence once per requested row
+        when(jdbcOperations.queryForList(anyString(), eq(Long.class), anyVararg())).then(invocation -> {
+            final int rows = (Integer)invocation.getArguments()[2];
+            final List<Long> values = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                values.add(sequence.getAndIncrement());
+            }
+            return values;
+        });
+        inserter = new EventBatchInserter(jdbcOperations);
+    }
+
+    @Test
+    public void skipsZeroInTheFirstBlock() {
+        assertArrayEquals(range(1, 4), inserter.allocateIds(3));
+        verify(jdbcOperations, times(1)).queryForList(anyString(), eq(Long.class), anyVararg());
+    }
+
+    @Test
+    public void reservesSeveralBlocksForALargeBatch() {
+        // The first block only holds 49 ids, so a second query is needed to fill the batch
+        assertArrayEquals(range(1, 151), inserter.allocateIds(150));
+        verify(jdbcOperations, times(2)).queryForList(anyString(), eq(Long.class), anyVararg());
+
+        sequence.set(10);
+        inserter = new EventBatchInserter(jdbcOperations);
+        assertArrayEquals(range(500, 620), inserter.allocateIds(120));
+        verify(jdbcOperations, times(3)).queryForList(anyString(), eq(Long.class), anyVararg());
+    }
+
+    @Test
+    public void reusesLeftOverIdsAcrossBatches() {
+        sequence.set(2);
+        assertArrayEquals(range(100, 130), inserter.allocateIds(30));
+        assertArrayEquals(range(130, 150), inserter.allocateIds(20));
+        verify(jdbcOperations, times(1)).queryForList(anyString(), eq(Long.class), anyVararg());
+
+        assertArrayEquals(range(150, 160), inserter.allocateIds(10));
+        verify(jdbcOperations, times(2)).queryForList(anyString(), eq(Long.class), anyVararg());
+    }
+
+    @Test
+    public void matchesTheHibernateHiLoGenerator() {
+        // OnmsEvent uses the default allocation size of 50, which Hibernate maps to a max_lo of 49
+        final AtomicLong hibernateSequence = new AtomicLong();
+        final LegacyHiLoAlgorithmOptimizer optimizer = new LegacyHiLoAlgorithmOptimizer(Long.class, 49);
+
+        for (int batchSize : new int[] { 1, 48, 2, 50, 49, 1, 137, 3, 100, 250, 7 }) {
+            final long[] expected = new long[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                expected[i] = (Long)optimizer.generate(() -> IdentifierGeneratorHelper.getIntegralDataTypeHolder(Long.class)
+                        .initialize(hibernateSequence.getAndIncrement()));
+            }
+            assertArrayEquals(expected, inserter.allocateIds(batchSize));
+        }
+    }
+
+    private static long[] range(long startInclusive, long endExclusive) {
+        return LongStream.range(startInclusive, endExclusive).toArray();
+    }
+}
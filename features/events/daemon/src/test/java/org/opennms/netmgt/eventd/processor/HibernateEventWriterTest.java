@@ -28,12 +28,20 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import static com.jayway.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +53,7 @@ import org.opennms.netmgt.xml.event.Log;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 /**
  * Unit tests used to verify the number of transactions openened.
@@ -55,10 +64,12 @@ public class HibernateEventWriterTest {
 
     private HibernateEventWriter eventWriter;
     private TransactionOperations transactionManager;
+    private MetricRegistry metrics;
 
     @Before
     public void setUp() {
-        eventWriter = new HibernateEventWriter(new MetricRegistry());
+        metrics = new MetricRegistry();
+        eventWriter = new HibernateEventWriter(metrics);
         transactionManager = mock(TransactionOperations.class);
         eventWriter.setTransactionManager(transactionManager);
     }
@@ -116,4 +127,112 @@ public class HibernateEventWriterTest {
         eventWriter.process(log);
         verify(transactionManager, times(1)).execute(any());
     }
+
+    /**
+     * Verifies that logs which are processed while another log is being
+     * written are written together in a single transaction.
+     */
+    @Test(timeout=30000)
+    public void testConcurrentLogsBatched() throws Exception {
+        final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+        when(transactionManager.execute(any())).then(invocation -> {
+            if (firstTransactionStarted.getCount() > 0) {
+                firstTransactionStarted.countDown();
+                releaseFirstTransaction.await();
+            }
+            return null;
+        });
+
+        // Block the first log in its transaction
+        final Thread first = new Thread(() -> processLog(getLog(1)));
+        first.start();
+        firstTransactionStarted.await();
+
+        // Queue up more logs behind it
+        final List<Thread> others = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final Thread other = new Thread(() -> processLog(getLog(2)));
+            other.start();
+            others.add(other);
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> others.stream().allMatch(t -> t.getState() == Thread.State.WAITING));
+
+        releaseFirstTransaction.countDown();
+        first.join();
+        for (Thread other : others) {
+            other.join();
+        }
+
+        // One transaction for the first log, and one for all the others
+        verify(transactionManager, times(2)).execute(any());
+        final Timer batchTimer = metrics.timer("eventlogs.process.write.batch");
+        assertEquals(2, batchTimer.getCount());
+        assertEquals(2, metrics.histogram("eventlogs.process.write.batch.size").getCount());
+        assertEquals(10, metrics.histogram("eventlogs.process.write.batch.size").getSnapshot().getMax());
+    }
+
+    /**
+     * Verifies that the number of events written in a single
+     * transaction is limited.
+     */
+    @Test
+    public void testBatchSizeLimited() throws Exception {
+        final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+        when(transactionManager.execute(any())).then(invocation -> {
+            if (firstTransactionStarted.getCount() > 0) {
+                firstTransactionStarted.countDown();
+                releaseFirstTransaction.await();
+            }
+            return null;
+        });
+        eventWriter.setMaxBatchSize(4);
+
+        final Thread first = new Thread(() -> processLog(getLog(1)));
+        first.start();
+        firstTransactionStarted.await();
+
+        final List<Thread> others = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread other = new Thread(() -> processLog(getLog(2)));
+            other.start();
+            others.add(other);
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> others.stream().allMatch(t -> t.getState() == Thread.State.WAITING));
+
+        releaseFirstTransaction.countDown();
+        first.join();
+        for (Thread other : others) {
+            other.join();
+        }
+
+        // One transaction for the first log, and two for the 8 other events
+        verify(transactionManager, times(3)).execute(any());
+        assertEquals(4, metrics.histogram("eventlogs.process.write.batch.size").getSnapshot().getMax());
+    }
+
+    private void processLog(Log log) {
+        try {
+            eventWriter.process(log);
+        } catch (EventProcessorException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Log getLog(int numEvents) {
+        final Event[] eventsInLog = new Event[numEvents];
+        for (int i = 0; i < numEvents; i++) {
+            EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            eventsInLog[i] = bldr.getEvent();
+        }
+
+        Events events = new Events();
+        events.setEvent(eventsInLog);
+
+        Log log = new Log();
+        log.setEvents(events);
+        return log;
+    }
 }
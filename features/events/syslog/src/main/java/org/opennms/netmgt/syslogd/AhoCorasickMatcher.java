@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a set of literal strings in a single pass over
+ * the input using the Aho-Corasick algorithm.
+ *
+ * The automaton is immutable once it has been built and can be shared
+ * between threads.
+ */
+public class AhoCorasickMatcher {
+
+    private static final int ROOT = 0;
+
+    /**
+     * The labels of the outgoing edges of every node, sorted so that they
+     * can be searched with a binary search.
+     */
+    private final char[][] m_labels;
+
+    /**
+     * The target nodes of the edges, in the same order as the labels.
+     */
+    private final int[][] m_targets;
+
+    /**
+     * The node to continue from when there is no edge for the next character.
+     */
+    private final int[] m_failure;
+
+    /**
+     * The ids of all patterns that end at the node, including the ones that
+     * end at the nodes along the failure chain.
+     */
+    private final int[][] m_outputs;
+
+    /**
+     * Builds the automaton for the given patterns. The id of a pattern is its
+     * index in the list. Empty patterns are never reported.
+     *
+     * @param patterns the literal strings to search for
+     */
+    public AhoCorasickMatcher(final List<String> patterns) {
+        final List<Map<Character, Integer>> edges = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        outputs.add(new ArrayList<>());
+
+        // Build the trie
+        for (int id = 0; id < patterns.size(); id++) {
+            final String pattern = patterns.get(id);
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            int node = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                final Character c = pattern.charAt(i);
+                Integer next = edges.get(node).get(c);
+                if (next == null) {
+                    next = edges.size();
+                    edges.get(node).put(c, next);
+                    edges.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>());
+                }
+                node = next;
+            }
+            outputs.get(node).add(id);
+        }
+
+        m_labels = new char[edges.size()][];
+        m_targets = new int[edges.size()][];
+        m_failure = new int[edges.size()];
+        m_outputs = new int[edges.size()][];
+
+        for (int node = 0; node < edges.size(); node++) {
+            final Map<Character, Integer> nodeEdges = edges.get(node);
+            m_labels[node] = new char[nodeEdges.size()];
+            m_targets[node] = new int[nodeEdges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : nodeEdges.entrySet()) {
+                m_labels[node][i] = edge.getKey();
+                m_targets[node][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // Compute the failure links breadth-first, so that the links of all
+        // shallower nodes are known when a node is visited
+        final Deque<Integer> queue = new ArrayDeque<>();
+        m_failure[ROOT] = ROOT;
+        m_outputs[ROOT] = toArray(outputs.get(ROOT));
+        for (int child : m_targets[ROOT]) {
+            m_failure[child] = ROOT;
+            m_outputs[child] = toArray(outputs.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int node = queue.poll();
+            for (int i = 0; i < m_labels[node].length; i++) {
+                final char c = m_labels[node][i];
+                final int child = m_targets[node][i];
+
+                int failure = m_failure[node];
+                while (failure != ROOT && next(failure, c) < 0) {
+                    failure = m_failure[failure];
+                }
+                final int target = next(failure, c);
+                m_failure[child] = target >= 0 ? target : ROOT;
+
+                final List<Integer> childOutputs = outputs.get(child);
+                for (int id : m_outputs[m_failure[child]]) {
+                    childOutputs.add(id);
+                }
+                m_outputs[child] = toArray(childOutputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Scans the text and sets the ids of all patterns that occur in it.
+     *
+     * @param text the text to search
+     * @param matches the set to which the ids of the patterns found are added
+     */
+    public void scan(final CharSequence text, final BitSet matches) {
+        int node = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = next(node, c);
+            while (next < 0 && node != ROOT) {
+                node = m_failure[node];
+                next = next(node, c);
+            }
+            node = next >= 0 ? next : ROOT;
+            for (int id : m_outputs[node]) {
+                matches.set(id);
+            }
+        }
+    }
+
+    private int next(final int node, final char c) {
+        final char[] labels = m_labels[node];
+        int low = 0;
+        int high = labels.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (labels[mid] < c) {
+                low = mid + 1;
+            } else if (labels[mid] > c) {
+                high = mid - 1;
+            } else {
+                return m_targets[node][mid];
+            }
+        }
+        return -1;
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -33,9 +33,11 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -97,6 +99,10 @@ public class ConvertToEvent {
         }
     );
 
+    private static volatile MatchPrefilter<UeiMatch> s_ueiMatchPrefilter = MatchPrefilter.forUeiMatches(Collections.emptyList());
+
+    private static volatile MatchPrefilter<HideMatch> s_hideMatchPrefilter = MatchPrefilter.forHideMatches(Collections.emptyList());
+
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -341,7 +347,11 @@ public class ConvertToEvent {
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp);
 
         final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
+        // Only evaluate the entries whose expression can match the message, in order
+        final MatchPrefilter<UeiMatch> ueiMatchPrefilter = getUeiMatchPrefilter(ueiMatch);
+        final BitSet ueiCandidates = ueiMatchPrefilter.getCandidates(message.getMessage());
+        for (int i = ueiCandidates.nextSetBit(0); i >= 0; i = ueiCandidates.nextSetBit(i + 1)) {
+            final UeiMatch uei = ueiMatchPrefilter.getRule(i);
             final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
                                               containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
                                               matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
@@ -349,14 +359,20 @@ public class ConvertToEvent {
                                               matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
 
             if (messageMatchesUeiListEntry) {
-                if (uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
-                    }
-                } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
+                boolean matched = false;
+                try {
+                    if (uei.getMatch().getType().equals("substr")) {
+                        matched = matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei());
+                    } else if ((uei.getMatch().getType().startsWith("regex"))) {
+                        matched = matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei());
                     }
+                } catch (final MessageDiscardedException e) {
+                    ueiMatchPrefilter.recordHit(i);
+                    throw e;
+                }
+                if (matched) {
+                    ueiMatchPrefilter.recordHit(i);
+                    break;
                 }
             }
         }
@@ -368,10 +384,14 @@ public class ConvertToEvent {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
 
-            for (final HideMatch hide : hideMatch) {
+            final MatchPrefilter<HideMatch> hideMatchPrefilter = getHideMatchPrefilter(hideMatch);
+            final BitSet hideCandidates = hideMatchPrefilter.getCandidates(fullText);
+            for (int i = hideCandidates.nextSetBit(0); i >= 0; i = hideCandidates.nextSetBit(i + 1)) {
+                final HideMatch hide = hideMatchPrefilter.getRule(i);
                 if (hide.getMatch().getType().equals("substr")) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
+                        hideMatchPrefilter.recordHit(i);
                         doHide = true;
                         break;
                     }
@@ -381,6 +401,7 @@ public class ConvertToEvent {
                         Matcher msgMat = msgPat.matcher(fullText);
                         if (msgMat.find()) {
                             // We should hide the message based on this match
+                            hideMatchPrefilter.recordHit(i);
                             doHide = true;
                             break;
                         }
@@ -445,6 +466,41 @@ public class ConvertToEvent {
         return CACHED_PATTERNS.getUnchecked(expression);
     }
 
+    private static MatchPrefilter<UeiMatch> getUeiMatchPrefilter(final List<UeiMatch> ueiMatch) {
+        MatchPrefilter<UeiMatch> prefilter = s_ueiMatchPrefilter;
+        if (!prefilter.isBuiltFrom(ueiMatch)) {
+            // The configuration was changed, rebuild the prefilter
+            prefilter = MatchPrefilter.forUeiMatches(ueiMatch);
+            s_ueiMatchPrefilter = prefilter;
+        }
+        return prefilter;
+    }
+
+    private static MatchPrefilter<HideMatch> getHideMatchPrefilter(final List<HideMatch> hideMatch) {
+        MatchPrefilter<HideMatch> prefilter = s_hideMatchPrefilter;
+        if (!prefilter.isBuiltFrom(hideMatch)) {
+            prefilter = MatchPrefilter.forHideMatches(hideMatch);
+            s_hideMatchPrefilter = prefilter;
+        }
+        return prefilter;
+    }
+
+    /**
+     * Returns the number of messages matched by each <code>ueiMatch</code> entry
+     * since the entries were last changed.
+     */
+    public static Map<String, Long> getUeiMatchHits() {
+        return s_ueiMatchPrefilter.getHits();
+    }
+
+    /**
+     * Returns the number of messages matched by each <code>hideMatch</code> entry
+     * since the entries were last changed.
+     */
+    public static Map<String, Long> getHideMatchHits() {
+        return s_hideMatchPrefilter.getHits();
+    }
+
     /**
      * Checks the message for substring matches to a {@link UeiMatch}. If the message
      * matches, then the UEI is updated (or the event is discarded if the discard
@@ -0,0 +1,512 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+/**
+ * Narrows down the {@link UeiMatch} or {@link HideMatch} rules that need to be
+ * evaluated against a message.
+ *
+ * A literal that must be contained in every matching message is extracted from
+ * the expression of each rule. All of these literals are searched for in a single
+ * pass over the message and only the rules whose literal was found, or for which
+ * no literal could be extracted, are returned as candidates. The candidates must
+ * still be evaluated in order, the prefilter only skips rules that can not match.
+ *
+ * The prefilter also counts how often each rule matched, so that rules that
+ * never match can be identified.
+ */
+public class MatchPrefilter<T> {
+
+    private final List<T> m_rules;
+
+    /**
+     * The {@link Match} and expression of every rule at the time the prefilter
+     * was built, used to detect changes to the rules.
+     */
+    private final Match[] m_matches;
+    private final String[] m_expressions;
+    private final String[] m_types;
+
+    /**
+     * The rules for which no literal could be extracted.
+     */
+    private final BitSet m_alwaysCandidates = new BitSet();
+
+    /**
+     * The rules that require each literal, indexed by the id of the literal.
+     */
+    private final BitSet[] m_rulesByLiteral;
+
+    private final AhoCorasickMatcher m_matcher;
+
+    private final Function<T, Match> m_matchGetter;
+
+    private final Function<T, String> m_describer;
+
+    private final AtomicLongArray m_hits;
+
+    /**
+     * @param rules the rules, in the order in which they are evaluated
+     * @param matchGetter returns the {@link Match} of a rule
+     * @param isRegex returns true if the given match type is evaluated as a regular expression
+     * @param describer returns the description of a rule used for the hit counts
+     */
+    public MatchPrefilter(final List<T> rules, final Function<T, Match> matchGetter, final Predicate<String> isRegex, final Function<T, String> describer) {
+        m_rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        m_matches = new Match[m_rules.size()];
+        m_expressions = new String[m_rules.size()];
+        m_types = new String[m_rules.size()];
+        m_matchGetter = matchGetter;
+        m_describer = describer;
+        m_hits = new AtomicLongArray(m_rules.size());
+
+        final Map<String, Integer> literalIds = new HashMap<>();
+        final List<String> literals = new ArrayList<>();
+        final List<BitSet> rulesByLiteral = new ArrayList<>();
+        for (int i = 0; i < m_rules.size(); i++) {
+            final Match match = matchGetter.apply(m_rules.get(i));
+            m_matches[i] = match;
+            m_expressions[i] = match == null ? null : match.getExpression();
+            m_types[i] = match == null ? null : match.getType();
+
+            final String literal;
+            if (m_expressions[i] == null || m_types[i] == null) {
+                literal = null;
+            } else if ("substr".equals(m_types[i])) {
+                literal = m_expressions[i];
+            } else if (isRegex.test(m_types[i])) {
+                literal = getRequiredLiteral(m_expressions[i]);
+            } else {
+                literal = null;
+            }
+
+            if (literal == null || literal.isEmpty()) {
+                m_alwaysCandidates.set(i);
+            } else {
+                Integer id = literalIds.get(literal);
+                if (id == null) {
+                    id = literals.size();
+                    literalIds.put(literal, id);
+                    literals.add(literal);
+                    rulesByLiteral.add(new BitSet());
+                }
+                rulesByLiteral.get(id).set(i);
+            }
+        }
+        m_rulesByLiteral = rulesByLiteral.toArray(new BitSet[rulesByLiteral.size()]);
+        m_matcher = literals.isEmpty() ? null : new AhoCorasickMatcher(literals);
+    }
+
+    public static MatchPrefilter<UeiMatch> forUeiMatches(final List<UeiMatch> ueiMatches) {
+        return new MatchPrefilter<>(ueiMatches, UeiMatch::getMatch, type -> type.startsWith("regex"),
+                uei -> uei.getUei() + " (" + (uei.getMatch() == null ? null : uei.getMatch().getExpression()) + ")");
+    }
+
+    public static MatchPrefilter<HideMatch> forHideMatches(final List<HideMatch> hideMatches) {
+        return new MatchPrefilter<>(hideMatches, HideMatch::getMatch, type -> type.equals("regex"),
+                hide -> hide.getMatch() == null ? null : hide.getMatch().getExpression());
+    }
+
+    /**
+     * Verifies whether this prefilter was built from the given rules and none of
+     * their expressions have been changed since.
+     */
+    public boolean isBuiltFrom(final List<T> rules) {
+        if (rules.size() != m_rules.size()) {
+            return false;
+        }
+        for (int i = 0; i < m_rules.size(); i++) {
+            final T rule = rules.get(i);
+            if (rule != m_rules.get(i)) {
+                return false;
+            }
+            final Match match = m_matchGetter.apply(rule);
+            if (match != m_matches[i]
+                    || (match != null && (match.getExpression() != m_expressions[i] || match.getType() != m_types[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the indexes of the rules that may match the given text.
+     *
+     * @param text the text that is matched by the rules
+     * @return the indexes of the candidate rules, in a new set
+     */
+    public BitSet getCandidates(final String text) {
+        final BitSet candidates = (BitSet)m_alwaysCandidates.clone();
+        if (m_matcher != null && text != null) {
+            final BitSet literals = new BitSet(m_rulesByLiteral.length);
+            m_matcher.scan(text, literals);
+            for (int id = literals.nextSetBit(0); id >= 0; id = literals.nextSetBit(id + 1)) {
+                candidates.or(m_rulesByLiteral[id]);
+            }
+        }
+        return candidates;
+    }
+
+    public T getRule(final int index) {
+        return m_rules.get(index);
+    }
+
+    public int size() {
+        return m_rules.size();
+    }
+
+    /**
+     * Counts a match of the rule with the given index.
+     */
+    public void recordHit(final int index) {
+        m_hits.incrementAndGet(index);
+    }
+
+    public long getHits(final int index) {
+        return m_hits.get(index);
+    }
+
+    /**
+     * Returns the number of matches of every rule, in the order of the rules.
+     * The counts are kept for as long as the rules are not changed.
+     */
+    public Map<String, Long> getHits() {
+        final Map<String, Long> hits = new LinkedHashMap<>();
+        for (int i = 0; i < m_rules.size(); i++) {
+            hits.put("#" + (i + 1) + " " + m_describer.apply(m_rules.get(i)), m_hits.get(i));
+        }
+        return hits;
+    }
+
+    /**
+     * Extracts the longest literal that is contained in every string that is
+     * found by the given regular expression, compiled with {@link java.util.regex.Pattern#MULTILINE}.
+     *
+     * Only the parts of the expression that must always be matched are considered:
+     * alternations, optional elements and groups that are not always matched are
+     * skipped. Expressions using constructs that are not understood yield no literal.
+     *
+     * @param regex the regular expression
+     * @return the longest required literal, or null if none could be extracted
+     */
+    protected static String getRequiredLiteral(final String regex) {
+        final List<String> literals = new ArrayList<>();
+        try {
+            final LiteralExtractor extractor = new LiteralExtractor(regex);
+            if (!extractor.alternation(literals) || extractor.m_pos != regex.length()) {
+                return null;
+            }
+        } catch (final UnsupportedExpressionException e) {
+            return null;
+        }
+
+        String longest = null;
+        for (String literal : literals) {
+            if (longest == null || literal.length() > longest.length()) {
+                longest = literal;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Thrown by the {@link LiteralExtractor} to give up on an expression it does
+     * not understand. It is not an error, so no stack trace is collected.
+     */
+    private static class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedExpressionException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A minimal parser for the syntax of {@link java.util.regex.Pattern} which
+     * collects the runs of literal characters that are always matched.
+     */
+    private static class LiteralExtractor {
+        private final String m_regex;
+        private int m_pos = 0;
+
+        private LiteralExtractor(final String regex) {
+            m_regex = regex;
+        }
+
+        /**
+         * Parses alternatives up to the end of the expression or the end of the
+         * current group.
+         *
+         * @return false if there is more than one alternative, in which case no
+         *   literals are added
+         */
+        private boolean alternation(final List<String> literals) {
+            final List<String> sequence = new ArrayList<>();
+            sequence(sequence);
+            boolean single = true;
+            while (m_pos < m_regex.length() && m_regex.charAt(m_pos) == '|') {
+                m_pos++;
+                single = false;
+                sequence(new ArrayList<>());
+            }
+            if (single) {
+                literals.addAll(sequence);
+            }
+            return single;
+        }
+
+        private void sequence(final List<String> literals) {
+            final StringBuilder run = new StringBuilder();
+            while (m_pos < m_regex.length()) {
+                final char c = m_regex.charAt(m_pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                m_pos++;
+
+                final String literal;
+                final List<String> groupLiterals = new ArrayList<>();
+                switch (c) {
+                case '\\':
+                    literal = escape();
+                    break;
+                case '[':
+                    characterClass();
+                    literal = null;
+                    break;
+                case '(':
+                    group(groupLiterals);
+                    literal = null;
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    literal = null;
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    // Dangling quantifier
+                    throw new UnsupportedExpressionException();
+                default:
+                    literal = String.valueOf(c);
+                    break;
+                }
+
+                final int min = quantifier();
+                if (literal == null) {
+                    flush(run, literals);
+                    if (min != 0) {
+                        literals.addAll(groupLiterals);
+                    }
+                } else if (min < 0) {
+                    run.append(literal);
+                } else {
+                    // Only the last character of the literal is repeated
+                    run.append(literal, 0, literal.length() - 1);
+                    if (min > 0) {
+                        run.append(literal.charAt(literal.length() - 1));
+                    }
+                    flush(run, literals);
+                }
+            }
+            flush(run, literals);
+        }
+
+        private static void flush(final StringBuilder run, final List<String> literals) {
+            if (run.length() > 0) {
+                literals.add(run.toString());
+                run.setLength(0);
+            }
+        }
+
+        /**
+         * Parses the escape sequence following a backslash.
+         *
+         * @return the literal matched by the sequence or null if the sequence
+         *   does not match a literal
+         */
+        private String escape() {
+            final char c = next();
+            if (!Character.isLetterOrDigit(c)) {
+                return String.valueOf(c);
+            }
+            switch (c) {
+            case 't': return "\t";
+            case 'n': return "\n";
+            case 'r': return "\r";
+            case 'f': return "\f";
+            case 'a': return "\u0007";
+            case 'e': return "\u001B";
+            case 'd': case 'D': case 's': case 'S': case 'w': case 'W':
+            case 'b': case 'B': case 'A': case 'G': case 'Z': case 'z':
+            case 'h': case 'H': case 'v': case 'V': case 'R': case 'X':
+                return null;
+            case 'Q':
+                final int end = m_regex.indexOf("\\E", m_pos);
+                final String quoted = m_regex.substring(m_pos, end < 0 ? m_regex.length() : end);
+                m_pos = end < 0 ? m_regex.length() : end + 2;
+                return quoted.isEmpty() ? null : quoted;
+            default:
+                // Back references, code points, named classes, ...
+                throw new UnsupportedExpressionException();
+            }
+        }
+
+        private void characterClass() {
+            int depth = 1;
+            if (peek() == '^') {
+                m_pos++;
+            }
+            if (peek() == ']') {
+                // Leave empty or unusual classes to the regex engine
+                throw new UnsupportedExpressionException();
+            }
+            while (depth > 0) {
+                final char c = next();
+                if (c == '\\') {
+                    next();
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                }
+            }
+        }
+
+        private void group(final List<String> literals) {
+            boolean consuming = true;
+            if (peek() == '?') {
+                m_pos++;
+                final char c = next();
+                if (c == ':' || c == '>') {
+                    // Non-capturing or atomic group
+                } else if (c == '<' && Character.isLetter(peek())) {
+                    // Named group
+                    while (next() != '>') {
+                        // Skip the name
+                    }
+                } else if (c == '=' || c == '!' || (c == '<' && (peek() == '=' || peek() == '!'))) {
+                    // Look-around, which does not consume anything
+                    if (c == '<') {
+                        m_pos++;
+                    }
+                    consuming = false;
+                } else {
+                    // Flags may change the case sensitivity
+                    throw new UnsupportedExpressionException();
+                }
+            }
+
+            final List<String> groupLiterals = new ArrayList<>();
+            alternation(groupLiterals);
+            if (next() != ')') {
+                throw new UnsupportedExpressionException();
+            }
+            if (consuming) {
+                literals.addAll(groupLiterals);
+            }
+        }
+
+        /**
+         * Parses the quantifier following an element, if any.
+         *
+         * @return the minimum number of repetitions or -1 if there is no quantifier
+         */
+        private int quantifier() {
+            if (m_pos >= m_regex.length()) {
+                return -1;
+            }
+            final int min;
+            switch (m_regex.charAt(m_pos)) {
+            case '?':
+            case '*':
+                m_pos++;
+                min = 0;
+                break;
+            case '+':
+                m_pos++;
+                min = 1;
+                break;
+            case '{':
+                m_pos++;
+                final int start = m_pos;
+                while (Character.isDigit(peek())) {
+                    m_pos++;
+                }
+                if (start == m_pos) {
+                    throw new UnsupportedExpressionException();
+                }
+                try {
+                    min = Integer.parseInt(m_regex.substring(start, m_pos));
+                } catch (final NumberFormatException e) {
+                    throw new UnsupportedExpressionException();
+                }
+                while (next() != '}') {
+                    // Skip the maximum
+                }
+                break;
+            default:
+                return -1;
+            }
+            // Reluctant or possessive quantifier
+            if (peek() == '?' || peek() == '+') {
+                m_pos++;
+            }
+            return min;
+        }
+
+        private char peek() {
+            return m_pos < m_regex.length() ? m_regex.charAt(m_pos) : 0;
+        }
+
+        private char next() {
+            if (m_pos >= m_regex.length()) {
+                throw new UnsupportedExpressionException();
+            }
+            return m_regex.charAt(m_pos++);
+        }
+    }
+}
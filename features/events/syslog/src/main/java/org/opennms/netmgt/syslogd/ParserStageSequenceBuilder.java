@@ -334,7 +334,10 @@ public class ParserStageSequenceBuilder {
 				LOG.trace("Starting stage: " + this);
 			}
 
-			ParserState state = incomingState.clone();
+			// Only stages that store a result need their own copy of the message,
+			// all other stages can share the message of the incoming state since
+			// they never modify it
+			ParserState state = m_resultConsumer == null ? incomingState : incomingState.clone();
 
 			// Create a new state for the current ParserStage.
 			// Use ByteBuffer.duplicate() to create a buffer with marks
@@ -127,7 +127,7 @@ public class RadixTreeSyslogParser extends SyslogParser {
 
 	@Override
 	public SyslogMessage parse() {
-		SyslogMessage retval = radixParser.parse(getText()).join();
+		SyslogMessage retval = radixParser.parseSync(getText());
 
 		if (retval != null) {
 			// Trim off the RFC 5424 structured data to emulate the behavior of the legacy parser (for now)
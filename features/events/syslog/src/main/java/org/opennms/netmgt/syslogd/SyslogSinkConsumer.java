@@ -31,6 +31,7 @@ package org.opennms.netmgt.syslogd;
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
@@ -54,6 +55,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -83,6 +85,9 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
+        // Expose the number of matches of each rule so that unused rules can be pruned
+        registry.register("consumer.ueimatch.hits", (Gauge<Map<String, Long>>) ConvertToEvent::getUeiMatchHits);
+        registry.register("consumer.hidematch.hits", (Gauge<Map<String, Long>>) ConvertToEvent::getHideMatchHits);
         localAddr = InetAddressUtils.getLocalHostName();
     }
 
@@ -396,6 +396,33 @@ public class BufferParserTest {
 		assertNull("No pattern should match", root.join());
 	}
 
+	/**
+	 * Make sure that the first complete parse in the order that the sequences
+	 * were taught is returned and that values consumed by branches that failed
+	 * later on do not leak into the result.
+	 */
+	@Test
+	public void testRadixTreeFirstMatchWins() {
+		RadixTreeParser radixParser = new RadixTreeParser();
+		radixParser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}>%{STRING:hostname} foo").toArray(new ParserStage[0]));
+		radixParser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}>%{STRING:processName} %{STRING:message}").toArray(new ParserStage[0]));
+		radixParser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}>%{STRING:message}").toArray(new ParserStage[0]));
+		radixParser.performEdgeCompression();
+
+		SyslogMessage message = radixParser.parse(ByteBuffer.wrap("<13>host bar".getBytes(StandardCharsets.US_ASCII))).join();
+		assertNotNull(message);
+		assertNull(message.getHostName());
+		assertEquals("host", message.getProcessName());
+		assertEquals("bar", message.getMessage());
+		assertEquals(SyslogSeverity.NOTICE, message.getSeverity());
+
+		message = radixParser.parseSync(ByteBuffer.wrap("<13>host foo".getBytes(StandardCharsets.US_ASCII)));
+		assertNotNull(message);
+		assertEquals("host", message.getHostName());
+		assertNull(message.getProcessName());
+		assertNull(message.getMessage());
+	}
+
 	@Test
 	public void testGrokRadixTree() {
 		RadixTreeParser radixParser = new RadixTreeParser();
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class MatchPrefilterTest {
+
+    @Test
+    public void canExtractRequiredLiterals() {
+        assertEquals("foo bar", MatchPrefilter.getRequiredLiteral("foo bar"));
+        assertEquals("%SEC-6-IPACCESSLOGP", MatchPrefilter.getRequiredLiteral("^.*(%SEC-6-IPACCESSLOGP): list (\\S+) denied"));
+        assertEquals(" dropped", MatchPrefilter.getRequiredLiteral("\\d+ packets? dropped"));
+        assertEquals("bar.baz", MatchPrefilter.getRequiredLiteral("[foo]bar\\.baz"));
+        assertEquals("ab", MatchPrefilter.getRequiredLiteral("abc?d"));
+        assertEquals("a.b", MatchPrefilter.getRequiredLiteral("\\Qa.b\\E+"));
+        assertEquals(" world", MatchPrefilter.getRequiredLiteral("(?<name>hello) world"));
+        assertEquals("Failed ", MatchPrefilter.getRequiredLiteral("^Failed (.*?) for (\\S+) from (.*?) port (\\d+) ssh(\\d)$"));
+
+        // Nothing is always matched
+        assertNull(MatchPrefilter.getRequiredLiteral("^(.*)$"));
+        assertNull(MatchPrefilter.getRequiredLiteral("foo|bar"));
+        assertNull(MatchPrefilter.getRequiredLiteral("x?(abc)*"));
+        // Unsupported constructs
+        assertNull(MatchPrefilter.getRequiredLiteral("(?i)foo"));
+        assertNull(MatchPrefilter.getRequiredLiteral("(foo) \\1"));
+        assertNull(MatchPrefilter.getRequiredLiteral("\\x41BC"));
+        assertNull(MatchPrefilter.getRequiredLiteral("*foo"));
+        assertNull(MatchPrefilter.getRequiredLiteral("foo[]]"));
+        assertNull(MatchPrefilter.getRequiredLiteral("(foo"));
+        assertNull(MatchPrefilter.getRequiredLiteral("fo{99999999999}"));
+    }
+
+    @Test
+    public void canFindCandidatesInOrder() {
+        final List<UeiMatch> ueiMatches = Arrays.asList(
+                ueiMatch("uei.1", "regex", "^Interface (.*) is online$"),
+                ueiMatch("uei.2", "substr", "offline"),
+                ueiMatch("uei.3", "regex", "^(.*)$"),
+                ueiMatch("uei.4", "regex", "is (on|off)line"));
+        final MatchPrefilter<UeiMatch> prefilter = MatchPrefilter.forUeiMatches(ueiMatches);
+
+        assertEquals(bits(0, 2, 3), prefilter.getCandidates("Interface eth0 is online"));
+        assertEquals(bits(1, 2, 3), prefilter.getCandidates("Port eth0 is offline"));
+        assertEquals(bits(2), prefilter.getCandidates("something else"));
+        assertEquals(bits(2), prefilter.getCandidates(null));
+    }
+
+    @Test
+    public void doesNotSkipMatchingRules() {
+        final String[] expressions = {
+                "^Interface (.*) is online$", "\\d+ packets? dropped", "a(bc)+d", "(?:foo)?bar", "x{2,}y", "[online]+ is",
+                "\\Qis (on\\E", "is (?=on)", "^(?:(.*):\\s*)?Killed process (\\d+) \\((.*)\\).*$"
+        };
+        final String[] messages = {
+                "Interface eth0 is online", "3 packets dropped", "1 packet dropped", "abcbcd", "bar", "foobar", "xxxy", "xy",
+                "noon is", "is (on", "is on", "kernel: Killed process 1 (x)", "Killed process 12 (java) foo", ""
+        };
+        final List<UeiMatch> ueiMatches = new ArrayList<>();
+        for (String expression : expressions) {
+            ueiMatches.add(ueiMatch("uei", "regex", expression));
+        }
+        final MatchPrefilter<UeiMatch> prefilter = MatchPrefilter.forUeiMatches(ueiMatches);
+
+        for (String message : messages) {
+            final BitSet candidates = prefilter.getCandidates(message);
+            for (int i = 0; i < expressions.length; i++) {
+                if (Pattern.compile(expressions[i], Pattern.MULTILINE).matcher(message).find()) {
+                    assertTrue(expressions[i] + " should be a candidate for " + message, candidates.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canDetectChangedRules() {
+        final List<UeiMatch> ueiMatches = new ArrayList<>();
+        ueiMatches.add(ueiMatch("uei.1", "substr", "foo"));
+        final MatchPrefilter<UeiMatch> prefilter = MatchPrefilter.forUeiMatches(ueiMatches);
+        assertTrue(prefilter.isBuiltFrom(ueiMatches));
+        assertTrue(prefilter.isBuiltFrom(new ArrayList<>(ueiMatches)));
+
+        ueiMatches.get(0).getMatch().setExpression("bar");
+        assertFalse(prefilter.isBuiltFrom(ueiMatches));
+
+        ueiMatches.set(0, ueiMatch("uei.1", "substr", "foo"));
+        assertFalse(prefilter.isBuiltFrom(ueiMatches));
+    }
+
+    @Test
+    public void canCountHits() {
+        final MatchPrefilter<UeiMatch> prefilter = MatchPrefilter.forUeiMatches(Arrays.asList(
+                ueiMatch("uei.1", "substr", "foo"),
+                ueiMatch("uei.2", "regex", "ba[rz]")));
+        prefilter.recordHit(1);
+        prefilter.recordHit(1);
+
+        assertEquals(0L, prefilter.getHits(0));
+        assertEquals(2L, prefilter.getHits(1));
+        assertEquals(Arrays.asList("#1 uei.1 (foo)", "#2 uei.2 (ba[rz])"), new ArrayList<>(prefilter.getHits().keySet()));
+        assertEquals(Arrays.asList(0L, 2L), new ArrayList<>(prefilter.getHits().values()));
+    }
+
+    private static UeiMatch ueiMatch(final String uei, final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setUei(uei);
+        ueiMatch.setMatch(match);
+        return ueiMatch;
+    }
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.opennms.core.collections.RadixTreeNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the depth-first walk of the {@link RadixTreeParser} with the previous
+ * approach of chaining a future for every branch of the tree, parsing every message
+ * of <code>syslogMessages.txt</code> with the default grok patterns.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.syslogd.RadixTreeParserBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RadixTreeParserBenchmark {
+
+    private RadixTreeParser radixParser;
+
+    private List<byte[]> messages;
+
+    @Setup
+    public void setUp() throws IOException {
+        radixParser = new RadixTreeParser();
+        for (String pattern : readLines("org/opennms/netmgt/syslogd/grok-patterns.txt")) {
+            radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+        }
+        radixParser.performEdgeCompression();
+
+        messages = readLines("syslogMessages.txt").stream()
+                .map(line -> line.getBytes(StandardCharsets.US_ASCII))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void depthFirst(final Blackhole blackhole) {
+        for (final byte[] message : messages) {
+            blackhole.consume(radixParser.parseSync(ByteBuffer.wrap(message)));
+        }
+    }
+
+    @Benchmark
+    public void futures(final Blackhole blackhole) {
+        for (final byte[] message : messages) {
+            blackhole.consume(parseWithFutures(radixParser, ByteBuffer.wrap(message)).join());
+        }
+    }
+
+    private static List<String> readLines(final String resource) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(RadixTreeParserBenchmark.class.getClassLoader().getResourceAsStream(resource), StandardCharsets.UTF_8))) {
+            // Ignore comments and blank lines
+            return reader.lines()
+                    .filter(line -> line.trim().length() > 0 && !line.trim().startsWith("#"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The previous implementation of {@link RadixTreeParser#parse(ByteBuffer)} that
+     * added a future for every stage of the tree and completed with the first leaf
+     * that returned a non-null result.
+     */
+    private static CompletableFuture<SyslogMessage> parseWithFutures(final RadixTreeParser parser, final ByteBuffer incoming) {
+        final List<CompletableFuture<ParserState>> finishedFutures = new ArrayList<>();
+        addStageFutures(finishedFutures, CompletableFuture.completedFuture(new ParserState(incoming)), parser.tree);
+
+        final CompletableFuture<ParserState> parent = new CompletableFuture<>();
+        CompletableFuture.allOf(finishedFutures.stream()
+                .map(f -> f.thenAccept(s -> {
+                    if (s != null) {
+                        parent.complete(s);
+                    }
+                }))
+                .toArray(CompletableFuture<?>[]::new)
+        ).exceptionally(ex -> {
+            parent.complete(null);
+            return null;
+        }).thenAccept(v -> parent.complete(null));
+
+        return parent.thenApply(s -> s == null ? null : s.message);
+    }
+
+    private static void addStageFutures(final List<CompletableFuture<ParserState>> finishedFutures, final CompletableFuture<ParserState> parent, final RadixTreeNode<ParserStage> node) {
+        final CompletableFuture<ParserState> current = node.getContent() == null ? parent : parent.thenApply(s -> node.getContent().apply(s));
+        if (node.getChildren() != null && node.getChildren().size() > 0) {
+            for (RadixTreeNode<ParserStage> child : node.getChildren()) {
+                addStageFutures(finishedFutures, current, child);
+            }
+        } else {
+            finishedFutures.add(current);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(RadixTreeParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -29,22 +29,45 @@
 package org.opennms.netmgt.flows.classification.internal.matcher;
 
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 import org.opennms.core.utils.IPLike;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.internal.value.IpValue;
 import org.opennms.netmgt.flows.classification.internal.value.StringValue;
 
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 class IpMatcher implements Matcher {
 
+    // Rules without a port definition are instantiated once per port, so the compiled expressions are shared
+    private static final Cache<String, IpValue> COMPILED_VALUES = CacheBuilder.newBuilder().weakValues().build();
+
     // Extracts the value from the ClassificationRequest. Allows to easily distinguish between srcAddress and dstAddress
     private final Function<ClassificationRequest, String> valueExtractor;
     private final StringValue value;
+    // The compiled expression, or null if the expression can not be compiled
+    private final IpValue ipValue;
 
     protected IpMatcher(String input, Function<ClassificationRequest, String> valueExtractor) {
         this.value = new StringValue(input);
         this.valueExtractor = Objects.requireNonNull(valueExtractor);
+        this.ipValue = compile(value);
+    }
+
+    private static IpValue compile(StringValue value) {
+        if (value.isNullOrEmpty() || value.isWildcard()) {
+            return null;
+        }
+        try {
+            return COMPILED_VALUES.get(value.getValue(), () -> new IpValue(value.getValue()));
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            // Not supported by the compiled form (e.g. scoped addresses), fall back to IPLike
+            return null;
+        }
     }
 
     @Override
@@ -53,6 +76,9 @@ class IpMatcher implements Matcher {
             return true;
         }
         final String currentAddressValue = valueExtractor.apply(request);
+        if (ipValue != null) {
+            return ipValue.matches(currentAddressValue);
+        }
         if (value.hasWildcard()) {
             return IPLike.matches(currentAddressValue, value.getValue());
         }
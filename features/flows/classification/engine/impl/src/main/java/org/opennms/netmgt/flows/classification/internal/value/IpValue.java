@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.value;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An IPLIKE expression (e.g. <code>192.168.1-3.*</code> or <code>fe80:*:*:*:*:*:*:1-ff</code>)
+ * compiled into a binary representation, which allows to match addresses without
+ * splitting or parsing them into intermediate strings.
+ *
+ * For IPv4, each octet is compiled into a 256 bit mask. For IPv6, each field is
+ * compiled into a sorted list of non-overlapping intervals.
+ * Addresses are matched while they are scanned, so matching does not allocate.
+ *
+ * Scope identifiers are not supported by the compiled form.
+ */
+public class IpValue {
+
+    private static final int IPV4_FIELDS = 4;
+    private static final int IPV6_FIELDS = 8;
+
+    private final String input;
+
+    private final boolean ipv6;
+
+    // IPv4: One 256 bit mask per octet
+    private final long[][] octetMasks;
+
+    // IPv6: Per field, the lower and upper bounds of the intervals: [lower0, upper0, lower1, upper1, ...]
+    private final int[][] fieldIntervals;
+
+    public IpValue(String input) {
+        this.input = Objects.requireNonNull(input);
+        if (input.indexOf('%') != -1) {
+            throw new IllegalArgumentException("Scope identifiers are not supported: " + input);
+        }
+        this.ipv6 = input.indexOf(':') != -1;
+        if (!ipv6 && input.indexOf('.') == -1) {
+            throw new IllegalArgumentException("Cannot determine whether address is a IPv4 or IPv6 address: " + input);
+        }
+
+        final String[] fields = input.split(ipv6 ? "\\:" : "\\.", 0);
+        if (fields.length != (ipv6 ? IPV6_FIELDS : IPV4_FIELDS)) {
+            throw new IllegalArgumentException("Malformatted IPLIKE match expression: " + input);
+        }
+        if (ipv6) {
+            octetMasks = null;
+            fieldIntervals = new int[IPV6_FIELDS][];
+            for (int i = 0; i < IPV6_FIELDS; i++) {
+                fieldIntervals[i] = compileIntervals(fields[i]);
+            }
+        } else {
+            fieldIntervals = null;
+            octetMasks = new long[IPV4_FIELDS][];
+            for (int i = 0; i < IPV4_FIELDS; i++) {
+                octetMasks[i] = compileMask(fields[i]);
+            }
+        }
+    }
+
+    public String getValue() {
+        return input;
+    }
+
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    public boolean matches(CharSequence address) {
+        if (address == null) {
+            return false;
+        }
+        return ipv6 ? matchesIpv6(address) : matchesIpv4(address);
+    }
+
+    private boolean matchesIpv4(CharSequence address) {
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) {
+                    return false;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || field >= IPV4_FIELDS - 1 || !isSet(octetMasks[field], value)) {
+                    return false;
+                }
+                field++;
+                value = 0;
+                digits = 0;
+            } else {
+                // Not an IPv4 address
+                return false;
+            }
+        }
+        return field == IPV4_FIELDS - 1 && digits > 0 && isSet(octetMasks[field], value);
+    }
+
+    private boolean matchesIpv6(CharSequence address) {
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            final int digit = Character.digit(c, 16);
+            if (digit >= 0) {
+                value = (value << 4) | digit;
+                if (++digits > 4) {
+                    return false;
+                }
+            } else if (c == ':') {
+                if (digits == 0 || field >= IPV6_FIELDS - 1 || !contains(fieldIntervals[field], value)) {
+                    return false;
+                }
+                field++;
+                value = 0;
+                digits = 0;
+            } else if (c == '%') {
+                // The scope of the address is not considered
+                break;
+            } else {
+                // Not an IPv6 address, or an embedded IPv4 address
+                return false;
+            }
+        }
+        return field == IPV6_FIELDS - 1 && digits > 0 && contains(fieldIntervals[field], value);
+    }
+
+    private static boolean isSet(long[] mask, int value) {
+        return (mask[value >>> 6] & (1L << (value & 63))) != 0;
+    }
+
+    private static boolean contains(int[] intervals, int value) {
+        for (int i = 0; i < intervals.length; i += 2) {
+            if (value < intervals[i]) {
+                // Intervals are sorted
+                return false;
+            }
+            if (value <= intervals[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long[] compileMask(String field) {
+        final long[] mask = new long[4];
+        for (long[] range : parseRanges(field, 10, 255)) {
+            for (long v = range[0]; v <= range[1]; v++) {
+                mask[(int) (v >>> 6)] |= 1L << (v & 63);
+            }
+        }
+        return mask;
+    }
+
+    private static int[] compileIntervals(String field) {
+        final long[][] ranges = parseRanges(field, 16, 0xffff);
+        Arrays.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+
+        // Merge overlapping and adjacent intervals
+        final int[] merged = new int[ranges.length * 2];
+        int count = 0;
+        for (long[] range : ranges) {
+            if (range[0] > range[1]) {
+                continue;
+            }
+            if (count > 0 && range[0] <= merged[count - 1] + 1L) {
+                merged[count - 1] = (int) Math.max(merged[count - 1], range[1]);
+            } else {
+                merged[count++] = (int) range[0];
+                merged[count++] = (int) range[1];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * Parses a comma separated list of values and ranges, with the same semantics as
+     * {@link org.opennms.core.utils.IPLike#matchNumericListOrRange(String, String)}.
+     * Bounds exceeding the maximum field value are clipped, as no address can match them.
+     */
+    private static long[][] parseRanges(String field, int radix, int maxValue) {
+        final String[] elements = field.split(",", 0);
+        final long[][] ranges = new long[elements.length][];
+        for (int i = 0; i < elements.length; i++) {
+            final String element = elements[i];
+            final long lower;
+            final long upper;
+            if ("*".equals(element)) {
+                lower = 0;
+                upper = maxValue;
+            } else {
+                final int dash = element.indexOf('-');
+                if (dash == -1) {
+                    lower = upper = Long.parseLong(element, radix);
+                } else if (element.indexOf('-', dash + 1) != -1) {
+                    // Never matches, like IPLike does
+                    lower = 1;
+                    upper = 0;
+                } else {
+                    lower = Long.parseLong(element.substring(0, dash), radix);
+                    upper = Long.parseLong(element.substring(dash + 1), radix);
+                }
+            }
+            ranges[i] = new long[] { Math.max(0, lower), Math.min(maxValue, upper) };
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the classification throughput for rule sets with many address based rules.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.flows.classification.internal.ClassificationEngineBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassificationEngineBenchmark {
+
+    @Param({"100", "1000"})
+    private int ruleCount;
+
+    private DefaultClassificationEngine engine;
+
+    private ClassificationRequest[] requests;
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        final List<Rule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add(new RuleBuilder()
+                    .withName("rule" + i)
+                    .withDstPort(i % 2 == 0 ? 443 : 80)
+                    .withDstAddress(String.format("10.%d.%d-%d.*", i / 256, (i % 256) / 2, (i % 256) / 2 + 1))
+                    .withSrcAddress(i % 3 == 0 ? "192.168.*.1-127" : "*")
+                    .build());
+        }
+        rules.add(new RuleBuilder().withName("ipv6").withDstAddress("2001:db8:*:*:*:*:*:*").build());
+        engine = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+
+        requests = new ClassificationRequest[1024];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withSrcAddress(String.format("192.168.%d.%d", i % 256, i % 200))
+                    .withSrcPort(50000 + i)
+                    .withDstAddress(String.format("10.%d.%d.%d", (i * 7) % 4, (i * 13) % 256, i % 256))
+                    .withDstPort(i % 2 == 0 ? 443 : 80)
+                    .withProtocol(ProtocolType.TCP)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public String classify() {
+        index = (index + 1) & (requests.length - 1);
+        return engine.classify(requests[index]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(ClassificationEngineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.value;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.utils.IPLike;
+
+public class IpValueTest {
+
+    private static final List<String> IPV4_ADDRESSES = Arrays.asList(
+            "0.0.0.0", "10.0.0.1", "10.0.0.5", "10.0.1.1", "10.1.0.1", "127.0.0.1",
+            "192.168.0.1", "192.168.1.1", "192.168.1.255", "192.168.2.17", "255.255.255.255");
+
+    private static final List<String> IPV6_ADDRESSES = Arrays.asList(
+            "0:0:0:0:0:0:0:1", "fe80:0:0:0:0:0:0:1", "fe80:0:0:0:1ff:fe23:4567:890a",
+            "2001:db8:0:0:0:0:0:1", "2001:db8:85a3:0:0:8a2e:370:7334", "FE80:0:0:0:0:0:0:FF");
+
+    @Test
+    public void verifyIpv4() {
+        verify(IPV4_ADDRESSES, "10.0.0.1", "10.0.0.*", "10.0-1.*.1", "192.168.1.*", "192.168.1-2.1-20,255",
+                "*.*.*.*", "127.*.*.1", "192.168.0-255.0-255", "10.0.0.1-5", "10.0.0.5-1", "10.0.0.1,5");
+    }
+
+    @Test
+    public void verifyIpv6() {
+        verify(IPV6_ADDRESSES, "fe80:*:*:*:*:*:*:*", "fe80:0:0:0:0:0:0:1", "*:*:*:*:*:*:*:1-ff",
+                "2001:db8:*:*:*:*:*:*", "2001:db8:85a3:0:0:8a2e:0-ffff:7334", "fe80:*:*:*:*:*:*:ff,1");
+    }
+
+    @Test
+    public void verifyAddressTypeMismatch() {
+        assertThat(new IpValue("10.0.0.*").matches("fe80:0:0:0:0:0:0:1"), is(false));
+        assertThat(new IpValue("fe80:*:*:*:*:*:*:*").matches("10.0.0.1"), is(false));
+    }
+
+    @Test
+    public void verifyMalformedAddresses() {
+        final IpValue value = new IpValue("*.*.*.*");
+        assertThat(value.matches(null), is(false));
+        assertThat(value.matches(""), is(false));
+        assertThat(value.matches("localhost"), is(false));
+        assertThat(value.matches("10.0.0"), is(false));
+        assertThat(value.matches("10.0.0.1.1"), is(false));
+        assertThat(value.matches("10.0.0.256"), is(false));
+        assertThat(value.matches("10..0.1"), is(false));
+    }
+
+    @Test
+    public void verifyScopedAddress() {
+        // The scope of the address is ignored if the expression does not define one
+        assertThat(new IpValue("fe80:*:*:*:*:*:*:1").matches("fe80:0:0:0:0:0:0:1%5"), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyScopedExpressionIsNotSupported() {
+        new IpValue("fe80:*:*:*:*:*:*:1%5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyInvalidExpression() {
+        new IpValue("10.0.*");
+    }
+
+    private static void verify(List<String> addresses, String... expressions) {
+        for (String expression : expressions) {
+            final IpValue value = new IpValue(expression);
+            for (String address : addresses) {
+                assertThat(expression + " ~ " + address, value.matches(address), is(IPLike.matches(address, expression)));
+            }
+        }
+    }
+}
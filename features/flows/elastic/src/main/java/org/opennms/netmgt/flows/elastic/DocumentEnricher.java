@@ -29,15 +29,25 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.opennms.core.cache.Cache;
 import org.opennms.core.cache.CacheBuilder;
 import org.opennms.core.cache.CacheConfig;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.criteria.Fetch.FetchType;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -51,6 +61,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.cache.CacheLoader;
@@ -58,6 +70,11 @@ import com.google.common.cache.CacheLoader;
 public class DocumentEnricher {
     private static final Logger LOG = LoggerFactory.getLogger(DocumentEnricher.class);
 
+    /**
+     * Default time in seconds for which addresses without an associated node are cached.
+     */
+    public static final long DEFAULT_NEGATIVE_EXPIRE_AFTER_WRITE = 60;
+
     private final NodeDao nodeDao;
 
     private final InterfaceToNodeCache interfaceToNodeCache;
@@ -69,11 +86,45 @@ public class DocumentEnricher {
     // Caches NodeDocument data
     private final Cache<NodeInfoKey, Optional<NodeDocument>> nodeInfoCache;
 
+    // Caches the addresses not associated with any node, using its own expiry
+    private final com.google.common.cache.Cache<NodeInfoKey, Boolean> negativeNodeInfoCache;
+
     private final Timer nodeLoadTimer;
 
+    /**
+     * Time taken to enrich a batch of documents
+     */
+    private final Timer batchEnrichTimer;
+
+    /**
+     * Time taken to resolve the nodes for all addresses of a batch
+     */
+    private final Timer batchLookupTimer;
+
+    /**
+     * Number of distinct addresses per batch
+     */
+    private final Histogram batchAddresses;
+
+    /**
+     * Addresses answered by the negative cache
+     */
+    private final Meter negativeCacheHits;
+
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
+        this(metricRegistry, nodeDao, interfaceToNodeCache, transactionOperations, classificationEngine, cacheConfig,
+                DEFAULT_NEGATIVE_EXPIRE_AFTER_WRITE);
+    }
+
+    /**
+     * @param negativeExpireAfterWrite time in seconds for which addresses without an associated node are cached.
+     *                                 These are not cached if &lt;= 0.
+     */
+    public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
+                            TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
+                            CacheConfig cacheConfig, long negativeExpireAfterWrite) {
         this.nodeDao = Objects.requireNonNull(nodeDao);
         this.interfaceToNodeCache = Objects.requireNonNull(interfaceToNodeCache);
         this.transactionOperations = Objects.requireNonNull(transactionOperations);
@@ -86,8 +137,26 @@ public class DocumentEnricher {
                     public Optional<NodeDocument> load(NodeInfoKey key) {
                         return getNodeInfo(key.location, key.ipAddress);
                     }
+
+                    @Override
+                    public Map<NodeInfoKey, Optional<NodeDocument>> loadAll(Iterable<? extends NodeInfoKey> keys) {
+                        return getNodeInfos(keys);
+                    }
                 }).build();
+
+        final com.google.common.cache.CacheBuilder<Object, Object> negativeCacheBuilder = com.google.common.cache.CacheBuilder.newBuilder();
+        if (cacheConfig.getMaximumSize() != null && cacheConfig.getMaximumSize() > 0) {
+            negativeCacheBuilder.maximumSize(cacheConfig.getMaximumSize());
+        }
+        // Without an expiry, unknown addresses are looked up for every batch
+        negativeCacheBuilder.expireAfterWrite(Math.max(negativeExpireAfterWrite, 0), TimeUnit.SECONDS);
+        this.negativeNodeInfoCache = negativeCacheBuilder.build();
+
         this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
+        this.batchEnrichTimer = metricRegistry.timer("batchEnrichTime");
+        this.batchLookupTimer = metricRegistry.timer("batchLookupTime");
+        this.batchAddresses = metricRegistry.histogram("batchAddresses");
+        this.negativeCacheHits = metricRegistry.meter("nodeCacheNegativeHits");
     }
 
     public void enrich(final List<FlowDocument> documents, final FlowSource source) {
@@ -96,48 +165,73 @@ public class DocumentEnricher {
             return;
         }
 
-        transactionOperations.execute(callback -> {
-            documents.forEach(document -> {
-                // Metadata from message
-                document.setHost(source.getSourceAddress());
-                document.setLocation(source.getLocation());
-
-                // Node data
-                getNodeInfoFromCache(source.getLocation(), source.getSourceAddress()).ifPresent(document::setNodeExporter);
-                if (document.getDstAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getDstAddr()).ifPresent(document::setNodeDst);
-                }
-                if (document.getSrcAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getSrcAddr()).ifPresent(document::setNodeSrc);
+        try (Timer.Context batchCtx = batchEnrichTimer.time()) {
+            transactionOperations.execute(callback -> {
+                // Collect the distinct addresses of the batch, the exporter is usually the same for all documents
+                final Set<String> addresses = new LinkedHashSet<>();
+                addresses.add(source.getSourceAddress());
+                for (final FlowDocument document : documents) {
+                    if (document.getDstAddr() != null) {
+                        addresses.add(document.getDstAddr());
+                    }
+                    if (document.getSrcAddr() != null) {
+                        addresses.add(document.getSrcAddr());
+                    }
                 }
+                batchAddresses.update(addresses.size());
 
-                // Locality
-                if (document.getSrcAddr() != null) {
-                    document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
-                }
-                if (document.getDstAddr() != null) {
-                    document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+                final Map<String, Optional<NodeDocument>> nodes;
+                try (Timer.Context lookupCtx = batchLookupTimer.time()) {
+                    nodes = getNodeInfosFromCache(source.getLocation(), addresses);
                 }
+                final Map<String, Locality> localities = new HashMap<>(addresses.size());
 
-                if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
-                    document.setFlowLocality(Locality.PUBLIC);
-                } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
-                    document.setFlowLocality(Locality.PRIVATE);
-                }
+                for (final FlowDocument document : documents) {
+                    // Metadata from message
+                    document.setHost(source.getSourceAddress());
+                    document.setLocation(source.getLocation());
 
-                // Conversation tagging
-                document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
+                    // Node data
+                    nodes.get(source.getSourceAddress()).ifPresent(document::setNodeExporter);
+                    if (document.getDstAddr() != null) {
+                        nodes.get(document.getDstAddr()).ifPresent(document::setNodeDst);
+                    }
+                    if (document.getSrcAddr() != null) {
+                        nodes.get(document.getSrcAddr()).ifPresent(document::setNodeSrc);
+                    }
+
+                    // Locality
+                    if (document.getSrcAddr() != null) {
+                        document.setSrcLocality(localities.computeIfAbsent(document.getSrcAddr(), DocumentEnricher::getLocality));
+                    }
+                    if (document.getDstAddr() != null) {
+                        document.setDstLocality(localities.computeIfAbsent(document.getDstAddr(), DocumentEnricher::getLocality));
+                    }
+
+                    if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
+                        document.setFlowLocality(Locality.PUBLIC);
+                    } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
+                        document.setFlowLocality(Locality.PRIVATE);
+                    }
 
-                final ClassificationRequest classificationRequest = createClassificationRequest(document);
+                    // Conversation tagging
+                    document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
 
-                // Check whether classification is possible
-                if (classificationRequest.isClassifiable()) {
-                    // Apply Application mapping
-                    document.setApplication(classificationEngine.classify(classificationRequest));
+                    final ClassificationRequest classificationRequest = createClassificationRequest(document);
+
+                    // Check whether classification is possible
+                    if (classificationRequest.isClassifiable()) {
+                        // Apply Application mapping
+                        document.setApplication(classificationEngine.classify(classificationRequest));
+                    }
                 }
+                return null;
             });
-            return null;
-        });
+        }
+    }
+
+    private static Locality getLocality(String ipAddress) {
+        return isPrivateAddress(ipAddress) ? Locality.PRIVATE : Locality.PUBLIC;
     }
 
     private static boolean isPrivateAddress(String ipAddress) {
@@ -145,39 +239,91 @@ public class DocumentEnricher {
         return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
     }
 
-    private Optional<NodeDocument> getNodeInfoFromCache(String location, String ipAddress) {
-        final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
+    /**
+     * Resolves the nodes for all of the given addresses. Addresses known to have no node are answered
+     * by the negative cache, all other misses are loaded at once.
+     */
+    private Map<String, Optional<NodeDocument>> getNodeInfosFromCache(String location, Set<String> ipAddresses) {
+        final Map<String, Optional<NodeDocument>> nodes = new HashMap<>(ipAddresses.size());
+        final List<NodeInfoKey> keys = new ArrayList<>(ipAddresses.size());
+        for (final String ipAddress : ipAddresses) {
+            final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
+            if (negativeNodeInfoCache.getIfPresent(key) != null) {
+                negativeCacheHits.mark();
+                nodes.put(ipAddress, Optional.empty());
+            } else {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return nodes;
+        }
+
+        final Map<NodeInfoKey, Optional<NodeDocument>> loaded;
         try {
-            return nodeInfoCache.get(key);
+            loaded = nodeInfoCache.getAll(keys);
         } catch (ExecutionException e) {
             LOG.error("Error while retrieving NodeDocument from NodeInfoCache: {}.", e.getMessage(), e);
             throw new RuntimeException(e);
         }
+        for (final Map.Entry<NodeInfoKey, Optional<NodeDocument>> entry : loaded.entrySet()) {
+            nodes.put(entry.getKey().ipAddress, entry.getValue());
+            if (!entry.getValue().isPresent()) {
+                // Keep the negative result in the negative cache only, so it expires on its own terms
+                negativeNodeInfoCache.put(entry.getKey(), Boolean.TRUE);
+                nodeInfoCache.invalidate(entry.getKey());
+            }
+        }
+        return nodes;
     }
 
     private Optional<NodeDocument> getNodeInfo(String location, String ipAddress) {
-        return getNodeInfo(location, InetAddressUtils.addr(ipAddress));
+        return getNodeInfos(Collections.singleton(new NodeInfoKey(location, ipAddress))).values().iterator().next();
     }
 
-    private Optional<NodeDocument> getNodeInfo(String location, InetAddress ipAddress) {
-        final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(location, ipAddress);
-        if (nodeId.isPresent()) {
+    /**
+     * Loads the node information for all of the given keys with a single query.
+     */
+    private Map<NodeInfoKey, Optional<NodeDocument>> getNodeInfos(Iterable<? extends NodeInfoKey> keys) {
+        final Map<NodeInfoKey, Integer> nodeIds = new LinkedHashMap<>();
+        for (final NodeInfoKey key : keys) {
+            nodeIds.put(key, interfaceToNodeCache.getFirstNodeId(key.location, InetAddressUtils.addr(key.ipAddress)).orElse(null));
+        }
+
+        final Map<Integer, NodeDocument> nodeInfos = new HashMap<>();
+        final Set<Integer> distinctNodeIds = nodeIds.values().stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (!distinctNodeIds.isEmpty()) {
             try (Timer.Context ctx = nodeLoadTimer.time()) {
-                final OnmsNode onmsNode = nodeDao.get(nodeId.get());
-                if (onmsNode != null) {
-                    final NodeDocument nodeInfo = new NodeDocument();
-                    nodeInfo.setForeignSource(onmsNode.getForeignSource());
-                    nodeInfo.setForeignId(onmsNode.getForeignId());
-                    nodeInfo.setNodeId(nodeId.get());
-                    nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
-
-                    return Optional.of(nodeInfo);
-                } else {
-                    LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.");
+                final List<OnmsNode> onmsNodes = nodeDao.findMatching(new CriteriaBuilder(OnmsNode.class)
+                        .in("id", distinctNodeIds)
+                        .fetch("categories", FetchType.EAGER)
+                        .toCriteria());
+                for (final OnmsNode onmsNode : onmsNodes) {
+                    nodeInfos.computeIfAbsent(onmsNode.getId(), nodeId -> {
+                        final NodeDocument nodeInfo = new NodeDocument();
+                        nodeInfo.setForeignSource(onmsNode.getForeignSource());
+                        nodeInfo.setForeignId(onmsNode.getForeignId());
+                        nodeInfo.setNodeId(nodeId);
+                        nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+                        return nodeInfo;
+                    });
                 }
             }
         }
-        return Optional.empty();
+
+        final Map<NodeInfoKey, Optional<NodeDocument>> result = new LinkedHashMap<>();
+        for (final Map.Entry<NodeInfoKey, Integer> entry : nodeIds.entrySet()) {
+            final Integer nodeId = entry.getValue();
+            final NodeDocument nodeInfo = nodeId != null ? nodeInfos.get(nodeId) : null;
+            if (nodeId != null && nodeInfo == null) {
+                LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.",
+                        nodeId, entry.getKey().location, entry.getKey().ipAddress);
+            }
+            result.put(entry.getKey(), Optional.ofNullable(nodeInfo));
+        }
+        return result;
     }
 
     // Key class, which is used to cache NodeDocument objects
@@ -39,7 +39,14 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -57,19 +64,24 @@ import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
 import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.elastic.FlowBulkPartitioner.FlowBulk;
 import org.opennms.netmgt.flows.elastic.index.IndexSelector;
 import org.opennms.netmgt.flows.filter.api.Filter;
 import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsSnmpInterface;
+import org.opennms.plugins.elasticsearch.rest.RestClientFactory;
 import org.opennms.plugins.elasticsearch.rest.bulk.BulkException;
 import org.opennms.plugins.elasticsearch.rest.bulk.BulkRequest;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkResultWrapper;
 import org.opennms.plugins.elasticsearch.rest.bulk.BulkWrapper;
+import org.opennms.plugins.elasticsearch.rest.bulk.FailedItem;
 import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -79,6 +91,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 
 import io.searchbox.action.Action;
 import io.searchbox.client.JestClient;
@@ -100,6 +114,16 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private static final String TYPE = "netflow";
 
+    public static final int DEFAULT_BULK_SIZE = 1000;
+
+    public static final long DEFAULT_BULK_MAX_BYTES = 5 * 1024 * 1024;
+
+    /**
+     * Used to serialize the documents before handing them over to Jest.
+     * Configured the same way as the clients built by the {@link RestClientFactory}.
+     */
+    private static final Gson GSON = RestClientFactory.createGson();
+
     private final JestClient client;
 
     private final IndexStrategy indexStrategy;
@@ -112,6 +136,19 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private final int bulkRetryCount;
 
+    private final FlowBulkPartitioner bulkPartitioner;
+
+    /**
+     * Limits the number of bulk requests in flight. Callers block on this
+     * when the limit is reached, which propagates back-pressure to the sink.
+     */
+    private final Semaphore inFlightBulks;
+
+    /**
+     * Executes the bulk requests, or null if these are executed on the calling thread.
+     */
+    private final ExecutorService bulkExecutor;
+
     /**
      * Flows/second throughput
      */
@@ -128,7 +165,7 @@ public class ElasticFlowRepository implements FlowRepository {
     private final Timer logEnrichementTimer;
 
     /**
-     * Time taken to persist the flows in a log
+     * Time taken to persist the flows in a log, until all of the bulk requests completed
      */
     private final Timer logPersistingTimer;
 
@@ -137,11 +174,26 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final Timer logMarkingTimer;
 
+    /**
+     * Time taken to execute a single bulk request, including retries
+     */
+    private final Timer bulkPersistingTimer;
+
+    /**
+     * Number of flows which could not be persisted
+     */
+    private final Meter flowsFailedMeter;
+
     /**
      * Number of flows in a log
      */
     private final Histogram flowsPerLog;
 
+    /**
+     * Number of flows per bulk request
+     */
+    private final Histogram flowsPerBulk;
+
     private final IndexSelector indexSelector;
 
     private final TransactionOperations transactionOperations;
@@ -160,6 +212,21 @@ public class ElasticFlowRepository implements FlowRepository {
                                  DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
                                  TransactionOperations transactionOperations, NodeDao nodeDao, SnmpInterfaceDao snmpInterfaceDao,
                                  int bulkRetryCount, long maxFlowDurationMs) {
+        this(metricRegistry, jestClient, indexStrategy, documentEnricher, classificationEngine, transactionOperations,
+                nodeDao, snmpInterfaceDao, bulkRetryCount, maxFlowDurationMs, DEFAULT_BULK_SIZE, DEFAULT_BULK_MAX_BYTES, 0);
+    }
+
+    /**
+     * @param bulkSize maximum number of documents per bulk request, unlimited if &lt;= 0
+     * @param bulkMaxBytes maximum size of the serialized documents per bulk request, unlimited if &lt;= 0
+     * @param maxInFlightBulks maximum number of bulk requests executed concurrently. If &lt;= 0 the bulk requests
+     *                         are executed sequentially on the calling thread. In both cases persisting blocks
+     *                         until all of the bulk requests completed, and failures are reported to the caller.
+     */
+    public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy,
+                                 DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
+                                 TransactionOperations transactionOperations, NodeDao nodeDao, SnmpInterfaceDao snmpInterfaceDao,
+                                 int bulkRetryCount, long maxFlowDurationMs, int bulkSize, long bulkMaxBytes, int maxInFlightBulks) {
         this.client = Objects.requireNonNull(jestClient);
         this.indexStrategy = Objects.requireNonNull(indexStrategy);
         this.documentEnricher = Objects.requireNonNull(documentEnricher);
@@ -169,6 +236,19 @@ public class ElasticFlowRepository implements FlowRepository {
         this.snmpInterfaceDao = Objects.requireNonNull(snmpInterfaceDao);
         this.bulkRetryCount = bulkRetryCount;
         this.indexSelector = new IndexSelector(TYPE, indexStrategy, maxFlowDurationMs);
+        this.bulkPartitioner = new FlowBulkPartitioner(
+                flowDocument -> indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp())),
+                GSON::toJson, bulkSize, bulkMaxBytes);
+        if (maxInFlightBulks > 0) {
+            this.inFlightBulks = new Semaphore(maxInFlightBulks);
+            this.bulkExecutor = Executors.newFixedThreadPool(maxInFlightBulks, new ThreadFactoryBuilder()
+                    .setNameFormat("flow-bulk-%d")
+                    .setDaemon(true)
+                    .build());
+        } else {
+            this.inFlightBulks = null;
+            this.bulkExecutor = null;
+        }
 
         flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
         logConversionTimer = metricRegistry.timer("logConversion");
@@ -176,6 +256,12 @@ public class ElasticFlowRepository implements FlowRepository {
         logPersistingTimer = metricRegistry.timer("logPersisting");
         logMarkingTimer = metricRegistry.timer("logMarking");
         flowsPerLog = metricRegistry.histogram("flowsPerLog");
+        bulkPersistingTimer = metricRegistry.timer("bulkPersisting");
+        flowsFailedMeter = metricRegistry.meter("flowsFailed");
+        flowsPerBulk = metricRegistry.histogram("flowsPerBulk");
+        if (inFlightBulks != null) {
+            metricRegistry.register("bulksInFlight", (Gauge<Integer>) () -> maxInFlightBulks - inFlightBulks.availablePermits());
+        }
 
         // Pre-populate marker cache with values from DB
         this.transactionOperations.execute(cb -> {
@@ -216,31 +302,121 @@ public class ElasticFlowRepository implements FlowRepository {
         }
 
         LOG.debug("Persisting {} flow documents.", flowDocuments.size());
+        final List<FlowBulk> bulks = bulkPartitioner.partition(flowDocuments);
+        if (bulkExecutor == null) {
+            try (final Timer.Context ctx = logPersistingTimer.time()) {
+                for (final FlowBulk bulk : bulks) {
+                    persistBulk(bulk);
+                }
+            }
+            markHavingFlows(flowDocuments);
+            return;
+        }
+
+        // Hand the bulks over to the executor, blocking while too many requests are in flight,
+        // and wait for all of them so that failures are reported to the caller
         try (final Timer.Context ctx = logPersistingTimer.time()) {
-            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
-                final Bulk.Builder bulkBuilder = new Bulk.Builder();
-                for (FlowDocument flowDocument : documents) {
-                   final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
-                   final Index.Builder indexBuilder = new Index.Builder(flowDocument)
-                        .index(index)
-                        .type(TYPE);
-                    bulkBuilder.addAction(indexBuilder.build());
+            final List<CompletableFuture<Void>> futures = new ArrayList<>(bulks.size());
+            for (final FlowBulk bulk : bulks) {
+                if (futures.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    // Do not send the remaining bulks, the call fails anyways
+                    break;
+                }
+                try {
+                    inFlightBulks.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FlowException("Interrupted while waiting to persist flows", e);
                 }
-                return new BulkWrapper(bulkBuilder);
-            }, bulkRetryCount);
+                try {
+                    futures.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            persistBulk(bulk);
+                        } catch (FlowException ex) {
+                            throw new CompletionException(ex);
+                        } finally {
+                            inFlightBulks.release();
+                        }
+                    }, bulkExecutor));
+                } catch (RejectedExecutionException ex) {
+                    inFlightBulks.release();
+                    throw new FlowException("Flow persistence has been shut down", ex);
+                }
+            }
+            waitForBulks(futures);
+        }
+
+        // Only mark nodes and interfaces once all of the documents were persisted
+        markHavingFlows(flowDocuments);
+    }
+
+    /**
+     * Waits for all of the given bulk requests to complete, and rethrows the first failure.
+     */
+    private static void waitForBulks(final List<CompletableFuture<Void>> futures) throws FlowException {
+        FlowException failure = null;
+        for (final CompletableFuture<Void> future : futures) {
             try {
-                // the bulk request considers retries
-                bulkRequest.execute();
-            } catch (BulkException ex) {
-                throw new PersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
-            } catch (IOException ex) {
-                LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
-                throw new FlowException(ex.getMessage(), ex);
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FlowException("Interrupted while waiting to persist flows", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof FlowException
+                            ? (FlowException) e.getCause()
+                            : new FlowException(e.getCause().getMessage(), e.getCause());
+                }
             }
-            flowsPersistedMeter.mark(flowDocuments.size());
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void persistBulk(final FlowBulk bulk) throws FlowException {
+        flowsPerBulk.update(bulk.size());
+        final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, bulk.getDocuments(), (documents) -> {
+            final Bulk.Builder bulkBuilder = new Bulk.Builder();
+            for (FlowDocument flowDocument : documents) {
+                // Use the pre-serialized source, so the document is only serialized once
+                final Index.Builder indexBuilder = new Index.Builder(bulk.getSource(flowDocument))
+                        .index(bulk.getIndex())
+                        .type(TYPE);
+                bulkBuilder.addAction(indexBuilder.build());
+            }
+            return new BulkWrapper(bulkBuilder);
+        }, bulkRetryCount);
+        try (final Timer.Context ctx = bulkPersistingTimer.time()) {
+            // the bulk request considers retries, and only retries the failed documents
+            bulkRequest.execute();
+        } catch (BulkException ex) {
+            final List<FailedItem<FlowDocument>> failedItems;
+            if (ex.getBulkResult() != null) {
+                // Exceptions cannot be generic, but the result of this request only holds flow documents
+                @SuppressWarnings("unchecked")
+                final BulkResultWrapper<FlowDocument> bulkResult = (BulkResultWrapper<FlowDocument>) ex.getBulkResult();
+                failedItems = bulkResult.getFailedItems();
+            } else {
+                failedItems = Collections.emptyList();
+            }
+            // Without any failed items, the whole bulk failed
+            final int numFailed = failedItems.isEmpty() ? bulk.size() : failedItems.size();
+            flowsFailedMeter.mark(numFailed);
+            flowsPersistedMeter.mark(bulk.size() - numFailed);
+            throw new PersistenceException(ex.getMessage(), failedItems);
+        } catch (IOException ex) {
+            flowsFailedMeter.mark(bulk.size());
+            LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
+            throw new FlowException(ex.getMessage(), ex);
+        }
+        flowsPersistedMeter.mark(bulk.size());
+    }
 
-        // Mark nodes and interfaces as having associated flows
+    /**
+     * Mark nodes and interfaces as having associated flows.
+     */
+    private void markHavingFlows(final List<FlowDocument> flowDocuments) {
         try (final Timer.Context ctx = logMarkingTimer.time()) {
             final List<Integer> nodesToUpdate = Lists.newArrayListWithExpectedSize(flowDocuments.size());
             final Map<Integer, List<Integer>> interfacesToUpdate = Maps.newHashMap();
@@ -285,6 +461,21 @@ public class ElasticFlowRepository implements FlowRepository {
         }
     }
 
+    public void destroy() {
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            try {
+                if (!bulkExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Timed out while waiting for pending bulk requests to complete.");
+                    bulkExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                bulkExecutor.shutdownNow();
+            }
+        }
+    }
+
     @Override
     public CompletableFuture<Long> getFlowCount(List<Filter> filters) {
         final String query = searchQueryProvider.getFlowCountQuery(filters);
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Splits a batch of flow documents into bulks which target a single index each
+ * and are bounded both by the number of documents and by their serialized size.
+ *
+ * Documents are serialized once while partitioning and the resulting sources are
+ * handed to Jest as-is, so the size of a bulk is known before it is sent.
+ */
+class FlowBulkPartitioner {
+
+    private final Function<FlowDocument, String> indexFunction;
+    private final Function<FlowDocument, String> serializer;
+    private final int maxDocuments;
+    private final long maxBytes;
+
+    FlowBulkPartitioner(Function<FlowDocument, String> indexFunction, Function<FlowDocument, String> serializer,
+                        int maxDocuments, long maxBytes) {
+        this.indexFunction = Objects.requireNonNull(indexFunction);
+        this.serializer = Objects.requireNonNull(serializer);
+        this.maxDocuments = maxDocuments > 0 ? maxDocuments : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    List<FlowBulk> partition(List<FlowDocument> documents) {
+        // Group by index first, preserving the order in which the documents were received
+        final Map<String, List<FlowDocument>> documentsByIndex = new LinkedHashMap<>();
+        for (FlowDocument document : documents) {
+            documentsByIndex.computeIfAbsent(indexFunction.apply(document), k -> new ArrayList<>()).add(document);
+        }
+
+        final List<FlowBulk> bulks = new ArrayList<>();
+        for (Map.Entry<String, List<FlowDocument>> entry : documentsByIndex.entrySet()) {
+            FlowBulk bulk = new FlowBulk(entry.getKey());
+            for (FlowDocument document : entry.getValue()) {
+                final String source = serializer.apply(document);
+                final long bytes = source.getBytes(StandardCharsets.UTF_8).length;
+                // A single document exceeding the limit still gets a bulk of its own
+                if (!bulk.isEmpty() && (bulk.size() >= maxDocuments || bulk.getBytes() + bytes > maxBytes)) {
+                    bulks.add(bulk);
+                    bulk = new FlowBulk(entry.getKey());
+                }
+                bulk.add(document, source, bytes);
+            }
+            if (!bulk.isEmpty()) {
+                bulks.add(bulk);
+            }
+        }
+        return bulks;
+    }
+
+    static class FlowBulk {
+        private final String index;
+        private final List<FlowDocument> documents = new ArrayList<>();
+        private final Map<FlowDocument, String> sources = new IdentityHashMap<>();
+        private long bytes;
+
+        private FlowBulk(String index) {
+            this.index = index;
+        }
+
+        private void add(FlowDocument document, String source, long bytes) {
+            documents.add(document);
+            sources.put(document, source);
+            this.bytes += bytes;
+        }
+
+        String getIndex() {
+            return index;
+        }
+
+        List<FlowDocument> getDocuments() {
+            return Collections.unmodifiableList(documents);
+        }
+
+        String getSource(FlowDocument document) {
+            return sources.get(document);
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        int size() {
+            return documents.size();
+        }
+
+        boolean isEmpty() {
+            return documents.isEmpty();
+        }
+    }
+}
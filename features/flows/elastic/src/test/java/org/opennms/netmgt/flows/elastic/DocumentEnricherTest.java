@@ -30,6 +30,7 @@ package org.opennms.netmgt.flows.elastic;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
@@ -50,6 +51,7 @@ public class DocumentEnricherTest {
 
     private DocumentEnricher enricher;
     private AtomicInteger nodeDaoGetCounter;
+    private AtomicInteger nodeDaoFindMatchingCounter;
 
     @Before
     public void setUp() {
@@ -58,6 +60,7 @@ public class DocumentEnricherTest {
         final NodeDao nodeDao = factory.getNodeDao();
         final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
         nodeDaoGetCounter = factory.getNodeDaoGetCounter();
+        nodeDaoFindMatchingCounter = factory.getNodeDaoFindMatchingCounter();
 
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.1"), 1);
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.2"), 2);
@@ -75,8 +78,34 @@ public class DocumentEnricherTest {
         documents.add(createFlowDocument("10.0.0.1", "10.0.0.3"));
         enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
 
-        // get is also called for each save, so we account for those as well
-        assertEquals(6, nodeDaoGetCounter.get());
+        // get is only called for each save, all nodes of the batch are loaded at once
+        assertEquals(3, nodeDaoGetCounter.get());
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+
+        assertEquals(Integer.valueOf(1), documents.get(0).getNodeSrc().getNodeId());
+        assertEquals(Integer.valueOf(2), documents.get(0).getNodeDst().getNodeId());
+        assertEquals(Integer.valueOf(3), documents.get(1).getNodeDst().getNodeId());
+
+        // All of the addresses are cached now
+        enricher.enrich(Lists.newArrayList(createFlowDocument("10.0.0.2", "10.0.0.3")), new FlowSource("Default", "127.0.0.1"));
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+    }
+
+    @Test
+    public void verifyNegativeCacheUsage() {
+        final List<FlowDocument> documents = Lists.newArrayList();
+        documents.add(createFlowDocument("10.0.0.1", "192.168.0.1"));
+        enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+        assertNull(documents.get(0).getNodeDst());
+        assertNull(documents.get(0).getNodeExporter());
+
+        // The unknown addresses are answered by the negative cache and do not trigger any query
+        documents.clear();
+        documents.add(createFlowDocument("192.168.0.1", "127.0.0.1"));
+        enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+        assertNull(documents.get(0).getNodeSrc());
     }
 
     private static FlowDocument createFlowDocument(String sourceIp, String destIp) {
@@ -91,4 +91,38 @@ public class ElasticFlowRepositoryIT {
         }
     }
 
+    /**
+     * Verifies that a failing bulk reaches the caller when bulks are executed concurrently.
+     */
+    @Test(expected=PersistenceException.class)
+    public void verifyThrowsPersistenceExceptionWithConcurrentBulks() throws IOException, FlowException {
+        stubFor(post("/_bulk")
+                    .willReturn(aResponse()
+                            .withStatus(400)
+                            .withHeader("Content-Type", "application/json")
+                            .withBody(ERROR_RESPONSE)));
+
+        final MockDocumentEnricherFactory mockDocumentEnricherFactory = new MockDocumentEnricherFactory();
+        final DocumentEnricher documentEnricher = mockDocumentEnricherFactory.getEnricher();
+        final ClassificationEngine classificationEngine = mockDocumentEnricherFactory.getClassificationEngine();
+
+        final JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig.Builder("http://localhost:" + wireMockRule.port()).build());
+        try (JestClient client = factory.getObject()) {
+            final MockTransactionTemplate mockTransactionTemplate = new MockTransactionTemplate();
+            mockTransactionTemplate.setTransactionManager(new MockTransactionManager());
+
+            // One document per bulk, with up to 2 bulks in flight
+            final ElasticFlowRepository elasticFlowRepository = new ElasticFlowRepository(new MetricRegistry(),
+                    client, IndexStrategy.MONTHLY, documentEnricher, classificationEngine,
+                    mockTransactionTemplate, new MockNodeDao(), new MockSnmpInterfaceDao(),
+                    3, 12000, 1, 0, 2);
+            try {
+                elasticFlowRepository.persist(Lists.newArrayList(FlowDocumentTest.getMockFlow(),
+                        FlowDocumentTest.getMockFlow(), FlowDocumentTest.getMockFlow()), FlowDocumentTest.getMockFlowSource());
+            } finally {
+                elasticFlowRepository.destroy();
+            }
+        }
+    }
 }
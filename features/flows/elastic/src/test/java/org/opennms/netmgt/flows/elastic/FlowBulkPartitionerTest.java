@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.elastic.FlowBulkPartitioner.FlowBulk;
+import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
+
+public class FlowBulkPartitionerTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void verifyBulksAreGroupedByIndex() {
+        final FlowBulkPartitioner partitioner = new FlowBulkPartitioner(FlowBulkPartitionerTest::getDailyIndex,
+                doc -> "{}", 0, 0);
+        final List<FlowDocument> documents = new ArrayList<>();
+        documents.add(createDocument(0, "a"));
+        documents.add(createDocument(DAY, "b"));
+        documents.add(createDocument(1, "c"));
+
+        final List<FlowBulk> bulks = partitioner.partition(documents);
+        assertEquals(2, bulks.size());
+        assertEquals("netflow-1970-01-01", bulks.get(0).getIndex());
+        assertEquals(2, bulks.get(0).size());
+        assertEquals("a", bulks.get(0).getDocuments().get(0).getSrcAddr());
+        assertEquals("c", bulks.get(0).getDocuments().get(1).getSrcAddr());
+        assertEquals("netflow-1970-01-02", bulks.get(1).getIndex());
+        assertEquals(1, bulks.get(1).size());
+    }
+
+    @Test
+    public void verifyBulksAreLimitedByCount() {
+        final FlowBulkPartitioner partitioner = new FlowBulkPartitioner(FlowBulkPartitionerTest::getDailyIndex,
+                doc -> "{}", 3, 0);
+        final List<FlowDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(createDocument(i, Integer.toString(i)));
+        }
+
+        final List<FlowBulk> bulks = partitioner.partition(documents);
+        assertEquals(4, bulks.size());
+        assertEquals(3, bulks.get(0).size());
+        assertEquals(3, bulks.get(1).size());
+        assertEquals(3, bulks.get(2).size());
+        assertEquals(1, bulks.get(3).size());
+    }
+
+    @Test
+    public void verifyBulksAreLimitedByBytes() {
+        final FlowBulkPartitioner partitioner = new FlowBulkPartitioner(FlowBulkPartitionerTest::getDailyIndex,
+                FlowDocument::getSrcAddr, 0, 10);
+        final List<FlowDocument> documents = new ArrayList<>();
+        documents.add(createDocument(0, "1234"));
+        documents.add(createDocument(0, "123456"));
+        documents.add(createDocument(0, "1"));
+        // Exceeds the limit on its own
+        documents.add(createDocument(0, "123456789012"));
+        documents.add(createDocument(0, "12"));
+
+        final List<FlowBulk> bulks = partitioner.partition(documents);
+        assertEquals(4, bulks.size());
+        assertEquals(2, bulks.get(0).size());
+        assertEquals(10, bulks.get(0).getBytes());
+        assertEquals(1, bulks.get(1).size());
+        assertEquals(1, bulks.get(1).getBytes());
+        assertEquals(1, bulks.get(2).size());
+        assertEquals(12, bulks.get(2).getBytes());
+        assertEquals(1, bulks.get(3).size());
+        assertEquals(2, bulks.get(3).getBytes());
+        assertTrue(bulks.stream().allMatch(bulk -> bulk.getDocuments().stream()
+                .allMatch(doc -> doc.getSrcAddr().equals(bulk.getSource(doc)))));
+    }
+
+    private static String getDailyIndex(FlowDocument document) {
+        return IndexStrategy.DAILY.getIndex("netflow", Instant.ofEpochMilli(document.getTimestamp()));
+    }
+
+    private static FlowDocument createDocument(long timestamp, String srcAddr) {
+        final FlowDocument document = new FlowDocument();
+        document.setTimestamp(timestamp);
+        document.setSrcAddr(srcAddr);
+        return document;
+    }
+}
@@ -111,10 +111,7 @@ public class RestClientFactory {
 		if (urls.isEmpty()) {
 			throw new IllegalArgumentException("No urls have been provided");
 		}
-		final Gson gson = new GsonBuilder()
-				.setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
-				.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-				.create();
+		final Gson gson = createGson();
 
 		// If multiple URLs are specified in a comma-separated string, split them up
 		clientConfigBuilder = new HttpClientConfig.Builder(urls)
@@ -142,6 +139,19 @@ public class RestClientFactory {
 		}
 	}
 
+	/**
+	 * Creates a {@link Gson} instance configured the same way as the one used by the clients
+	 * created by this factory. This allows documents to be serialized ahead of time.
+	 *
+	 * @return a new {@link Gson} instance
+	 */
+	public static Gson createGson() {
+		return new GsonBuilder()
+				.setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+				.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+				.create();
+	}
+
 	/**
 	 * Set the number of times the REST operation will be retried if
 	 * an exception is thrown during the operation.
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.kafka.producer;
+
+import java.util.Objects;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+/**
+ * A SpEL filter expression that is compiled to bytecode once it has been
+ * evaluated a few times, falling back to interpretation when the expression
+ * cannot be compiled.
+ *
+ * Evaluation is lock-free and may be performed from many threads at once:
+ * the root object is passed on every call and the evaluation context is
+ * fully initialized up front, so it is never modified afterwards.
+ *
+ * @param <T> type of the objects being filtered
+ */
+public class CompiledFilter<T> {
+
+    private static final SpelExpressionParser SPEL_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, CompiledFilter.class.getClassLoader()));
+
+    private final Expression expression;
+    private final EvaluationContext evaluationContext;
+
+    public CompiledFilter(String expression) {
+        this.expression = SPEL_PARSER.parseExpression(Objects.requireNonNull(expression));
+
+        final StandardEvaluationContext context = new StandardEvaluationContext();
+        // The resolvers and accessors are created lazily, force them now so
+        // that the context is not mutated while being shared between threads
+        context.getPropertyAccessors();
+        context.getMethodResolvers();
+        context.getConstructorResolvers();
+        context.getTypeLocator();
+        context.getTypeConverter();
+        evaluationContext = context;
+    }
+
+    /**
+     * Evaluates the expression against the given object.
+     *
+     * @throws EvaluationException if the expression fails to produce a result
+     */
+    public boolean test(T object) {
+        final Boolean result = expression.getValue(evaluationContext, object, Boolean.class);
+        if (result == null) {
+            throw new EvaluationException(expression.getExpressionString(), "The filter did not return a result");
+        }
+        return result;
+    }
+
+    public String getExpressionString() {
+        return expression.getExpressionString();
+    }
+}
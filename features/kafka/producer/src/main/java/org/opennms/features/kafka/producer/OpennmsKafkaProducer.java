@@ -66,10 +66,11 @@ import org.opennms.netmgt.xml.event.Event;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
@@ -82,7 +83,6 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             .build();
 
     public static final String KAFKA_CLIENT_PID = "org.opennms.features.kafka.producer.client";
-    private static final ExpressionParser SPEL_PARSER = new SpelExpressionParser();
 
     private final ProtobufMapper protobufMapper;
     private final NodeCache nodeCache;
@@ -100,8 +100,8 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private boolean forwardAlarmFeedback;
     private boolean suppressIncrementalAlarms;
     private boolean forwardNodes;
-    private Expression eventFilterExpression;
-    private Expression alarmFilterExpression;
+    private CompiledFilter<Event> eventFilterExpression;
+    private CompiledFilter<OnmsAlarm> alarmFilterExpression;
 
     private final CountDownLatch forwardedEvent = new CountDownLatch(1);
     private final CountDownLatch forwardedAlarm = new CountDownLatch(1);
@@ -111,8 +111,9 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private KafkaProducer<String, byte[]> producer;
     
     private final Map<String, OpennmsModelProtos.Alarm> outstandingAlarms = new ConcurrentHashMap<>();
-    private final AlarmEqualityChecker alarmEqualityChecker =
-            AlarmEqualityChecker.with(AlarmEqualityChecker.Exclusions::defaultExclusions);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private JmxReporter reporter;
 
     private int kafkaSendQueueCapacity;
     private BlockingQueue<KafkaRecord> kafkaSendQueue;
@@ -155,11 +156,21 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         if (forwardEvents) {
             eventSubscriptionService.addEventListener(this);
         }
+
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(getClass().getPackage().getName())
+                .build();
+        reporter.start();
     }
 
     public void destroy() {
         kafkaSendQueueExecutor.shutdownNow();
 
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+
         if (producer != null) {
             producer.close();
             producer = null;
@@ -173,18 +184,23 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private void forwardEvent(Event event) {
         boolean shouldForwardEvent = true;
         // Filtering
-        if (eventFilterExpression != null) {
+        final CompiledFilter<Event> eventFilter = eventFilterExpression;
+        if (eventFilter != null) {
+            final Timer.Context context = getFilterTimer(eventTopic).time();
             try {
-                shouldForwardEvent = eventFilterExpression.getValue(event, Boolean.class);
+                shouldForwardEvent = eventFilter.test(event);
             } catch (Exception e) {
                 LOG.error("Event filter '{}' failed to return a result for event: {}. The event will be forwarded anyways.",
-                        eventFilterExpression.getExpressionString(), event.toStringSimple(), e);
+                        eventFilter.getExpressionString(), event.toStringSimple(), e);
+            } finally {
+                context.stop();
             }
         }
         if (!shouldForwardEvent) {
+            getMeter(eventTopic, "filtered").mark();
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Event {} not forwarded due to event filter: {}",
-                        event.toStringSimple(), eventFilterExpression.getExpressionString());
+                        event.toStringSimple(), eventFilter.getExpressionString());
             }
             return;
         }
@@ -207,36 +223,37 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     }
 
     public boolean shouldForwardAlarm(OnmsAlarm alarm) {
-        if (alarmFilterExpression != null) {
-            // The expression is not necessarily thread safe
-            synchronized(this) {
-                try {
-                    final boolean shouldForwardAlarm = alarmFilterExpression.getValue(alarm, Boolean.class);
+        final CompiledFilter<OnmsAlarm> alarmFilter = alarmFilterExpression;
+        if (alarmFilter != null) {
+            final Timer.Context context = getFilterTimer(alarmTopic).time();
+            try {
+                final boolean shouldForwardAlarm = alarmFilter.test(alarm);
+                if (!shouldForwardAlarm) {
+                    getMeter(alarmTopic, "filtered").mark();
                     if (LOG.isTraceEnabled()) {
-                        LOG.trace("Alarm {} not forwarded due to event filter: {}",
-                                alarm, alarmFilterExpression.getExpressionString());
+                        LOG.trace("Alarm {} not forwarded due to alarm filter: {}",
+                                alarm, alarmFilter.getExpressionString());
                     }
-                    return shouldForwardAlarm;
-                } catch (Exception e) {
-                    LOG.error("Alarm filter '{}' failed to return a result for event: {}. The alarm will be forwarded anyways.",
-                            alarmFilterExpression.getExpressionString(), alarm, e);
                 }
+                return shouldForwardAlarm;
+            } catch (Exception e) {
+                LOG.error("Alarm filter '{}' failed to return a result for alarm: {}. The alarm will be forwarded anyways.",
+                        alarmFilter.getExpressionString(), alarm, e);
+            } finally {
+                context.stop();
             }
         }
         return true;
     }
 
-    private boolean isIncrementalAlarm(String reductionKey, OnmsAlarm alarm) {
-        OpennmsModelProtos.Alarm existingAlarm = outstandingAlarms.get(reductionKey);
-        return existingAlarm != null && alarmEqualityChecker.equalsExcludingOnFirst(protobufMapper.toAlarm(alarm),
-                existingAlarm);
+    private boolean isIncrementalAlarm(String reductionKey, OpennmsModelProtos.Alarm alarmWithExclusions) {
+        return alarmWithExclusions.equals(outstandingAlarms.get(reductionKey));
     }
 
-    private void recordIncrementalAlarm(String reductionKey, OnmsAlarm alarm) {
-        // Apply the excluded fields when putting to the map so we do not have to perform this calculation
+    private void recordIncrementalAlarm(String reductionKey, OpennmsModelProtos.Alarm alarmWithExclusions) {
+        // The excluded fields are applied before putting to the map so we do not have to perform this calculation
         // on each equality check
-        outstandingAlarms.put(reductionKey,
-                AlarmEqualityChecker.Exclusions.defaultExclusions(protobufMapper.toAlarm(alarm)).build());
+        outstandingAlarms.put(reductionKey, alarmWithExclusions);
     }
 
     private void updateAlarm(String reductionKey, OnmsAlarm alarm) {
@@ -262,7 +279,13 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             return;
         }
 
-        if (suppressIncrementalAlarms && isIncrementalAlarm(reductionKey, alarm)) {
+        // Map the alarm once, and reuse the result for both the incremental check and the record
+        final OpennmsModelProtos.Alarm mappedAlarm = protobufMapper.toAlarm(alarm).build();
+        final OpennmsModelProtos.Alarm alarmWithExclusions = suppressIncrementalAlarms ?
+                AlarmEqualityChecker.Exclusions.defaultExclusions(mappedAlarm.toBuilder()).build() : null;
+
+        if (suppressIncrementalAlarms && isIncrementalAlarm(reductionKey, alarmWithExclusions)) {
+            getMeter(alarmTopic, "suppressed").mark();
             return;
         }
 
@@ -273,10 +296,9 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
         // Forward!
         sendRecord(() -> {
-            final OpennmsModelProtos.Alarm mappedAlarm = protobufMapper.toAlarm(alarm).build();
             LOG.debug("Sending alarm with reduction key: {}", reductionKey);
             if (suppressIncrementalAlarms) {
-                recordIncrementalAlarm(reductionKey, alarm);
+                recordIncrementalAlarm(reductionKey, alarmWithExclusions);
             }
             return new ProducerRecord<>(alarmTopic, reductionKey, mappedAlarm.toByteArray());
         }, recordMetadata -> {
@@ -339,6 +361,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         // Any offer that fails due to capacity overflow will simply be dropped and will have to wait until the next
         // sync to be processed so this is just a best effort attempt
         if (!kafkaSendQueue.offer(new KafkaRecord(record, callback))) {
+            getMeter(record.topic(), "dropped").mark();
             RATE_LIMITED_LOGGER.warn("Dropped a Kafka record due to queue capacity being full.");
         }
     }
@@ -354,14 +377,17 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
                 try {
                     producer.send(producerRecord, (recordMetadata, e) -> {
                         if (e != null) {
+                            getMeter(producerRecord.topic(), "failed").mark();
                             LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
                             return;
                         }
+                        getMeter(producerRecord.topic(), "forwarded").mark();
                         if (consumer != null) {
                             consumer.accept(recordMetadata);
                         }
                     });
                 } catch (RuntimeException e) {
+                    getMeter(producerRecord.topic(), "failed").mark();
                     LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
                 }
             } catch (InterruptedException ignore) {
@@ -442,7 +468,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         if (Strings.isNullOrEmpty(eventFilter)) {
             eventFilterExpression = null;
         } else {
-            eventFilterExpression = SPEL_PARSER.parseExpression(eventFilter);
+            eventFilterExpression = new CompiledFilter<>(eventFilter);
         }
     }
 
@@ -450,7 +476,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         if (Strings.isNullOrEmpty(alarmFilter)) {
             alarmFilterExpression = null;
         } else {
-            alarmFilterExpression = SPEL_PARSER.parseExpression(alarmFilter);
+            alarmFilterExpression = new CompiledFilter<>(alarmFilter);
         }
     }
 
@@ -507,6 +533,22 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         return dataSync;
     }
 
+    /**
+     * Per-topic metrics: rates of records forwarded, failed, dropped (send queue full),
+     * filtered and suppressed (incremental alarms) along with the time spent in the filters.
+     */
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    private Meter getMeter(String topic, String name) {
+        return metrics.meter(MetricRegistry.name("topics", topic, name));
+    }
+
+    private Timer getFilterTimer(String topic) {
+        return metrics.timer(MetricRegistry.name("topics", topic, "filterTime"));
+    }
+
     public void setKafkaSendQueueCapacity(int kafkaSendQueueCapacity) {
         this.kafkaSendQueueCapacity = kafkaSendQueueCapacity;
     }
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.kafka.producer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.expression.EvaluationException;
+
+/**
+ * Tests for {@link CompiledFilter}.
+ */
+public class CompiledFilterTest {
+
+    @Test
+    public void testFilter() {
+        final CompiledFilter<Event> filter = new CompiledFilter<>("getUei().equals('uei.opennms.org/test')");
+        assertThat(filter.test(createEvent("uei.opennms.org/test")), is(equalTo(true)));
+        assertThat(filter.test(createEvent("uei.opennms.org/other")), is(equalTo(false)));
+    }
+
+    @Test(expected = EvaluationException.class)
+    public void testFilterWithoutResult() {
+        new CompiledFilter<Event>("getSeverity()").test(createEvent("uei.opennms.org/test"));
+    }
+
+    /**
+     * Evaluates the same filter from many threads, often enough for the
+     * expression to be compiled half-way through.
+     */
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        final CompiledFilter<Event> filter = new CompiledFilter<>("!getUei().startsWith('uei.opennms.org/internal')");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                final boolean internal = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    final Event event = createEvent(internal ? "uei.opennms.org/internal/test" : "uei.opennms.org/test");
+                    return filter.test(event) != internal;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(), is(equalTo(true)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Event createEvent(String uei) {
+        final Event event = new Event();
+        event.setUei(uei);
+        return event;
+    }
+}
@@ -88,7 +88,9 @@ public class DefaultMeasurementsService implements MeasurementsService {
         if (!request.getFilters().isEmpty()) {
             RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
             filterEngine.filter(request.getFilters(), table);
+            final Map<String, Object> metadata = results.getMetadata();
             results = new FetchResults(table, results.getStep(), results.getConstants());
+            results.getMetadata().putAll(metadata);
         }
 
         // Remove any transient values belonging to sources
@@ -107,6 +109,7 @@ public class DefaultMeasurementsService implements MeasurementsService {
         response.setTimestamps(results.getTimestamps());
         response.setColumns(results.getColumns());
         response.setConstants(results.getConstants());
+        response.setMetadata(results.getMetadata());
         return response;
     }
 
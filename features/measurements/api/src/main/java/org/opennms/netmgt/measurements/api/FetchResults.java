@@ -52,6 +52,8 @@ public class FetchResults {
 
     private final Map<String, Object> m_constants;
 
+    private final Map<String, Object> m_metadata = Maps.newLinkedHashMap();
+
     public FetchResults(final long[] timestamps, Map<String, double[]> columns, final long step, final Map<String, Object> constants) {
         Preconditions.checkNotNull(timestamps, "timestamps argument");
         Preconditions.checkNotNull(columns, "columns argument");
@@ -136,12 +138,21 @@ public class FetchResults {
         return m_constants;
     }
 
+    /**
+     * Additional details about how the results were fetched,
+     * i.e. the time spent resolving and reading the sources.
+     */
+    public Map<String, Object> getMetadata() {
+        return m_metadata;
+    }
+
     public String toString() {
        return Objects.toStringHelper(this.getClass())
             .add("timestamps", Arrays.toString(m_timestamps))
             .add("columns", m_columns)
             .add("step", m_step)
             .add("constants", m_constants)
+            .add("metadata", m_metadata)
             .toString();
     }
 
@@ -88,6 +88,12 @@ public class QueryResponse {
      */
     private List<QueryConstant> constants;
 
+    /**
+     * Details about how the response was computed, i.e. fetch times.
+     * Not considered in {@link #equals(Object)}, since these vary between queries.
+     */
+    private List<QueryConstant> metadata;
+
     @XmlAttribute(name = "step")
     public long getStep() {
         return step;
@@ -190,6 +196,23 @@ public class QueryResponse {
         this.constants = c;
     }
 
+    @XmlElement(name="metadata")
+    public List<QueryConstant> getMetadata() {
+        return this.metadata;
+    }
+
+    public void setMetadata(final List<QueryConstant> metadata) {
+        this.metadata = metadata;
+    }
+
+    public void setMetadata(final Map<String,Object> metadata) {
+        final List<QueryConstant> m = new ArrayList<>();
+        for (final Map.Entry<String,Object> entry : metadata.entrySet()) {
+            m.add(new QueryConstant(entry.getKey(), String.valueOf(entry.getValue())));
+        }
+        this.metadata = m;
+    }
+
     /**
      * Convenience method.
      */
@@ -238,6 +261,7 @@ public class QueryResponse {
                  .add("Labels", Arrays.toString(this.labels))
                  .add("Columns", Arrays.toString(this.columns))
                  .add("Constants", this.constants)
+                 .add("Metadata", this.metadata)
                  .toString();
     }
 
@@ -29,8 +29,18 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.RrdException;
 import org.opennms.netmgt.dao.api.ResourceDao;
@@ -46,7 +56,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Used to fetch measurements from RRD files.
@@ -57,9 +69,32 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRrdBasedFetchStrategy.class);
 
+    /**
+     * Maximum number of threads used to read the files of a single query.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.opennms.measurements.fetch.parallelism";
+
+    /**
+     * Number of threads shared by all queries for reading files.
+     */
+    public static final String THREADS_PROPERTY = "org.opennms.measurements.fetch.threads";
+
+    /**
+     * Keys of the fetch-time breakdown added to the metadata of the {@link FetchResults}.
+     */
+    public static final String METADATA_RESOLVE_TIME = "fetch.resolveTime";
+    public static final String METADATA_READ_TIME = "fetch.readTime";
+    public static final String METADATA_FILES = "fetch.files";
+    public static final String METADATA_BATCHES = "fetch.batches";
+    public static final String METADATA_SLOWEST_BATCH_TIME = "fetch.slowestBatchTime";
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
     @Autowired
     private ResourceDao m_resourceDao;
 
+    private int m_parallelism = Integer.getInteger(PARALLELISM_PROPERTY, DEFAULT_PARALLELISM);
+
     /**
      * {@inheritDoc}
      */
@@ -67,10 +102,15 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
     public FetchResults fetch(long start, long end, long step, int maxrows,
                               Long interval, Long heartbeat, List<Source> sources, boolean relaxed) throws Exception {
 
+        final long resolveStart = System.nanoTime();
         final Map<String, Object> constants = Maps.newHashMap();
 
-        final Map<Source, String> rrdsBySource = Maps.newHashMap();
-        
+        // Preserve the order of the sources
+        final Map<Source, String> rrdsBySource = Maps.newLinkedHashMap();
+
+        // Sources often share resources, only look these up once
+        final Map<ResourceId, OnmsResource> resourcesById = Maps.newHashMap();
+
         for (final Source source : sources) {
             final ResourceId resourceId;
             try {
@@ -82,7 +122,13 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             }
 
             // Grab the resource
-            final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
+            final OnmsResource resource;
+            if (resourcesById.containsKey(resourceId)) {
+                resource = resourcesById.get(resourceId);
+            } else {
+                resource = m_resourceDao.getResourceById(resourceId);
+                resourcesById.put(resourceId, resource);
+            }
             if (resource == null) {
                 if (relaxed) continue;
                 LOG.error("No resource with id: {}", source.getResourceId());
@@ -115,8 +161,12 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             rrdsBySource.put(source, rrdFile);
         }
 
+        final long resolveTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resolveStart);
+
         // Fetch
-        return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, relaxed);
+        final FetchResults fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, relaxed);
+        fetchResults.getMetadata().put(METADATA_RESOLVE_TIME, resolveTime);
+        return fetchResults;
     }
 
     /**
@@ -136,17 +186,164 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             return Utils.createEmtpyFetchResults(step, constants);
         }
 
-        FetchResults fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        final long readStart = System.nanoTime();
+        final List<Map<Source, String>> batches = partitionByFile(rrdsBySource);
+        FetchResults fetchResults = null;
+        if (batches.size() > 1) {
+            fetchResults = fetchInParallel(start, end, step, maxrows, batches, rrdsBySource, constants);
+        }
+        if (fetchResults == null) {
+            fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+            fetchResults.getMetadata().put(METADATA_BATCHES, 1);
+        }
+        fetchResults.getMetadata().put(METADATA_READ_TIME, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStart));
+        fetchResults.getMetadata().put(METADATA_FILES, rrdsBySource.values().stream().distinct().count());
+
         if (relaxed) {
             Utils.fillMissingValues(fetchResults, sources);
         }
         return fetchResults;
     }
 
+    /**
+     * Splits the sources into at most {@link #getParallelism()} batches, keeping
+     * all of the sources that are stored in the same file in the same batch.
+     */
+    private List<Map<Source, String>> partitionByFile(Map<Source, String> rrdsBySource) {
+        final Map<String, Map<Source, String>> sourcesByFile = Maps.newLinkedHashMap();
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            sourcesByFile.computeIfAbsent(entry.getValue(), f -> Maps.newLinkedHashMap()).put(entry.getKey(), entry.getValue());
+        }
+
+        final int numBatches = isParallelFetchSupported() ? Math.min(getParallelism(), sourcesByFile.size()) : 1;
+        if (numBatches <= 1) {
+            return Lists.newArrayList(Collections.singletonList(rrdsBySource));
+        }
+        final List<Map<Source, String>> batches = Lists.newArrayListWithCapacity(numBatches);
+        for (int i = 0; i < numBatches; i++) {
+            batches.add(Maps.newLinkedHashMap());
+        }
+        int k = 0;
+        for (final Map<Source, String> sourcesInFile : sourcesByFile.values()) {
+            batches.get(k++ % numBatches).putAll(sourcesInFile);
+        }
+        return batches;
+    }
+
+    /**
+     * Reads the batches concurrently and merges the results. The first failing
+     * batch cancels the others.
+     *
+     * @return the merged results, or null if the batches were consolidated
+     *   differently, in which case all of the sources must be fetched at once
+     */
+    private FetchResults fetchInParallel(long start, long end, long step, int maxrows, List<Map<Source, String>> batches,
+            Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+        final CompletionService<FetchResults> completionService = new ExecutorCompletionService<>(FetchExecutor.INSTANCE);
+        final List<Future<FetchResults>> futures = Lists.newArrayListWithCapacity(batches.size());
+        final long[] batchTimes = new long[batches.size()];
+        for (int i = 0; i < batches.size(); i++) {
+            final Map<Source, String> batch = batches.get(i);
+            final int batchIndex = i;
+            futures.add(completionService.submit(() -> {
+                final long batchStart = System.nanoTime();
+                try {
+                    return fetchMeasurements(start, end, step, maxrows, batch, constants);
+                } finally {
+                    batchTimes[batchIndex] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+                }
+            }));
+        }
+
+        // Collect the batches as they complete, so a failure is noticed right away
+        final FetchResults[] results = new FetchResults[futures.size()];
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<FetchResults> future = completionService.take();
+                results[futures.indexOf(future)] = future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while fetching measurements.", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RrdException) {
+                throw (RrdException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RrdException("Fetching measurements failed.", e.getCause());
+        }
+
+        // The rows can only be merged if every batch was consolidated to the same step
+        final FetchResults first = results[0];
+        for (final FetchResults result : results) {
+            if (result.getStep() != first.getStep() || !Arrays.equals(result.getTimestamps(), first.getTimestamps())) {
+                LOG.debug("Batches were consolidated differently, fetching all of the sources at once.");
+                return null;
+            }
+        }
+
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (final Source source : rrdsBySource.keySet()) {
+            for (final FetchResults result : results) {
+                final double[] values = result.getColumns().get(source.getLabel());
+                if (values != null) {
+                    columns.put(source.getLabel(), values);
+                    break;
+                }
+            }
+        }
+
+        final FetchResults fetchResults = new FetchResults(first.getTimestamps(), columns, first.getStep(), constants);
+        fetchResults.getMetadata().put(METADATA_BATCHES, batches.size());
+        fetchResults.getMetadata().put(METADATA_SLOWEST_BATCH_TIME, Arrays.stream(batchTimes).max().getAsLong());
+        return fetchResults;
+    }
+
+    /**
+     * Whether or not {@link #fetchMeasurements(long, long, long, int, Map, Map)} can be
+     * invoked concurrently, in which case the files of a query are read in parallel.
+     */
+    protected boolean isParallelFetchSupported() {
+        return false;
+    }
+
+    public void setResourceDao(ResourceDao resourceDao) {
+        m_resourceDao = resourceDao;
+    }
+
+    public int getParallelism() {
+        return m_parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        m_parallelism = parallelism;
+    }
+
     /**
      * Performs the actual retrieval of the values from the RRD/JRB files.
      */
     protected abstract FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
             Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException;
 
+    /**
+     * Bounded pool shared by all of the queries, created on first use.
+     */
+    private static class FetchExecutor {
+        private static final ExecutorService INSTANCE;
+
+        static {
+            final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("measurements-fetch-%d")
+                            .setDaemon(true)
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            INSTANCE = executor;
+        }
+    }
 }
@@ -0,0 +1,879 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.internal.introspection.MethodKey;
+import org.apache.commons.jexl2.introspection.Uberspect;
+import org.apache.commons.jexl2.parser.ASTAdditiveNode;
+import org.apache.commons.jexl2.parser.ASTAdditiveOperator;
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTDivNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTFunctionNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTModNode;
+import org.apache.commons.jexl2.parser.ASTMulNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNumberLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTReferenceExpression;
+import org.apache.commons.jexl2.parser.ASTStringLiteral;
+import org.apache.commons.jexl2.parser.ASTTernaryNode;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.ASTUnaryMinusNode;
+import org.apache.commons.jexl2.parser.JexlNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Evaluates measurement expressions a whole column at a time instead of
+ * once per row.
+ *
+ * Only the subset of JEXL that is commonly used in graph definitions is
+ * supported: number literals, references to sources, constants and previous
+ * expressions, arithmetic, comparisons, logical operators, the ternary
+ * operator, the double valued functions of the <code>math:</code> and
+ * <code>strictmath:</code> namespaces and the <code>fn:array*</code> functions.
+ * The compiler mimics the coercion rules of the {@link JexlArithmetic} used
+ * by the interpreter and refuses any construct whose result could differ from
+ * the one the interpreter would compute row by row, in which case the caller
+ * is expected to fall back to JEXL.
+ */
+class ColumnExpressionCompiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnExpressionCompiler.class);
+
+    /**
+     * Runtime classes a numeric value can take on, used to decide
+     * which branch of the JEXL arithmetic would be taken.
+     */
+    private static final int DOUBLE = 1;
+    private static final int FLOAT = 2;
+    private static final int INTEGRAL = 4;
+
+    /**
+     * Largest magnitude for which every integral value has an exact double representation.
+     */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    private static final String TIMESTAMP = "timestamp";
+    private static final String INDEX = "__i";
+    private static final String SAMPLE_ARRAY_PREFIX = "__";
+
+    /**
+     * Instances of the classes a column can hold in the context.
+     */
+    private static final Object[] COLUMN_SAMPLES = new Object[] { Double.valueOf(0d), Long.valueOf(0L), Integer.valueOf(0) };
+
+    private final JexlArithmetic arithmetic;
+    private final Uberspect uberspect;
+    private final Map<String, Object> functions;
+    private final Map<String, Object> constants;
+    private final Map<String, double[]> sources;
+    private final int numRows;
+
+    /**
+     * Columns which can be referenced by the expressions, keyed by name.
+     * The results of the expressions are added as they are evaluated.
+     */
+    private final Map<String, double[]> frame = Maps.newHashMap();
+
+    /**
+     * Labels of the expressions that are being compiled, in order.
+     */
+    private List<String> labels;
+
+    /**
+     * Index of the expression that is currently being compiled.
+     */
+    private int current;
+
+    /**
+     * @param jexl the JEXL engine the expressions would otherwise be evaluated with
+     * @param constants the values of the JEXL context that do not change from row to row
+     * @param sources the columns retrieved by the fetch strategy, keyed by source label
+     * @param timestamps the timestamps of the rows
+     */
+    ColumnExpressionCompiler(JexlEngine jexl, Map<String, Object> constants, Map<String, double[]> sources, long[] timestamps) {
+        this.arithmetic = jexl.getArithmetic();
+        this.uberspect = jexl.getUberspect();
+        this.functions = jexl.getFunctions();
+        this.constants = constants;
+        this.sources = sources;
+        this.numRows = timestamps.length;
+
+        final double[] timestampColumn = new double[numRows];
+        final double[] indexColumn = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestampColumn[i] = timestamps[i];
+            indexColumn[i] = i;
+        }
+        frame.put(TIMESTAMP, timestampColumn);
+        frame.put(INDEX, indexColumn);
+        frame.putAll(sources);
+    }
+
+    /**
+     * Evaluates the given expressions, in order.
+     *
+     * @param labels the labels of the expressions
+     * @param scripts the parsed expressions
+     * @return the values of each expression, or null if any of the expressions can not be compiled
+     */
+    public double[][] evaluate(List<String> labels, List<ASTJexlScript> scripts) {
+        if (!isSupportedFrame(labels)) {
+            return null;
+        }
+        this.labels = labels;
+
+        // Compile all the expressions before evaluating any of them
+        final NumericColumn[] columns = new NumericColumn[scripts.size()];
+        for (current = 0; current < columns.length; current++) {
+            try {
+                columns[current] = compileRoot(scripts.get(current));
+            } catch (UnsupportedExpressionException e) {
+                LOG.debug("Expression with label '{}' can not be evaluated column-wise: {}", labels.get(current), e.getMessage());
+                return null;
+            }
+        }
+
+        final double[][] values = new double[columns.length][];
+        for (int k = 0; k < columns.length; k++) {
+            values[k] = columns[k].evaluate();
+            // Make the values available to the subsequent expressions, unless
+            // the label is shadowed by the values from the row
+            final String label = labels.get(k);
+            if (!sources.containsKey(label) && !TIMESTAMP.equals(label) && !INDEX.equals(label)) {
+                frame.put(label, values[k]);
+            }
+        }
+        return values;
+    }
+
+    private boolean isSupportedFrame(List<String> labels) {
+        for (Map.Entry<String, double[]> source : sources.entrySet()) {
+            if (source.getValue() == null || source.getValue().length != numRows) {
+                LOG.debug("Column '{}' does not match the number of rows.", source.getKey());
+                return false;
+            }
+            // The sample arrays would shadow this source
+            if (source.getKey().startsWith(SAMPLE_ARRAY_PREFIX)
+                    && sources.containsKey(source.getKey().substring(SAMPLE_ARRAY_PREFIX.length()))) {
+                LOG.debug("Column '{}' collides with a sample array.", source.getKey());
+                return false;
+            }
+        }
+        if (labels.size() != labels.stream().distinct().count()) {
+            LOG.debug("Expressions labels are not unique: {}", labels);
+            return false;
+        }
+        return true;
+    }
+
+    private NumericColumn compileRoot(ASTJexlScript script) throws UnsupportedExpressionException {
+        // Only the first statement is evaluated by the expression
+        if (script.jjtGetNumChildren() < 1) {
+            throw new UnsupportedExpressionException("empty expression");
+        }
+        final Value root = compile(script.jjtGetChild(0));
+        if (root.isBoolean()) {
+            // The result must be converted to a double, leave the error handling to JEXL
+            throw new UnsupportedExpressionException("boolean result");
+        }
+        final NumericColumn column = numbers(root);
+        if (root.shared) {
+            return () -> Arrays.copyOf(column.evaluate(), numRows);
+        }
+        return column;
+    }
+
+    private Value compile(JexlNode node) throws UnsupportedExpressionException {
+        if (node instanceof ASTNumberLiteral) {
+            return constant(((ASTNumberLiteral) node).getLiteral());
+        } else if (node instanceof ASTTrueNode) {
+            return constant(Boolean.TRUE);
+        } else if (node instanceof ASTFalseNode) {
+            return constant(Boolean.FALSE);
+        } else if (node instanceof ASTReference) {
+            return compileReference((ASTReference) node);
+        } else if (node instanceof ASTReferenceExpression) {
+            if (node.jjtGetNumChildren() != 1) {
+                throw new UnsupportedExpressionException("array access");
+            }
+            return compile(node.jjtGetChild(0));
+        } else if (node instanceof ASTAdditiveNode) {
+            Value left = compile(node.jjtGetChild(0));
+            for (int c = 2; c < node.jjtGetNumChildren(); c += 2) {
+                final JexlNode operator = node.jjtGetChild(c - 1);
+                if (!(operator instanceof ASTAdditiveOperator)) {
+                    throw new UnsupportedExpressionException("additive operator " + operator);
+                }
+                final Operator op = "+".equals(operator.image) ? Operator.ADD : "-".equals(operator.image) ? Operator.SUBTRACT : null;
+                if (op == null) {
+                    throw new UnsupportedExpressionException("additive operator " + operator.image);
+                }
+                left = arithmetic(op, left, compile(node.jjtGetChild(c)));
+            }
+            return left;
+        } else if (node instanceof ASTMulNode) {
+            return arithmetic(Operator.MULTIPLY, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTDivNode) {
+            return arithmetic(Operator.DIVIDE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTModNode) {
+            return arithmetic(Operator.MOD, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTUnaryMinusNode) {
+            return negate(compile(node.jjtGetChild(0)));
+        } else if (node instanceof ASTEQNode) {
+            return compare(Comparison.EQ, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTNENode) {
+            return compare(Comparison.NE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTLTNode) {
+            return compare(Comparison.LT, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTLENode) {
+            return compare(Comparison.LE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTGTNode) {
+            return compare(Comparison.GT, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTGENode) {
+            return compare(Comparison.GE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTAndNode) {
+            return logical(true, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTOrNode) {
+            return logical(false, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTNotNode) {
+            return not(compile(node.jjtGetChild(0)));
+        } else if (node instanceof ASTTernaryNode) {
+            if (node.jjtGetNumChildren() != 3) {
+                throw new UnsupportedExpressionException("elvis operator");
+            }
+            return ternary(compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)), compile(node.jjtGetChild(2)));
+        } else if (node instanceof ASTFunctionNode) {
+            return compileFunction((ASTFunctionNode) node);
+        }
+        throw new UnsupportedExpressionException(node.getClass().getSimpleName());
+    }
+
+    /**
+     * Resolves a (possibly dotted) variable name the same way the interpreter does:
+     * every segment is first resolved as a property of the value of the previous
+     * segment, or as a variable of its own if that value is null, and the
+     * dotted name up to the segment is looked up in the context when that
+     * fails. This is how constants such as <code>source.property</code> are
+     * referenced.
+     */
+    private Value compileReference(ASTReference node) throws UnsupportedExpressionException {
+        final JexlNode first = node.jjtGetChild(0);
+        if (!(first instanceof ASTIdentifier)) {
+            if (node.jjtGetNumChildren() != 1) {
+                throw new UnsupportedExpressionException("property access");
+            }
+            return compile(first);
+        }
+
+        final StringBuilder name = new StringBuilder(first.image);
+        Value value = lookup(name.toString());
+        for (int c = 1; c < node.jjtGetNumChildren(); c++) {
+            final JexlNode segment = node.jjtGetChild(c);
+            if (!(segment instanceof ASTIdentifier)
+                    || (value == null ? lookup(segment.image) != null : hasProperty(value, segment.image))) {
+                throw new UnsupportedExpressionException("property access on " + name);
+            }
+            name.append('.').append(segment.image);
+            value = lookup(name.toString());
+        }
+        if (value == null) {
+            throw new UnsupportedExpressionException("undefined variable " + name);
+        }
+        return value;
+    }
+
+    private boolean hasProperty(Value value, String property) {
+        for (Object bean : value.isConstant() ? new Object[] { value.constant } : COLUMN_SAMPLES) {
+            if (uberspect.getPropertyGet(bean, property, null) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the value the JEXL context holds for the given name while
+     * evaluating the current expression.
+     *
+     * @return the value, or null if the context holds null for every row
+     */
+    private Value lookup(String name) throws UnsupportedExpressionException {
+        // The values from the row are set before every expression, overwriting
+        // anything else with the same name
+        if (sources.containsKey(name)) {
+            return reference(DOUBLE, name);
+        } else if (name.startsWith(SAMPLE_ARRAY_PREFIX) && sources.containsKey(name.substring(SAMPLE_ARRAY_PREFIX.length()))) {
+            throw new UnsupportedExpressionException("sample array " + name);
+        } else if (TIMESTAMP.equals(name) || INDEX.equals(name)) {
+            return reference(INTEGRAL, name);
+        }
+
+        // The results of the previous expressions in the same row
+        final int index = labels.indexOf(name);
+        if (index >= 0 && index < current) {
+            return reference(DOUBLE, name);
+        } else if (index >= 0) {
+            // This would refer to the value from the previous row
+            throw new UnsupportedExpressionException("forward reference to " + name);
+        }
+
+        final Object value = constants.get(name);
+        return value == null ? null : constant(value);
+    }
+
+    private Value compileFunction(ASTFunctionNode node) throws UnsupportedExpressionException {
+        final String prefix = node.jjtGetChild(0).image;
+        final String name = node.jjtGetChild(1).image;
+        final Object namespace = functions.get(prefix);
+        if (namespace == SampleArrayFunctions.class) {
+            return compileSampleArrayFunction(node, name);
+        } else if (namespace != Math.class && namespace != StrictMath.class) {
+            throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+        }
+
+        final int numArgs = node.jjtGetNumChildren() - 2;
+        final Value[] args = new Value[numArgs];
+        final Class<?>[] argClasses = new Class<?>[numArgs];
+        boolean allConstant = true;
+        for (int i = 0; i < numArgs; i++) {
+            args[i] = compile(node.jjtGetChild(i + 2));
+            if (args[i].isConstant()) {
+                argClasses[i] = args[i].constant.getClass();
+            } else if (args[i].types == DOUBLE) {
+                argClasses[i] = Double.class;
+                allConstant = false;
+            } else {
+                throw new UnsupportedExpressionException("argument of " + prefix + ":" + name);
+            }
+        }
+
+        // Find the method the same way the introspector would, using the classes of the arguments
+        Method method = null;
+        for (Method candidate : ((Class<?>) namespace).getMethods()) {
+            if (!candidate.getName().equals(name) || !Modifier.isStatic(candidate.getModifiers())
+                    || candidate.getParameterTypes().length != numArgs) {
+                continue;
+            }
+            boolean applicable = true;
+            for (int i = 0; i < numArgs && applicable; i++) {
+                applicable = MethodKey.isInvocationConvertible(candidate.getParameterTypes()[i], argClasses[i], false);
+            }
+            if (applicable) {
+                if (method != null) {
+                    throw new UnsupportedExpressionException("ambiguous function " + prefix + ":" + name);
+                }
+                method = candidate;
+            }
+        }
+        if (method == null || method.getReturnType() != double.class) {
+            throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+        }
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            if (parameterType != double.class) {
+                throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+            }
+        }
+
+        if (allConstant) {
+            final Object[] argv = new Object[numArgs];
+            for (int i = 0; i < numArgs; i++) {
+                argv[i] = args[i].constant;
+            }
+            try {
+                return constant(method.invoke(null, argv));
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+            }
+        }
+
+        final MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+        }
+        if (numArgs == 1) {
+            final NumericColumn x = numbers(args[0]);
+            return numeric(DOUBLE, () -> {
+                final double[] a = x.evaluate();
+                final double[] r = new double[numRows];
+                try {
+                    for (int i = 0; i < numRows; i++) {
+                        r[i] = (double) handle.invokeExact(a[i]);
+                    }
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+                return r;
+            });
+        } else if (numArgs == 2) {
+            // Constant arguments are widened by reflection, and not coerced by the arithmetic
+            final NumericColumn x = args[0].isConstant() ? fill(((Number) args[0].constant).doubleValue()) : numbers(args[0]);
+            final NumericColumn y = args[1].isConstant() ? fill(((Number) args[1].constant).doubleValue()) : numbers(args[1]);
+            return numeric(DOUBLE, () -> {
+                final double[] a = x.evaluate();
+                final double[] b = y.evaluate();
+                final double[] r = new double[numRows];
+                try {
+                    for (int i = 0; i < numRows; i++) {
+                        r[i] = (double) handle.invokeExact(a[i], b[i]);
+                    }
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+                return r;
+            });
+        }
+        throw new UnsupportedExpressionException("function " + prefix + ":" + name);
+    }
+
+    /**
+     * Compiles the functions from {@link SampleArrayFunctions}, which shift the samples of a source.
+     */
+    private Value compileSampleArrayFunction(ASTFunctionNode node, String name) throws UnsupportedExpressionException {
+        final int numArgs = node.jjtGetNumChildren() - 2;
+        final boolean withStart = "arrayStart".equals(name);
+        if (!"arrayZero".equals(name) && !"arrayFirst".equals(name) && !"arrayNaN".equals(name) && !withStart
+                || numArgs != (withStart ? 3 : 2)) {
+            throw new UnsupportedExpressionException("function fn:" + name);
+        }
+
+        final String sampleName = stringLiteral(node.jjtGetChild(2));
+        final Value n = compile(node.jjtGetChild(3));
+        if (sampleName == null || !n.isConstant() || !(n.constant instanceof Integer)) {
+            throw new UnsupportedExpressionException("arguments of fn:" + name);
+        }
+        final int offset = (Integer) n.constant;
+
+        NumericColumn start = null;
+        if (withStart) {
+            final Value value = compile(node.jjtGetChild(4));
+            if (value.isConstant() && MethodKey.isInvocationConvertible(double.class, value.constant.getClass(), false)) {
+                start = fill(((Number) value.constant).doubleValue());
+            } else if (!value.isConstant() && value.types == DOUBLE) {
+                start = numbers(value);
+            } else {
+                throw new UnsupportedExpressionException("arguments of fn:" + name);
+            }
+        }
+
+        if (!sources.containsKey(sampleName)) {
+            LOG.warn("fn:{} attribute not in jexl context: __{}", name, sampleName);
+            return constant(Double.NaN);
+        }
+
+        final NumericColumn before = start;
+        return numeric(DOUBLE, () -> {
+            final double[] samples = frame.get(sampleName);
+            final double[] starts = before != null ? before.evaluate() : null;
+            final double[] r = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                final int j = i - offset;
+                if (j < 0) {
+                    switch (name) {
+                        case "arrayZero": r[i] = 0d; break;
+                        case "arrayFirst": r[i] = samples[0]; break;
+                        case "arrayStart": r[i] = starts[i]; break;
+                        default: r[i] = Double.NaN; break;
+                    }
+                } else {
+                    r[i] = j < samples.length ? samples[j] : Double.NaN;
+                }
+            }
+            return r;
+        });
+    }
+
+    private static String stringLiteral(JexlNode node) {
+        if (node instanceof ASTReference && node.jjtGetNumChildren() == 1) {
+            return stringLiteral(node.jjtGetChild(0));
+        }
+        return node instanceof ASTStringLiteral ? node.image : null;
+    }
+
+    private Value arithmetic(Operator op, Value left, Value right) throws UnsupportedExpressionException {
+        if (left.isBoolean() || right.isBoolean()) {
+            throw new UnsupportedExpressionException("boolean arithmetic");
+        }
+        if (left.isConstant() && right.isConstant()) {
+            try {
+                return constant(op.apply(arithmetic, left.constant, right.constant));
+            } catch (ArithmeticException e) {
+                if (op == Operator.DIVIDE || op == Operator.MOD) {
+                    // The interpreter is lenient about division by zero
+                    return constant(Double.valueOf(0.0));
+                }
+                throw new UnsupportedExpressionException("arithmetic error");
+            }
+        }
+        // Only the floating point branch of the arithmetic is supported
+        if ((left.types & INTEGRAL) != 0 && (right.types & INTEGRAL) != 0) {
+            throw new UnsupportedExpressionException("integer arithmetic");
+        }
+
+        final NumericColumn x = numbers(left);
+        final NumericColumn y = numbers(right);
+        return numeric(DOUBLE, () -> {
+            final double[] a = x.evaluate();
+            final double[] b = y.evaluate();
+            final double[] r = new double[numRows];
+            switch (op) {
+            case ADD:
+                for (int i = 0; i < numRows; i++) {
+                    r[i] = a[i] + b[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < numRows; i++) {
+                    r[i] = a[i] - b[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < numRows; i++) {
+                    r[i] = a[i] * b[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < numRows; i++) {
+                    r[i] = b[i] == 0.0 ? 0.0 : a[i] / b[i];
+                }
+                break;
+            case MOD:
+                for (int i = 0; i < numRows; i++) {
+                    r[i] = b[i] == 0.0 ? 0.0 : a[i] % b[i];
+                }
+                break;
+            }
+            return r;
+        });
+    }
+
+    private Value negate(Value value) throws UnsupportedExpressionException {
+        if (value.isBoolean()) {
+            throw new UnsupportedExpressionException("boolean negation");
+        }
+        if (value.isConstant()) {
+            return constant(arithmetic.negate(value.constant));
+        }
+        final NumericColumn x = value.numbers;
+        return numeric(value.types, () -> {
+            final double[] a = x.evaluate();
+            final double[] r = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = -a[i];
+            }
+            return r;
+        });
+    }
+
+    private Value compare(Comparison comparison, Value left, Value right) throws UnsupportedExpressionException {
+        if (left.isBoolean() || right.isBoolean()) {
+            throw new UnsupportedExpressionException("boolean comparison");
+        }
+        if (left.isConstant() && right.isConstant()) {
+            return constant(comparison.apply(arithmetic, left.constant, right.constant));
+        }
+
+        final NumericColumn x = numbers(left);
+        final NumericColumn y = numbers(right);
+        return bool(() -> {
+            final double[] a = x.evaluate();
+            final double[] b = y.evaluate();
+            final boolean[] r = new boolean[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = comparison.test(compare(a[i], b[i]));
+            }
+            return r;
+        });
+    }
+
+    /**
+     * Same ordering as {@link JexlArithmetic}, where NaN equals NaN and is smaller than any other value.
+     */
+    private static int compare(double lhs, double rhs) {
+        if (Double.isNaN(lhs)) {
+            return Double.isNaN(rhs) ? 0 : -1;
+        } else if (Double.isNaN(rhs)) {
+            return 1;
+        } else if (lhs < rhs) {
+            return -1;
+        } else if (lhs > rhs) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private Value logical(boolean and, Value left, Value right) throws UnsupportedExpressionException {
+        if (left.isConstant() && right.isConstant()) {
+            final boolean l = arithmetic.toBoolean(left.constant);
+            final boolean r = arithmetic.toBoolean(right.constant);
+            return constant(and ? l && r : l || r);
+        }
+        final BooleanColumn x = booleans(left);
+        final BooleanColumn y = booleans(right);
+        return bool(() -> {
+            final boolean[] a = x.evaluate();
+            final boolean[] b = y.evaluate();
+            final boolean[] r = new boolean[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = and ? a[i] && b[i] : a[i] || b[i];
+            }
+            return r;
+        });
+    }
+
+    private Value not(Value value) throws UnsupportedExpressionException {
+        if (value.isConstant()) {
+            return constant(!arithmetic.toBoolean(value.constant));
+        }
+        final BooleanColumn x = booleans(value);
+        return bool(() -> {
+            final boolean[] a = x.evaluate();
+            final boolean[] r = new boolean[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = !a[i];
+            }
+            return r;
+        });
+    }
+
+    private Value ternary(Value condition, Value then, Value otherwise) throws UnsupportedExpressionException {
+        if (then.isBoolean() || otherwise.isBoolean()) {
+            throw new UnsupportedExpressionException("boolean ternary");
+        }
+        if (condition.isConstant()) {
+            return arithmetic.toBoolean(condition.constant) ? then : otherwise;
+        }
+        final BooleanColumn c = booleans(condition);
+        final NumericColumn x = numbers(then);
+        final NumericColumn y = numbers(otherwise);
+        return numeric(then.types | otherwise.types, () -> {
+            final boolean[] test = c.evaluate();
+            final double[] a = x.evaluate();
+            final double[] b = y.evaluate();
+            final double[] r = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = test[i] ? a[i] : b[i];
+            }
+            return r;
+        });
+    }
+
+    /**
+     * Retrieves the values of a numeric operand, coerced the way the arithmetic would.
+     */
+    private NumericColumn numbers(Value value) {
+        if (value.isConstant()) {
+            return fill(arithmetic.toDouble(value.constant));
+        }
+        return value.numbers;
+    }
+
+    /**
+     * Retrieves the values of an operand, coerced to booleans the way the arithmetic would.
+     */
+    private BooleanColumn booleans(Value value) {
+        if (value.isConstant()) {
+            final boolean b = arithmetic.toBoolean(value.constant);
+            return () -> {
+                final boolean[] r = new boolean[numRows];
+                Arrays.fill(r, b);
+                return r;
+            };
+        } else if (value.isBoolean()) {
+            return value.booleans;
+        }
+        final NumericColumn x = value.numbers;
+        return () -> {
+            final double[] a = x.evaluate();
+            final boolean[] r = new boolean[numRows];
+            for (int i = 0; i < numRows; i++) {
+                r[i] = !Double.isNaN(a[i]) && a[i] != 0d;
+            }
+            return r;
+        };
+    }
+
+    private NumericColumn fill(double value) {
+        return () -> {
+            final double[] r = new double[numRows];
+            Arrays.fill(r, value);
+            return r;
+        };
+    }
+
+    private Value reference(int types, String name) {
+        return new Value(false, types, null, () -> frame.get(name), null, true);
+    }
+
+    private static Value numeric(int types, NumericColumn numbers) {
+        return new Value(false, types, null, numbers, null, false);
+    }
+
+    private static Value bool(BooleanColumn booleans) {
+        return new Value(true, 0, null, null, booleans, false);
+    }
+
+    private static Value constant(Object value) throws UnsupportedExpressionException {
+        if (value instanceof Boolean) {
+            return new Value(true, 0, value, null, null, false);
+        } else if (value instanceof Double) {
+            return new Value(false, DOUBLE, value, null, null, false);
+        } else if (value instanceof Float) {
+            return new Value(false, FLOAT, value, null, null, false);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof Long && Math.abs((Long) value) <= MAX_EXACT_LONG) {
+            return new Value(false, INTEGRAL, value, null, null, false);
+        }
+        throw new UnsupportedExpressionException("constant of type " + (value == null ? null : value.getClass().getSimpleName()));
+    }
+
+    @FunctionalInterface
+    private interface NumericColumn {
+        double[] evaluate();
+    }
+
+    @FunctionalInterface
+    private interface BooleanColumn {
+        boolean[] evaluate();
+    }
+
+    /**
+     * A compiled (sub-)expression.
+     */
+    private static class Value {
+        private final boolean bool;
+        /**
+         * Bitmask of the runtime classes the interpreter would produce for this value.
+         */
+        private final int types;
+        /**
+         * The value of the expression if it is the same for every row.
+         */
+        private final Object constant;
+        private final NumericColumn numbers;
+        private final BooleanColumn booleans;
+        /**
+         * Whether the column is owned by the frame, and must not be handed out.
+         */
+        private final boolean shared;
+
+        private Value(boolean bool, int types, Object constant, NumericColumn numbers, BooleanColumn booleans, boolean shared) {
+            this.bool = bool;
+            this.types = types;
+            this.constant = constant;
+            this.numbers = numbers;
+            this.booleans = booleans;
+            this.shared = shared;
+        }
+
+        private boolean isBoolean() {
+            return bool;
+        }
+
+        private boolean isConstant() {
+            return constant != null;
+        }
+    }
+
+    private enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MOD;
+
+        private Object apply(JexlArithmetic arithmetic, Object left, Object right) {
+            switch (this) {
+            case ADD: return arithmetic.add(left, right);
+            case SUBTRACT: return arithmetic.subtract(left, right);
+            case MULTIPLY: return arithmetic.multiply(left, right);
+            case DIVIDE: return arithmetic.divide(left, right);
+            default: return arithmetic.mod(left, right);
+            }
+        }
+    }
+
+    private enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        private boolean apply(JexlArithmetic arithmetic, Object left, Object right) {
+            switch (this) {
+            case EQ: return arithmetic.equals(left, right);
+            case NE: return !arithmetic.equals(left, right);
+            case LT: return arithmetic.lessThan(left, right);
+            case LE: return arithmetic.lessThanOrEqual(left, right);
+            case GT: return arithmetic.greaterThan(left, right);
+            default: return arithmetic.greaterThanOrEqual(left, right);
+            }
+        }
+
+        private boolean test(int comparison) {
+            switch (this) {
+            case EQ: return comparison == 0;
+            case NE: return comparison != 0;
+            case LT: return comparison < 0;
+            case LE: return comparison <= 0;
+            case GT: return comparison > 0;
+            default: return comparison >= 0;
+            }
+        }
+    }
+
+    /**
+     * Signals a construct that is not supported by the compiler.
+     */
+    private static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedExpressionException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -29,15 +29,18 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.JexlException;
 import org.apache.commons.jexl2.MapContext;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
@@ -51,6 +54,9 @@ import org.slf4j.LoggerFactory;
 /**
  * An expression engine implemented using JEXL.
  *
+ * Expressions are evaluated a whole column at a time by the {@link ColumnExpressionCompiler}
+ * when possible, and row by row by the JEXL interpreter otherwise.
+ *
  * @author jwhite
  */
 @Component("expressionEngine")
@@ -61,7 +67,7 @@ public class JEXLExpressionEngine implements ExpressionEngine {
     /**
      * Use a single instance of the JEXL engine, which is thread-safe.
      */
-    private final JexlEngine jexl = new JexlEngine();
+    private final ParsingJexlEngine jexl = new ParsingJexlEngine();
 
     public JEXLExpressionEngine() {
         // Add additional functions to the engine
@@ -98,6 +104,8 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         // Compile the expressions
         int j, k = 0;
         final LinkedHashMap<String, org.apache.commons.jexl2.Expression> expressions = Maps.newLinkedHashMap();
+        final List<String> labels = Lists.newArrayListWithCapacity(numExpressions);
+        final List<ASTJexlScript> scripts = Lists.newArrayListWithCapacity(numExpressions);
         for (final Expression e : request.getExpressions()) {
 
             // Populate the transientFlags array
@@ -108,7 +116,10 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             k++;
 
             try {
-                expressions.put(e.getLabel(), jexl.createExpression(e.getExpression()));
+                final ASTJexlScript script = jexl.parse(e.getExpression());
+                expressions.put(e.getLabel(), jexl.createExpression(script, e.getExpression()));
+                labels.add(e.getLabel());
+                scripts.add(script);
             } catch (JexlException ex) {
                 throw new ExpressionException(ex, "Failed to parse expression label '{}'.", e.getLabel());
             }
@@ -140,6 +151,17 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         // Calculate the time span
         jexlValues.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
 
+        // Evaluate whole columns at once if all of the expressions can be compiled
+        final double compiledValues[][] = new ColumnExpressionCompiler(jexl, jexlValues, columns, timestamps).evaluate(labels, scripts);
+        if (compiledValues != null) {
+            for (j = 0; j < numExpressions; j++) {
+                if (!transientFlags[j]) {
+                    columns.put(labels.get(j), compiledValues[j]);
+                }
+            }
+            return;
+        }
+
         final double expressionValues[][] = new double[numNonTransientExpression][numRows];
 
         // Iterate through all of the rows, apply the expressions
@@ -193,4 +215,24 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
     }
+
+    /**
+     * Exposes the syntax tree of the parsed expressions, so that they can be compiled.
+     */
+    private static class ParsingJexlEngine extends JexlEngine {
+
+        private ASTJexlScript parse(String expression) {
+            final ASTJexlScript script = parse(expression, null, null);
+            if (script.jjtGetNumChildren() > 1) {
+                logger.warn("The JEXL Expression created will be a reference"
+                        + " to the first expression from the supplied script: \"" + expression + "\" ");
+            }
+            return script;
+        }
+
+        @Override
+        protected org.apache.commons.jexl2.Expression createExpression(ASTJexlScript tree, String text) {
+            return super.createExpression(tree, text);
+        }
+    }
 }
@@ -95,4 +95,12 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
         return new FetchResults(timestamps, columns, dproc.getStep() * 1000, constants);
     }
+
+    /**
+     * Each call uses its own {@link DataProcessor}, so the files can be read concurrently.
+     */
+    @Override
+    protected boolean isParallelFetchSupported() {
+        return true;
+    }
 }
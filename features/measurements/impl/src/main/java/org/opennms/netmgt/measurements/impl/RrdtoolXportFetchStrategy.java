@@ -199,4 +199,11 @@ public class RrdtoolXportFetchStrategy extends AbstractRrdBasedFetchStrategy {
         return new FetchResults(timestamps, columns, xportStepInMs, constants);
     }
 
+    /**
+     * Each call spawns its own rrdtool process, so the files can be read concurrently.
+     */
+    @Override
+    protected boolean isParallelFetchSupported() {
+        return true;
+    }
 }
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.jrobin.core.RrdException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.model.OnmsResourceType;
+import org.opennms.netmgt.model.ResourceId;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.RrdGraphAttribute;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies how the {@link AbstractRrdBasedFetchStrategy} splits the sources of a
+ * query into batches, reads them in parallel and merges the results.
+ */
+public class AbstractRrdBasedFetchStrategyTest {
+
+    private static final long STEP = 300;
+    private static final long[] TIMESTAMPS = { 300, 600, 900 };
+
+    private static final ResourceId RESOURCE_ID = ResourceId.get("node", "1").resolve("nodeSnmp", "");
+
+    private final Set<OnmsAttribute> m_attributes = new HashSet<>();
+
+    private StubFetchStrategy m_strategy;
+
+    private String m_rrdBaseDir;
+
+    @Before
+    public void setUp() {
+        m_rrdBaseDir = System.getProperty("rrd.base.dir");
+        System.setProperty("rrd.base.dir", "base");
+
+        final OnmsResource resource = new OnmsResource("node", "Node", stub(OnmsResourceType.class, null), m_attributes, ResourcePath.get("node"));
+        m_strategy = new StubFetchStrategy();
+        m_strategy.setResourceDao(stub(ResourceDao.class, id -> RESOURCE_ID.equals(id) ? resource : null));
+        m_strategy.setParallelism(2);
+    }
+
+    @After
+    public void tearDown() {
+        if (m_rrdBaseDir == null) {
+            System.clearProperty("rrd.base.dir");
+        } else {
+            System.setProperty("rrd.base.dir", m_rrdBaseDir);
+        }
+    }
+
+    @Test
+    public void keepsSourcesOfAFileInOneBatch() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1", "f3", "f2");
+
+        m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        assertEquals(2, m_strategy.getBatches().size());
+        assertEquals(sources.size(), m_strategy.getBatches().stream().mapToInt(Map::size).sum());
+        // the files are dealt round robin over the batches
+        final Set<Set<String>> filesByBatch = m_strategy.getBatches().stream()
+                .map(batch -> new HashSet<>(batch.values()))
+                .collect(Collectors.toSet());
+        assertEquals(new HashSet<>(Arrays.asList(
+                new HashSet<>(Arrays.asList(file("f1"), file("f3"))),
+                new HashSet<>(Arrays.asList(file("f2"))))), filesByBatch);
+    }
+
+    @Test
+    public void returnsColumnsInSourceOrder() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1", "f3", "f2");
+
+        final FetchResults results = m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        assertEquals(Arrays.asList("s0", "s1", "s2", "s3", "s4"), new ArrayList<>(results.getColumns().keySet()));
+        for (final Source source : sources) {
+            assertArrayEquals(StubFetchStrategy.valuesOf(source), results.getColumns().get(source.getLabel()), 0.0);
+        }
+        assertArrayEquals(TIMESTAMPS, results.getTimestamps());
+        assertEquals(STEP, results.getStep());
+    }
+
+    @Test
+    public void fetchesAllSourcesAtOnceWhenStepsDiffer() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1");
+        m_strategy.setResultsFactory(batch -> batch.containsValue(file("f2"))
+                ? StubFetchStrategy.createResults(batch, TIMESTAMPS, STEP * 2)
+                : StubFetchStrategy.createResults(batch, TIMESTAMPS, STEP));
+
+        final FetchResults results = m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        assertFallback(sources, results);
+    }
+
+    @Test
+    public void fetchesAllSourcesAtOnceWhenTimestampsDiffer() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1");
+        m_strategy.setResultsFactory(batch -> batch.containsValue(file("f2")) && batch.size() == 1
+                ? StubFetchStrategy.createResults(batch, new long[] { 600, 900, 1200 }, STEP)
+                : StubFetchStrategy.createResults(batch, TIMESTAMPS, STEP));
+
+        final FetchResults results = m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        assertFallback(sources, results);
+    }
+
+    @Test
+    public void propagatesFailureAndCancelsOtherBatches() throws Exception {
+        final List<Source> sources = createSources("f1", "f2");
+        final RrdException failure = new RrdException("f2 is corrupt");
+        final CountDownLatch slowBatchStarted = new CountDownLatch(1);
+        final CountDownLatch slowBatchInterrupted = new CountDownLatch(1);
+        m_strategy.setResultsFactory(batch -> {
+            if (batch.containsValue(file("f1"))) {
+                // the first batch only completes when it is cancelled
+                slowBatchStarted.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (final InterruptedException e) {
+                    slowBatchInterrupted.countDown();
+                }
+                return StubFetchStrategy.createResults(batch, TIMESTAMPS, STEP);
+            }
+            try {
+                slowBatchStarted.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new StubFailure(failure);
+        });
+
+        final long start = System.nanoTime();
+        try {
+            m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+            fail("The failure of the second batch was not propagated");
+        } catch (final RrdException e) {
+            assertSame(failure, e);
+        }
+        assertTrue("The failure was only noticed after the first batch completed",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertTrue(slowBatchInterrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void setsMetadata() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1", "f3");
+
+        final FetchResults results = m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        final Map<String, Object> metadata = results.getMetadata();
+        assertEquals(2, metadata.get(AbstractRrdBasedFetchStrategy.METADATA_BATCHES));
+        assertEquals(3L, metadata.get(AbstractRrdBasedFetchStrategy.METADATA_FILES));
+        assertTrue(metadata.get(AbstractRrdBasedFetchStrategy.METADATA_RESOLVE_TIME) instanceof Long);
+        assertTrue(metadata.get(AbstractRrdBasedFetchStrategy.METADATA_READ_TIME) instanceof Long);
+        assertTrue(metadata.get(AbstractRrdBasedFetchStrategy.METADATA_SLOWEST_BATCH_TIME) instanceof Long);
+    }
+
+    @Test
+    public void fetchesAtOnceWithoutParallelFetchSupport() throws Exception {
+        final List<Source> sources = createSources("f1", "f2", "f1", "f3");
+        m_strategy.setParallelFetchSupported(false);
+
+        final FetchResults results = m_strategy.fetch(0, 900, STEP, 0, null, null, sources, false);
+
+        assertEquals(1, m_strategy.getBatches().size());
+        assertEquals(sources.size(), m_strategy.getBatches().get(0).size());
+        assertEquals(1, results.getMetadata().get(AbstractRrdBasedFetchStrategy.METADATA_BATCHES));
+        assertEquals(3L, results.getMetadata().get(AbstractRrdBasedFetchStrategy.METADATA_FILES));
+        assertFalse(results.getMetadata().containsKey(AbstractRrdBasedFetchStrategy.METADATA_SLOWEST_BATCH_TIME));
+    }
+
+    private void assertFallback(final List<Source> sources, final FetchResults results) {
+        // both batches and then all of the sources in a single call
+        assertEquals(3, m_strategy.getBatches().size());
+        assertEquals(sources, new ArrayList<>(m_strategy.getBatches().get(2).keySet()));
+        assertEquals(1, results.getMetadata().get(AbstractRrdBasedFetchStrategy.METADATA_BATCHES));
+        assertEquals(sources.stream().map(Source::getLabel).collect(Collectors.toList()), new ArrayList<>(results.getColumns().keySet()));
+    }
+
+    /**
+     * Creates a source for each of the given files, the attributes are stored in the given files.
+     */
+    private List<Source> createSources(final String... files) {
+        final List<Source> sources = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            final String attribute = "a" + i;
+            m_attributes.add(new RrdGraphAttribute(attribute, "node", files[i] + ".jrb"));
+
+            final Source source = new Source();
+            source.setResourceId(RESOURCE_ID.toString());
+            source.setAttribute(attribute);
+            source.setAggregation("AVERAGE");
+            source.setLabel("s" + i);
+            sources.add(source);
+        }
+        return sources;
+    }
+
+    private static String file(final String name) {
+        return "base" + File.separator + "node" + File.separator + name + ".jrb";
+    }
+
+    /**
+     * Creates an implementation of the given interface, which returns the result of
+     * the given function, applied to the first argument, for every method.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type, final Function<Object, Object> function) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return type.getSimpleName();
+                }
+            }
+            return function == null ? null : function.apply(args == null ? null : args[0]);
+        });
+    }
+
+    private static class StubFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final RrdException m_cause;
+
+        private StubFailure(final RrdException cause) {
+            m_cause = cause;
+        }
+    }
+
+    /**
+     * Returns a column for every source, with values derived from the label, and
+     * records the sources of every call.
+     */
+    private static class StubFetchStrategy extends AbstractRrdBasedFetchStrategy {
+        private final List<Map<Source, String>> m_batches = new CopyOnWriteArrayList<>();
+
+        private volatile Function<Map<Source, String>, FetchResults> m_resultsFactory = batch -> createResults(batch, TIMESTAMPS, STEP);
+
+        private boolean m_parallelFetchSupported = true;
+
+        public List<Map<Source, String>> getBatches() {
+            return m_batches;
+        }
+
+        public void setResultsFactory(final Function<Map<Source, String>, FetchResults> resultsFactory) {
+            m_resultsFactory = resultsFactory;
+        }
+
+        public void setParallelFetchSupported(final boolean parallelFetchSupported) {
+            m_parallelFetchSupported = parallelFetchSupported;
+        }
+
+        @Override
+        protected boolean isParallelFetchSupported() {
+            return m_parallelFetchSupported;
+        }
+
+        @Override
+        protected FetchResults fetchMeasurements(final long start, final long end, final long step, final int maxrows,
+                final Map<Source, String> rrdsBySource, final Map<String, Object> constants) throws RrdException {
+            m_batches.add(Maps.newLinkedHashMap(rrdsBySource));
+            try {
+                return m_resultsFactory.apply(rrdsBySource);
+            } catch (final StubFailure e) {
+                throw e.m_cause;
+            }
+        }
+
+        private static FetchResults createResults(final Map<Source, String> batch, final long[] timestamps, final long step) {
+            final Map<String, double[]> columns = Maps.newLinkedHashMap();
+            for (final Source source : batch.keySet()) {
+                columns.put(source.getLabel(), valuesOf(source));
+            }
+            return new FetchResults(timestamps, columns, step, Maps.newHashMap());
+        }
+
+        private static double[] valuesOf(final Source source) {
+            final double value = Double.parseDouble(source.getLabel().substring(1));
+            return new double[] { value, value + 0.5, value + 0.75 };
+        }
+    }
+}
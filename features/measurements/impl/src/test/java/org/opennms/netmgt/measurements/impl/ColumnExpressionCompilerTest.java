@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the expressions evaluated column-wise yield
+ * the same results as the ones evaluated row by row by JEXL.
+ */
+public class ColumnExpressionCompilerTest {
+
+    private static final int N = 50;
+
+    private static final double[] SPECIAL_VALUES = new double[] {
+        Double.NaN, 0d, -0d, 1d, -1d, 0.5d, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e12d, -3.75d
+    };
+
+    @Test
+    public void canEvaluateArithmetic() {
+        verify("x * 8", "x + y - 1", "x / y", "x % y", "y / 0", "y % 0", "-x", "8 * x / 1000",
+                "x * 0.62137", "x / 0.62137", "1.5d - x", "(x + y) * (x - y)", "x / 3 + 2 * 4");
+    }
+
+    @Test
+    public void canEvaluateComparisonsAndLogic() {
+        verify("x > y ? x : y", "x == NaN ? 0 : x", "x != y ? 1 : 0", "x <= 0 ? y : x", "x >= 0.5 ? 1 : 2",
+                "x < __inf && x > __neg_inf ? x : NaN", "!(x == NaN) || y == NaN ? x : y", "x ? y : 3",
+                "(x == NaN) && (y == NaN) ? NaN : ((x == NaN) ? y : ((y == NaN) ? x : (x + y)))",
+                "x > 0 ? 0.5 : 1", "timestamp > 25000 ? x : 0");
+    }
+
+    @Test
+    public void canEvaluateFunctions() {
+        verify("math:sin(x)", "math:max(x, 0)", "math:min(x, y)", "math:pow(x, 2)", "math:abs(y)",
+                "strictmath:sqrt(x)", "math:atan2(x, 0.5)", "math:max(x, 0.1)", "math:log(2)",
+                "fn:arrayZero('x', 1)", "fn:arrayFirst('x', 3)", "fn:arrayNaN(\"y\", 2)", "fn:arrayStart('x', 1, y)",
+                "fn:arrayStart('x', 2, 0.3)", "fn:arrayNaN('x', -1)", "fn:arrayNaN('missing', 1)",
+                "x - fn:arrayNaN('x', 1)");
+    }
+
+    @Test
+    public void canEvaluateReferences() {
+        verify("x", "speed * x", "x / x.ifHighSpeed", "ratio + y", "__diff_time * 1", "timestamp / 125.0d",
+                "__i * x", "__E * __PI + x");
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() {
+        verify(new String[] { "a", "b", "x" }, "x * 2", "a + y", "a * 0.5");
+    }
+
+    @Test
+    public void fallsBackForUnsupportedConstructs() {
+        assertNotSupported("timestamp - 1000");
+        assertNotSupported("1 + __i");
+        assertNotSupported("name + x");
+        assertNotSupported("x > 0");
+        assertNotSupported("x ?: y");
+        assertNotSupported("__x[0]");
+        assertNotSupported("unknown * x");
+        assertNotSupported("jexl:evaluate('x * 2')");
+        assertNotSupported("math:abs(timestamp)");
+        assertNotSupported("math:round(x)");
+        assertNotSupported("x.NaN");
+        assertNotSupported("5.0b * x");
+    }
+
+    @Test
+    public void fallsBackForForwardReferences() {
+        assertNull(compile(new String[] { "a", "b" }, new String[] { "b + x", "y" }));
+        assertNull(compile(new String[] { "a" }, new String[] { "x + a" }));
+    }
+
+    private void verify(String... expressions) {
+        for (String expression : expressions) {
+            verify(new String[] { "z" }, expression);
+        }
+    }
+
+    private void verify(String[] labels, String... expressions) {
+        final double[][] expected = evaluate(labels, expressions, true);
+        final double[][] actual = evaluate(labels, expressions, false);
+        for (int k = 0; k < labels.length; k++) {
+            assertArrayEquals(expressions[k], expected[k], actual[k], 0d);
+        }
+    }
+
+    private void assertNotSupported(String expression) {
+        assertNull(expression, compile(expression));
+    }
+
+    /**
+     * Evaluates the expressions using the engine, optionally adding a transient
+     * expression that can not be compiled, which forces all of the expressions
+     * to be evaluated by JEXL.
+     */
+    private static double[][] evaluate(String[] labels, String[] expressions, boolean forceJexl) {
+        final List<Expression> requestExpressions = Lists.newArrayList();
+        for (int k = 0; k < labels.length; k++) {
+            requestExpressions.add(new Expression(labels[k], expressions[k], false));
+        }
+        if (forceJexl) {
+            requestExpressions.add(new Expression("unsupported", "timestamp - 1000", true));
+        } else {
+            assertNotNull(String.join(", ", expressions), compile(labels, expressions));
+        }
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(requestExpressions);
+
+        final FetchResults results = createResults();
+        try {
+            new JEXLExpressionEngine().applyExpressions(request, results);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+
+        final double[][] values = new double[labels.length][];
+        for (int k = 0; k < labels.length; k++) {
+            values[k] = results.getColumns().get(labels[k]);
+        }
+        return values;
+    }
+
+    private static double[][] compile(String expression) {
+        return compile(new String[] { "z" }, new String[] { expression });
+    }
+
+    private static double[][] compile(String[] labels, String[] expressions) {
+        final Parser parser = new Parser();
+        final List<ASTJexlScript> scripts = Lists.newArrayList();
+        for (String expression : expressions) {
+            scripts.add(parser.parse(expression));
+        }
+        final FetchResults results = createResults();
+        final Map<String, Object> constants = Maps.newHashMap(results.getConstants());
+        constants.put("__inf", Double.POSITIVE_INFINITY);
+        constants.put("__neg_inf", Double.NEGATIVE_INFINITY);
+        constants.put("NaN", Double.NaN);
+        constants.put("__E", Math.E);
+        constants.put("__PI", Math.PI);
+        constants.put("__diff_time", (double) (N - 1) * 1000);
+        return new ColumnExpressionCompiler(parser, constants, results.getColumns(), results.getTimestamps())
+                .evaluate(Lists.newArrayList(labels), scripts);
+    }
+
+    private static FetchResults createResults() {
+        final long[] timestamps = new long[N];
+        final double[] x = new double[N];
+        final double[] y = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            x[i] = SPECIAL_VALUES[i % SPECIAL_VALUES.length] * (i / SPECIAL_VALUES.length + 1);
+            y[i] = SPECIAL_VALUES[(i * 7 + 3) % SPECIAL_VALUES.length] - i;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        columns.put("y", y);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("ratio", 0.25d);
+        constants.put("name", "eth0");
+        constants.put("x.ifHighSpeed", 1000d);
+        return new FetchResults(timestamps, columns, 1, constants);
+    }
+
+    private static class Parser extends JexlEngine {
+        private Parser() {
+            final Map<String, Object> functions = Maps.newHashMap();
+            functions.put("math", Math.class);
+            functions.put("strictmath", StrictMath.class);
+            functions.put("fn", SampleArrayFunctions.class);
+            setFunctions(functions);
+        }
+
+        private ASTJexlScript parse(String expression) {
+            return parse(expression, null, null);
+        }
+    }
+}
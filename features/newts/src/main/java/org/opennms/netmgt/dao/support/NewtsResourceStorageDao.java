@@ -223,11 +223,15 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
 
     @Override
     public void setStringAttribute(ResourcePath path, String key, String value) {
-        // Create a mock sample referencing the resource
-        Map<String, String> attributes = new ImmutableMap.Builder<String, String>()
+        setStringAttributes(path, new ImmutableMap.Builder<String, String>()
                 .put(key, value)
-                .build();
-        Resource resource = new Resource(toResourceId(path), Optional.of(attributes));
+                .build());
+    }
+
+    @Override
+    public void setStringAttributes(ResourcePath path, Map<String, String> attributes) {
+        // Create a mock sample referencing the resource
+        Resource resource = new Resource(toResourceId(path), Optional.of(ImmutableMap.copyOf(attributes)));
         Sample sample = NewtsUtils.createSampleForIndexingStrings(m_context, resource);
 
         // Index, but do not insert the sample(s)
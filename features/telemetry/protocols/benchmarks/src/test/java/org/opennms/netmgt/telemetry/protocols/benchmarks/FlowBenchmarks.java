@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.UdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.IpfixUdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Netflow5UdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Netflow9UdpParser;
+import org.opennms.netmgt.telemetry.protocols.sflow.parser.SFlowUdpParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the flow benchmarks with the GC profiler attached and exports the results as JSON.
+ *
+ * The results contain the throughput in operations (one pass over a {@link FlowFixture}) and
+ * records per second, as well as the bytes allocated per operation. The bytes allocated per
+ * record are derived from these and printed once all benchmarks completed.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks</code>
+ *
+ * The results are written to <code>target/jmh-result.json</code> unless the <code>jmh.result</code>
+ * system property points elsewhere.
+ */
+public final class FlowBenchmarks {
+
+    static final InetSocketAddress REMOTE_ADDRESS = new InetSocketAddress("10.0.0.1", 50000);
+    static final InetSocketAddress LOCAL_ADDRESS = new InetSocketAddress("10.0.0.2", 9999);
+
+    private FlowBenchmarks() {
+    }
+
+    /**
+     * Counts the flow records handled by a benchmark. Reported by JMH as records per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class RecordCounter {
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.records = 0;
+        }
+    }
+
+    /**
+     * Completes all messages immediately, optionally retaining them.
+     */
+    static class CapturingDispatcher implements AsyncDispatcher<TelemetryMessage> {
+        private final List<TelemetryMessage> messages;
+
+        CapturingDispatcher(final List<TelemetryMessage> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public CompletableFuture<TelemetryMessage> send(final TelemetryMessage message) {
+            if (this.messages != null) {
+                this.messages.add(message);
+            }
+            return CompletableFuture.completedFuture(message);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static UdpParser createParser(final FlowFixture fixture, final AsyncDispatcher<TelemetryMessage> dispatcher) {
+        switch (fixture) {
+            case NETFLOW5:
+                return new Netflow5UdpParser("Netflow-5", dispatcher);
+            case NETFLOW9:
+                return new Netflow9UdpParser("Netflow-9", dispatcher);
+            case IPFIX:
+                return new IpfixUdpParser("IPFIX", dispatcher);
+            case SFLOW:
+                return new SFlowUdpParser("SFlow", dispatcher);
+            default:
+                throw new IllegalArgumentException("Unsupported fixture: " + fixture);
+        }
+    }
+
+    /**
+     * Runs the packets of the given fixture through its parser and returns the
+     * messages as they are received by the adapters.
+     */
+    static List<byte[]> dispatch(final FlowFixture fixture) throws Exception {
+        final List<TelemetryMessage> messages = new ArrayList<>();
+        final UdpParser parser = createParser(fixture, new CapturingDispatcher(messages));
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            parser.start(executor);
+            for (final byte[] packet : fixture.load()) {
+                parser.parse(ByteBuffer.wrap(packet), REMOTE_ADDRESS, LOCAL_ADDRESS).get();
+            }
+        } finally {
+            parser.stop();
+            executor.shutdownNow();
+        }
+
+        final List<byte[]> result = new ArrayList<>(messages.size());
+        for (final TelemetryMessage message : messages) {
+            final ByteBuffer buffer = message.getBuffer().duplicate();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            result.add(bytes);
+        }
+        return result;
+    }
+
+    static Collection<RunResult> run(final String include) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("jmh.result", "target/jmh-result.json"))
+                .build();
+
+        final Collection<RunResult> results = new Runner(options).run();
+        printAllocationsPerRecord(results);
+        return results;
+    }
+
+    private static void printAllocationsPerRecord(final Collection<RunResult> results) {
+        System.out.println();
+        System.out.printf("%-80s %-10s %16s %16s%n", "Benchmark", "Fixture", "records/s", "bytes/record");
+        for (final RunResult result : results) {
+            final Map<String, Result> secondary = result.getSecondaryResults();
+            final Result<?> records = secondary.get("records");
+            Result<?> allocated = null;
+            for (final Map.Entry<String, Result> e : secondary.entrySet()) {
+                if (e.getKey().endsWith("gc.alloc.rate.norm")) {
+                    allocated = e.getValue();
+                }
+            }
+            if (records == null || allocated == null || records.getScore() <= 0) {
+                continue;
+            }
+
+            final double recordsPerOp = records.getScore() / result.getPrimaryResult().getScore();
+            System.out.printf("%-80s %-10s %16.0f %16.1f%n",
+                    result.getParams().getBenchmark(),
+                    result.getParams().getParam("fixture"),
+                    records.getScore(),
+                    allocated.getScore() / recordsPerOp);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(FlowBenchmarks.class.getPackage().getName() + ".*Benchmark");
+    }
+}
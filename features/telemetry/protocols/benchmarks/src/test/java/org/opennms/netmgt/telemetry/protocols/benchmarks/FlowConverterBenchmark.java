@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.bson.RawBsonDocument;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks.RecordCounter;
+import org.opennms.netmgt.telemetry.protocols.netflow.adapter.ipfix.IpfixConverter;
+import org.opennms.netmgt.telemetry.protocols.netflow.adapter.netflow5.Netflow5Converter;
+import org.opennms.netmgt.telemetry.protocols.netflow.adapter.netflow5.proto.NetflowPacket;
+import org.opennms.netmgt.telemetry.protocols.netflow.adapter.netflow9.Netflow9Converter;
+import org.opennms.netmgt.telemetry.protocols.sflow.adapter.SFlowConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the adapter side: decoding the messages dispatched by the parsers and
+ * converting them to flows, as done by the adapters for every message.
+ * Every flow created counts as a record.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.telemetry.protocols.benchmarks.FlowConverterBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlowConverterBenchmark {
+
+    @Param({"NETFLOW5", "NETFLOW9", "IPFIX", "SFLOW"})
+    private FlowFixture fixture;
+
+    private List<byte[]> messages;
+
+    private Function<byte[], List<Flow>> converter;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.messages = FlowBenchmarks.dispatch(this.fixture);
+
+        switch (this.fixture) {
+            case NETFLOW5: {
+                final Netflow5Converter netflow5Converter = new Netflow5Converter();
+                this.converter = bytes -> netflow5Converter.convert(new NetflowPacket(bytes));
+                break;
+            }
+            case NETFLOW9: {
+                final Netflow9Converter netflow9Converter = new Netflow9Converter();
+                this.converter = bytes -> netflow9Converter.convert(new RawBsonDocument(bytes));
+                break;
+            }
+            case IPFIX: {
+                final IpfixConverter ipfixConverter = new IpfixConverter();
+                this.converter = bytes -> ipfixConverter.convert(new RawBsonDocument(bytes));
+                break;
+            }
+            case SFLOW: {
+                final SFlowConverter sFlowConverter = new SFlowConverter();
+                this.converter = bytes -> sFlowConverter.convert(new RawBsonDocument(bytes));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported fixture: " + this.fixture);
+        }
+    }
+
+    @Benchmark
+    public void convert(final RecordCounter counter, final Blackhole blackhole) {
+        for (final byte[] message : this.messages) {
+            final List<Flow> flows = this.converter.apply(message);
+            blackhole.consume(flows);
+            counter.records += flows.size();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        FlowBenchmarks.run(FlowConverterBenchmark.class.getName());
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Packets captured from real exporters, in the order they must be parsed.
+ * Template packets precede the data packets depending on them.
+ *
+ * The captures are shared with the parser tests and loaded from their test-jars.
+ * IPFIX captures may contain multiple messages, which are split to single packets.
+ */
+public enum FlowFixture {
+    NETFLOW5("netflow5.dat",
+            "netflow5_test_juniper_mx80.dat",
+            "netflow5_test_microtik.dat"),
+    NETFLOW9("netflow9_template.dat",
+            "netflow9_records.dat",
+            "netflow9_test_cisco_asr9k_tpl260.dat",
+            "netflow9_test_cisco_asr9k_data260.dat",
+            "netflow9_test_nprobe_tpl.dat",
+            "netflow9_test_softflowd_tpl_data.dat",
+            "netflow9_test_nprobe_data.dat",
+            "netflow9_test_paloalto_panos_tpl.dat",
+            "netflow9_test_paloalto_panos_data.dat"),
+    IPFIX("ipfix.dat",
+            "ipfix_test_mikrotik_tpl.dat",
+            "ipfix_test_mikrotik_data258.dat",
+            "ipfix_test_mikrotik_data259.dat",
+            "ipfix_test_vmware_vds_tpl.dat",
+            "ipfix_test_vmware_vds_data264.dat",
+            "ipfix_test_vmware_vds_data266.dat",
+            "ipfix_test_vmware_vds_data266_267.dat",
+            "ipfix_test_yaf_tpls_option_tpl.dat",
+            "ipfix_test_yaf_tpl45841.dat",
+            "ipfix_test_yaf_data45841.dat",
+            "ipfix_test_yaf_data45873.dat",
+            "ipfix_test_yaf_data53248.dat"),
+    SFLOW("sflow1.dat",
+            "sflow2.dat",
+            "sflow3.dat",
+            "sflow4.dat");
+
+    private final List<String> resources;
+
+    FlowFixture(final String... resources) {
+        this.resources = Arrays.asList(resources);
+    }
+
+    public List<byte[]> load() throws IOException {
+        final List<byte[]> packets = new ArrayList<>(this.resources.size());
+        for (final String resource : this.resources) {
+            try (InputStream in = FlowFixture.class.getResourceAsStream("/flows/" + resource)) {
+                if (in == null) {
+                    throw new IOException("Missing fixture: " + resource);
+                }
+                final byte[] capture = ByteStreams.toByteArray(in);
+                if (this == IPFIX) {
+                    splitMessages(capture, packets);
+                } else {
+                    packets.add(capture);
+                }
+            }
+        }
+        return packets;
+    }
+
+    private static void splitMessages(final byte[] capture, final List<byte[]> packets) {
+        final ByteBuffer buffer = ByteBuffer.wrap(capture);
+        while (buffer.hasRemaining()) {
+            // The message length is the second field of the IPFIX message header
+            final int length = buffer.getShort(buffer.position() + 2) & 0xFFFF;
+            final byte[] packet = new byte[length];
+            buffer.get(packet);
+            packets.add(packet);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.benchmarks;
+
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.UdpParser;
+import org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks.CapturingDispatcher;
+import org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks.RecordCounter;
+import org.opennms.netmgt.telemetry.protocols.netflow.adapter.netflow5.proto.NetflowPacket;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the Netflow 5, Netflow 9 and IPFIX parsers: decoding the packets, serializing the
+ * records to BSON and both combined as done by the {@link UdpParser} for every packet.
+ *
+ * Netflow 5 packets are forwarded as they are and only decoded by the adapter, so for
+ * NETFLOW5 the packets are decoded with the adapter's {@link NetflowPacket} and serializing
+ * a packet is wrapping it into the dispatched {@link TelemetryMessage}.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.telemetry.protocols.benchmarks.NetflowParserBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetflowParserBenchmark {
+
+    @Param({"NETFLOW5", "NETFLOW9", "IPFIX"})
+    private FlowFixture fixture;
+
+    private Protocol protocol;
+
+    private List<byte[]> packets;
+
+    private List<Iterable<Value<?>>> records;
+
+    private int recordCount;
+
+    private ScheduledExecutorService executor;
+
+    private UdpParser parser;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.packets = this.fixture.load();
+        this.records = new ArrayList<>();
+
+        if (this.fixture == FlowFixture.NETFLOW5) {
+            this.protocol = null;
+            for (final byte[] packet : this.packets) {
+                this.recordCount += new NetflowPacket(packet).getRecords().size();
+            }
+        } else {
+            this.protocol = this.fixture == FlowFixture.IPFIX ? Protocol.IPFIX : Protocol.NETFLOW9;
+            final Session session = new TcpSession();
+            for (final byte[] packet : this.packets) {
+                parse(session, packet).getRecords().forEach(this.records::add);
+            }
+            this.recordCount = this.records.size();
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.parser = FlowBenchmarks.createParser(this.fixture, new CapturingDispatcher(null));
+        this.parser.start(this.executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.parser.stop();
+        this.executor.shutdownNow();
+    }
+
+    private RecordProvider parse(final Session session, final byte[] packet) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(packet);
+        if (this.protocol == Protocol.IPFIX) {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header header =
+                    new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header(
+                            slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet(session, header, buffer);
+        } else {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header header =
+                    new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header(
+                            slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet(session, header, buffer);
+        }
+    }
+
+    @Benchmark
+    public void parsePackets(final RecordCounter counter, final Blackhole blackhole) throws Exception {
+        if (this.protocol == null) {
+            for (final byte[] packet : this.packets) {
+                new NetflowPacket(ByteBuffer.wrap(packet)).getRecords().forEach(record -> {
+                    blackhole.consume(record);
+                    counter.records++;
+                });
+            }
+            return;
+        }
+
+        final Session session = new TcpSession();
+        for (final byte[] packet : this.packets) {
+            parse(session, packet).getRecords().forEach(record -> {
+                blackhole.consume(record);
+                counter.records++;
+            });
+        }
+    }
+
+    @Benchmark
+    public void serializeRecords(final RecordCounter counter, final Blackhole blackhole) {
+        if (this.protocol == null) {
+            for (final byte[] packet : this.packets) {
+                blackhole.consume(new TelemetryMessage(FlowBenchmarks.REMOTE_ADDRESS, ByteBuffer.wrap(packet)));
+            }
+            counter.records += this.recordCount;
+            return;
+        }
+
+        for (final Iterable<Value<?>> record : this.records) {
+            blackhole.consume(ParserBase.serialize(this.protocol, record));
+        }
+        counter.records += this.records.size();
+    }
+
+    @Benchmark
+    public void parseAndDispatch(final RecordCounter counter, final Blackhole blackhole) throws Exception {
+        for (final byte[] packet : this.packets) {
+            blackhole.consume(this.parser.parse(ByteBuffer.wrap(packet), FlowBenchmarks.REMOTE_ADDRESS, FlowBenchmarks.LOCAL_ADDRESS));
+        }
+        counter.records += this.recordCount;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        FlowBenchmarks.run(NetflowParserBenchmark.class.getName());
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.telemetry.listeners.UdpParser;
+import org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks.CapturingDispatcher;
+import org.opennms.netmgt.telemetry.protocols.benchmarks.FlowBenchmarks.RecordCounter;
+import org.opennms.netmgt.telemetry.protocols.sflow.parser.proto.flows.SampleDatagram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the sFlow parser: decoding the datagrams and decoding combined with the
+ * BSON serialization as done by the {@link UdpParser} for every packet.
+ * Every sample contained in a datagram counts as a record.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.telemetry.protocols.benchmarks.SFlowParserBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SFlowParserBenchmark {
+
+    @Param({"SFLOW"})
+    private FlowFixture fixture;
+
+    private List<byte[]> packets;
+
+    private int samples;
+
+    private ScheduledExecutorService executor;
+
+    private UdpParser parser;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.packets = this.fixture.load();
+
+        this.samples = 0;
+        for (final byte[] packet : this.packets) {
+            this.samples += new SampleDatagram(ByteBuffer.wrap(packet)).version.datagram.samples.size;
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.parser = FlowBenchmarks.createParser(this.fixture, new CapturingDispatcher(null));
+        this.parser.start(this.executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.parser.stop();
+        this.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void parseDatagrams(final RecordCounter counter, final Blackhole blackhole) throws Exception {
+        for (final byte[] packet : this.packets) {
+            blackhole.consume(new SampleDatagram(ByteBuffer.wrap(packet)));
+        }
+        counter.records += this.samples;
+    }
+
+    @Benchmark
+    public void parseAndDispatch(final RecordCounter counter, final Blackhole blackhole) throws Exception {
+        for (final byte[] packet : this.packets) {
+            blackhole.consume(this.parser.parse(ByteBuffer.wrap(packet), FlowBenchmarks.REMOTE_ADDRESS, FlowBenchmarks.LOCAL_ADDRESS));
+        }
+        counter.records += this.samples;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        FlowBenchmarks.run(SFlowParserBenchmark.class.getName());
+    }
+}
@@ -33,68 +33,74 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
-
+/**
+ * Keeps track of the templates and options announced by UDP exporters.
+ *
+ * The state is sharded by exporter and observation domain, so all lookups done while parsing a packet only touch
+ * the state of the sending exporter. All structures are safe for concurrent use by multiple parsing threads.
+ */
 public class UdpSessionManager {
     private final class UdpSession implements Session {
         private final class Resolver implements Session.Resolver {
-            private final long observationDomainId;
+            private final DomainKey key;
 
             private Resolver(final long observationDomainId) {
-                this.observationDomainId = observationDomainId;
-            }
-
-            private Key key(final int templateId) {
-                return new Key(UdpSession.this.remoteAddress, UdpSession.this.localAddress, this.observationDomainId, templateId);
+                this.key = new DomainKey(UdpSession.this.remoteAddress, UdpSession.this.localAddress, observationDomainId);
             }
 
             @Override
             public Optional<Template> lookupTemplate(final int templateId) {
-                return Optional.ofNullable(UdpSessionManager.this.templates.get(key(templateId))).map(v -> v.template);
+                final Domain domain = UdpSessionManager.this.domains.get(this.key);
+                if (domain == null) {
+                    return Optional.empty();
+                }
+
+                return Optional.ofNullable(domain.templates.get(templateId)).map(v -> v.template);
             }
 
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
-                final LinkedHashMap<String, Value<?>> options = new LinkedHashMap();
-
-                final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
+                final Domain domain = UdpSessionManager.this.domains.get(this.key);
+                if (domain == null || domain.options.isEmpty()) {
+                    return new ArrayList<>();
+                }
 
-                for (final Map.Entry<Key, Map<Set<Value<?>>, List<Value<?>>>> e : Iterables.filter(UdpSessionManager.this.options.entrySet(),
-                                                                                                   e -> Objects.equals(e.getKey().localAddress, UdpSession.this.localAddress) &&
-                                                                                                        Objects.equals(e.getKey().remoteAddress, UdpSession.this.remoteAddress) &&
-                                                                                                        Objects.equals(e.getKey().observationDomainId, this.observationDomainId))) {
-                    final Template template = UdpSessionManager.this.templates.get(e.getKey()).template;
+                final LinkedHashMap<String, Value<?>> options = new LinkedHashMap<>();
 
-                    final Set<String> scopes = template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
+                final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
 
-                    if (scoped.containsAll(scopes)) {
+                for (final Options e : domain.options.values()) {
+                    if (scoped.containsAll(e.scopes)) {
                         // Found option template where scoped fields is subset of actual data fields
 
                         final Set<Value<?>> scopeValues = values.stream()
-                                .filter(s -> scopes.contains(s.getName()))
+                                .filter(s -> e.scopes.contains(s.getName()))
                                 .collect(Collectors.toSet());
 
-                        for (final Value<?> value : e.getValue().getOrDefault(scopeValues, Collections.emptyList())) {
-                            options.put(value.getName(), value);
+                        final List<Value<?>> optionValues = e.values.get(scopeValues);
+                        if (optionValues != null) {
+                            for (final Value<?> value : optionValues) {
+                                options.put(value.getName(), value);
+                            }
                         }
                     }
                 }
 
-                return new ArrayList(options.values());
+                return new ArrayList<>(options.values());
             }
         }
 
@@ -108,19 +114,53 @@ public class UdpSessionManager {
 
         @Override
         public void addTemplate(final long observationDomainId, final Template template) {
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, template.id);
-            UdpSessionManager.this.templates.put(key, new TemplateWrapper(template));
+            final DomainKey key = new DomainKey(this.remoteAddress, this.localAddress, observationDomainId);
+
+            UdpSessionManager.this.domains.compute(key, (k, domain) -> {
+                if (domain == null) {
+                    domain = new Domain();
+                }
+
+                final TemplateWrapper wrapper = domain.templates.get(template.id);
+                if (wrapper != null) {
+                    // Template refresh - the existing expiry entry will pick up the new insertion time
+                    wrapper.refresh(template);
+                } else {
+                    final TemplateWrapper created = new TemplateWrapper(template);
+                    domain.templates.put(template.id, created);
+                    UdpSessionManager.this.expiries.add(new Expiry(key, template.id, created, created.insertionTime));
+                }
+
+                // Options announced for a previous definition of this template are no longer valid
+                final Options options = domain.options.get(template.id);
+                if (options != null && !options.scopes.equals(scopeNames(template))) {
+                    domain.options.remove(template.id);
+                }
+
+                return domain;
+            });
         }
 
         @Override
         public void removeTemplate(final long observationDomainId, final int templateId) {
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.templates.remove(key);
+            final DomainKey key = new DomainKey(this.remoteAddress, this.localAddress, observationDomainId);
+
+            UdpSessionManager.this.domains.computeIfPresent(key, (k, domain) -> {
+                domain.templates.remove(templateId);
+                domain.options.remove(templateId);
+                return domain.isEmpty() ? null : domain;
+            });
         }
 
         @Override
         public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-            UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
+            final DomainKey key = new DomainKey(this.remoteAddress, this.localAddress, observationDomainId);
+
+            UdpSessionManager.this.domains.computeIfPresent(key, (k, domain) -> {
+                domain.templates.values().removeIf(e -> e.template.type == type);
+                domain.options.keySet().retainAll(domain.templates.keySet());
+                return domain.isEmpty() ? null : domain;
+            });
         }
 
         @Override
@@ -132,8 +172,16 @@ public class UdpSessionManager {
                 return;
             }
 
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new HashMap()).put(new HashSet(scopes), values);
+            final DomainKey key = new DomainKey(this.remoteAddress, this.localAddress, observationDomainId);
+
+            UdpSessionManager.this.domains.computeIfPresent(key, (k, domain) -> {
+                final TemplateWrapper wrapper = domain.templates.get(templateId);
+                if (wrapper != null) {
+                    domain.options.computeIfAbsent(templateId, (id) -> new Options(scopeNames(wrapper.template)))
+                            .values.put(new HashSet<>(scopes), values);
+                }
+                return domain;
+            });
         }
 
         @Override
@@ -142,52 +190,98 @@ public class UdpSessionManager {
         }
     }
 
-    private final static class Key {
+    private final static class DomainKey {
         public final InetSocketAddress remoteAddress;
         public final InetSocketAddress localAddress;
         public final long observationDomainId;
-        public final int templateId;
 
-        Key(final InetSocketAddress remoteAddress,
-            final InetSocketAddress localAddress,
-            final long observationDomainId,
-            final int templateId) {
+        private final int hashCode;
+
+        DomainKey(final InetSocketAddress remoteAddress,
+                  final InetSocketAddress localAddress,
+                  final long observationDomainId) {
             this.remoteAddress = Objects.requireNonNull(remoteAddress);
             this.localAddress = Objects.requireNonNull(localAddress);
             this.observationDomainId = observationDomainId;
-            this.templateId = templateId;
+            this.hashCode = Objects.hash(this.remoteAddress, this.localAddress, this.observationDomainId);
         }
 
         @Override
         public boolean equals(final Object o) {
             if (this == o) return true;
-            if (!(o instanceof Key)) return false;
+            if (!(o instanceof DomainKey)) return false;
 
-            final Key that = (Key) o;
+            final DomainKey that = (DomainKey) o;
             return this.observationDomainId == that.observationDomainId &&
-                    this.templateId == that.templateId &&
                     Objects.equals(this.remoteAddress, that.remoteAddress) &&
                     Objects.equals(this.localAddress, that.localAddress);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(this.remoteAddress, this.localAddress, this.observationDomainId, this.templateId);
+            return this.hashCode;
+        }
+    }
+
+    /**
+     * The templates and options of a single observation domain of an exporter.
+     */
+    private final static class Domain {
+        private final Map<Integer, TemplateWrapper> templates = new ConcurrentHashMap<>();
+        private final Map<Integer, Options> options = new ConcurrentHashMap<>();
+
+        private boolean isEmpty() {
+            return this.templates.isEmpty() && this.options.isEmpty();
+        }
+    }
+
+    /**
+     * The options announced for an option template, indexed by the values of the scope fields.
+     */
+    private final static class Options {
+        private final Set<String> scopes;
+        private final Map<Set<Value<?>>, List<Value<?>>> values = new ConcurrentHashMap<>();
+
+        private Options(final Set<String> scopes) {
+            this.scopes = Objects.requireNonNull(scopes);
         }
     }
 
     private final static class TemplateWrapper {
-        public final Instant insertionTime;
-        public final Template template;
+        public volatile Instant insertionTime;
+        public volatile Template template;
 
         private TemplateWrapper(final Template template) {
             this.insertionTime = Instant.now();
             this.template = template;
         }
+
+        private void refresh(final Template template) {
+            this.template = template;
+            this.insertionTime = Instant.now();
+        }
+    }
+
+    /**
+     * An entry of the expiry queue. Entries are ordered by the time they where enqueued, which allows the
+     * housekeeping to stop at the first entry which is not due.
+     */
+    private final static class Expiry {
+        public final DomainKey key;
+        public final int templateId;
+        public final TemplateWrapper wrapper;
+        public final Instant enqueued;
+
+        private Expiry(final DomainKey key, final int templateId, final TemplateWrapper wrapper, final Instant enqueued) {
+            this.key = key;
+            this.templateId = templateId;
+            this.wrapper = wrapper;
+            this.enqueued = enqueued;
+        }
     }
 
-    private final Map<Key, TemplateWrapper> templates = Maps.newHashMap();
-    private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
+    private final Map<DomainKey, Domain> domains = new ConcurrentHashMap<>();
+    private final Queue<Expiry> expiries = new ConcurrentLinkedQueue<>();
 
     private final Duration timeout;
 
@@ -195,9 +289,35 @@ public class UdpSessionManager {
         this.timeout = timeout;
     }
 
+    private static Set<String> scopeNames(final Template template) {
+        return template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
+    }
+
     public void doHousekeeping() {
         final Instant timeout = Instant.now().minus(this.timeout);
-        UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout));
+
+        Expiry expiry;
+        while ((expiry = this.expiries.peek()) != null && expiry.enqueued.isBefore(timeout)) {
+            this.expiries.poll();
+
+            final Expiry current = expiry;
+            this.domains.computeIfPresent(current.key, (k, domain) -> {
+                if (domain.templates.get(current.templateId) != current.wrapper) {
+                    // Template has been removed or replaced in the meantime
+                    return domain;
+                }
+
+                if (current.wrapper.insertionTime.isBefore(timeout)) {
+                    domain.templates.remove(current.templateId);
+                    domain.options.remove(current.templateId);
+                    return domain.isEmpty() ? null : domain;
+                }
+
+                // Template has been refreshed - check again after it is due
+                this.expiries.add(new Expiry(current.key, current.templateId, current.wrapper, current.wrapper.insertionTime));
+                return domain;
+            });
+        }
     }
 
     public Session getSession(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
@@ -205,6 +325,10 @@ public class UdpSessionManager {
     }
 
     public void drop(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
-        this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().remoteAddress, remoteAddress) && Objects.equals(e.getKey().localAddress, localAddress));
+        this.domains.keySet().removeIf(k -> Objects.equals(k.remoteAddress, remoteAddress) && Objects.equals(k.localAddress, localAddress));
+    }
+
+    public int count() {
+        return this.domains.values().stream().mapToInt(d -> d.templates.size()).sum();
     }
 }
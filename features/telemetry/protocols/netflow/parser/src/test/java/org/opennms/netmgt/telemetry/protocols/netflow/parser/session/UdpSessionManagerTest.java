@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+public class UdpSessionManagerTest {
+
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 4739);
+    private static final InetSocketAddress EXPORTER1 = new InetSocketAddress("10.0.0.1", 50000);
+    private static final InetSocketAddress EXPORTER2 = new InetSocketAddress("10.0.0.2", 50000);
+
+    private static Scope scope(final String name) {
+        return new Scope() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public int length() {
+                return 4;
+            }
+
+            @Override
+            public Value<?> parse(final Session.Resolver resolver, final ByteBuffer buffer) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static Template optionsTemplate(final int id, final String... scopes) {
+        final List<Scope> s = new ArrayList<>();
+        for (final String scope : scopes) {
+            s.add(scope(scope));
+        }
+        return Template.builder(id, Template.Type.OPTIONS_TEMPLATE).withScopes(s).build();
+    }
+
+    private static Template template(final int id) {
+        return Template.builder(id, Template.Type.TEMPLATE).build();
+    }
+
+    private static Value<?> ifIndex(final long index) {
+        return new UnsignedValue("ingressInterface", index);
+    }
+
+    private static Value<?> ifName(final String name) {
+        return new StringValue("interfaceName", Optional.empty(), name);
+    }
+
+    @Test
+    public void testTemplatesAreScopedByExporterAndDomain() {
+        final UdpSessionManager manager = new UdpSessionManager(Duration.ofMinutes(30));
+
+        final Session session1 = manager.getSession(EXPORTER1, LOCAL);
+        final Session session2 = manager.getSession(EXPORTER2, LOCAL);
+
+        session1.addTemplate(1, template(256));
+        session2.addTemplate(1, template(257));
+
+        Assert.assertTrue(session1.getResolver(1).lookupTemplate(256).isPresent());
+        Assert.assertFalse(session1.getResolver(2).lookupTemplate(256).isPresent());
+        Assert.assertFalse(session1.getResolver(1).lookupTemplate(257).isPresent());
+        Assert.assertTrue(manager.getSession(EXPORTER2, LOCAL).getResolver(1).lookupTemplate(257).isPresent());
+
+        // Withdrawing all templates must only affect the exporter withdrawing them
+        session1.removeAllTemplate(1, Template.Type.TEMPLATE);
+        Assert.assertFalse(session1.getResolver(1).lookupTemplate(256).isPresent());
+        Assert.assertTrue(session2.getResolver(1).lookupTemplate(257).isPresent());
+
+        manager.drop(EXPORTER2, LOCAL);
+        Assert.assertFalse(session2.getResolver(1).lookupTemplate(257).isPresent());
+        Assert.assertEquals(0, manager.count());
+    }
+
+    @Test
+    public void testLookupOptions() {
+        final UdpSessionManager manager = new UdpSessionManager(Duration.ofMinutes(30));
+
+        final Session session = manager.getSession(EXPORTER1, LOCAL);
+        session.addTemplate(0, optionsTemplate(512, "ingressInterface"));
+        session.addOptions(0, 512, Collections.singletonList(ifIndex(1)), Collections.singletonList(ifName("eth0")));
+        session.addOptions(0, 512, Collections.singletonList(ifIndex(2)), Collections.singletonList(ifName("eth1")));
+
+        final List<Value<?>> record = new ArrayList<>();
+        record.add(ifIndex(2));
+        record.add(new UnsignedValue("octetDeltaCount", 42));
+
+        Assert.assertEquals(Collections.singletonList(ifName("eth1")), session.getResolver(0).lookupOptions(record));
+        Assert.assertEquals(Collections.emptyList(), session.getResolver(1).lookupOptions(record));
+        Assert.assertEquals(Collections.emptyList(), manager.getSession(EXPORTER2, LOCAL).getResolver(0).lookupOptions(record));
+
+        // Options are dropped together with the template
+        session.removeTemplate(0, 512);
+        Assert.assertEquals(Collections.emptyList(), session.getResolver(0).lookupOptions(record));
+    }
+
+    @Test
+    public void testHousekeeping() throws Exception {
+        final UdpSessionManager manager = new UdpSessionManager(Duration.ofMillis(100));
+
+        final Session session = manager.getSession(EXPORTER1, LOCAL);
+        session.addTemplate(0, template(256));
+        session.addTemplate(0, template(257));
+
+        Thread.sleep(150);
+
+        // Refreshed templates must survive the next housekeeping
+        session.addTemplate(0, template(257));
+        manager.doHousekeeping();
+
+        Assert.assertFalse(session.getResolver(0).lookupTemplate(256).isPresent());
+        Assert.assertTrue(session.getResolver(0).lookupTemplate(257).isPresent());
+
+        Thread.sleep(150);
+        manager.doHousekeeping();
+
+        Assert.assertFalse(session.getResolver(0).lookupTemplate(257).isPresent());
+        Assert.assertEquals(0, manager.count());
+    }
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        final UdpSessionManager manager = new UdpSessionManager(Duration.ofMinutes(30));
+
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final InetSocketAddress exporter = new InetSocketAddress("10.0.1." + t, 50000);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    final Session session = manager.getSession(exporter, LOCAL);
+                    for (int i = 0; i < 1000; i++) {
+                        session.addTemplate(i % 4, optionsTemplate(256 + (i % 16), "ingressInterface"));
+                        session.addOptions(i % 4, 256 + (i % 16), Collections.singletonList(ifIndex(i)), Collections.singletonList(ifName("if" + i)));
+                        Assert.assertEquals(Collections.singletonList(ifName("if" + i)),
+                                session.getResolver(i % 4).lookupOptions(Collections.singletonList(ifIndex(i))));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(threads * 16, manager.count());
+    }
+}
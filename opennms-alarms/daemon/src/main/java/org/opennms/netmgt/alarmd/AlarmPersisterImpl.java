@@ -29,6 +29,7 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
@@ -37,9 +38,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
+import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
 import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
@@ -54,6 +59,8 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
@@ -63,10 +70,17 @@ import com.google.common.util.concurrent.Striped;
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * When write-behind is enabled, the open alarms are indexed by reduction key, and events
+ * which would only increment the counter of one of these alarms are queued up in memory instead
+ * of being reduced right away. The queued events are reduced together, in a single transaction,
+ * on the next write-behind interval, or as soon as another event for the same reduction key requires
+ * the regular processing. The alarm is verified against the database before the reductions are applied,
+ * and the queued events are processed one at a time if it changed in a way that could affect the outcome.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, AlarmLifecycleListener, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -75,6 +89,12 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
 
+    public static final String WRITE_BEHIND_INTERVAL_MS_SYS_PROP = "org.opennms.alarmd.writeBehind.ms";
+    /**
+     * Interval at which the queued reductions are written. Write-behind is disabled when <= 0.
+     */
+    protected static final long WRITE_BEHIND_INTERVAL_MS = Long.getLong(WRITE_BEHIND_INTERVAL_MS_SYS_PROP, 0);
+
     @Autowired
     private AlarmDao m_alarmDao;
 
@@ -98,6 +118,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private long m_writeBehindIntervalMs = WRITE_BEHIND_INTERVAL_MS;
+
+    /**
+     * Open alarms indexed by reduction key. Entries are only added or removed while holding
+     * the stripe lock for the reduction key.
+     */
+    private final Map<String, CachedAlarm> m_alarmsByReductionKey = new ConcurrentHashMap<>();
+
+    private final Set<String> m_reductionKeysWithQueuedEvents = Sets.newConcurrentHashSet();
+
+    private volatile Set<Integer> m_alarmIdsInLastSnapshot;
+
+    private Timer m_writeBehindTimer;
+
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -112,12 +146,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
         // Lock both the reduction and clear keys (if set) using a fair striped lock
         // We do this to ensure that clears and triggers are processed in the same order
         // as the calls are made
-        final Iterable<Lock> locks = lockStripes.bulkGet(getLockKeys(event));
+        final Collection<String> lockKeys = getLockKeys(event);
+        final Iterable<Lock> locks = lockStripes.bulkGet(lockKeys);
         final OnmsAlarm alarm;
         try {
             locks.forEach(Lock::lock);
+            if (queueReduction(event)) {
+                return null;
+            }
+            // Events queued up for these keys must be reduced before this one
+            for (String key : lockKeys) {
+                reduceQueuedEvents(key);
+            }
             // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
+            alarm = m_transactionOperations.execute((action) -> cacheAlarm(addOrReduceEventAsAlarm(event)));
         } finally {
             locks.forEach(Lock::unlock);
         }
@@ -125,6 +167,242 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Queues the event if it would only increment the counter of an open alarm.
+     *
+     * Must be called while holding the locks for the event.
+     *
+     * @return true if the event was queued, false if it must be processed now
+     */
+    private boolean queueReduction(Event event) {
+        if (!isWriteBehindEnabled() || !canQueueReduction(event)) {
+            return false;
+        }
+        final String reductionKey = event.getAlarmData().getReductionKey();
+        final CachedAlarm cachedAlarm = m_alarmsByReductionKey.get(reductionKey);
+        if (cachedAlarm == null || !cachedAlarm.isReducible()) {
+            return false;
+        }
+        cachedAlarm.queueEvent(event);
+        m_reductionKeysWithQueuedEvents.add(reductionKey);
+        return true;
+    }
+
+    private boolean canQueueReduction(Event event) {
+        return !isResolutionEvent(event)
+                && !event.getAlarmData().hasUpdateFields()
+                && !event.getAlarmData().isAutoClean()
+                && (event.getParmCollection() == null || event.getParmCollection().stream().noneMatch(AlarmPersisterImpl::isRelatedReductionKeyWithContent))
+                && extensions.isEmpty();
+    }
+
+    private static boolean canReduceInMemory(OnmsAlarm alarm) {
+        return !OnmsSeverity.CLEARED.equals(alarm.getSeverity())
+                && !Objects.equals(alarm.getAlarmType(), OnmsAlarm.RESOLUTION_TYPE);
+    }
+
+    /**
+     * Reduces the events queued up for the given reduction key in a single transaction.
+     *
+     * Must be called while holding the lock for the reduction key.
+     */
+    private void reduceQueuedEvents(String reductionKey) {
+        if (!m_reductionKeysWithQueuedEvents.remove(reductionKey)) {
+            return;
+        }
+        final CachedAlarm cachedAlarm = m_alarmsByReductionKey.get(reductionKey);
+        if (cachedAlarm == null) {
+            return;
+        }
+        final List<Event> events = cachedAlarm.drainQueuedEvents();
+        if (events.isEmpty()) {
+            return;
+        }
+
+        try {
+            m_transactionOperations.execute((action) -> {
+                reduceQueuedEvents(reductionKey, cachedAlarm, events);
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.warn("Failed to reduce {} queued events for reduction key: {}. Processing the events one at a time.", events.size(), reductionKey, e);
+            for (Event event : events) {
+                try {
+                    m_transactionOperations.execute((action) -> cacheAlarm(addOrReduceEventAsAlarm(event)));
+                } catch (Exception ex) {
+                    LOG.error("Failed to process event: {}", event, ex);
+                }
+            }
+        }
+    }
+
+    private void reduceQueuedEvents(String reductionKey, CachedAlarm cachedAlarm, List<Event> events) {
+        final OnmsAlarm alarm = m_alarmDao.get(cachedAlarm.getAlarmId());
+        final Event lastEvent = events.get(events.size() - 1);
+        final OnmsEvent persistedEvent = m_eventDao.get(lastEvent.getDbid());
+
+        if (alarm == null || persistedEvent == null || !reductionKey.equals(alarm.getReductionKey())
+                || !canReduceInMemory(alarm) || !alarm.getRelatedAlarms().isEmpty()) {
+            // The alarm was changed since the events were queued, process them as if they never were
+            LOG.debug("reduceQueuedEvents: alarm with reduction key: {} changed, processing {} events one at a time", reductionKey, events.size());
+            m_alarmsByReductionKey.remove(reductionKey);
+            for (Event event : events) {
+                cacheAlarm(addOrReduceEventAsAlarm(event));
+            }
+            return;
+        }
+
+        // Same as reducing the events one after the other, see reduceEvent()
+        alarm.setLastEvent(persistedEvent);
+        alarm.setLastEventTime(persistedEvent.getEventTime());
+        alarm.setCounter(alarm.getCounter() + events.size());
+        alarm.setAlarmType(lastEvent.getAlarmData().getAlarmType());
+        alarm.setLogMsg(persistedEvent.getEventLogMsg());
+        persistedEvent.setAlarm(alarm);
+
+        final List<Integer> previousEventIds = events.subList(0, events.size() - 1).stream()
+                .map(Event::getDbid)
+                .collect(Collectors.toList());
+        m_eventDao.updateAlarmForEvents(alarm, previousEventIds);
+
+        m_alarmDao.update(alarm);
+        m_eventDao.update(persistedEvent);
+
+        m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+        cachedAlarm.update(alarm);
+    }
+
+    /**
+     * Reduces the events queued up for all reduction keys, and drops the alarms
+     * which no longer exist from the index.
+     */
+    protected void reduceAllQueuedEvents() {
+        for (String reductionKey : new ArrayList<>(m_reductionKeysWithQueuedEvents)) {
+            final Lock lock = lockStripes.get(reductionKey);
+            lock.lock();
+            try {
+                reduceQueuedEvents(reductionKey);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        final Set<Integer> alarmIdsInLastSnapshot = m_alarmIdsInLastSnapshot;
+        m_alarmIdsInLastSnapshot = null;
+        m_alarmsByReductionKey.forEach((reductionKey, cachedAlarm) -> {
+            if (cachedAlarm.isDeleted() || (alarmIdsInLastSnapshot != null && !alarmIdsInLastSnapshot.contains(cachedAlarm.getAlarmId()))) {
+                final Lock lock = lockStripes.get(reductionKey);
+                lock.lock();
+                try {
+                    if (!cachedAlarm.hasQueuedEvents()) {
+                        m_alarmsByReductionKey.remove(reductionKey, cachedAlarm);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the given alarm by its reduction key.
+     *
+     * Must be called while holding the lock for the reduction key.
+     */
+    private OnmsAlarm cacheAlarm(OnmsAlarm alarm) {
+        if (isWriteBehindEnabled() && alarm != null && alarm.getId() != null && alarm.getReductionKey() != null) {
+            final CachedAlarm cachedAlarm = m_alarmsByReductionKey.get(alarm.getReductionKey());
+            if (cachedAlarm != null && cachedAlarm.getAlarmId() == alarm.getId()) {
+                cachedAlarm.update(alarm);
+            } else {
+                m_alarmsByReductionKey.put(alarm.getReductionKey(), new CachedAlarm(alarm));
+            }
+        }
+        return alarm;
+    }
+
+    private boolean isWriteBehindEnabled() {
+        return m_writeBehindIntervalMs > 0;
+    }
+
+    @Override
+    public void handleAlarmSnapshot(List<OnmsAlarm> alarms) {
+        if (!isWriteBehindEnabled()) {
+            return;
+        }
+        alarms.forEach(this::indexAlarm);
+        // Alarms missing from the snapshot are dropped from the index on the next write-behind interval
+        m_alarmIdsInLastSnapshot = alarms.stream().map(OnmsAlarm::getId).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
+        if (!isWriteBehindEnabled() || alarm.getReductionKey() == null) {
+            return;
+        }
+        // Alarms changed outside of alarmd, i.e. cleared, may no longer be reducible in memory
+        final CachedAlarm cachedAlarm = m_alarmsByReductionKey.get(alarm.getReductionKey());
+        if (cachedAlarm != null && Objects.equals(cachedAlarm.getAlarmId(), alarm.getId())) {
+            cachedAlarm.update(alarm);
+        }
+    }
+
+    @Override
+    public void handleDeletedAlarm(int alarmId, String reductionKey) {
+        if (!isWriteBehindEnabled() || reductionKey == null) {
+            return;
+        }
+        final CachedAlarm cachedAlarm = m_alarmsByReductionKey.get(reductionKey);
+        if (cachedAlarm != null && cachedAlarm.getAlarmId() == alarmId) {
+            cachedAlarm.delete();
+        }
+    }
+
+    private void indexAlarm(OnmsAlarm alarm) {
+        if (alarm.getId() == null || alarm.getReductionKey() == null) {
+            return;
+        }
+        final CachedAlarm cachedAlarm = m_alarmsByReductionKey.putIfAbsent(alarm.getReductionKey(), new CachedAlarm(alarm));
+        if (cachedAlarm != null && cachedAlarm.getAlarmId() == alarm.getId()) {
+            cachedAlarm.update(alarm);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!isWriteBehindEnabled()) {
+            return;
+        }
+
+        // Warm up the index with the alarms that are already open
+        m_transactionOperations.execute((action) -> {
+            m_alarmDao.findAll().forEach(this::indexAlarm);
+            return null;
+        });
+        LOG.info("Indexed {} alarms by reduction key. Reducing queued events every {}ms.", m_alarmsByReductionKey.size(), m_writeBehindIntervalMs);
+
+        m_writeBehindTimer = new Timer("AlarmPersister-WriteBehind");
+        m_writeBehindTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    reduceAllQueuedEvents();
+                } catch (Exception e) {
+                    LOG.error("Error while reducing queued events.", e);
+                }
+            }
+        }, m_writeBehindIntervalMs, m_writeBehindIntervalMs);
+    }
+
+    @Override
+    public void destroy() {
+        if (m_writeBehindTimer != null) {
+            m_writeBehindTimer.cancel();
+            m_writeBehindTimer = null;
+            reduceAllQueuedEvents();
+        }
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
@@ -504,4 +782,62 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public long getWriteBehindIntervalMs() {
+        return m_writeBehindIntervalMs;
+    }
+
+    public void setWriteBehindIntervalMs(long writeBehindIntervalMs) {
+        m_writeBehindIntervalMs = writeBehindIntervalMs;
+    }
+
+    /**
+     * An open alarm, along with the events waiting to be reduced to it.
+     */
+    private static class CachedAlarm {
+        private final int m_alarmId;
+        private volatile boolean m_reducible;
+        private volatile boolean m_deleted = false;
+        // Guarded by the lock for the reduction key
+        private final List<Event> m_queuedEvents = new ArrayList<>();
+
+        public CachedAlarm(OnmsAlarm alarm) {
+            m_alarmId = alarm.getId();
+            update(alarm);
+        }
+
+        public int getAlarmId() {
+            return m_alarmId;
+        }
+
+        public boolean isReducible() {
+            return m_reducible && !m_deleted;
+        }
+
+        public boolean isDeleted() {
+            return m_deleted;
+        }
+
+        public void update(OnmsAlarm alarm) {
+            m_reducible = canReduceInMemory(alarm);
+        }
+
+        public void delete() {
+            m_deleted = true;
+        }
+
+        public void queueEvent(Event event) {
+            m_queuedEvents.add(event);
+        }
+
+        public boolean hasQueuedEvents() {
+            return !m_queuedEvents.isEmpty();
+        }
+
+        public List<Event> drainQueuedEvents() {
+            final List<Event> events = new ArrayList<>(m_queuedEvents);
+            m_queuedEvents.clear();
+            return events;
+        }
+    }
 }
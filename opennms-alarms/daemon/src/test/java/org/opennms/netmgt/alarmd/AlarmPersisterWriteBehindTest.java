@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.dao.mock.MockTransactionTemplate;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Verifies the reductions queued up by the {@link AlarmPersisterImpl}
+ * when write-behind is enabled.
+ */
+public class AlarmPersisterWriteBehindTest {
+
+    private static final String REDUCTION_KEY = "uei.opennms.org/test/trigger::1";
+
+    private AlarmPersisterImpl alarmPersister;
+    private AlarmDao alarmDao;
+    private EventDao eventDao;
+    private AlarmEntityNotifier alarmEntityNotifier;
+
+    private final Map<String, OnmsAlarm> alarmsByReductionKey = new HashMap<>();
+    private final Map<Integer, OnmsAlarm> alarmsById = new HashMap<>();
+    private final List<String> updatedAlarms = new ArrayList<>();
+    private int dbid = 0;
+
+    @Before
+    public void setUp() {
+        alarmDao = mock(AlarmDao.class);
+        when(alarmDao.findAll()).thenReturn(Collections.emptyList());
+        when(alarmDao.findByReductionKey(anyString())).then(invocation -> alarmsByReductionKey.get(invocation.getArguments()[0]));
+        when(alarmDao.get(anyInt())).then(invocation -> alarmsById.get(invocation.getArguments()[0]));
+        when(alarmDao.save(any(OnmsAlarm.class))).then(invocation -> {
+            final OnmsAlarm alarm = (OnmsAlarm)invocation.getArguments()[0];
+            alarm.setId(alarmsById.size() + 1);
+            alarmsById.put(alarm.getId(), alarm);
+            alarmsByReductionKey.put(alarm.getReductionKey(), alarm);
+            return alarm.getId();
+        });
+
+        eventDao = mock(EventDao.class);
+        when(eventDao.get(anyInt())).then(invocation -> {
+            final OnmsEvent event = new OnmsEvent();
+            event.setId((Integer)invocation.getArguments()[0]);
+            event.setEventTime(new Date());
+            event.setEventSeverity(OnmsSeverity.MAJOR.getId());
+            event.setEventLogMsg("event #" + event.getId());
+            return event;
+        });
+
+        alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+        doAnswer(invocation -> {
+            final OnmsAlarm alarm = (OnmsAlarm)invocation.getArguments()[0];
+            updatedAlarms.add(alarm.getCounter() + ":" + alarm.getSeverity());
+            return null;
+        }).when(alarmEntityNotifier).didUpdateAlarmWithReducedEvent(any(OnmsAlarm.class));
+
+        final MockTransactionTemplate transactionTemplate = new MockTransactionTemplate();
+        transactionTemplate.afterPropertiesSet();
+
+        alarmPersister = new AlarmPersisterImpl();
+        alarmPersister.setAlarmDao(alarmDao);
+        alarmPersister.setEventDao(eventDao);
+        alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+        alarmPersister.setTransactionOperations(transactionTemplate);
+        alarmPersister.setWriteBehindIntervalMs(TimeUnit.HOURS.toMillis(1));
+        alarmPersister.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        alarmPersister.destroy();
+    }
+
+    /**
+     * Verifies that duplicate events are reduced together once
+     * the queued events are written.
+     */
+    @Test
+    public void canReduceQueuedEvents() {
+        final OnmsAlarm alarm = alarmPersister.persist(getTrigger());
+        assertThat(alarm, notNullValue());
+        assertThat(alarm.getCounter(), equalTo(1));
+        verify(alarmEntityNotifier, times(1)).didCreateAlarm(alarm);
+
+        // The duplicates are queued
+        for (int i = 0; i < 3; i++) {
+            assertThat(alarmPersister.persist(getTrigger()), nullValue());
+        }
+        assertThat(alarm.getCounter(), equalTo(1));
+        verify(alarmDao, never()).update(any(OnmsAlarm.class));
+
+        // And reduced together
+        alarmPersister.reduceAllQueuedEvents();
+        assertThat(alarm.getCounter(), equalTo(4));
+        assertThat(alarm.getLastEvent().getId(), equalTo(4));
+        assertThat(alarm.getLogMsg(), equalTo("event #4"));
+        verify(eventDao, times(1)).updateAlarmForEvents(alarm, Arrays.asList(2, 3));
+        verify(alarmDao, times(1)).update(alarm);
+        assertThat(updatedAlarms, contains("4:MAJOR"));
+
+        // Nothing is left to reduce
+        alarmPersister.reduceAllQueuedEvents();
+        verify(alarmDao, times(1)).update(alarm);
+    }
+
+    /**
+     * Verifies that the queued events are reduced before an event
+     * which requires the regular processing.
+     */
+    @Test
+    public void canReduceQueuedEventsBeforeClear() {
+        final OnmsAlarm alarm = alarmPersister.persist(getTrigger());
+        assertThat(alarmPersister.persist(getTrigger()), nullValue());
+
+        // The clear is processed right away, after the queued trigger
+        assertThat(alarmPersister.persist(getClear()), equalTo(alarm));
+        assertThat(alarm.getSeverity(), equalTo(OnmsSeverity.CLEARED));
+        assertThat(updatedAlarms, contains("2:MAJOR", "2:CLEARED"));
+
+        // Triggers are no longer queued once the alarm is cleared
+        assertThat(alarmPersister.persist(getTrigger()), equalTo(alarm));
+    }
+
+    /**
+     * Verifies that the queued events are processed one at a time
+     * when the alarm was deleted after they were queued.
+     */
+    @Test
+    public void canReduceQueuedEventsAfterAlarmWasDeleted() {
+        final OnmsAlarm alarm = alarmPersister.persist(getTrigger());
+        assertThat(alarmPersister.persist(getTrigger()), nullValue());
+        assertThat(alarmPersister.persist(getTrigger()), nullValue());
+
+        // Delete the alarm behind the persister's back
+        alarmsById.clear();
+        alarmsByReductionKey.clear();
+
+        alarmPersister.reduceAllQueuedEvents();
+
+        // A new alarm is created for the first queued event, and the second is reduced to it
+        final OnmsAlarm newAlarm = alarmsByReductionKey.get(REDUCTION_KEY);
+        assertThat(newAlarm, not(sameInstance(alarm)));
+        assertThat(newAlarm.getCounter(), equalTo(2));
+        assertThat(newAlarm.getLastEvent().getId(), equalTo(3));
+    }
+
+    private Event getTrigger() {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(OnmsAlarm.PROBLEM_TYPE);
+        alarmData.setReductionKey(REDUCTION_KEY);
+        return getEvent("uei.opennms.org/test/trigger", alarmData);
+    }
+
+    private Event getClear() {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(OnmsAlarm.RESOLUTION_TYPE);
+        alarmData.setReductionKey("uei.opennms.org/test/clear::1");
+        alarmData.setClearKey(REDUCTION_KEY);
+        return getEvent("uei.opennms.org/test/clear", alarmData);
+    }
+
+    private Event getEvent(String uei, AlarmData alarmData) {
+        final Event event = new EventBuilder(uei, "test")
+                .setAlarmData(alarmData)
+                .getEvent();
+        event.setDbid(++dbid);
+        return event;
+    }
+}
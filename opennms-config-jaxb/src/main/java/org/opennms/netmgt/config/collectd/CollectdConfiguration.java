@@ -79,7 +79,8 @@ public class CollectdConfiguration implements Serializable {
     }
 
     /**
-     * The maximum number of threads used for data collection.
+     * The maximum number of collections in progress at once. This is the number
+     * of threads used for data collection when asynchronous collection is disabled.
      */
     public Integer getThreads() {
         return m_threads == null? 0 : m_threads;
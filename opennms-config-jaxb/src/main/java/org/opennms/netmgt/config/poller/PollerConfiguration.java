@@ -118,7 +118,8 @@ public class PollerConfiguration implements Serializable {
     private List<Monitor> m_monitors = new ArrayList<>();
 
     /**
-     * The maximum number of threads used for polling.
+     * The maximum number of polls in progress at once. This is the number of
+     * threads used for polling when asynchronous polling is disabled.
      */
     public Integer getThreads() {
         return m_threads == null? 0 : m_threads;
@@ -0,0 +1,490 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * Immutable index used to find the first event definition that matches a given event.
+ *
+ * The index is compiled once from the root {@link Events} and all of its loaded event files.
+ * Definitions are partitioned with the given {@link Partition} (usually on the enterprise id),
+ * then on the generic and specific trap numbers and finally on the value of a varbind.
+ * Definitions without a partition key are indexed by UEI when their mask requires one.
+ *
+ * Every candidate list is ordered by the position of the definition in the configuration at
+ * compile time, so a lookup only walks pre-built arrays and returns the first definition that
+ * matches, without allocating.
+ *
+ * The results are the same as the ones of the per-file search done before: the root UEI index
+ * wins, followed by the definitions of the root, then for every loaded event file the UEI
+ * index of the file followed by its definitions.
+ */
+public class EventMatchingIndex {
+
+    /**
+     * Minimum number of candidates before partitioning on the value of a varbind.
+     */
+    private static final int VARBIND_PARTITION_THRESHOLD = 8;
+
+    private static final Candidate[] NO_CANDIDATES = new Candidate[0];
+
+    private static final Comparator<Candidate> BY_PRIORITY = Comparator.comparingInt(c -> c.priority);
+
+    /**
+     * An event definition along with its position in the configuration.
+     */
+    private static class Candidate {
+        private final Event event;
+
+        /**
+         * Definitions are numbered with odd values, the UEI index of an event file comes right
+         * before the first definition of the file and is numbered with an even value.
+         */
+        private final int priority;
+
+        private Candidate(final Event event, final int priority) {
+            this.event = event;
+            this.priority = priority;
+        }
+    }
+
+    private final Partition m_partition;
+
+    private final Map<String, Event> m_eventsByUei;
+
+    private final Map<String, Candidate> m_eventsByUeiInFiles;
+
+    private final Map<String, Node> m_partitionedEvents;
+
+    private final Map<String, Candidate[]> m_eventsWithUei;
+
+    private final Candidate[] m_otherEvents;
+
+    EventMatchingIndex(final Events root, final Partition partition) {
+        m_partition = partition;
+        m_eventsByUei = Collections.unmodifiableMap(new HashMap<>(root.getEventsByUei()));
+
+        final List<Candidate> candidates = new ArrayList<>();
+        final Map<String, Candidate> eventsByUeiInFiles = new HashMap<>();
+        int ordinal = 0;
+        for (final Event event : root.getEvents()) {
+            candidates.add(new Candidate(event, 2 * ordinal++ + 1));
+        }
+        for (final Events eventFile : root.getLoadedEventFiles()) {
+            final int priority = 2 * ordinal;
+            for (final Map.Entry<String, Event> entry : eventFile.getEventsByUei().entrySet()) {
+                eventsByUeiInFiles.putIfAbsent(entry.getKey(), new Candidate(entry.getValue(), priority));
+            }
+            for (final Event event : eventFile.getEvents()) {
+                candidates.add(new Candidate(event, 2 * ordinal++ + 1));
+            }
+        }
+        m_eventsByUeiInFiles = Collections.unmodifiableMap(eventsByUeiInFiles);
+
+        final Map<String, List<Candidate>> partitionedEvents = new LinkedHashMap<>();
+        final Map<String, List<Candidate>> eventsWithUei = new HashMap<>();
+        final List<Candidate> otherEvents = new ArrayList<>();
+        for (final Candidate candidate : candidates) {
+            final List<String> keys = partition.group(candidate.event);
+            if (keys != null) {
+                for (final String key : keys) {
+                    partitionedEvents.computeIfAbsent(key, k -> new ArrayList<>()).add(candidate);
+                }
+                continue;
+            }
+
+            final Mask mask = candidate.event.getMask();
+            if (mask == null || mask.getMaskelements().isEmpty()) {
+                // Definitions without a mask only ever match by UEI, and never without one
+                if (candidate.event.getUei() != null) {
+                    eventsWithUei.computeIfAbsent(candidate.event.getUei(), k -> new ArrayList<>()).add(candidate);
+                }
+                continue;
+            }
+
+            final List<String> ueis = getExactValues(mask.getMaskElementValues(TAG_UEI));
+            if (ueis != null) {
+                for (final String uei : ueis) {
+                    eventsWithUei.computeIfAbsent(uei, k -> new ArrayList<>()).add(candidate);
+                }
+            } else {
+                otherEvents.add(candidate);
+            }
+        }
+
+        m_partitionedEvents = new HashMap<>();
+        partitionedEvents.forEach((key, events) -> m_partitionedEvents.put(key, compileGeneric(events)));
+        m_eventsWithUei = new HashMap<>();
+        eventsWithUei.forEach((uei, events) -> m_eventsWithUei.put(uei, toArray(events)));
+        m_otherEvents = toArray(otherEvents);
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // Attempt to match the event definition by UEI
+        Event ueiMatch = null;
+        int ueiMatchPriority = Integer.MAX_VALUE;
+        Candidate[] eventsWithUei = NO_CANDIDATES;
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            final Event event = m_eventsByUei.get(uei);
+            if (event != null) {
+                return event;
+            }
+
+            // Only wins if none of the definitions before the event file matches
+            final Candidate candidate = m_eventsByUeiInFiles.get(uei);
+            if (candidate != null) {
+                ueiMatch = candidate.event;
+                ueiMatchPriority = candidate.priority;
+            }
+
+            final Candidate[] candidates = m_eventsWithUei.get(uei);
+            if (candidates != null) {
+                eventsWithUei = candidates;
+            }
+        }
+
+        Candidate[] partitionedEvents = NO_CANDIDATES;
+        final String key = m_partition.group(matchingEvent);
+        if (key != null) {
+            final Node node = m_partitionedEvents.get(key);
+            if (node != null) {
+                partitionedEvents = node.find(matchingEvent);
+            }
+        }
+
+        // Walk the candidates in the order of the configuration
+        final Candidate[] otherEvents = m_otherEvents;
+        int i = 0, j = 0, k = 0;
+        while (true) {
+            final int pi = i < partitionedEvents.length ? partitionedEvents[i].priority : Integer.MAX_VALUE;
+            final int pj = j < eventsWithUei.length ? eventsWithUei[j].priority : Integer.MAX_VALUE;
+            final int pk = k < otherEvents.length ? otherEvents[k].priority : Integer.MAX_VALUE;
+
+            final Candidate candidate;
+            if (pi <= pj && pi <= pk) {
+                if (pi >= ueiMatchPriority) {
+                    return ueiMatch;
+                }
+                candidate = partitionedEvents[i++];
+            } else if (pj <= pk) {
+                if (pj >= ueiMatchPriority) {
+                    return ueiMatch;
+                }
+                candidate = eventsWithUei[j++];
+            } else {
+                if (pk >= ueiMatchPriority) {
+                    return ueiMatch;
+                }
+                candidate = otherEvents[k++];
+            }
+
+            if (candidate.event.matches(matchingEvent)) {
+                return candidate.event;
+            }
+        }
+    }
+
+    /**
+     * A level of the index, resolving the candidates for a given event.
+     */
+    private interface Node {
+        Candidate[] find(org.opennms.netmgt.xml.event.Event matchingEvent);
+    }
+
+    private static class Leaf implements Node {
+        private final Candidate[] candidates;
+
+        private Leaf(final Candidate[] candidates) {
+            this.candidates = candidates;
+        }
+
+        @Override
+        public Candidate[] find(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return candidates;
+        }
+    }
+
+    private static class GenericNode implements Node {
+        private final int[] keys;
+        private final Node[] children;
+        private final Node others;
+
+        private GenericNode(final int[] keys, final Node[] children, final Node others) {
+            this.keys = keys;
+            this.children = children;
+            this.others = others;
+        }
+
+        @Override
+        public Candidate[] find(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final Snmp snmp = matchingEvent.getSnmp();
+            if (snmp == null || !snmp.hasGeneric()) {
+                return others.find(matchingEvent);
+            }
+            final int index = Arrays.binarySearch(keys, snmp.getGeneric());
+            return index >= 0 ? children[index].find(matchingEvent) : others.find(matchingEvent);
+        }
+    }
+
+    private static class SpecificNode implements Node {
+        private final int[] keys;
+        private final Node[] children;
+        private final Node others;
+
+        private SpecificNode(final int[] keys, final Node[] children, final Node others) {
+            this.keys = keys;
+            this.children = children;
+            this.others = others;
+        }
+
+        @Override
+        public Candidate[] find(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final Snmp snmp = matchingEvent.getSnmp();
+            if (snmp == null || !snmp.hasSpecific()) {
+                return others.find(matchingEvent);
+            }
+            final int index = Arrays.binarySearch(keys, snmp.getSpecific());
+            return index >= 0 ? children[index].find(matchingEvent) : others.find(matchingEvent);
+        }
+    }
+
+    private static class VarbindNode implements Node {
+        private final Field field;
+        private final Map<String, Candidate[]> children;
+        private final Candidate[] others;
+
+        private VarbindNode(final Field field, final Map<String, Candidate[]> children, final Candidate[] others) {
+            this.field = field;
+            this.children = children;
+            this.others = others;
+        }
+
+        @Override
+        public Candidate[] find(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final String value = field.get(matchingEvent);
+            if (value == null) {
+                return others;
+            }
+            final Candidate[] candidates = children.get(value);
+            return candidates != null ? candidates : others;
+        }
+    }
+
+    private static Node compileGeneric(final List<Candidate> candidates) {
+        final Map<Integer, List<Candidate>> keyed = new TreeMap<>();
+        final List<Candidate> others = new ArrayList<>();
+        partitionByInt(candidates, TAG_SNMP_GENERIC, keyed, others);
+        if (keyed.isEmpty()) {
+            return compileSpecific(candidates);
+        }
+
+        final int[] keys = new int[keyed.size()];
+        final Node[] children = new Node[keyed.size()];
+        int index = 0;
+        for (final Map.Entry<Integer, List<Candidate>> entry : keyed.entrySet()) {
+            keys[index] = entry.getKey();
+            children[index] = compileSpecific(merge(entry.getValue(), others));
+            index++;
+        }
+        return new GenericNode(keys, children, compileSpecific(others));
+    }
+
+    private static Node compileSpecific(final List<Candidate> candidates) {
+        final Map<Integer, List<Candidate>> keyed = new TreeMap<>();
+        final List<Candidate> others = new ArrayList<>();
+        partitionByInt(candidates, TAG_SNMP_SPECIFIC, keyed, others);
+        if (keyed.isEmpty()) {
+            return compileVarbind(candidates);
+        }
+
+        final int[] keys = new int[keyed.size()];
+        final Node[] children = new Node[keyed.size()];
+        int index = 0;
+        for (final Map.Entry<Integer, List<Candidate>> entry : keyed.entrySet()) {
+            keys[index] = entry.getKey();
+            children[index] = compileVarbind(merge(entry.getValue(), others));
+            index++;
+        }
+        return new SpecificNode(keys, children, compileVarbind(others));
+    }
+
+    private static Node compileVarbind(final List<Candidate> candidates) {
+        if (candidates.size() < VARBIND_PARTITION_THRESHOLD) {
+            return new Leaf(toArray(candidates));
+        }
+
+        // Partition on the varbind constrained by most of the definitions
+        final Map<Integer, Integer> counts = new TreeMap<>();
+        for (final Candidate candidate : candidates) {
+            final Mask mask = candidate.event.getMask();
+            if (mask != null) {
+                for (final Varbind varbind : mask.getVarbinds()) {
+                    if (varbind.getVbnumber() != null && getExactValues(varbind.getVbvalues()) != null) {
+                        counts.merge(varbind.getVbnumber(), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        final Integer vbnumber = counts.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(null);
+        if (vbnumber == null) {
+            return new Leaf(toArray(candidates));
+        }
+
+        final Map<String, List<Candidate>> keyed = new HashMap<>();
+        final List<Candidate> others = new ArrayList<>();
+        for (final Candidate candidate : candidates) {
+            final List<String> values = getExactVarbindValues(candidate.event, vbnumber);
+            if (values == null) {
+                others.add(candidate);
+            } else {
+                for (final String value : values) {
+                    keyed.computeIfAbsent(value, k -> new ArrayList<>()).add(candidate);
+                }
+            }
+        }
+
+        final Map<String, Candidate[]> children = new HashMap<>();
+        keyed.forEach((value, events) -> children.put(value, toArray(merge(events, others))));
+        return new VarbindNode(EventMatchers.varbind(vbnumber), children, toArray(others));
+    }
+
+    private static void partitionByInt(final List<Candidate> candidates, final String mename, final Map<Integer, List<Candidate>> keyed, final List<Candidate> others) {
+        for (final Candidate candidate : candidates) {
+            final List<Integer> values = getExactIntValues(candidate.event.getMaskElementValues(mename));
+            if (values == null) {
+                others.add(candidate);
+            } else {
+                for (final Integer value : values) {
+                    keyed.computeIfAbsent(value, k -> new ArrayList<>()).add(candidate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the values if all of them are matched literally, or null if any of them
+     * is a wildcard or a regular expression.
+     */
+    private static List<String> getExactValues(final List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        final List<String> exactValues = new ArrayList<>(values.size());
+        for (final String value : values) {
+            if (value == null) {
+                continue;
+            }
+            if (value.startsWith("~") || value.endsWith("%")) {
+                return null;
+            }
+            exactValues.add(value);
+        }
+        return exactValues.isEmpty() ? null : exactValues;
+    }
+
+    private static List<Integer> getExactIntValues(final List<String> values) {
+        final List<String> exactValues = getExactValues(values);
+        if (exactValues == null) {
+            return null;
+        }
+        final List<Integer> intValues = new ArrayList<>(exactValues.size());
+        for (final String value : exactValues) {
+            try {
+                final int intValue = Integer.parseInt(value);
+                if (!Integer.toString(intValue).equals(value)) {
+                    // Never equal to the value of an event, keep it with the others
+                    return null;
+                }
+                intValues.add(intValue);
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+        return intValues;
+    }
+
+    private static List<String> getExactVarbindValues(final Event event, final int vbnumber) {
+        final Mask mask = event.getMask();
+        if (mask == null) {
+            return null;
+        }
+        for (final Varbind varbind : mask.getVarbinds()) {
+            if (varbind.getVbnumber() != null && varbind.getVbnumber() == vbnumber) {
+                final List<String> values = getExactValues(varbind.getVbvalues());
+                if (values != null) {
+                    return values;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Candidate> merge(final List<Candidate> first, final List<Candidate> second) {
+        final List<Candidate> merged = new ArrayList<>(first.size() + second.size());
+        merged.addAll(first);
+        merged.addAll(second);
+        return merged;
+    }
+
+    /**
+     * Orders the candidates by priority, removing the duplicates.
+     */
+    private static Candidate[] toArray(final Collection<Candidate> candidates) {
+        final Candidate[] sorted = candidates.toArray(new Candidate[candidates.size()]);
+        Arrays.sort(sorted, BY_PRIORITY);
+        int size = 0;
+        for (final Candidate candidate : sorted) {
+            if (size == 0 || sorted[size - 1] != candidate) {
+                sorted[size++] = candidate;
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+}
@@ -48,7 +48,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.function.Consumer;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -100,16 +99,10 @@ public class Events implements Serializable {
     private Map<String, Events> m_loadedEventFiles = new LinkedHashMap<>();
 
     @XmlTransient
-    private Partition m_partition;
-
-    @XmlTransient
-    private Map<String, List<Event>> m_partitionedEvents;
-
-    @XmlTransient
-    private List<Event> m_nullPartitionedEvents;
+    private Map<String, Event> m_eventsByUei = new HashMap<>();
 
     @XmlTransient
-    private Map<String, Event> m_eventsByUei = new HashMap<>();
+    private EventMatchingIndex m_matchingIndex;
 
     @XmlTransient
     private List<Event> m_wildcardEvents;
@@ -247,67 +240,11 @@ public class Events implements Serializable {
         return m_global == null ? false : m_global.isSecureTag(tag);
     }
 
-    private void partitionEvents(final Partition partition) {
-        m_partition = partition;
-
-        m_partitionedEvents = new LinkedHashMap<String, List<Event>>();
-        m_nullPartitionedEvents = new ArrayList<Event>();
-
-        for(final Event event : m_events) {
-            final List<String> keys = partition.group(event);
-            if (keys == null) {
-                m_nullPartitionedEvents.add(event);
-            } else {
-                for(final String key : keys) {
-                    List<Event> events = m_partitionedEvents.get(key);
-                    if (events == null) {
-                        events = new ArrayList<Event>(1);
-                        m_partitionedEvents.put(key, events);
-                    }
-                    events.add(event);
-                }
-            }
-        }
-    }
-
-
-
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-        // Atempt to match the event definition by UEI
-        final String ueiToMatch = matchingEvent.getUei();
-        if (ueiToMatch != null) {
-            final Event matchedEvent = m_eventsByUei.get(ueiToMatch);
-            if (matchedEvent != null) {
-                return matchedEvent;
-            }
-        }
-
-        // If the UEI match failed, fallback to searching with the matchers through the partitions
-        final String key = m_partition.group(matchingEvent);
-        Collection<Event> potentialMatches = m_nullPartitionedEvents;
-        if (key != null) {
-            final List<Event> events = m_partitionedEvents.get(key);
-            if (events != null) {
-                potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
-                potentialMatches.addAll(events);
-            }
-        }
-
-        for(final Event event : potentialMatches) {
-            if (event.matches(matchingEvent)) {
-                return event;
-            }
-        }
-
-        for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
-            final Events subEvents = loadedEvents.getValue();
-            final Event event = subEvents.findFirstMatchingEvent(matchingEvent);
-            if (event != null) {
-                return event;
-            }
+        if (m_matchingIndex == null) {
+            throw new IllegalStateException("The events must be initialized before they can be matched.");
         }
-
-        return null;
+        return m_matchingIndex.findFirstMatchingEvent(matchingEvent);
     }
 
     public Event findFirstMatchingEvent(final EventCriteria criteria) {
@@ -346,22 +283,35 @@ public class Events implements Serializable {
     }
 
     public void initialize(final Partition partition, final EventOrdering eventOrdering) {
+        initializeEvents(eventOrdering);
+
+        // Compile the definitions of this file and of all of the loaded event files at once
+        m_matchingIndex = new EventMatchingIndex(this, partition);
+    }
+
+    private void initializeEvents(final EventOrdering eventOrdering) {
         m_ordering = eventOrdering;
 
         for (final Event event : m_events) {
             event.initialize(m_ordering.next());
         }
 
-        partitionEvents(partition);
-
         for(final Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
             final Events events = loadedEvents.getValue();
-            events.initialize(partition, m_ordering.subsequence());
+            events.initializeEvents(m_ordering.subsequence());
         }
 
         indexEventsByUei();
     }
 
+    Map<String, Event> getEventsByUei() {
+        return m_eventsByUei;
+    }
+
+    Collection<Events> getLoadedEventFiles() {
+        return m_loadedEventFiles.values();
+    }
+
     private void indexEventsByUei() {
         m_eventsByUei.clear();
 
@@ -311,7 +311,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             // Load/reload the event files as necessary
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
-            // Order the events for efficient searching
+            // Order the events and compile them into the index used for searching
             events.initialize(m_partition, new EventOrdering());
 
             m_events = events;
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Verifies that the compiled index finds the same event definitions as the
+ * previous search, using the stock event configuration.
+ */
+public class EventConfMatchingTest {
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private LegacyEventConfMatcher m_legacyMatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+        m_legacyMatcher = new LegacyEventConfMatcher(m_eventConfDao.getRootEvents());
+    }
+
+    @Test
+    public void canMatchTrapsLikeBefore() {
+        final List<org.opennms.netmgt.xml.event.Event> traps = TrapCorpus.create(m_eventConfDao.getRootEvents(), 0.1, 42);
+        for (final org.opennms.netmgt.xml.event.Event trap : traps) {
+            assertSame(trap.getSnmp().getId(), m_legacyMatcher.findFirstMatchingEvent(trap), m_eventConfDao.findByEvent(trap));
+        }
+    }
+
+    @Test
+    public void canMatchEventsWithUeiLikeBefore() {
+        for (final String uei : m_eventConfDao.getEventUEIs()) {
+            final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+            event.setUei(uei);
+            assertSame(uei, m_legacyMatcher.findFirstMatchingEvent(event), m_eventConfDao.findByEvent(event));
+        }
+    }
+
+    @Test
+    public void canMatchGenericTraps() {
+        final Snmp snmp = new Snmp();
+        snmp.setId(".1.3.6.1.4.1.99999.1");
+        snmp.setGeneric(0);
+        snmp.setSpecific(0);
+        final org.opennms.netmgt.xml.event.Event trap = new org.opennms.netmgt.xml.event.Event();
+        trap.setSnmp(snmp);
+
+        final Event eventConf = m_eventConfDao.findByEvent(trap);
+        assertNotNull(eventConf);
+        assertSame(m_legacyMatcher.findFirstMatchingEvent(trap), eventConf);
+
+        // No definition without any mask or UEI should match
+        assertNull(m_eventConfDao.findByEvent(new org.opennms.netmgt.xml.event.Event()));
+    }
+}
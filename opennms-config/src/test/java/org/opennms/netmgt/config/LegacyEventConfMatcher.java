@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventMatcher;
+import org.opennms.netmgt.xml.eventconf.EventMatchers;
+import org.opennms.netmgt.xml.eventconf.EventMatchingIndex;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Field;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+
+/**
+ * Searches the event definitions the way {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * did before they were compiled into an {@link EventMatchingIndex}: the definitions of every event file are
+ * partitioned by enterprise id, and the partition is merged with the unpartitioned definitions into a new
+ * {@link TreeSet} for every lookup.
+ *
+ * Used as the reference for the results and the performance of the index.
+ */
+public class LegacyEventConfMatcher {
+
+    private static final Field ENTERPRISE_ID = EventMatchers.field("id");
+
+    private static class EventFile {
+        private final Map<String, Event> eventsByUei;
+        private final Map<String, List<Event>> partitionedEvents = new LinkedHashMap<>();
+        private final List<Event> nullPartitionedEvents = new ArrayList<>();
+
+        private EventFile(final List<Event> events, final Map<String, Event> eventsByUei) {
+            this.eventsByUei = eventsByUei;
+            for (final Event event : events) {
+                final List<String> keys = group(event);
+                if (keys == null) {
+                    nullPartitionedEvents.add(event);
+                } else {
+                    for (final String key : keys) {
+                        partitionedEvents.computeIfAbsent(key, k -> new ArrayList<>(1)).add(event);
+                    }
+                }
+            }
+        }
+
+        private Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final String uei = matchingEvent.getUei();
+            if (uei != null) {
+                final Event matchedEvent = eventsByUei.get(uei);
+                if (matchedEvent != null) {
+                    return matchedEvent;
+                }
+            }
+
+            final String key = ENTERPRISE_ID.get(matchingEvent);
+            Collection<Event> potentialMatches = nullPartitionedEvents;
+            if (key != null) {
+                final List<Event> events = partitionedEvents.get(key);
+                if (events != null) {
+                    potentialMatches = new TreeSet<>(nullPartitionedEvents);
+                    potentialMatches.addAll(events);
+                }
+            }
+
+            for (final Event event : potentialMatches) {
+                if (event.matches(matchingEvent)) {
+                    return event;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final List<EventFile> m_eventFiles = new ArrayList<>();
+
+    /**
+     * @param root the initialized root events, as returned by {@link DefaultEventConfDao#getRootEvents()}
+     */
+    public LegacyEventConfMatcher(final Events root) {
+        final List<Event> allEvents = new ArrayList<>(root.getEvents());
+        final List<Events> loadedEventFiles = new ArrayList<>();
+        for (final String eventFile : root.getEventFiles()) {
+            final Events events = root.getLoadEventsByFile(eventFile);
+            if (events != null) {
+                loadedEventFiles.add(events);
+                allEvents.addAll(events.getEvents());
+            }
+        }
+
+        // The UEI index of the root covers all of the definitions, the ones of the event files only their own
+        m_eventFiles.add(new EventFile(root.getEvents(), indexEventsByUei(allEvents)));
+        for (final Events events : loadedEventFiles) {
+            m_eventFiles.add(new EventFile(events.getEvents(), indexEventsByUei(events.getEvents())));
+        }
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        for (final EventFile eventFile : m_eventFiles) {
+            final Event event = eventFile.findFirstMatchingEvent(matchingEvent);
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as the partition used by the {@link DefaultEventConfDao}.
+     */
+    private static List<String> group(final Event eventConf) {
+        final List<String> keys = eventConf.getMaskElementValues("id");
+        if (keys == null) return null;
+        for (final String key : keys) {
+            if (key.endsWith("%")) return null;
+            if (key.startsWith("~")) return null;
+        }
+        return keys;
+    }
+
+    private static Map<String, Event> indexEventsByUei(final List<Event> events) {
+        final Map<String, Event> eventsByUei = new HashMap<>();
+        final Set<String> ueisWithManyEventDefinitions = new HashSet<>();
+        final List<EventMatcher> matchers = new ArrayList<>();
+        for (final Event event : events) {
+            if (event.getUei() != null && eventsByUei.putIfAbsent(event.getUei(), event) != null) {
+                ueisWithManyEventDefinitions.add(event.getUei());
+            }
+            final Mask mask = event.getMask();
+            if (mask != null) {
+                final Maskelement ueiMask = mask.getMaskElement("uei");
+                if (ueiMask != null) {
+                    matchers.add(ueiMask.constructMatcher());
+                }
+            }
+        }
+        ueisWithManyEventDefinitions.forEach(eventsByUei::remove);
+
+        for (final Iterator<Map.Entry<String, Event>> it = eventsByUei.entrySet().iterator(); it.hasNext(); ) {
+            final org.opennms.netmgt.xml.event.Event eventToMatch = new org.opennms.netmgt.xml.event.Event();
+            eventToMatch.setUei(it.next().getKey());
+            for (final EventMatcher matcher : matchers) {
+                if (matcher.matches(eventToMatch)) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+        return eventsByUei;
+    }
+}
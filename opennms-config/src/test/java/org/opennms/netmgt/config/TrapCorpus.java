@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+
+/**
+ * Builds trap events from the masks of the event definitions of a configuration, mixed with traps
+ * that do not match any definition, in a reproducible order.
+ */
+public class TrapCorpus {
+
+    private static final String UNKNOWN_ENTERPRISE_ID = ".1.3.6.1.4.1.99999";
+
+    public static List<org.opennms.netmgt.xml.event.Event> create(final Events root, final double unknownRatio, final long seed) {
+        final List<org.opennms.netmgt.xml.event.Event> traps = new ArrayList<>();
+        root.forEachEvent(traps, (accum, eventConf) -> {
+            final List<String> ids = eventConf.getMaskElementValues("id");
+            if (ids != null && !ids.isEmpty()) {
+                accum.add(createTrap(eventConf, literal(ids.get(0))));
+            }
+            return accum;
+        });
+
+        final Random random = new Random(seed);
+        final int unknown = (int)(traps.size() * unknownRatio);
+        for (int i = 0; i < unknown; i++) {
+            traps.add(createTrap(UNKNOWN_ENTERPRISE_ID + "." + random.nextInt(1000), 6, random.nextInt(100)));
+        }
+
+        // Shuffle to avoid sequential access patterns in the benchmark
+        for (int i = traps.size() - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            traps.set(i, traps.set(j, traps.get(i)));
+        }
+        return traps;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createTrap(final Event eventConf, final String enterpriseId) {
+        final org.opennms.netmgt.xml.event.Event trap = createTrap(enterpriseId,
+                intValue(eventConf.getMaskElementValues("generic"), 6),
+                intValue(eventConf.getMaskElementValues("specific"), 0));
+
+        final Mask mask = eventConf.getMask();
+        for (final Varbind varbind : mask.getVarbinds()) {
+            if (varbind.getVbnumber() == null || varbind.getVbvalues().isEmpty()) {
+                continue;
+            }
+            while (trap.getParmCollection().size() < varbind.getVbnumber()) {
+                final int index = trap.getParmCollection().size() + 1;
+                trap.addParm(new Parm(enterpriseId + "." + index, "parm" + index));
+            }
+            trap.getParmCollection().get(varbind.getVbnumber() - 1).getValue().setContent(literal(varbind.getVbvalues().get(0)));
+        }
+        return trap;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createTrap(final String enterpriseId, final int generic, final int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(enterpriseId);
+        snmp.setVersion("v2c");
+        snmp.setCommunity("public");
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+
+        final org.opennms.netmgt.xml.event.Event trap = new org.opennms.netmgt.xml.event.Event();
+        trap.setSource("trapd");
+        trap.setSnmp(snmp);
+        trap.setSnmphost("127.0.0.1");
+        trap.setInterface("127.0.0.1");
+        return trap;
+    }
+
+    /**
+     * Turns wildcards and regular expressions into a value they are likely to match.
+     */
+    private static String literal(final String value) {
+        if (value.startsWith("~")) {
+            return value.substring(1).replaceAll("[^A-Za-z0-9.]", "");
+        } else if (value.endsWith("%")) {
+            return value.substring(0, value.length() - 1) + "1";
+        }
+        return value;
+    }
+
+    private static int intValue(final List<String> values, final int defaultValue) {
+        if (values != null && !values.isEmpty()) {
+            try {
+                return Integer.parseInt(literal(values.get(0)));
+            } catch (final NumberFormatException e) {
+                // Use the default value
+            }
+        }
+        return defaultValue;
+    }
+}
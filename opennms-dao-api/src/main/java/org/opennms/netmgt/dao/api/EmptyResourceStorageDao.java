@@ -67,6 +67,11 @@ public class EmptyResourceStorageDao implements ResourceStorageDao {
         // pass
     }
 
+    @Override
+    public void setStringAttributes(ResourcePath path, Map<String, String> attributes) {
+        // pass
+    }
+
     @Override
     public String getStringAttribute(ResourcePath path, String key) {
         return null;
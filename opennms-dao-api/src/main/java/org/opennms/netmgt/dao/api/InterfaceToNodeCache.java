@@ -41,6 +41,11 @@ public interface InterfaceToNodeCache {
 
 	boolean removeNodeId(String location, InetAddress ipAddr, int nodeId);
 
+	/**
+	 * Reloads the addresses of the given node, without synchronizing the whole cache.
+	 */
+	void refreshNode(int nodeId);
+
 	int size();
 
 	/**
@@ -120,6 +120,12 @@ public interface ResourceStorageDao {
      */
     public void setStringAttribute(ResourcePath path, String key, String value);
 
+    /**
+     * Sets all of the specified (resource-level) attributes at the given path,
+     * in a single operation when the implementation allows it.
+     */
+    public void setStringAttributes(ResourcePath path, Map<String, String> attributes);
+
     /**
      * Returns the value for the given (resource-level) attribute, or null if it does not exist.
      */
@@ -64,6 +64,9 @@ public class MockInterfaceToNodeCache extends AbstractInterfaceToNodeCache {
     @Override
     public void dataSourceSync() {}
 
+    @Override
+    public void refreshNode(int nodeId) {}
+
     @Override
     public int size() { return keyToNodeId.size(); }
 
@@ -30,14 +30,24 @@ package org.opennms.netmgt.dao.hibernate;
 
 import static org.opennms.core.utils.InetAddressUtils.str;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.PostConstruct;
 
@@ -59,7 +69,8 @@ import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SortedSetMultimap;
@@ -77,6 +88,9 @@ import com.google.common.collect.SortedSetMultimap;
 public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache implements InterfaceToNodeCache {
     private static final Logger LOG = LoggerFactory.getLogger(InterfaceToNodeCacheDaoImpl.class);
 
+    // Number of modified addresses above which the snapshot is rebuilt instead of being patched
+    private static final int MAX_INCREMENTAL_UPDATES = 64;
+
     private static class Key {
         private final String location;
         private final InetAddress ipAddress;
@@ -176,6 +190,196 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
         }
     }
 
+    /**
+     * Immutable lookup table for the addresses of a single location.
+     *
+     * IPv4 and IPv6 addresses are kept as primitive keys in separate sorted arrays. The node IDs for the address at
+     * a given index are stored at the same index, already sorted by the interface management priority.
+     */
+    private static final class AddressTable {
+        private static final AddressTable EMPTY = new AddressTable(new int[0], new List[0], new long[0], new List[0]);
+
+        private final int[] v4Keys;
+        private final List<Integer>[] v4Nodes;
+
+        // Each IPv6 address is stored as a pair of the upper and the lower 64 bits
+        private final long[] v6Keys;
+        private final List<Integer>[] v6Nodes;
+
+        private AddressTable(int[] v4Keys, List<Integer>[] v4Nodes, long[] v6Keys, List<Integer>[] v6Nodes) {
+            this.v4Keys = v4Keys;
+            this.v4Nodes = v4Nodes;
+            this.v6Keys = v6Keys;
+            this.v6Nodes = v6Nodes;
+        }
+
+        private static AddressTable build(final Map<InetAddress, List<Integer>> entries) {
+            final List<Map.Entry<InetAddress, List<Integer>>> v4 = new ArrayList<>();
+            final List<Map.Entry<InetAddress, List<Integer>>> v6 = new ArrayList<>();
+            for (final Map.Entry<InetAddress, List<Integer>> entry : entries.entrySet()) {
+                (entry.getKey() instanceof Inet4Address ? v4 : v6).add(entry);
+            }
+
+            v4.sort((a, b) -> Integer.compare(v4Key(a.getKey().getAddress()), v4Key(b.getKey().getAddress())));
+            final int[] v4Keys = new int[v4.size()];
+            final List<Integer>[] v4Nodes = new List[v4.size()];
+            for (int i = 0; i < v4Keys.length; i++) {
+                v4Keys[i] = v4Key(v4.get(i).getKey().getAddress());
+                v4Nodes[i] = v4.get(i).getValue();
+            }
+
+            v6.sort((a, b) -> {
+                final byte[] x = a.getKey().getAddress();
+                final byte[] y = b.getKey().getAddress();
+                final int result = Long.compare(v6Key(x, 0), v6Key(y, 0));
+                return result != 0 ? result : Long.compare(v6Key(x, 8), v6Key(y, 8));
+            });
+            final long[] v6Keys = new long[v6.size() * 2];
+            final List<Integer>[] v6Nodes = new List[v6.size()];
+            for (int i = 0; i < v6Nodes.length; i++) {
+                final byte[] bytes = v6.get(i).getKey().getAddress();
+                v6Keys[2 * i] = v6Key(bytes, 0);
+                v6Keys[2 * i + 1] = v6Key(bytes, 8);
+                v6Nodes[i] = v6.get(i).getValue();
+            }
+
+            return new AddressTable(v4Keys, v4Nodes, v6Keys, v6Nodes);
+        }
+
+        private static int v4Key(final byte[] bytes) {
+            return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+        }
+
+        private static long v6Key(final byte[] bytes, final int offset) {
+            long key = 0;
+            for (int i = offset; i < offset + 8; i++) {
+                key = (key << 8) | (bytes[i] & 0xFF);
+            }
+            return key;
+        }
+
+        private static int v6Search(final long[] keys, final long upper, final long lower) {
+            int low = 0;
+            int high = keys.length / 2 - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                int result = Long.compare(keys[2 * mid], upper);
+                if (result == 0) {
+                    result = Long.compare(keys[2 * mid + 1], lower);
+                }
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private List<Integer> get(final InetAddress address) {
+            final byte[] bytes = address.getAddress();
+            if (bytes.length == 4) {
+                final int index = Arrays.binarySearch(v4Keys, v4Key(bytes));
+                return index >= 0 ? v4Nodes[index] : Collections.emptyList();
+            } else {
+                final int index = v6Search(v6Keys, v6Key(bytes, 0), v6Key(bytes, 8));
+                return index >= 0 ? v6Nodes[index] : Collections.emptyList();
+            }
+        }
+
+        /**
+         * Returns a copy of this table with the node IDs of the given address replaced. The address is removed if
+         * the list of node IDs is empty.
+         */
+        private AddressTable with(final InetAddress address, final List<Integer> nodes) {
+            final byte[] bytes = address.getAddress();
+            if (bytes.length == 4) {
+                final int key = v4Key(bytes);
+                final int index = Arrays.binarySearch(v4Keys, key);
+                if (index >= 0 && nodes.isEmpty()) {
+                    return new AddressTable(remove(v4Keys, index), remove(v4Nodes, index), v6Keys, v6Nodes);
+                } else if (index >= 0) {
+                    final List<Integer>[] v4Nodes = this.v4Nodes.clone();
+                    v4Nodes[index] = nodes;
+                    return new AddressTable(v4Keys, v4Nodes, v6Keys, v6Nodes);
+                } else if (!nodes.isEmpty()) {
+                    final int position = -(index + 1);
+                    final int[] v4Keys = new int[this.v4Keys.length + 1];
+                    System.arraycopy(this.v4Keys, 0, v4Keys, 0, position);
+                    System.arraycopy(this.v4Keys, position, v4Keys, position + 1, this.v4Keys.length - position);
+                    v4Keys[position] = key;
+                    return new AddressTable(v4Keys, insert(v4Nodes, position, nodes), v6Keys, v6Nodes);
+                }
+            } else {
+                final long upper = v6Key(bytes, 0);
+                final long lower = v6Key(bytes, 8);
+                final int index = v6Search(v6Keys, upper, lower);
+                if (index >= 0 && nodes.isEmpty()) {
+                    final long[] v6Keys = new long[this.v6Keys.length - 2];
+                    System.arraycopy(this.v6Keys, 0, v6Keys, 0, 2 * index);
+                    System.arraycopy(this.v6Keys, 2 * index + 2, v6Keys, 2 * index, this.v6Keys.length - 2 * index - 2);
+                    return new AddressTable(v4Keys, v4Nodes, v6Keys, remove(v6Nodes, index));
+                } else if (index >= 0) {
+                    final List<Integer>[] v6Nodes = this.v6Nodes.clone();
+                    v6Nodes[index] = nodes;
+                    return new AddressTable(v4Keys, v4Nodes, v6Keys, v6Nodes);
+                } else if (!nodes.isEmpty()) {
+                    final int position = -(index + 1);
+                    final long[] v6Keys = new long[this.v6Keys.length + 2];
+                    System.arraycopy(this.v6Keys, 0, v6Keys, 0, 2 * position);
+                    System.arraycopy(this.v6Keys, 2 * position, v6Keys, 2 * position + 2, this.v6Keys.length - 2 * position);
+                    v6Keys[2 * position] = upper;
+                    v6Keys[2 * position + 1] = lower;
+                    return new AddressTable(v4Keys, v4Nodes, v6Keys, insert(v6Nodes, position, nodes));
+                }
+            }
+            return this;
+        }
+
+        private boolean isEmpty() {
+            return v4Keys.length == 0 && v6Nodes.length == 0;
+        }
+
+        private static int[] remove(final int[] array, final int index) {
+            final int[] result = new int[array.length - 1];
+            System.arraycopy(array, 0, result, 0, index);
+            System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+            return result;
+        }
+
+        private static List<Integer>[] remove(final List<Integer>[] array, final int index) {
+            final List<Integer>[] result = new List[array.length - 1];
+            System.arraycopy(array, 0, result, 0, index);
+            System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+            return result;
+        }
+
+        private static List<Integer>[] insert(final List<Integer>[] array, final int index, final List<Integer> value) {
+            final List<Integer>[] result = new List[array.length + 1];
+            System.arraycopy(array, 0, result, 0, index);
+            System.arraycopy(array, index, result, index + 1, array.length - index);
+            result[index] = value;
+            return result;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the cache which is published atomically after each modification.
+     */
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(ImmutableMap.of(), 0);
+
+        private final Map<String, AddressTable> tables;
+        private final int size;
+
+        private Snapshot(final Map<String, AddressTable> tables, final int size) {
+            this.tables = tables;
+            this.size = size;
+        }
+    }
+
     @Autowired
     private NodeDao m_nodeDao;
 
@@ -185,9 +389,13 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     @Autowired
     private TransactionOperations transactionOperations;
 
-    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+    // Guards the modification of the managed addresses and the publication of new snapshots. Readers only use the
+    // snapshot and never lock.
+    private final Lock m_lock = new ReentrantLock();
     private final SortedSetMultimap<Key, Value> m_managedAddresses = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
 
+    private volatile Snapshot m_snapshot = Snapshot.EMPTY;
+
     private final Timer refreshTimer = new Timer(getClass().getSimpleName());
 
     // in ms
@@ -261,7 +469,7 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     }
 
     private void dataSourceSyncWithinTransaction() {
-        m_lock.writeLock().lock();
+        m_lock.lock();
         try {
             /*
              * Make a new list with which we'll replace the existing one, that way
@@ -287,10 +495,53 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
             }
             m_managedAddresses.clear();
             m_managedAddresses.putAll(newAlreadyDiscovered);
+            publishAll();
             LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_managedAddresses.size());
         } finally {
-            m_lock.writeLock().unlock();
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot from scratch. Must be called while holding the lock.
+     */
+    private void publishAll() {
+        final Map<String, Map<InetAddress, List<Integer>>> entries = new HashMap<>();
+        for (final Map.Entry<Key, Collection<Value>> entry : m_managedAddresses.asMap().entrySet()) {
+            entries.computeIfAbsent(entry.getKey().getLocation(), location -> new HashMap<>())
+                    .put(entry.getKey().getIpAddress(), toNodeIds(entry.getValue()));
+        }
+
+        final ImmutableMap.Builder<String, AddressTable> tables = ImmutableMap.builder();
+        for (final Map.Entry<String, Map<InetAddress, List<Integer>>> entry : entries.entrySet()) {
+            tables.put(entry.getKey(), AddressTable.build(entry.getValue()));
         }
+        m_snapshot = new Snapshot(tables.build(), m_managedAddresses.size());
+    }
+
+    /**
+     * Publishes a new snapshot with the given keys updated. Must be called while holding the lock.
+     */
+    private void publish(final Collection<Key> keys) {
+        final Map<String, AddressTable> tables = new HashMap<>(m_snapshot.tables);
+        for (final Key key : keys) {
+            final AddressTable table = tables.getOrDefault(key.getLocation(), AddressTable.EMPTY)
+                    .with(key.getIpAddress(), toNodeIds(m_managedAddresses.get(key)));
+            if (table.isEmpty()) {
+                tables.remove(key.getLocation());
+            } else {
+                tables.put(key.getLocation(), table);
+            }
+        }
+        m_snapshot = new Snapshot(ImmutableMap.copyOf(tables), m_managedAddresses.size());
+    }
+
+    private static List<Integer> toNodeIds(final Collection<Value> values) {
+        final ImmutableList.Builder<Integer> nodeIds = ImmutableList.builder();
+        for (final Value value : values) {
+            nodeIds.add(value.getNodeId());
+        }
+        return nodeIds.build();
     }
 
     /**
@@ -303,18 +554,16 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
      * @return The node ID of the IP Address if known.
      */
     @Override
-    public synchronized Iterable<Integer> getNodeId(final String location, final InetAddress address) {
+    public Iterable<Integer> getNodeId(final String location, final InetAddress address) {
         if (address == null) {
             return Collections.emptySet();
         }
 
-        m_lock.readLock().lock();
-        try {
-            return Iterables.transform(m_managedAddresses.get(new Key(location, address)),
-                    Value::getNodeId);
-        } finally {
-            m_lock.readLock().unlock();
+        final AddressTable table = m_snapshot.tables.get(LocationUtils.getEffectiveLocationName(location));
+        if (table == null) {
+            return Collections.emptySet();
         }
+        return table.get(address);
     }
 
     /**
@@ -338,11 +587,16 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("setNodeId: adding IP address to cache: {}:{} -> {}", location, str(addr), nodeid);
 
-        m_lock.writeLock().lock();
+        m_lock.lock();
         try {
-            return m_managedAddresses.put(new Key(location, addr), new Value(nodeid, iface.getIsSnmpPrimary()));
+            final Key key = new Key(location, addr);
+            if (m_managedAddresses.put(key, new Value(nodeid, iface.getIsSnmpPrimary()))) {
+                publish(Collections.singleton(key));
+                return true;
+            }
+            return false;
         } finally {
-            m_lock.writeLock().unlock();
+            m_lock.unlock();
         }
     }
 
@@ -361,34 +615,80 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("removeNodeId: removing IP address from cache: {}:{}", location, str(address));
 
-        m_lock.writeLock().lock();
+        m_lock.lock();
         try {
             final Key key = new Key(location, address);
-            return m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.PRIMARY)) ||
+            if (m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.PRIMARY)) ||
                     m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.SECONDARY)) ||
-                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.NOT_ELIGIBLE));
+                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.NOT_ELIGIBLE))) {
+                publish(Collections.singleton(key));
+                return true;
+            }
+            return false;
         } finally {
-            m_lock.writeLock().unlock();
+            m_lock.unlock();
         }
     }
 
+    /**
+     * Replaces all addresses of the given node with the interfaces currently
+     * stored in the database. All addresses of the node are removed if the
+     * node does not exist anymore.
+     *
+     * @param nodeId The Node ID to refresh.
+     */
     @Override
-    public int size() {
-        m_lock.readLock().lock();
+    @Transactional
+    public void refreshNode(final int nodeId) {
+        final OnmsNode node = m_nodeDao.get(nodeId);
+
+        final Map<Key, Value> entries = new HashMap<>();
+        if (node != null && node.getType() != NodeType.DELETED) {
+            for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                // Skip deleted interfaces
+                if ("D".equals(iface.getIsManaged())) {
+                    continue;
+                }
+                entries.put(new Key(node.getLocation().getLocationName(), iface.getIpAddress()), new Value(nodeId, iface.getIsSnmpPrimary()));
+            }
+        }
+
+        LOG.debug("refreshNode: updating node {} with {} IP addresses", nodeId, entries.size());
+
+        m_lock.lock();
         try {
-            return m_managedAddresses.size();
+            final Set<Key> modified = new HashSet<>(entries.keySet());
+            for (final Iterator<Map.Entry<Key, Value>> it = m_managedAddresses.entries().iterator(); it.hasNext(); ) {
+                final Map.Entry<Key, Value> entry = it.next();
+                if (entry.getValue().getNodeId() == nodeId) {
+                    modified.add(entry.getKey());
+                    it.remove();
+                }
+            }
+            entries.forEach(m_managedAddresses::put);
+            if (modified.size() > MAX_INCREMENTAL_UPDATES) {
+                publishAll();
+            } else {
+                publish(modified);
+            }
         } finally {
-            m_lock.readLock().unlock();
+            m_lock.unlock();
         }
     }
 
+    @Override
+    public int size() {
+        return m_snapshot.size;
+    }
+
     @Override
     public void clear() {
-        m_lock.writeLock().lock();
+        m_lock.lock();
         try {
             m_managedAddresses.clear();
+            m_snapshot = Snapshot.EMPTY;
         } finally {
-            m_lock.writeLock().unlock();
+            m_lock.unlock();
         }
     }
 }
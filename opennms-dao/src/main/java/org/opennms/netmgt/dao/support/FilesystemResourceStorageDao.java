@@ -124,6 +124,15 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         }
     }
 
+    @Override
+    public void setStringAttributes(ResourcePath path, Map<String, String> attributes) {
+        try {
+            RrdResourceAttributeUtils.updateStringProperties(toPath(path).toFile(), attributes);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     public String getStringAttribute(ResourcePath path, String key) {
         return RrdResourceAttributeUtils.getStringProperty(toPath(path).toFile(), key);
@@ -133,4 +133,24 @@ public class InterfaceToNodeCacheEventProcessor implements InitializingBean {
         m_cache.removeNodeId(oldNode.getLocation().getLocationName(), event.getInterfaceAddress(), oldNode.getId());
         m_cache.setNodeId(newNode.getLocation().getLocationName(), event.getInterfaceAddress(), newNode.getId());
     }
+
+    /**
+     * Node updates may change the location or the primary interface of the node, so all addresses of the node are
+     * reloaded.
+     */
+    @EventHandler(ueis={
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI
+    })
+    @Transactional
+    public void handleNodeChanged(Event event) {
+        LOG.debug("Received event: {}", event.getUei());
+        Long nodeId = event.getNodeid();
+        if (nodeId == null) {
+            LOG.error(event.getUei() + ": Event with no node ID: " + event.toString());
+            return;
+        }
+        m_cache.refreshNode(nodeId.intValue());
+    }
 }
@@ -238,6 +238,36 @@ public abstract class RrdResourceAttributeUtils {
         s_cache.setProperty(propertiesFile, attrName, attrVal);
     }
 
+    /**
+     * Updates all of the given attributes in the strings.properties file of
+     * the resource with a single write. The file is left untouched if all of
+     * the values are already present.
+     *
+     * @param resourceDir a {@link java.io.File} object.
+     * @param attributes a {@link java.util.Map} object.
+     * @throws java.io.IOException if any.
+     */
+    protected static void updateStringProperties(File resourceDir, Map<String, String> attributes) throws IOException {
+        File propertiesFile = new File(resourceDir, STRINGS_PROPERTIES_FILE_NAME);
+        s_cache.updateProperties(propertiesFile, attributes);
+    }
+
+    /**
+     * @return the number of properties files (strings.properties, ds.properties)
+     * written since startup
+     */
+    public static long getNumPropertiesWrites() {
+        return s_cache.getNumWrites();
+    }
+
+    /**
+     * @return the number of properties file updates that were skipped since
+     * the file already contained the given values
+     */
+    public static long getNumPropertiesWritesAvoided() {
+        return s_cache.getNumAvoidedWrites();
+    }
+
     /**
      * <p>getStringProperty</p>
      *
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.opennms.netmgt.dao.api.IpInterfaceDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.PrimaryType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of concurrent lookups in the {@link InterfaceToNodeCacheDaoImpl}, as done by Syslogd,
+ * Trapd, Telemetryd and the flow enrichment for every message.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.dao.hibernate.InterfaceToNodeCacheBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterfaceToNodeCacheBenchmark {
+
+    private static final int ADDRESSES = 10000;
+
+    private InterfaceToNodeCacheDaoImpl cache;
+
+    private InetAddress[] addresses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        private int next(int length) {
+            index = (index + 1) % length;
+            return index;
+        }
+    }
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        final OnmsIpInterface iface = new OnmsIpInterface();
+        iface.setIsSnmpPrimary(PrimaryType.PRIMARY);
+        final IpInterfaceDao ipInterfaceDao = EasyMock.createNiceMock(IpInterfaceDao.class);
+        EasyMock.expect(ipInterfaceDao.findByNodeIdAndIpAddress(EasyMock.anyInt(), EasyMock.anyString())).andReturn(iface).anyTimes();
+        EasyMock.replay(ipInterfaceDao);
+
+        cache = new InterfaceToNodeCacheDaoImpl();
+        cache.setIpInterfaceDao(ipInterfaceDao);
+
+        addresses = new InetAddress[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+            cache.setNodeId("Default", addresses[i], i + 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Optional<Integer> lookup(Cursor cursor) {
+        return cache.getFirstNodeId("Default", addresses[cursor.next(ADDRESSES)]);
+    }
+
+    @Benchmark
+    @Group("lookupWithUpdates")
+    @GroupThreads(31)
+    public Optional<Integer> lookupWithUpdates(Cursor cursor) {
+        return cache.getFirstNodeId("Default", addresses[cursor.next(ADDRESSES)]);
+    }
+
+    @Benchmark
+    @Group("lookupWithUpdates")
+    @GroupThreads(1)
+    public boolean update(Cursor cursor) {
+        final int index = cursor.next(ADDRESSES);
+        cache.removeNodeId("Default", addresses[index], index + 1);
+        return cache.setNodeId("Default", addresses[index], index + 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(InterfaceToNodeCacheBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
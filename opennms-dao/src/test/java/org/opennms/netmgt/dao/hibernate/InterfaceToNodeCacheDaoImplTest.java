@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.IpInterfaceDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.PrimaryType;
+
+import com.google.common.collect.Lists;
+
+public class InterfaceToNodeCacheDaoImplTest {
+
+    private final Map<String, PrimaryType> m_primaryTypes = new HashMap<>();
+
+    private InterfaceToNodeCacheDaoImpl m_cache;
+
+    @Before
+    public void setUp() {
+        final IpInterfaceDao ipInterfaceDao = EasyMock.createNiceMock(IpInterfaceDao.class);
+        EasyMock.expect(ipInterfaceDao.findByNodeIdAndIpAddress(EasyMock.anyInt(), EasyMock.anyString())).andAnswer(() -> {
+            final OnmsIpInterface iface = new OnmsIpInterface();
+            iface.setIsSnmpPrimary(m_primaryTypes.getOrDefault(EasyMock.getCurrentArguments()[0] + "/" + EasyMock.getCurrentArguments()[1], PrimaryType.NOT_ELIGIBLE));
+            return iface;
+        }).anyTimes();
+        EasyMock.replay(ipInterfaceDao);
+
+        m_cache = new InterfaceToNodeCacheDaoImpl();
+        m_cache.setIpInterfaceDao(ipInterfaceDao);
+    }
+
+    @Test
+    public void testIpv4AndIpv6Lookups() {
+        for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(m_cache.setNodeId("Default", addr("10.0." + (i % 7) + "." + i), i));
+            Assert.assertTrue(m_cache.setNodeId("Default", addr("fe80::" + Integer.toHexString(i * 31)), i));
+        }
+        Assert.assertEquals(200, m_cache.size());
+
+        for (int i = 1; i <= 100; i++) {
+            Assert.assertEquals(Lists.newArrayList(i), Lists.newArrayList(m_cache.getNodeId("Default", addr("10.0." + (i % 7) + "." + i))));
+            Assert.assertEquals(Lists.newArrayList(i), Lists.newArrayList(m_cache.getNodeId("Default", addr("fe80::" + Integer.toHexString(i * 31)))));
+        }
+
+        Assert.assertFalse(m_cache.getNodeId("Default", addr("10.0.0.200")).iterator().hasNext());
+        Assert.assertFalse(m_cache.getNodeId("Default", addr("fe80::1")).iterator().hasNext());
+        Assert.assertFalse(m_cache.getNodeId(null, null).iterator().hasNext());
+    }
+
+    @Test
+    public void testLocations() {
+        m_cache.setNodeId(null, addr("192.168.1.1"), 1);
+        m_cache.setNodeId("Remote", addr("192.168.1.1"), 2);
+
+        // A null location is the default location
+        Assert.assertEquals(Integer.valueOf(1), m_cache.getFirstNodeId("Default", addr("192.168.1.1")).get());
+        Assert.assertEquals(Integer.valueOf(1), m_cache.getFirstNodeId(null, addr("192.168.1.1")).get());
+        Assert.assertEquals(Integer.valueOf(2), m_cache.getFirstNodeId("Remote", addr("192.168.1.1")).get());
+        Assert.assertFalse(m_cache.getFirstNodeId("Other", addr("192.168.1.1")).isPresent());
+    }
+
+    @Test
+    public void testOrderingAndRemoval() {
+        m_primaryTypes.put("3/192.168.1.1", PrimaryType.PRIMARY);
+        m_primaryTypes.put("2/192.168.1.1", PrimaryType.SECONDARY);
+
+        m_cache.setNodeId("Default", addr("192.168.1.1"), 1);
+        m_cache.setNodeId("Default", addr("192.168.1.1"), 2);
+        m_cache.setNodeId("Default", addr("192.168.1.1"), 3);
+
+        Assert.assertEquals(Lists.newArrayList(3, 2, 1), Lists.newArrayList(m_cache.getNodeId("Default", addr("192.168.1.1"))));
+
+        // Previously returned results are not affected by modifications
+        final Iterable<Integer> before = m_cache.getNodeId("Default", addr("192.168.1.1"));
+        Assert.assertTrue(m_cache.removeNodeId("Default", addr("192.168.1.1"), 3));
+        Assert.assertFalse(m_cache.removeNodeId("Default", addr("192.168.1.1"), 3));
+        Assert.assertEquals(Lists.newArrayList(3, 2, 1), Lists.newArrayList(before));
+        Assert.assertEquals(Lists.newArrayList(2, 1), Lists.newArrayList(m_cache.getNodeId("Default", addr("192.168.1.1"))));
+
+        m_cache.removeNodeId("Default", addr("192.168.1.1"), 2);
+        m_cache.removeNodeId("Default", addr("192.168.1.1"), 1);
+        Assert.assertFalse(m_cache.getNodeId("Default", addr("192.168.1.1")).iterator().hasNext());
+        Assert.assertEquals(0, m_cache.size());
+
+        m_cache.setNodeId("Default", addr("192.168.1.1"), 1);
+        m_cache.clear();
+        Assert.assertEquals(0, m_cache.size());
+        Assert.assertFalse(m_cache.getNodeId("Default", addr("192.168.1.1")).iterator().hasNext());
+    }
+}
@@ -34,6 +34,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
@@ -45,6 +46,8 @@ import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 
+import com.google.common.collect.ImmutableMap;
+
 public class FilesystemResourceStorageDaoTest {
 
     private FilesystemResourceStorageDao m_fsResourceStorageDao = new FilesystemResourceStorageDao();
@@ -150,4 +153,18 @@ public class FilesystemResourceStorageDaoTest {
         Set<OnmsAttribute> attributes = m_fsResourceStorageDao.getAttributes(ResourcePath.get("a"));
         assertEquals(1, attributes.size());
     }
+
+    @Test
+    public void setStringAttributes() throws IOException {
+        File subFolder = tempFolder.newFolder("a");
+        m_fsResourceStorageDao.setStringAttributes(ResourcePath.get("a"), ImmutableMap.of("ifName", "eth0", "ifAlias", "uplink"));
+        assertTrue(new File(subFolder, RrdResourceAttributeUtils.STRINGS_PROPERTIES_FILE_NAME).canRead());
+
+        m_fsResourceStorageDao.setStringAttributes(ResourcePath.get("a"), ImmutableMap.of("ifAlias", "downlink"));
+
+        Map<String, String> attributes = m_fsResourceStorageDao.getStringAttributes(ResourcePath.get("a"));
+        assertEquals(2, attributes.size());
+        assertEquals("eth0", attributes.get("ifName"));
+        assertEquals("downlink", attributes.get("ifAlias"));
+    }
 }
@@ -31,15 +31,26 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -56,6 +67,11 @@ import org.slf4j.LoggerFactory;
  * a per file basis and maintains a set of threads that process enqueued work
  * file by file.
  *
+ * Each write thread owns a shard of the files, selected by the hash of the file
+ * name. The collection threads hand the operations over to the shard through a
+ * lock free queue and only the write thread touches the pending work of its
+ * shard, so adding write threads doesn't add contention.
+ *
  * If the I/O system can keep up with the collection threads while performing
  * only a single update per file then eventually all the data is processed and
  * the threads sleep until there is more work to do.
@@ -80,7 +96,7 @@ import org.slf4j.LoggerFactory;
  * System properties effecting the operation:
  *
  * org.opennms.rrd.queuing.writethreads: (default 2) The number of rrd write
- * threads that process the queue
+ * threads, and shards, that process the queue
  *
  * org.opennms.rrd.queuing.queueCreates: (default false) indicates whether rrd
  * file creates should be queued or processed synchronously
@@ -109,7 +125,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String> {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
@@ -357,41 +373,33 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
-
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
-
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
-
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
-
-    Set<String> reservedFiles = new HashSet<String>();
-
-    private long m_totalOperationsPending = 0;
-
-    private long m_enqueuedOperations = 0;
+    /**
+     * The queues of the write threads, the operations of a file are always
+     * handled by the same shard.
+     */
+    private volatile WriteShard[] m_shards;
 
-    private long m_dequeuedOperations = 0;
+    private final LongAdder m_enqueuedOperations = new LongAdder();
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong(0);
 
-    private long m_significantOpsDequeued = 0;
+    private final LongAdder m_significantOpsEnqueued = new LongAdder();
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong(0);
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong(0);
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong(0);
 
-    private long m_updatesCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong(0);
 
-    private long m_errors = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong(0);
 
-    int threadsRunning = 0;
+    private final AtomicLong m_errors = new AtomicLong(0);
 
-    private long m_startTime = 0;
+    private volatile long m_startTime = 0;
 
-    private long m_promotionCount = 0;
+    private final AtomicLong m_promotionCount = new AtomicLong(0);
 
     long lastLap = System.currentTimeMillis();
 
@@ -419,6 +427,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         final int type;
         final Object data;
         final boolean significant;
+        final long enqueueTime = System.currentTimeMillis();
 
         Operation(final String fileName, final int type, final Object data, final boolean significant) {
             this.fileName = fileName;
@@ -477,7 +486,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData());
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -516,8 +525,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -563,8 +571,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -673,8 +680,6 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
-    //
 
     /**
      * Add an operation to the queue.
@@ -682,31 +687,30 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
     private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            storeAssignment(op);
+        // initialize start time for stats
+        if (getStartTime() == 0)
+            setStartTime(System.currentTimeMillis());
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
-            notifyAll();
-            ensureThreadsStarted();
-        }
+        m_enqueuedOperations.increment();
+        if (op.isSignificant())
+            m_significantOpsEnqueued.increment();
+
+        getShard(op.getFileName()).add(op);
     }
 
 
@@ -732,198 +736,310 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     }
 
     /**
-     * Ensure that we have threads started to process the queue.
+     * Create the shards on first use, once the number of write threads is known.
+     */
+    private WriteShard[] getShards() {
+        WriteShard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    shards = new WriteShard[Math.max(m_writeThreads, 1)];
+                    for (int i = 0; i < shards.length; i++) {
+                        shards[i] = new WriteShard(i + 1);
+                    }
+                    m_shards = shards;
+                }
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Return the shard that processes the operations of the given file.
+     */
+    private WriteShard getShard(final String fileName) {
+        final WriteShard[] shards = getShards();
+        // file names tend to differ only in their last characters, so spread the hash
+        int hash = fileName.hashCode();
+        hash ^= (hash >>> 16);
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * The operations pending for a single file.
      */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+    private static class PendingFile {
+        final LinkedList<Operation> operations = new LinkedList<Operation>();
+        final long enqueueTime;
+        boolean significant = false;
+
+        PendingFile(final long enqueueTime) {
+            this.enqueueTime = enqueueTime;
         }
     }
 
     /**
-     * Get the operations for the next file that should be worked on.
+     * The queue of a single write thread.
      *
-     * @return a linkedList of operations to be processed all for the same file.
+     * Operations are handed over through a lock free queue and moved to the
+     * pending work of their file by the write thread, which is the only thread
+     * that touches the pending work. This way we don't need to track which
+     * files are being processed by which threads, and the write threads never
+     * wait for each other or for the collection threads.
      */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
+    class WriteShard implements Runnable {
+        private final int m_index;
 
-            // turn in our previous assignment
-            completeAssignment();
+        private final Queue<Operation> m_incoming = new ConcurrentLinkedQueue<>();
 
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                }
-            }
+        private final Queue<Collection<String>> m_promotionRequests = new ConcurrentLinkedQueue<>();
 
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
+        private final AtomicBoolean m_running = new AtomicBoolean(false);
 
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
+        private final AtomicLong m_depth = new AtomicLong(0);
 
-            // keep stats
-            if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
-                    if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
-                    }
-                }
-                setDequeuedItems(getDequeuedItems() + 1);
-            }
-        }
+        private volatile Thread m_thread;
 
-        return ops;
+        private volatile boolean m_parked = false;
 
-    }
+        private volatile long m_oldestPendingTime = 0;
 
-    /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
-     */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
+        volatile int m_significantFileCount = 0;
+
+        volatile int m_insignificantFileCount = 0;
 
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
+        // Only accessed by the write thread, in the order the files were first enqueued
+        private final Map<String, PendingFile> m_pendingFiles = new LinkedHashMap<>();
 
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
+        private final Deque<String> m_filesWithSignificantWork = new ArrayDeque<>();
+
+        private final Deque<String> m_filesWithInsignificantWork = new ArrayDeque<>();
+
+        private long m_promoted = 0;
+
+        WriteShard(final int index) {
+            m_index = index;
         }
 
-        promoteAgedFiles();
+        long getDepth() {
+            return m_depth.get();
+        }
 
-        op.addToPendingList(pendingOperations);
-    }
+        long getAge(final long now) {
+            long oldest = m_oldestPendingTime;
+            final Operation next = m_incoming.peek();
+            if (next != null && (oldest == 0 || next.enqueueTime < oldest)) {
+                oldest = next.enqueueTime;
+            }
+            return oldest == 0 ? 0 : Math.max(now - oldest, 0);
+        }
 
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
+        void add(final Operation op) {
+            m_depth.incrementAndGet();
+            m_incoming.offer(op);
+            wakeUp();
+        }
 
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
+        void promote(final Collection<String> rrdFiles) {
+            m_promotionRequests.offer(rrdFiles);
+            wakeUp();
+        }
 
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
+        /**
+         * Ensure that we have a thread started to process the queue.
+         */
+        private void wakeUp() {
+            if (m_running.compareAndSet(false, true)) {
+                new Thread(this, QueuingRrdStrategy.this.getClass().getSimpleName() + "-" + m_index).start();
+            } else if (m_parked) {
+                LockSupport.unpark(m_thread);
+            }
+        }
 
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
-
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
-
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
-
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+        private boolean isIdle() {
+            return m_incoming.isEmpty() && m_promotionRequests.isEmpty();
         }
 
-    }
+        @Override
+        public void run() {
+            m_thread = Thread.currentThread();
+            boolean exited = false;
+            try {
+                long waitStart = -1L;
+                while (true) {
+                    drainIncoming();
+                    final PendingFile file = takeNext();
+                    if (file != null) {
+                        waitStart = -1L;
+                        process(file);
+                        continue;
+                    }
 
-    /** {@inheritDoc} */
-    @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
-        m_delegate.promoteEnqueuedFiles(rrdFiles);
-    }
+                    final long now = System.currentTimeMillis();
+                    if (waitStart < 0) {
+                        waitStart = now;
+                    } else if (now - waitStart >= m_writeThreadExitDelay) {
+                        m_running.set(false);
+                        // Keep going if work was added in the meantime and no other thread was started for it
+                        if (isIdle() || !m_running.compareAndSet(false, true)) {
+                            exited = true;
+                            return;
+                        }
+                        waitStart = -1L;
+                        continue;
+                    }
 
-    /**
-     * Return true if and only if all the operations in the list are
-     * insignificant
-     */
-    private boolean hasOnlyInsignificant(List<Operation> pendingOps) {
-        for(Operation op : pendingOps) {
+                    m_parked = true;
+                    if (isIdle()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(m_writeThreadSleepTime, 1)));
+                    }
+                    m_parked = false;
+                }
+            } finally {
+                if (!exited) {
+                    m_running.set(false);
+                }
+            }
+        }
+
+        /**
+         * Move the enqueued operations to the pending work of their file.
+         */
+        private void drainIncoming() {
+            Collection<String> promotedFiles;
+            while ((promotedFiles = m_promotionRequests.poll()) != null) {
+                // keep the files in the order they were given
+                final List<String> files = new ArrayList<>(promotedFiles);
+                for (final ListIterator<String> it = files.listIterator(files.size()); it.hasPrevious();) {
+                    m_filesWithSignificantWork.addFirst(it.previous());
+                }
+            }
+
+            Operation op;
+            while ((op = m_incoming.poll()) != null) {
+                storeOperation(op);
+            }
+            publishState();
+        }
+
+        private void storeOperation(final Operation op) {
+            // look and see if there a pending ops list for this file
+            PendingFile pendingFile = m_pendingFiles.get(op.getFileName());
+
+            // if not then we create an ops list for the file and add the file to
+            // the work items list
+            if (pendingFile == null) {
+                pendingFile = new PendingFile(op.enqueueTime);
+                m_pendingFiles.put(op.getFileName(), pendingFile);
+
+                // add the file to the correct list based on what type of work we
+                // are adding.  (if we aren't prioritizing then every file is counted as
+                // signficant
+                if (!m_prioritizeSignificantUpdates || op.isSignificant())
+                    m_filesWithSignificantWork.addLast(op.getFileName());
+                else
+                    m_filesWithInsignificantWork.addLast(op.getFileName());
+            } else if (m_prioritizeSignificantUpdates && op.isSignificant() && !pendingFile.significant) {
+                // only do this when we are prioritizing as this bumps files from inSig
+                // up to insig
+                // promote the file to the significant list if this is the first
+                // significant
+                m_filesWithSignificantWork.addLast(op.getFileName());
+            }
             if (op.isSignificant()) {
-                return false;
+                pendingFile.significant = true;
             }
+
+            promoteAgedFiles();
+
+            op.addToPendingList(pendingFile.operations);
         }
-        return true;
-    }
 
-    /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
-     */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
+        /**
+         * Ensure that files with insignificant changes are getting promoted if
+         * necessary
+         */
+        private void promoteAgedFiles() {
 
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
+            // no need to do this is we aren't prioritizing
+            if (!m_prioritizeSignificantUpdates) return;
 
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
-    }
+            // the num seconds to update files is 0 then use unfair prioritization
+            if (m_maxInsigUpdateSeconds == 0 || m_filesWithInsignificantWork.isEmpty())
+                return;
 
-    /**
-     * Return the name of the next file with available work
-     */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+            // calculate the elapsed time we first queued updates
+            long now = System.currentTimeMillis();
+            long elapsedMillis = Math.max(now - getStartTime(), 1);
+
+            // calculate the milliseconds between promotions necessary to age
+            // insignificant files of this shard into the significant queue
+            double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / m_filesWithInsignificantWork.size());
+
+            // calculate the number of millis since start until the next file needs
+            // to be promotoed
+            long nextPromotionMillis = (long) (millisPerPromotion * m_promoted);
+
+            // if more time has elapsed than the next promotion time then promote a
+            // file
+            if (elapsedMillis > nextPromotionMillis) {
+                String file = m_filesWithInsignificantWork.removeFirst();
+                m_filesWithSignificantWork.addFirst(file);
+                m_promoted++;
+                m_promotionCount.incrementAndGet();
             }
+
         }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+
+        /**
+         * Return the pending work of the next file, significant work first.
+         */
+        private PendingFile takeNext() {
+            String fileName;
+            while ((fileName = pollFileName()) != null) {
+                // files can be listed more than once when they were promoted
+                final PendingFile pendingFile = m_pendingFiles.remove(fileName);
+                if (pendingFile != null) {
+                    return pendingFile;
+                }
             }
+            return null;
         }
-        return null;
-    }
 
-    /**
-     * Record that fact that the current thread has finished process operations
-     * for its current assignment
-     */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+        private String pollFileName() {
+            final String fileName = m_filesWithSignificantWork.pollFirst();
+            return fileName != null ? fileName : m_filesWithInsignificantWork.pollFirst();
+        }
+
+        private void process(final PendingFile pendingFile) {
+            // keep stats
+            long count = 0;
+            long significantCount = 0;
+            for (final Operation op : pendingFile.operations) {
+                count += op.getCount();
+                if (op.isSignificant()) {
+                    significantCount += op.getCount();
+                }
+            }
+            m_depth.addAndGet(-count);
+            m_dequeuedOperations.addAndGet(count);
+            m_significantOpsDequeued.addAndGet(significantCount);
+            m_dequeuedItems.incrementAndGet();
+            publishState();
+
+            processPendingOperations(pendingFile.operations);
+        }
+
+        /**
+         * Make the state of the shard visible to the statistics.
+         */
+        private void publishState() {
+            m_significantFileCount = m_filesWithSignificantWork.size();
+            m_insignificantFileCount = m_filesWithInsignificantWork.size();
+            final Iterator<PendingFile> it = m_pendingFiles.values().iterator();
+            m_oldestPendingTime = it.hasNext() ? it.next().enqueueTime : 0;
+        }
     }
 
     /**
@@ -1049,65 +1165,37 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_delegate.createGraph(command, workDir);
     }
 
-    //
-    // These methods are run by the write threads the process the queues.
-    //
-
-    /**
-     * <p>run</p>
-     */
+    /** {@inheritDoc} */
     @Override
-    public void run() {
-        try {
-
-            long waitStart = -1L;
-            long delayed = 0;
-            while (delayed < m_writeThreadExitDelay) {
-                if (getTotalOperationsPending() > 0) {
-                    delayed = 0;
-                    waitStart = -1L;
-                    processPendingOperations();
-                } else {
-                    if (waitStart < 0) {
-                        waitStart = System.currentTimeMillis();
-                    }
-                    try {
-                        Thread.sleep(m_writeThreadSleepTime);
-                    } catch (InterruptedException e) {
-                    }
-                    long now = System.currentTimeMillis();
-                    delayed = now - waitStart;
-                }
-
-            }
-        } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        final Map<WriteShard, List<String>> filesByShard = new HashMap<>();
+        for (final String rrdFile : rrdFiles) {
+            filesByShard.computeIfAbsent(getShard(rrdFile), s -> new ArrayList<>()).add(rrdFile);
         }
+        filesByShard.forEach(WriteShard::promote);
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
+    //
+    // These methods are run by the write threads the process the queues.
+    //
+
     /**
      * Actually process the operations be calling the underlying delegate
      * strategy
      */
-    private void processPendingOperations() {
+    private void processPendingOperations(final List<Operation> ops) {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
                 Object rrd = null;
                 String fileName = null;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
                     // update stats correctly we update them even if an exception occurs
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
@@ -1117,7 +1205,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
@@ -1135,7 +1223,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1148,7 +1236,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a {@link java.lang.String} object.
      */
     @Override
-    public String getStats() {
+    public synchronized String getStats() {
         long now = System.currentTimeMillis();
 
         long currentElapsedMillis = Math.max(now - lastStatsTime, 1);
@@ -1181,8 +1269,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + getFilesWithSignificantWork() +
+                ", filesWithInsignificantWork=" + getFilesWithInsignificantWork()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1201,7 +1289,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ", overallItemDequeRate=" + overallItemDequeueRate +
                 ", overallOpsPerUpdate=" + (getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0)) +
                 ", overallPrcntSignificant=" + (getSignificantOpsEnqueued() * 100.0 / Math.max(getEnqueuedOperations(), 1.0)) + "%" +
-                ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000);
+                ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000)
+
+                + "\nQS:\t" + ", shardDepths=" + Arrays.toString(getShardDepths()) +
+                ", shardAges=" + Arrays.toString(getShardAges());
 
         lastStatsTime = now;
         lastEnqueued = getEnqueuedOperations();
@@ -1297,16 +1388,72 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        final WriteShard[] shards = m_shards;
+        long pending = 0;
+        if (shards != null) {
+            for (final WriteShard shard : shards) {
+                pending += shard.getDepth();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the number of operations waiting in the queue of each write thread.
+     *
+     * @return a long array, empty until the first operation is enqueued.
+     */
+    public long[] getShardDepths() {
+        final WriteShard[] shards = m_shards;
+        if (shards == null) {
+            return new long[0];
+        }
+        final long[] depths = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].getDepth();
+        }
+        return depths;
     }
 
     /**
-     * <p>setTotalOperationsPending</p>
+     * Returns how long the oldest operation waiting in the queue of each write
+     * thread has been enqueued, in milliseconds.
      *
-     * @param totalOperationsPending a long.
+     * @return a long array, empty until the first operation is enqueued.
      */
-    public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+    public long[] getShardAges() {
+        final WriteShard[] shards = m_shards;
+        if (shards == null) {
+            return new long[0];
+        }
+        final long now = System.currentTimeMillis();
+        final long[] ages = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            ages[i] = shards[i].getAge(now);
+        }
+        return ages;
+    }
+
+    private int getFilesWithSignificantWork() {
+        final WriteShard[] shards = m_shards;
+        int files = 0;
+        if (shards != null) {
+            for (final WriteShard shard : shards) {
+                files += shard.m_significantFileCount;
+            }
+        }
+        return files;
+    }
+
+    private int getFilesWithInsignificantWork() {
+        final WriteShard[] shards = m_shards;
+        int files = 0;
+        if (shards != null) {
+            for (final WriteShard shard : shards) {
+                files += shard.m_insignificantFileCount;
+            }
+        }
+        return files;
     }
 
     /**
@@ -1315,7 +1462,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1324,7 +1471,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1333,7 +1480,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1342,7 +1489,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1351,7 +1498,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1360,7 +1507,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1369,7 +1516,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1378,7 +1525,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1387,7 +1534,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.sum();
     }
 
     /**
@@ -1396,7 +1543,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.reset();
+        m_significantOpsEnqueued.add(significantOpsEnqueued);
     }
 
     /**
@@ -1405,7 +1553,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1414,7 +1562,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1423,7 +1571,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.sum();
     }
 
     /**
@@ -1432,7 +1580,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.reset();
+        m_enqueuedOperations.add(enqueuedOperations);
     }
 
     /**
@@ -1441,7 +1590,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1450,7 +1599,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1459,7 +1608,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1468,7 +1617,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1477,7 +1626,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1486,7 +1635,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
     }
 
     /**
@@ -60,7 +60,7 @@ public abstract class RrdMetaDataUtils {
     public static void createMetaDataFile(final String directory, final String rrdName, final Map<String, String> attributeMappings) {
         final File metaFile = new File(directory + File.separator + rrdName + ".meta");
 
-        LOG.info("createMetaDataFile: creating meta data file {} with values '{}'", metaFile, attributeMappings);
+        LOG.debug("createMetaDataFile: creating meta data file {} with values '{}'", metaFile, attributeMappings);
 
         try {
             if (metaFile.exists()) {
@@ -90,4 +90,19 @@ public abstract class RrdMetaDataUtils {
 
         return Collections.emptyMap();
     }
+
+    /**
+     * @return the number of .meta files written since startup
+     */
+    public static long getNumMetaDataWrites() {
+        return s_cache.getNumWrites();
+    }
+
+    /**
+     * @return the number of .meta file updates that were skipped since the
+     * file already contained the given mappings
+     */
+    public static long getNumMetaDataWritesAvoided() {
+        return s_cache.getNumAvoidedWrites();
+    }
 }
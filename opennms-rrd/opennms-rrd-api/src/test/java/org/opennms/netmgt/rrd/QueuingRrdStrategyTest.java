@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy.ZeroUpdateOperation;
+
+/**
+ * Verifies how the write shards of the {@link QueuingRrdStrategy} order, coalesce
+ * and hand over the operations to the delegate strategy.
+ */
+public class QueuingRrdStrategyTest {
+
+    private RecordingRrdStrategy m_delegate = new RecordingRrdStrategy();
+
+    @After
+    public void tearDown() {
+        // never leave a write thread blocked
+        m_delegate.release();
+    }
+
+    @Test
+    public void coalescesOperationsPerFileInOrder() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, false, 0);
+        blockWriteThread(strategy);
+
+        strategy.updateFile("a", "test", "1:1");
+        strategy.updateFile("a", "test", "2:2");
+        strategy.updateFile("b", "test", "1:1");
+        strategy.updateFile("a", "test", "3:3");
+        m_delegate.release();
+
+        await().until(() -> strategy.getUpdatesCompleted() == 5);
+        assertEquals(Arrays.asList(
+                "open blocker", "update blocker 1:1", "close blocker",
+                "open a", "update a 1:1", "update a 2:2", "update a 3:3", "close a",
+                "open b", "update b 1:1", "close b"), m_delegate.getCalls());
+        assertEquals(3, strategy.getDequeuedItems());
+        assertEquals(5, strategy.getDequeuedOperations());
+        assertEquals(0, strategy.getTotalOperationsPending());
+    }
+
+    @Test
+    public void mergesZeroUpdates() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, false, 0);
+
+        final LinkedList<Operation> pending = new LinkedList<>();
+        strategy.makeUpdateOperation("z", "test", "100:0").addToPendingList(pending);
+        strategy.makeUpdateOperation("z", "test", "400:0").addToPendingList(pending);
+        strategy.makeUpdateOperation("z", "test", "700:0").addToPendingList(pending);
+        assertEquals(1, pending.size());
+        final ZeroUpdateOperation merged = (ZeroUpdateOperation) pending.getFirst();
+        assertEquals(3, merged.getCount());
+        assertEquals(300, merged.getInterval());
+        assertFalse(merged.isSignificant());
+
+        // a gap that doesn't fit the interval starts a new operation
+        strategy.makeUpdateOperation("z", "test", "1600:0").addToPendingList(pending);
+        assertEquals(2, pending.size());
+        // updates with a value are never merged
+        strategy.makeUpdateOperation("z", "test", "1900:5").addToPendingList(pending);
+        strategy.makeUpdateOperation("z", "test", "2200:0").addToPendingList(pending);
+        assertEquals(4, pending.size());
+
+        // the merged operations are expanded again when they are written
+        blockWriteThread(strategy);
+        for (final String update : Arrays.asList("100:0", "400:0", "700:0", "1600:0", "1900:5", "2200:0")) {
+            strategy.updateFile("z", "test", update);
+        }
+        m_delegate.release();
+
+        await().until(() -> strategy.getUpdatesCompleted() == 7);
+        assertEquals(Arrays.asList("100:0", "400:0", "700:0", "1600:0", "1900:5", "2200:0"), m_delegate.getUpdates("z"));
+        assertEquals(7, strategy.getDequeuedOperations());
+        assertEquals(2, strategy.getDequeuedItems());
+    }
+
+    @Test
+    public void writesSignificantUpdatesFirst() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, true, 0);
+        blockWriteThread(strategy);
+
+        strategy.updateFile("z", "test", "100:0");
+        strategy.updateFile("x", "test", "100:0");
+        strategy.updateFile("s", "test", "100:5");
+        // the first significant update promotes the file
+        strategy.updateFile("x", "test", "400:7");
+        m_delegate.release();
+
+        await().until(() -> strategy.getUpdatesCompleted() == 5);
+        assertEquals(Arrays.asList("blocker", "s", "x", "z"), m_delegate.getOpenedFiles());
+        assertEquals(Arrays.asList("100:0", "400:7"), m_delegate.getUpdates("x"));
+        assertEquals(0, strategy.getPromotionCount());
+    }
+
+    @Test
+    public void promotesAgedInsignificantFiles() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, true, 1000);
+        blockWriteThread(strategy);
+
+        strategy.updateFile("z", "test", "100:0");
+        strategy.updateFile("x", "test", "100:0");
+        strategy.updateFile("s", "test", "100:5");
+        m_delegate.release();
+
+        await().until(() -> strategy.getUpdatesCompleted() == 4);
+        // the first insignificant file is due right away, the next one only after 1000 seconds
+        assertEquals(Arrays.asList("blocker", "z", "s", "x"), m_delegate.getOpenedFiles());
+        assertEquals(1, strategy.getPromotionCount());
+    }
+
+    @Test
+    public void promotesEnqueuedFiles() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, true, 0);
+        blockWriteThread(strategy);
+
+        strategy.updateFile("z", "test", "100:0");
+        strategy.updateFile("x", "test", "100:0");
+        strategy.updateFile("s", "test", "100:5");
+        strategy.promoteEnqueuedFiles(Arrays.asList("x"));
+        m_delegate.release();
+
+        await().until(() -> strategy.getUpdatesCompleted() == 4);
+        assertEquals(Arrays.asList("blocker", "x", "s", "z"), m_delegate.getOpenedFiles());
+        assertTrue(m_delegate.getCalls().contains("promote [x]"));
+    }
+
+    @Test
+    public void wakesUpParkedWriteThread() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, false, 0);
+        // long enough to fail the test if the thread is not woken up
+        strategy.setWriteThreadSleepTime(TimeUnit.SECONDS.toMillis(30));
+        strategy.setWriteThreadExitDelay(TimeUnit.SECONDS.toMillis(30));
+
+        strategy.updateFile("a", "test", "1:1");
+        await().until(() -> strategy.getUpdatesCompleted() == 1);
+        final Thread writeThread = m_delegate.getWriteThreads().get(0);
+        await().until(() -> writeThread.getState() == Thread.State.TIMED_WAITING);
+
+        strategy.updateFile("a", "test", "2:2");
+        await().atMost(5, TimeUnit.SECONDS).until(() -> strategy.getUpdatesCompleted() == 2);
+        assertEquals(1, m_delegate.getWriteThreads().size());
+        assertSame(writeThread, m_delegate.getWriteThreads().get(0));
+    }
+
+    @Test
+    public void handsOverWorkWhileWriteThreadsExit() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(2, false, 0);
+        // let the write threads exit as soon as they are idle
+        strategy.setWriteThreadSleepTime(1);
+        strategy.setWriteThreadExitDelay(0);
+
+        final int producers = 4;
+        final int filesPerProducer = 5;
+        final int updatesPerProducer = 1000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < updatesPerProducer; i++) {
+                        strategy.updateFile(producer + "-" + (i % filesPerProducer), "test", (i / filesPerProducer + 1) + ":1");
+                        if (i % 50 == 0) {
+                            Thread.sleep(1);
+                        }
+                    }
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        await().atMost(30, TimeUnit.SECONDS).until(() -> strategy.getUpdatesCompleted() == producers * updatesPerProducer);
+
+        // an operation enqueued while the write thread is about to exit must not be left behind
+        for (int i = 1; i <= 1000; i++) {
+            final int completed = producers * updatesPerProducer + i;
+            strategy.updateFile("last", "test", i + ":1");
+            await().atMost(5, TimeUnit.SECONDS).pollInterval(1, TimeUnit.MILLISECONDS).until(() -> strategy.getUpdatesCompleted() == completed);
+        }
+
+        assertEquals(0, strategy.getTotalOperationsPending());
+        assertFalse("a file was written by two threads at once", m_delegate.hasOverlap());
+
+        // every file got all of its updates in order
+        final List<String> expected = new ArrayList<>();
+        for (int ts = 1; ts <= updatesPerProducer / filesPerProducer; ts++) {
+            expected.add(ts + ":1");
+        }
+        for (int p = 0; p < producers; p++) {
+            for (int f = 0; f < filesPerProducer; f++) {
+                assertEquals(expected, m_delegate.getUpdates(p + "-" + f));
+            }
+        }
+    }
+
+    @Test
+    public void reportsShardDepthsAndAges() throws Exception {
+        final QueuingRrdStrategy strategy = createStrategy(1, false, 0);
+        assertEquals(0, strategy.getShardDepths().length);
+        assertEquals(0, strategy.getShardAges().length);
+
+        blockWriteThread(strategy);
+        final long enqueued = System.currentTimeMillis();
+        strategy.updateFile("a", "test", "1:1");
+        strategy.updateFile("a", "test", "2:2");
+        strategy.updateFile("b", "test", "1:1");
+        Thread.sleep(50);
+
+        assertArrayEquals(new long[] { 3 }, strategy.getShardDepths());
+        assertEquals(3, strategy.getTotalOperationsPending());
+        final long age = strategy.getShardAges()[0];
+        assertTrue("age " + age, age >= 50 && age <= System.currentTimeMillis() - enqueued);
+
+        m_delegate.release();
+        await().until(() -> strategy.getUpdatesCompleted() == 4);
+        assertArrayEquals(new long[] { 0 }, strategy.getShardDepths());
+        assertArrayEquals(new long[] { 0 }, strategy.getShardAges());
+
+        // there is one shard per write thread
+        final QueuingRrdStrategy sharded = createStrategy(3, false, 0);
+        sharded.updateFile("a", "test", "1:1");
+        assertEquals(3, sharded.getShardDepths().length);
+        assertEquals(3, sharded.getShardAges().length);
+    }
+
+    private QueuingRrdStrategy createStrategy(final int writeThreads, final boolean prioritize, final long maxInsigUpdateSeconds) {
+        final QueuingRrdStrategy strategy = new QueuingRrdStrategy(m_delegate);
+        strategy.setWriteThreads(writeThreads);
+        strategy.setPrioritizeSignificantUpdates(prioritize);
+        strategy.setMaxInsigUpdateSeconds(maxInsigUpdateSeconds);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(50);
+        strategy.setWriteThreadExitDelay(1000);
+        return strategy;
+    }
+
+    /**
+     * Keeps the (single) write thread busy, so the following operations queue up.
+     */
+    private void blockWriteThread(final QueuingRrdStrategy strategy) throws Exception {
+        m_delegate.blockOn("blocker");
+        strategy.updateFile("blocker", "test", "1:1");
+        m_delegate.awaitBlocked();
+    }
+
+    /**
+     * Records the calls made by the write threads.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final List<String> m_calls = new CopyOnWriteArrayList<>();
+        private final List<Thread> m_writeThreads = new CopyOnWriteArrayList<>();
+        private final Map<Object, AtomicInteger> m_openCounts = new ConcurrentHashMap<>();
+        private final AtomicBoolean m_overlap = new AtomicBoolean(false);
+        private final CountDownLatch m_blocked = new CountDownLatch(1);
+        private final CountDownLatch m_released = new CountDownLatch(1);
+        private volatile String m_blockedFile;
+
+        void blockOn(final String fileName) {
+            m_blockedFile = fileName;
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(m_blocked.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            m_released.countDown();
+        }
+
+        List<String> getCalls() {
+            return new ArrayList<>(m_calls);
+        }
+
+        List<String> getOpenedFiles() {
+            return m_calls.stream()
+                    .filter(call -> call.startsWith("open "))
+                    .map(call -> call.substring("open ".length()))
+                    .collect(Collectors.toList());
+        }
+
+        List<String> getUpdates(final String fileName) {
+            final String prefix = "update " + fileName + " ";
+            return m_calls.stream()
+                    .filter(call -> call.startsWith(prefix))
+                    .map(call -> call.substring(prefix.length()))
+                    .collect(Collectors.toList());
+        }
+
+        List<Thread> getWriteThreads() {
+            return new ArrayList<>(m_writeThreads);
+        }
+
+        boolean hasOverlap() {
+            return m_overlap.get();
+        }
+
+        @Override
+        public Object openFile(final String fileName) {
+            if (m_openCounts.computeIfAbsent(fileName, f -> new AtomicInteger()).incrementAndGet() > 1) {
+                m_overlap.set(true);
+            }
+            if (!m_writeThreads.contains(Thread.currentThread())) {
+                m_writeThreads.add(Thread.currentThread());
+            }
+            m_calls.add("open " + fileName);
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(final Object rrd, final String owner, final String data) {
+            m_calls.add("update " + rrd + " " + data);
+            if (rrd.equals(m_blockedFile)) {
+                m_blocked.countDown();
+                try {
+                    m_released.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void closeFile(final Object rrd) {
+            m_calls.add("close " + rrd);
+            m_openCounts.get(rrd).decrementAndGet();
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+            m_calls.add("promote " + rrdFiles);
+        }
+    }
+}
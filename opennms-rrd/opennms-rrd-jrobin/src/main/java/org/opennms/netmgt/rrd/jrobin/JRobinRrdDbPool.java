@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
+/**
+ * Keeps a bounded number of {@link RrdDb} handles open between updates, so that
+ * the header of a file is not parsed again every time it is updated.
+ *
+ * Handles are shared by all threads updating the same path and reference counted:
+ * every call to {@link #acquire(String)} must be matched by a call to
+ * {@link #release(RrdDb)}. When the pool grows beyond its capacity, the least
+ * recently used handles that are not in use are closed.
+ *
+ * Before a pooled handle is returned, the file is checked to still be the one that
+ * was opened, so that updates are never written to a file that was deleted or
+ * replaced in the meantime.
+ */
+public class JRobinRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    /**
+     * Used as the key of files that do not exist.
+     */
+    private static final Object MISSING = new Object();
+
+    private static class Entry {
+        private final String m_path;
+        private RrdDb m_db;
+        private Object m_fileKey;
+        private int m_refs = 0;
+        private boolean m_retired = false;
+
+        private Entry(String path) {
+            m_path = path;
+        }
+    }
+
+    private final int m_capacity;
+    private final RrdBackendFactory m_factory;
+
+    /**
+     * The pooled entries by path, in access order.
+     */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * All of the open handles, including the ones that were retired but are still in use.
+     */
+    private final Map<RrdDb, Entry> m_entriesByDb = new IdentityHashMap<>();
+
+    private boolean m_closed = false;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Counter m_hits = m_metrics.counter("hits");
+    private final Counter m_misses = m_metrics.counter("misses");
+    private final Counter m_evictions = m_metrics.counter("evictions");
+    private final JmxReporter m_reporter;
+
+    /**
+     * @param capacity the maximum number of handles kept open while they are not in use
+     * @param factory the backend used to open the files, or null to use the default backend
+     */
+    public JRobinRrdDbPool(int capacity, RrdBackendFactory factory) {
+        m_capacity = capacity;
+        m_factory = factory;
+
+        m_metrics.register("size", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return size();
+            }
+        });
+        m_metrics.register("hitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(m_hits.getCount(), m_hits.getCount() + m_misses.getCount());
+            }
+        });
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName() + ".pool").build();
+        m_reporter.start();
+    }
+
+    /**
+     * Returns an open handle for the given path, opening the file if it is not pooled yet.
+     *
+     * @param path the path of the file
+     * @return the handle, which must be given back using {@link #release(RrdDb)}
+     */
+    public RrdDb acquire(String path) throws IOException, RrdException {
+        while (true) {
+            final Entry entry;
+            boolean created = false;
+            synchronized (this) {
+                if (m_closed) {
+                    // Don't pool any handles after shutdown
+                    return open(path);
+                }
+                Entry existing = m_entries.get(path);
+                if (existing == null) {
+                    existing = new Entry(path);
+                    m_entries.put(path, existing);
+                    created = true;
+                    m_misses.inc();
+                } else {
+                    m_hits.inc();
+                }
+                existing.m_refs++;
+                entry = existing;
+            }
+
+            boolean stale = false;
+            try {
+                // Other threads acquiring the same path wait until the file is opened
+                synchronized (entry) {
+                    if (entry.m_retired && entry.m_db == null) {
+                        // The file could not be opened by another thread, try again
+                        stale = true;
+                    } else if (entry.m_db == null) {
+                        entry.m_fileKey = getFileKey(path);
+                        entry.m_db = open(path);
+                        synchronized (this) {
+                            m_entriesByDb.put(entry.m_db, entry);
+                        }
+                    } else if (!created && !Objects.equals(entry.m_fileKey, getFileKey(path))) {
+                        LOG.debug("The file {} was deleted or replaced since it was opened, reopening it.", path);
+                        stale = true;
+                    }
+                }
+            } catch (IOException | RrdException | RuntimeException e) {
+                retire(entry);
+                unref(entry);
+                throw e;
+            }
+
+            if (stale) {
+                retire(entry);
+                unref(entry);
+                continue;
+            }
+
+            evictIdle();
+            return entry.m_db;
+        }
+    }
+
+    /**
+     * Gives back a handle returned by {@link #acquire(String)}.
+     *
+     * @param db the handle
+     */
+    public void release(RrdDb db) throws IOException {
+        final Entry entry;
+        synchronized (this) {
+            entry = m_entriesByDb.get(db);
+        }
+        if (entry == null) {
+            // The handle was opened outside of the pool
+            db.close();
+        } else {
+            unref(entry);
+        }
+    }
+
+    /**
+     * Closes the pooled handle for the given path, for example when the file is
+     * about to be replaced. If the handle is in use, it is closed once it has
+     * been released.
+     *
+     * @param path the path of the file
+     */
+    public void evict(String path) {
+        final Entry entry;
+        synchronized (this) {
+            entry = m_entries.get(path);
+        }
+        if (entry != null) {
+            retire(entry);
+            closeIfUnused(entry);
+        }
+    }
+
+    /**
+     * Closes all of the pooled handles. Handles that are in use are closed once they
+     * have been released, and handles acquired afterwards are not pooled anymore.
+     */
+    public void close() {
+        final List<Entry> entries;
+        synchronized (this) {
+            m_closed = true;
+            entries = new ArrayList<>(m_entries.values());
+        }
+        LOG.info("Closing {} pooled RRD files.", entries.size());
+        for (Entry entry : entries) {
+            retire(entry);
+            closeIfUnused(entry);
+        }
+        m_reporter.stop();
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    private RrdDb open(String path) throws IOException, RrdException {
+        return m_factory == null ? new RrdDb(path) : new RrdDb(path, m_factory);
+    }
+
+    private synchronized void retire(Entry entry) {
+        if (!entry.m_retired) {
+            entry.m_retired = true;
+            if (m_entries.get(entry.m_path) == entry) {
+                m_entries.remove(entry.m_path);
+            }
+        }
+    }
+
+    private void unref(Entry entry) {
+        synchronized (this) {
+            entry.m_refs--;
+        }
+        closeIfUnused(entry);
+    }
+
+    private void closeIfUnused(Entry entry) {
+        final RrdDb db;
+        synchronized (this) {
+            if (!entry.m_retired || entry.m_refs > 0 || entry.m_db == null || m_entriesByDb.remove(entry.m_db) == null) {
+                return;
+            }
+            db = entry.m_db;
+        }
+        try {
+            db.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the RRD file {}.", entry.m_path, e);
+        }
+    }
+
+    /**
+     * Closes the least recently used handles that are not in use until the pool
+     * fits its capacity.
+     */
+    private void evictIdle() {
+        final List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Entry> it = m_entries.values().iterator();
+            while (m_entries.size() > m_capacity && it.hasNext()) {
+                final Entry entry = it.next();
+                if (entry.m_refs == 0) {
+                    it.remove();
+                    entry.m_retired = true;
+                    evicted.add(entry);
+                    m_evictions.inc();
+                }
+            }
+        }
+        for (Entry entry : evicted) {
+            closeIfUnused(entry);
+        }
+    }
+
+    /**
+     * Returns the key identifying the file on disk, which changes when the file
+     * is deleted and created again.
+     */
+    private static Object getFileKey(String path) throws IOException {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            // Not all platforms provide a file key, fall back to the creation time
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        }
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -57,6 +58,7 @@ import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 
 /**
@@ -64,13 +66,19 @@ import org.slf4j.LoggerFactory;
  * FILE mode (NIO is too memory consuming for the large number of files that we
  * open)
  *
+ * When <code>org.opennms.rrd.jrobin.pool.size</code> is set, up to that many files
+ * are kept open between updates by a {@link JRobinRrdDbPool}, optionally using the
+ * backend set by <code>org.opennms.rrd.jrobin.pool.backendFactory</code>.
+ *
  * @author ranger
  * @version $Id: $
  */
-public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
+public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb>, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.pool.size";
+    private static final String POOL_BACKEND_FACTORY_PROPERTY = "org.opennms.rrd.jrobin.pool.backendFactory";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -80,6 +88,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /**
+     * Keeps the files open between updates, null when disabled.
+     */
+    private JRobinRrdDbPool m_pool;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -136,6 +149,28 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        if (m_pool == null && m_configurationProperties != null) {
+            final int poolSize = Integer.parseInt(m_configurationProperties.getProperty(POOL_SIZE_PROPERTY, "0").trim());
+            if (poolSize > 0) {
+                final String poolFactory = m_configurationProperties.getProperty(POOL_BACKEND_FACTORY_PROPERTY, "").trim();
+                try {
+                    m_pool = new JRobinRrdDbPool(poolSize, poolFactory.isEmpty() ? null : RrdBackendFactory.getFactory(poolFactory));
+                    LOG.info("Keeping up to {} RRD files open between updates.", poolSize);
+                } catch (RrdException e) {
+                    LOG.error("Could not find JRobin RRD factory {}, not pooling RRD files", poolFactory, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the RRD files that are kept open between updates.
+     */
+    @Override
+    public void destroy() {
+        if (m_pool != null) {
+            m_pool.close();
+        }
     }
 
     /**
@@ -146,7 +181,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        if (m_pool != null) {
+            m_pool.release(rrdFile);
+        } else {
+            rrdFile.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -201,6 +240,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        if (m_pool != null) {
+            // Make sure that we don't keep writing to a file that is being replaced
+            m_pool.evict(rrdDef.getPath());
+        }
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -212,6 +256,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
+        if (m_pool != null) {
+            return m_pool.acquire(fileName);
+        }
         return new RrdDb(fileName);
     }
 
@@ -222,8 +269,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void updateFile(final RrdDb rrdFile, final String owner, final String data) throws Exception {
-        Sample sample = rrdFile.createSample();
-        sample.setAndUpdate(data);
+        // Pooled files may be shared by several threads
+        synchronized (rrdFile) {
+            Sample sample = rrdFile.createSample();
+            sample.setAndUpdate(data);
+        }
     }
 
     /**
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.test.FileAnticipator;
+
+public class JRobinRrdDbPoolTest {
+
+    private JRobinRrdStrategy m_strategy;
+    private FileAnticipator m_fileAnticipator;
+    private JRobinRrdDbPool m_pool;
+
+    @Before
+    public void setUp() throws Exception {
+        m_strategy = new JRobinRrdStrategy();
+        m_fileAnticipator = new FileAnticipator();
+        m_pool = new JRobinRrdDbPool(2, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_pool.close();
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testReusesHandles() throws Exception {
+        final String path = createRrdFile("foo").getAbsolutePath();
+
+        final RrdDb db = m_pool.acquire(path);
+        m_pool.release(db);
+        assertSame(db, m_pool.acquire(path));
+        assertSame(db, m_pool.acquire(path));
+        m_pool.release(db);
+        m_pool.release(db);
+
+        assertEquals(1, m_pool.size());
+        assertEquals(2, m_pool.getMetrics().counter("hits").getCount());
+        assertEquals(1, m_pool.getMetrics().counter("misses").getCount());
+        assertEquals(false, db.isClosed());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final RrdDb foo = m_pool.acquire(createRrdFile("foo").getAbsolutePath());
+        final RrdDb bar = m_pool.acquire(createRrdFile("bar").getAbsolutePath());
+        m_pool.release(foo);
+        m_pool.release(bar);
+
+        // Handles that are in use are not evicted
+        final RrdDb baz = m_pool.acquire(createRrdFile("baz").getAbsolutePath());
+        assertEquals(2, m_pool.size());
+        assertTrue(foo.isClosed());
+        assertEquals(false, bar.isClosed());
+        assertEquals(false, baz.isClosed());
+        assertEquals(1, m_pool.getMetrics().counter("evictions").getCount());
+        m_pool.release(baz);
+    }
+
+    @Test
+    public void testReopensReplacedFiles() throws Exception {
+        final File file = createRrdFile("foo");
+
+        final RrdDb db = m_pool.acquire(file.getAbsolutePath());
+        m_pool.release(db);
+        assertTrue(file.delete());
+        m_strategy.createFile(createDefinition("foo"));
+
+        final RrdDb reopened = m_pool.acquire(file.getAbsolutePath());
+        assertNotSame(db, reopened);
+        assertTrue(db.isClosed());
+        m_pool.release(reopened);
+    }
+
+    @Test
+    public void testClosesHandlesOnRelease() throws Exception {
+        final String path = createRrdFile("foo").getAbsolutePath();
+
+        final RrdDb db = m_pool.acquire(path);
+        m_pool.evict(path);
+        assertEquals(0, m_pool.size());
+        assertEquals(false, db.isClosed());
+        m_pool.release(db);
+        assertTrue(db.isClosed());
+
+        m_pool.close();
+        final RrdDb unpooled = m_pool.acquire(path);
+        assertEquals(0, m_pool.size());
+        m_pool.release(unpooled);
+        assertTrue(unpooled.isClosed());
+    }
+
+    private File createRrdFile(String name) throws Exception {
+        m_strategy.createFile(createDefinition(name));
+        return m_fileAnticipator.expecting(name + m_strategy.getDefaultFileExtension());
+    }
+
+    private RrdDef createDefinition(String name) throws Exception {
+        final List<RrdDataSource> dataSources = new ArrayList<>();
+        dataSources.add(new RrdDataSource("bar", RrdAttributeType.GAUGE, 3000, "U", "U"));
+        final List<String> rraList = new ArrayList<>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+        return m_strategy.createDefinition("hello!", m_fileAnticipator.getTempDir().getAbsolutePath(), name, 300, dataSources, rraList);
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.scheduler.BoundedAsyncExecutor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Runs the collections of Collectd without blocking the scheduler threads.
+ *
+ * A collection is the future of the collector RPC chained into the
+ * persistence and the thresholding stages, which run on their own fixed size
+ * thread pools. The number of collections in flight, from the start of the
+ * RPC to the end of thresholding, is limited by a {@link BoundedAsyncExecutor}.
+ * The futures returned by {@link #collect(Supplier)} are completed on the
+ * given executor.
+ *
+ * The lag of each collection against its schedule is reported per package,
+ * along with the number of collections that started more than a full
+ * interval late.
+ */
+public class AsyncCollectionEngine {
+
+    private final BoundedAsyncExecutor m_collections;
+
+    private final ExecutorService m_persistExecutor;
+
+    private final ExecutorService m_thresholdExecutor;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private JmxReporter m_reporter;
+
+    /**
+     * @param maxCollectionsInFlight the maximum number of collections in flight
+     * @param persistThreads the number of threads used to persist the collection sets
+     * @param thresholdThreads the number of threads used to threshold the collection sets
+     * @param executor the executor used to start the queued collections and to process the results
+     */
+    public AsyncCollectionEngine(int maxCollectionsInFlight, int persistThreads, int thresholdThreads, Executor executor) {
+        m_collections = new BoundedAsyncExecutor(maxCollectionsInFlight, executor);
+        m_persistExecutor = Executors.newFixedThreadPool(persistThreads, new LogPreservingThreadFactory("Collectd-Persister", persistThreads));
+        m_thresholdExecutor = Executors.newFixedThreadPool(thresholdThreads, new LogPreservingThreadFactory("Collectd-Thresholder", thresholdThreads));
+
+        m_metrics.register(MetricRegistry.name("collectd", "inFlight"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumCollectionsInFlight();
+            }
+        });
+        m_metrics.register(MetricRegistry.name("collectd", "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumPendingCollections();
+            }
+        });
+    }
+
+    /**
+     * Starts the collection if the limit allows it, queues it otherwise.
+     *
+     * @param collection supplies the future of the whole collection, including persistence and thresholding, once it is started
+     * @return a future completed once the collection is done, on the executor
+     */
+    public CompletableFuture<Void> collect(Supplier<CompletableFuture<Void>> collection) {
+        return m_collections.execute(collection);
+    }
+
+    /**
+     * Records how late a collection of the given package started.
+     *
+     * @param packageName the name of the collection package
+     * @param interval the configured interval of the service, in milliseconds
+     * @param lag the time elapsed since the collection was due, in milliseconds
+     */
+    public void collectionStarted(String packageName, long interval, long lag) {
+        m_metrics.histogram(MetricRegistry.name("collectd", "packages", packageName, "lag")).update(lag);
+        if (interval > 0 && lag >= interval) {
+            m_metrics.counter(MetricRegistry.name("collectd", "packages", packageName, "late")).inc();
+        }
+    }
+
+    public Executor getPersistExecutor() {
+        return m_persistExecutor;
+    }
+
+    public Executor getThresholdExecutor() {
+        return m_thresholdExecutor;
+    }
+
+    public synchronized void start() {
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName()).build();
+        m_reporter.start();
+    }
+
+    public synchronized void stop() {
+        m_persistExecutor.shutdown();
+        m_thresholdExecutor.shutdown();
+        if (m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+        }
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    public int getMaxCollectionsInFlight() {
+        return m_collections.getMaxInFlight();
+    }
+
+    public int getNumCollectionsInFlight() {
+        return m_collections.getNumInFlight();
+    }
+
+    public int getNumPendingCollections() {
+        return m_collections.getNumPending();
+    }
+}
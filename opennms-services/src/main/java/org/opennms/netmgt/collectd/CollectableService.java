@@ -31,6 +31,8 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.net.InetAddress;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
@@ -108,6 +110,13 @@ class CollectableService implements ReadyRunnable {
      */
     private volatile long m_lastScheduledCollectionTime;
 
+    /**
+     * The time at which the last collection was started by the collection
+     * engine, used to measure the lag of the next one. 0 if the next collection
+     * is the first one since the service was scheduled or skipped.
+     */
+    private volatile long m_lastCollectionStartTime;
+
     /**
      * The scheduler for collectd
      */
@@ -145,6 +154,12 @@ class CollectableService implements ReadyRunnable {
 
     private final ResourceStorageDao m_resourceStorageDao;
 
+    /**
+     * Runs the collection asynchronously when set, the collection is done
+     * on the scheduler thread otherwise.
+     */
+    private final AsyncCollectionEngine m_collectionEngine;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -159,6 +174,19 @@ class CollectableService implements ReadyRunnable {
     protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
             Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
             PersisterFactory persisterFactory, ResourceStorageDao resourceStorageDao) throws CollectionInitializationException {
+        this(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, resourceStorageDao, null);
+    }
+
+    /**
+     * Constructs a new instance of a CollectableService object.
+     *
+     * @param collectionEngine the engine used to run the collections asynchronously, or null
+     *            to collect on the scheduler thread.
+     */
+    protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
+            Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
+            PersisterFactory persisterFactory, ResourceStorageDao resourceStorageDao,
+            AsyncCollectionEngine collectionEngine) throws CollectionInitializationException {
 
         m_agent = DefaultSnmpCollectionAgent.create(iface.getId(), ifaceDao, transMgr);
         m_spec = spec;
@@ -168,6 +196,7 @@ class CollectableService implements ReadyRunnable {
         m_transMgr = transMgr;
         m_persisterFactory = persisterFactory;
         m_resourceStorageDao = resourceStorageDao;
+        m_collectionEngine = collectionEngine;
 
         m_nodeId = iface.getNode().getId().intValue();
         m_status = CollectionStatus.SUCCEEDED;
@@ -334,6 +363,10 @@ class CollectableService implements ReadyRunnable {
      */
     @Override
     public void run() {
+        withLoggingContext(this::doRun);
+    }
+
+    private void withLoggingContext(Runnable runnable) {
         Logging.withPrefix(Collectd.LOG4J_CATEGORY, () -> {
             Logging.putThreadContext("service", m_spec.getServiceName());
             Logging.putThreadContext("ipAddress", m_agent.getAddress().getHostAddress());
@@ -341,7 +374,7 @@ class CollectableService implements ReadyRunnable {
             Logging.putThreadContext("nodeLabel", m_agent.getNodeLabel());
             Logging.putThreadContext("foreignSource", m_agent.getForeignSource());
             Logging.putThreadContext("foreignId", m_agent.getForeignId());
-            doRun();
+            runnable.run();
         });
     }
 
@@ -365,28 +398,59 @@ class CollectableService implements ReadyRunnable {
          * Check scheduled outages to see if any apply indicating
          * that the collection should be skipped.
          */
-        if (!m_spec.scheduledOutage(m_agent)) {
+        if (m_spec.scheduledOutage(m_agent)) {
+            m_lastCollectionStartTime = 0;
+            reschedule();
+        } else if (m_collectionEngine == null) {
             try {
                 doCollection();
                 updateStatus(CollectionStatus.SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionUnknown e) {
-                LOG.warn(e.getMessage(), e);
-                // Omit any status updates
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
             } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+                handleCollectionException(e);
             }
+            reschedule();
+        } else {
+            // The scheduler thread is released as soon as the collection is issued,
+            // the result is processed on the scheduler runner once it is complete
+            // The collection is due one interval after the previous one started,
+            // or now if it is the first one
+            final long dueTime = m_lastCollectionStartTime != 0 ? m_lastCollectionStartTime + m_spec.getInterval() : m_lastScheduledCollectionTime;
+            doCollectionAsync(dueTime).whenComplete((result, t) -> withLoggingContext(() -> {
+                try {
+                    if (t == null) {
+                        LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+                        updateStatus(CollectionStatus.SUCCEEDED, null);
+                    } else {
+                        final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                        handleCollectionException(toCollectionException(cause));
+                    }
+                } finally {
+                    reschedule();
+                }
+            }));
+        }
+    }
+
+    private void handleCollectionException(Throwable e) {
+        if (e instanceof CollectionTimedOut) {
+            LOG.info(e.getMessage());
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else if (e instanceof CollectionWarning) {
+            LOG.warn(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else if (e instanceof CollectionUnknown) {
+            LOG.warn(e.getMessage(), e);
+            // Omit any status updates
+        } else if (e instanceof CollectionException) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
         }
+    }
 
+    private void reschedule() {
         // If we are doing strict interval, determine how long the collection
         // has taken, so we can cut that off of the service interval
         long diff = 0;
@@ -431,51 +495,96 @@ class CollectableService implements ReadyRunnable {
     /**
      * Perform data collection.
      */
-	private void doCollection() throws CollectionException {
-		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-		CollectionSet result = null;
-		try {
-		    result = m_spec.collect(m_agent);
-		    if (result != null) {
-                        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        try {
-                            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
-                            if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
-                                final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
-                                // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
-                                persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
-                            }
-                            result.visit(persister);
-                        } finally {
-                            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        }
+    private void doCollection() throws CollectionException {
+        LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        try {
+            final CollectionSet result = m_spec.collect(m_agent);
+            if (result != null) {
+                persist(result);
+                threshold(result);
+            }
+        } catch (Throwable t) {
+            throw toCollectionException(t);
+        }
+        LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+    }
 
-                        /*
-                         * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
-                         * The first person who actually needs to configure that sort of thing on the fly can code it up.
-                         */
-                        if (m_thresholdVisitor != null) {
-                            if (m_thresholdVisitor.isNodeInOutage()) {
-                                LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
-                            } else if (m_thresholdVisitor.hasThresholds()) {
-                                m_thresholdVisitor.setCounterReset(result.ignorePersist()); // Required to reinitialize the counters.
-                                result.visit(m_thresholdVisitor);
+    /**
+     * Perform data collection asynchronously: the collection set is persisted
+     * and thresholded on the threads of the collection engine.
+     *
+     * @param dueTime the time at which the collection was due, the lag is
+     *   measured once the engine starts the collection so that it includes
+     *   the time spent waiting for the other collections in flight
+     */
+    private CompletableFuture<Void> doCollectionAsync(long dueTime) {
+        LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        return m_collectionEngine.collect(() -> {
+            final long startTime = System.currentTimeMillis();
+            m_lastCollectionStartTime = startTime;
+            m_collectionEngine.collectionStarted(m_spec.getPackageName(), m_spec.getInterval(), Math.max(0, startTime - dueTime));
+            return m_spec.collectAsync(m_agent)
+                .thenApplyAsync(result -> {
+                    if (result != null) {
+                        withLoggingContext(() -> persist(result));
+                    }
+                    return result;
+                }, m_collectionEngine.getPersistExecutor())
+                .thenAcceptAsync(result -> {
+                    if (result != null) {
+                        withLoggingContext(() -> {
+                            try {
+                                threshold(result);
+                            } catch (CollectionException e) {
+                                throw new CompletionException(e);
                             }
-                        }
-
-                        if (!CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
-                            throw new CollectionFailed(result.getStatus());
-                        }
+                        });
                     }
-                } catch (CollectionException e) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw e;
-		} catch (Throwable t) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
-		}
-		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-	}
+                }, m_collectionEngine.getThresholdExecutor());
+        });
+    }
+
+    private CollectionException toCollectionException(Throwable t) {
+        LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        if (t instanceof CollectionException) {
+            return (CollectionException)t;
+        }
+        return new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
+    }
+
+    private void persist(CollectionSet result) {
+        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        try {
+            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
+            if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
+                final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
+                // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
+                persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
+            }
+            result.visit(persister);
+        } finally {
+            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        }
+    }
+
+    private void threshold(CollectionSet result) throws CollectionException {
+        /*
+         * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
+         * The first person who actually needs to configure that sort of thing on the fly can code it up.
+         */
+        if (m_thresholdVisitor != null) {
+            if (m_thresholdVisitor.isNodeInOutage()) {
+                LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
+            } else if (m_thresholdVisitor.hasThresholds()) {
+                m_thresholdVisitor.setCounterReset(result.ignorePersist()); // Required to reinitialize the counters.
+                result.visit(m_thresholdVisitor);
+            }
+        }
+
+        if (!CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
+            throw new CollectionFailed(result.getStatus());
+        }
+    }
 
 	/**
      * Process any outstanding updates.
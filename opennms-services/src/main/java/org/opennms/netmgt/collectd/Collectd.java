@@ -78,10 +78,12 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.PooledScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
 import org.opennms.netmgt.snmp.InetAddrUtils;
+import org.opennms.netmgt.threshd.CounterStateStore;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -129,6 +131,27 @@ public class Collectd extends AbstractServiceDaemon implements
      * Log4j category
      */
     static final String LOG4J_CATEGORY = "collectd";
+
+    /**
+     * Collections are processed asynchronously when enabled, and the number of threads
+     * in the collectd configuration limits the number of collections in flight instead.
+     */
+    public static final String ASYNC_COLLECTION_PROPERTY = "org.opennms.netmgt.collectd.asyncCollection";
+
+    /**
+     * Size of the scheduler's thread pool when collecting asynchronously.
+     */
+    public static final String ASYNC_COLLECTION_THREADS_PROPERTY = "org.opennms.netmgt.collectd.asyncCollectionThreads";
+
+    /**
+     * Number of threads persisting the collection sets when collecting asynchronously.
+     */
+    public static final String PERSIST_THREADS_PROPERTY = "org.opennms.netmgt.collectd.persistThreads";
+
+    /**
+     * Number of threads thresholding the collection sets when collecting asynchronously.
+     */
+    public static final String THRESHOLD_THREADS_PROPERTY = "org.opennms.netmgt.collectd.thresholdThreads";
     
     /**
      * Instantiated service collectors specified in config file
@@ -145,6 +168,12 @@ public class Collectd extends AbstractServiceDaemon implements
      */
     private volatile Scheduler m_scheduler;
 
+    /**
+     * Runs the collections asynchronously, null when they are done on the
+     * scheduler threads.
+     */
+    private volatile AsyncCollectionEngine m_collectionEngine;
+
     /**
      * Indicates if scheduling of existing interfaces has been completed
      */
@@ -329,7 +358,22 @@ public class Collectd extends AbstractServiceDaemon implements
             // Create a scheduler
             try {
                 LOG.debug("init: Creating collectd scheduler");
-                setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                final int threads = m_collectdConfigFactory.getCollectdConfig().getThreads();
+                if (Boolean.parseBoolean(System.getProperty(ASYNC_COLLECTION_PROPERTY, "true"))) {
+                    // The threads only start the collections and process their results
+                    final int cores = Runtime.getRuntime().availableProcessors();
+                    final int schedulerThreads = Math.min(threads, Integer.getInteger(ASYNC_COLLECTION_THREADS_PROPERTY, Math.max(4, cores * 2)));
+                    final int persistThreads = Integer.getInteger(PERSIST_THREADS_PROPERTY, Math.max(2, cores));
+                    final int thresholdThreads = Integer.getInteger(THRESHOLD_THREADS_PROPERTY, Math.max(2, cores));
+                    LOG.debug("init: Collecting asynchronously with up to {} collections in flight, {} scheduler threads, {} persister threads and {} thresholding threads",
+                            threads, schedulerThreads, persistThreads, thresholdThreads);
+                    final PooledScheduler scheduler = Schedulers.create("Collectd", Math.max(1, schedulerThreads));
+                    setScheduler(scheduler);
+                    m_collectionEngine = new AsyncCollectionEngine(Math.max(1, threads), Math.max(1, persistThreads), Math.max(1, thresholdThreads), scheduler.getRunner());
+                } else {
+                    setScheduler(Schedulers.create("Collectd", threads));
+                    m_collectionEngine = null;
+                }
             } catch (final RuntimeException e) {
                 LOG.error("init: Failed to create collectd scheduler", e);
                 throw e;
@@ -345,6 +389,10 @@ public class Collectd extends AbstractServiceDaemon implements
             LOG.debug("start: Starting collectd scheduler");
 
             getScheduler().start();
+            if (m_collectionEngine != null) {
+                m_collectionEngine.start();
+            }
+            CounterStateStore.getInstance().start();
         } catch (RuntimeException e) {
             LOG.error("start: Failed to start scheduler", e);
             throw e;
@@ -355,9 +403,14 @@ public class Collectd extends AbstractServiceDaemon implements
     @Override
     protected void onStop() {
         getScheduler().stop();
+        if (m_collectionEngine != null) {
+            m_collectionEngine.stop();
+        }
         deinstallMessageSelectors();
+        CounterStateStore.getInstance().destroy();
 
         setScheduler(null);
+        m_collectionEngine = null;
     }
 
     /** {@inheritDoc} */
@@ -528,7 +581,8 @@ public class Collectd extends AbstractServiceDaemon implements
                     m_schedulingCompletedFlag,
                     m_transTemplate.getTransactionManager(),
                     m_persisterFactory,
-                    m_resourceStorageDao
+                    m_resourceStorageDao,
+                    m_collectionEngine
                 );
 
                 // Add new collectable service to the collectable service list.
@@ -1467,6 +1521,15 @@ public class Collectd extends AbstractServiceDaemon implements
         return m_scheduler;
     }
 
+    /**
+     * <p>getCollectionEngine</p>
+     *
+     * @return the engine running the collections asynchronously, or null when they are run on the scheduler threads
+     */
+    public AsyncCollectionEngine getCollectionEngine() {
+        return m_collectionEngine;
+    }
+
     /**
      * <p>setCollectorConfigDao</p>
      *
@@ -29,7 +29,11 @@
 package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+
+import org.opennms.netmgt.collectd.AsyncCollectionEngine;
+import org.opennms.netmgt.dao.support.RrdResourceAttributeUtils;
+import org.opennms.netmgt.rrd.RrdMetaDataUtils;
+import org.opennms.netmgt.scheduler.PooledScheduler;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -143,12 +147,34 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
     public long getCollectableServiceCount() {
         return getDaemon().getCollectableServiceCount();
     }
+
+    @Override
+    public long getCollectionsInFlight() {
+        final AsyncCollectionEngine engine = getDaemon().getCollectionEngine();
+        return engine != null ? engine.getNumCollectionsInFlight() : 0L;
+    }
+
+    @Override
+    public long getCollectionsPending() {
+        final AsyncCollectionEngine engine = getDaemon().getCollectionEngine();
+        return engine != null ? engine.getNumPendingCollections() : 0L;
+    }
+
+    @Override
+    public long getResourceMetadataWrites() {
+        return RrdMetaDataUtils.getNumMetaDataWrites() + RrdResourceAttributeUtils.getNumPropertiesWrites();
+    }
+
+    @Override
+    public long getResourceMetadataWritesAvoided() {
+        return RrdMetaDataUtils.getNumMetaDataWritesAvoided() + RrdResourceAttributeUtils.getNumPropertiesWritesAvoided();
+    }
     
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) ((PooledScheduler) getDaemon().getScheduler()).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof PooledScheduler);
     }
 }
@@ -86,4 +86,24 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of pending tasks
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of collections in progress when collecting asynchronously
+     */
+    public long getCollectionsInFlight();
+
+    /**
+     * @return The number of collections waiting for the number of collections in progress to drop
+     */
+    public long getCollectionsPending();
+
+    /**
+     * @return The cumulative number of .meta and properties files written for collected resources
+     */
+    public long getResourceMetadataWrites();
+
+    /**
+     * @return The cumulative number of .meta and properties file writes skipped since the values were unchanged
+     */
+    public long getResourceMetadataWritesAvoided();
 }
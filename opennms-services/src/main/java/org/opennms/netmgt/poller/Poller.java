@@ -60,9 +60,12 @@ import org.opennms.netmgt.poller.pollables.PollableService;
 import org.opennms.netmgt.poller.pollables.PollableServiceConfig;
 import org.opennms.netmgt.poller.pollables.PollableVisitor;
 import org.opennms.netmgt.poller.pollables.PollableVisitorAdaptor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.BoundedAsyncExecutor;
+import org.opennms.netmgt.scheduler.PooledScheduler;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
+import org.opennms.netmgt.threshd.CounterStateStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -83,9 +86,22 @@ public class Poller extends AbstractServiceDaemon {
 
     private static final String LOG4J_CATEGORY = "poller";
 
+    /**
+     * Polls are processed asynchronously when enabled, and the number of threads
+     * in the poller configuration limits the number of polls in flight instead.
+     */
+    public static final String ASYNC_POLLING_PROPERTY = "org.opennms.netmgt.poller.asyncPolling";
+
+    /**
+     * Size of the scheduler's thread pool when polling asynchronously.
+     */
+    public static final String ASYNC_POLLING_THREADS_PROPERTY = "org.opennms.netmgt.poller.asyncPollingThreads";
+
     private boolean m_initialized = false;
 
-    private LegacyScheduler m_scheduler = null;
+    private PooledScheduler m_scheduler = null;
+
+    private BoundedAsyncExecutor m_asyncPollingEngine = null;
 
     private PollerEventProcessor m_eventProcessor;
 
@@ -269,12 +285,22 @@ public class Poller extends AbstractServiceDaemon {
         return m_scheduler;
     }
 
+    /**
+     * Returns the engine limiting the number of polls in flight, or null if
+     * the polls are synchronous.
+     *
+     * @return a {@link org.opennms.netmgt.scheduler.BoundedAsyncExecutor} object.
+     */
+    public BoundedAsyncExecutor getAsyncPollingEngine() {
+        return m_asyncPollingEngine;
+    }
+
     /**
      * <p>setScheduler</p>
      *
-     * @param scheduler a {@link org.opennms.netmgt.scheduler.LegacyScheduler} object.
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.PooledScheduler} object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(PooledScheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -337,7 +363,18 @@ public class Poller extends AbstractServiceDaemon {
         try {
             LOG.debug("init: Creating poller scheduler");
 
-            setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            final int threads = getPollerConfig().getThreads();
+            if (Boolean.parseBoolean(System.getProperty(ASYNC_POLLING_PROPERTY, "true"))) {
+                // The threads only start the polls and process their results
+                final int schedulerThreads = Math.min(threads, Integer.getInteger(ASYNC_POLLING_THREADS_PROPERTY,
+                        Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+                LOG.debug("init: Polling asynchronously with up to {} polls in flight and {} threads", threads, schedulerThreads);
+                setScheduler(Schedulers.create("Poller", Math.max(1, schedulerThreads)));
+                m_asyncPollingEngine = new BoundedAsyncExecutor(Math.max(1, threads), m_scheduler.getRunner());
+            } else {
+                setScheduler(Schedulers.create("Poller", threads));
+                m_asyncPollingEngine = null;
+            }
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create poller scheduler", e);
             throw e;
@@ -357,6 +394,8 @@ public class Poller extends AbstractServiceDaemon {
                 LOG.debug("start: Starting poller scheduler");
 
             getScheduler().start();
+            // Used by the latency thresholds
+            CounterStateStore.getInstance().start();
         } catch (RuntimeException e) {
             LOG.error("start: Failed to start scheduler", e);
             throw e;
@@ -374,6 +413,7 @@ public class Poller extends AbstractServiceDaemon {
         if(getEventProcessor()!=null) {
             getEventProcessor().close();
         }
+        CounterStateStore.getInstance().destroy();
 
         setScheduler(null);
     }
@@ -526,6 +566,7 @@ public class Poller extends AbstractServiceDaemon {
         PollableService svc = getNetwork().createService(service.getNodeId(), iface.getNode().getLabel(), iface.getNode().getLocation().getLocationName(), addr, serviceName);
         PollableServiceConfig pollConfig = new PollableServiceConfig(svc, m_pollerConfig, m_pollOutagesConfig, pkg,
                 getScheduler(), m_persisterFactory, m_resourceStorageDao, m_locationAwarePollerClient);
+        pollConfig.setAsyncPollingEngine(m_asyncPollingEngine);
         svc.setPollConfig(pollConfig);
         synchronized(svc) {
             if (svc.getSchedule() == null) {
@@ -31,7 +31,8 @@ package org.opennms.netmgt.poller.jmx;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.BoundedAsyncExecutor;
+import org.opennms.netmgt.scheduler.PooledScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -139,11 +140,23 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
     
+    @Override
+    public long getPollsInFlight() {
+        final BoundedAsyncExecutor asyncPollingEngine = getDaemon().getAsyncPollingEngine();
+        return asyncPollingEngine == null ? 0L : asyncPollingEngine.getNumInFlight();
+    }
+
+    @Override
+    public long getPollsPending() {
+        final BoundedAsyncExecutor asyncPollingEngine = getDaemon().getAsyncPollingEngine();
+        return asyncPollingEngine == null ? 0L : asyncPollingEngine.getNumPending();
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) ((PooledScheduler) getDaemon().getScheduler()).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof PooledScheduler);
     }
 }
@@ -84,4 +84,14 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of polls in flight when polling asynchronously
+     */
+    public long getPollsInFlight();
+
+    /**
+     * @return The number of polls waiting for one of the polls in flight to complete
+     */
+    public long getPollsPending();
 }
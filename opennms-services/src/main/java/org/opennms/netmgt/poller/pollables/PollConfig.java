@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +49,20 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Polls the service without blocking the calling thread.
+     *
+     * @return a future completed with the poll status
+     */
+    public CompletableFuture<PollStatus> pollAsync();
+
+    /**
+     * Returns true if the scheduled polls should use {@link #pollAsync()}.
+     *
+     * @return a boolean.
+     */
+    public boolean isAsyncPollingEnabled();
+
     /**
      * <p>getCurrentTime</p>
      *
@@ -220,6 +220,15 @@ public class PollableInterface extends PollableContainer {
         return (critSvc != null ? critSvc : super.selectPollElement());
     }
     
+    /**
+     * Returns true if {@link #poll(PollableElement)} would not poll the given
+     * service because the interface is down and it is not the critical service.
+     */
+    boolean isPollSkipped(PollableService svc) {
+        PollableService critSvc = getCriticalService();
+        return !getStatus().isUp() && critSvc != null && svc != critSvc;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected PollStatus poll(PollableElement elem) {
@@ -31,13 +31,14 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.AsyncReadyRunnable;
 import org.opennms.netmgt.scheduler.PostponeNecessary;
-import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
@@ -48,16 +49,26 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  */
-public class PollableService extends PollableElement implements ReadyRunnable, MonitoredService {
+public class PollableService extends PollableElement implements AsyncReadyRunnable, MonitoredService {
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
     private final class PollRunner implements Runnable {
     	
     	private volatile PollStatus m_pollStatus;
+    	private final PollStatus m_polledStatus;
+    	
+    	private PollRunner(PollStatus polledStatus) {
+    	    m_polledStatus = polledStatus;
+    	}
             @Override
 		public void run() {
-		    doPoll();
+		    m_asyncPollStatus = m_polledStatus;
+		    try {
+		        doPoll();
+		    } finally {
+		        m_asyncPollStatus = null;
+		    }
 		    getNode().processStatusChange(new Date());
 		    m_pollStatus = getStatus();
 		}
@@ -72,6 +83,11 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    /**
+     * Result of the asynchronous poll being processed, used by {@link #poll()}
+     * instead of polling the service again.
+     */
+    private volatile PollStatus m_asyncPollStatus;
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -187,7 +203,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_asyncPollStatus;
+        if (newStatus != null) {
+            m_asyncPollStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -378,6 +399,25 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     public void run() {
         doRun(500);
     }
+
+    /**
+     * Polls the service without blocking the calling thread when asynchronous
+     * polling is enabled. The status changes are processed once the poll
+     * completes, in the same way as {@link #run()}.
+     *
+     * @return a future that completes once the status changes were processed
+     */
+    @Override
+    public CompletableFuture<Void> runAsync() {
+        if (!m_pollConfig.isAsyncPollingEnabled()
+                || (getContext().isNodeProcessingEnabled() && getInterface().isPollSkipped(this))) {
+            // Nothing to wait for
+            run();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return m_pollConfig.pollAsync().thenAccept(status -> doRun(500, status));
+    }
     
     /**
      * <p>doRun</p>
@@ -389,6 +429,10 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     }
 
     private PollStatus doRun(int timeout) {
+        return doRun(timeout, null);
+    }
+
+    private PollStatus doRun(int timeout, PollStatus polledStatus) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
             Logging.putThreadContext("service", m_svcName);
@@ -399,7 +443,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
+                PollRunner r = new PollRunner(polledStatus);
                 try {
                     withTreeLock(r, timeout);
                 } catch (LockUnavailable e) {
@@ -409,7 +453,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
                 status = r.getPollStatus();
             }
             else {
-                doPoll();
+                m_asyncPollStatus = polledStatus;
+                try {
+                    doPoll();
+                } finally {
+                    m_asyncPollStatus = null;
+                }
                 processStatusChange(new Date());
                 status = getStatus();
             }
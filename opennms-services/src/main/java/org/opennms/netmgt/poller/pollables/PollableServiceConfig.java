@@ -30,6 +30,7 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
@@ -45,7 +46,9 @@ import org.opennms.netmgt.config.poller.Service;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.poller.LocationAwarePollerClient;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.PollerRequestBuilder;
 import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.scheduler.BoundedAsyncExecutor;
 import org.opennms.netmgt.scheduler.ScheduleInterval;
 import org.opennms.netmgt.scheduler.Timer;
 import org.slf4j.Logger;
@@ -71,6 +74,7 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     private final LatencyStoringServiceMonitorAdaptor m_latencyStoringServiceMonitorAdaptor;
     private final InvertedStatusServiceMonitorAdaptor m_invertedStatusServiceMonitorAdaptor = new InvertedStatusServiceMonitorAdaptor();
     private final ServiceMonitor m_serviceMonitor;
+    private volatile BoundedAsyncExecutor m_asyncPollingEngine;
 
     /**
      * <p>Constructor for PollableServiceConfig.</p>
@@ -117,52 +121,104 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     public PollStatus poll() {
         try {
             final String packageName = getPackageName();
-            // Use the service's configured interval as the TTL for this request
-            final Long ttlInMs = m_configService.getInterval();
-            LOG.debug("Polling {} with TTL {} using pkg {}",
-                    m_service, ttlInMs, packageName);
-
-            PollStatus result = m_locationAwarePollerClient.poll()
-                .withService(m_service)
-                .withMonitor(m_serviceMonitor)
-                .withTimeToLive(ttlInMs)
-                .withAttributes(getParameters())
-                .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
-                .withAdaptor(m_invertedStatusServiceMonitorAdaptor)
-                .execute()
-                .get().getPollStatus();
+            PollStatus result = createPollRequest(packageName).execute().get().getPollStatus();
             LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
             return result;
         } catch (Throwable e) {
-            return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<PollStatus>() {
-                @Override
-                public PollStatus onInterrupted(Throwable cause) {
-                    LOG.warn("Interrupted while invoking the poll for {}."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
-                }
-
-                @Override
-                public PollStatus onTimedOut(Throwable cause) {
-                    LOG.warn("No response was received when remotely invoking the poll for {}."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
-                }
+            return handlePollException(e);
+        }
+    }
 
-                @Override
-                public PollStatus onRejected(Throwable cause) {
-                    LOG.warn("The request to remotely invoke the poll for {} was rejected."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
-                }
+    /**
+     * Polls the service using the {@link BoundedAsyncExecutor}, or synchronously
+     * if none was set.
+     *
+     * @return a future completed with the poll status
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync() {
+        final BoundedAsyncExecutor asyncPollingEngine = m_asyncPollingEngine;
+        if (asyncPollingEngine == null) {
+            return CompletableFuture.completedFuture(poll());
+        }
 
-                @Override
-                public PollStatus onUnknown(Throwable cause) {
-                    LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
-                    return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
-                }
-            });
+        final String packageName;
+        try {
+            packageName = getPackageName();
+        } catch (Throwable e) {
+            return CompletableFuture.completedFuture(handlePollException(e));
         }
+        return asyncPollingEngine.execute(() -> createPollRequest(packageName).execute())
+                .handle((response, e) -> {
+                    if (e != null) {
+                        return handlePollException(e);
+                    }
+                    final PollStatus result = response.getPollStatus();
+                    LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
+                    return result;
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isAsyncPollingEnabled() {
+        return m_asyncPollingEngine != null;
+    }
+
+    /**
+     * Sets the engine used by {@link #pollAsync()}. The scheduled polls are
+     * synchronous when none is set.
+     *
+     * @param asyncPollingEngine a {@link org.opennms.netmgt.scheduler.BoundedAsyncExecutor} object.
+     */
+    public void setAsyncPollingEngine(BoundedAsyncExecutor asyncPollingEngine) {
+        m_asyncPollingEngine = asyncPollingEngine;
+    }
+
+    private PollerRequestBuilder createPollRequest(String packageName) {
+        // Use the service's configured interval as the TTL for this request
+        final Long ttlInMs = m_configService.getInterval();
+        LOG.debug("Polling {} with TTL {} using pkg {}",
+                m_service, ttlInMs, packageName);
+
+        return m_locationAwarePollerClient.poll()
+            .withService(m_service)
+            .withMonitor(m_serviceMonitor)
+            .withTimeToLive(ttlInMs)
+            .withAttributes(getParameters())
+            .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
+            .withAdaptor(m_invertedStatusServiceMonitorAdaptor);
+    }
+
+    private PollStatus handlePollException(Throwable e) {
+        return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<PollStatus>() {
+            @Override
+            public PollStatus onInterrupted(Throwable cause) {
+                LOG.warn("Interrupted while invoking the poll for {}."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
+            }
+
+            @Override
+            public PollStatus onTimedOut(Throwable cause) {
+                LOG.warn("No response was received when remotely invoking the poll for {}."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
+            }
+
+            @Override
+            public PollStatus onRejected(Throwable cause) {
+                LOG.warn("The request to remotely invoke the poll for {} was rejected."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
+            }
+
+            @Override
+            public PollStatus onUnknown(Throwable cause) {
+                LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+                return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
+            }
+        });
     }
 
     /**
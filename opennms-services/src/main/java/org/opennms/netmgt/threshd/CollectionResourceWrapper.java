@@ -34,7 +34,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collectd.IfInfo;
@@ -77,40 +76,19 @@ public class CollectionResourceWrapper {
     private final Map<String, CollectionAttribute> m_attributes;
     private final ResourceStorageDao m_resourceStorageDao;
 
-    /**
-     * Keeps track of both the Double value, and when it was collected, for the static cache of attributes
+    /*
+     * Holds last values and collection times for counter attributes (in order to calculate delta)
      * 
      * This is necessary for the *correct* calculation of Counter rates, across variable collection times and possible
      * collection failures (see NMS-4244)
      */
-    public static class CacheEntry {
-        private final Date m_timestamp;
-        private final Double m_value;
-
-        public CacheEntry(final Date timestamp, final Double value) {
-            if (timestamp == null) {
-                throw new IllegalArgumentException("Illegal null timestamp in cache value");
-            } else if (value == null) {
-                throw new IllegalArgumentException("Illegal null value in cache value");
-            }
-            this.m_timestamp = timestamp;
-            this.m_value = value;
-        }
-
-        public Date getTimestamp() {
-            return m_timestamp;
-        }
-
-        public Double getValue() {
-            return m_value;
-        }
-    }
+    static final CounterStateStore s_cache = CounterStateStore.getInstance();
 
     /*
-     * Holds last values for counter attributes (in order to calculate delta)
+     * The counter state of the wrapped resource, resolved on first use.
      */
-    static final ConcurrentHashMap<String, CacheEntry> s_cache = new ConcurrentHashMap<String,CacheEntry>();
-    
+    private CounterStateStore.ResourceState m_counterState;
+
     /*
      * To avoid update static cache on every call of getAttributeValue.
      * In some cases, the same DS could be needed in many thresholds definitions for same resource.
@@ -403,35 +381,48 @@ public class CollectionResourceWrapper {
             return null;
         }
         // Generating a unique ID for the node/resourceType/resource/metric combination.
-        String id =  "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "].metric[" + ds + "]";
+        String id =  getCounterStateKey() + ".metric[" + ds + "]";
         Double current = numValue.doubleValue();
         if (!AttributeType.COUNTER.equals(m_attributes.get(ds).getType())) {
             LOG.debug("getAttributeValue: id={}, value= {}", id, current);
             return current;
         } else {
-            return getCounterValue(id, current);
+            return getCounterValue(id, ds, current);
         }
     }
 
+    private String getCounterStateKey() {
+        return "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "]";
+    }
+
     /*
      * This will return the rate based on configured collection step
      */
-    private Double getCounterValue(String id, Double current) {
+    private Double getCounterValue(String id, String ds, Double current) {
         synchronized (m_localCache) {
 
         if (m_localCache.containsKey(id) == false) {
-            // Atomically replace the CacheEntry with the new value
-            // If the sysUpTime was changed, the "last" value must be null (to force update the cache).
-            CacheEntry last = m_counterReset ? null : s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
-            LOG.debug("getCounterValue: id={}, last={}, current={}", id, (last==null ? last : last.m_value +"@"+ last.m_timestamp), current);
-            if (last == null) {
+            if (m_counterState == null) {
+                m_counterState = s_cache.getResource(getCounterStateKey());
+            }
+            final int attributeIndex = s_cache.getAttributeIndex(ds);
+            final long timestamp = m_collectionTimestamp.getTime();
+            final CounterStateStore.Sample last = new CounterStateStore.Sample();
+            // Atomically replace the last sample with the new value
+            // If the sysUpTime was changed, the "last" value must be ignored (to force update the cache).
+            final boolean hasLast;
+            if (m_counterReset) {
+                m_counterState.set(attributeIndex, timestamp, current);
+                hasLast = false;
+            } else {
+                hasLast = m_counterState.getAndSet(attributeIndex, timestamp, current, last);
+            }
+            LOG.debug("getCounterValue: id={}, last={}, current={}", id, (hasLast ? last.getValue() +"@"+ last.getTimestamp() : null), current);
+            if (!hasLast) {
                 m_localCache.put(id, Double.NaN);
-                if (m_counterReset) {
-                    s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
-                }
                 LOG.info("getCounterValue: unknown last value for {}, ignoring current", id);
             } else {                
-                Double delta = current.doubleValue() - last.m_value.doubleValue();
+                Double delta = current.doubleValue() - last.getValue();
                 // wrapped counter handling(negative delta), rrd style
                 if (delta < 0) {
                     double newDelta = delta.doubleValue();
@@ -442,14 +433,14 @@ public class CollectionResourceWrapper {
                         // try 64-bit adjustment
                         newDelta += Math.pow(2, 64) - Math.pow(2, 32);
                     }
-                    LOG.info("getCounterValue: {}(counter) wrapped counter adjusted last={}@{}, current={}, olddelta={}, newdelta={}", id, last.m_value, last.m_timestamp, current, delta, newDelta);
+                    LOG.info("getCounterValue: {}(counter) wrapped counter adjusted last={}@{}, current={}, olddelta={}, newdelta={}", id, last.getValue(), new Date(last.getTimestamp()), current, delta, newDelta);
                     delta = newDelta;
                 }
                 // Get the interval between when this current collection was taken, and the last time this
                 // value was collected (and had a counter rate calculated for it).
                 // If the interval is zero, than the current rate must returned as 0.0 since there can be 
                 // no delta across a time interval of zero.
-                long interval = ( m_collectionTimestamp.getTime() - last.m_timestamp.getTime() ) / 1000;
+                long interval = ( timestamp - last.getTimestamp() ) / 1000;
                 if (interval > 0) {
                     final Double value = (delta/interval);
                     LOG.debug("getCounterValue: id={}, value={}, delta={}, interval={}", id, value, delta, interval);
@@ -458,7 +449,7 @@ public class CollectionResourceWrapper {
                     LOG.info("getCounterValue: invalid zero-length rate interval for {}, returning rate of zero", id);
                     m_localCache.put(id, 0.0);
                     // Restore the original value inside the static cache
-                    s_cache.put(id, last);
+                    m_counterState.set(attributeIndex, last.getTimestamp(), last.getValue());
                 }
             }
         }
@@ -0,0 +1,531 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Holds the last collected value of counter attributes, used to calculate
+ * counter rates when thresholding (see NMS-4244).
+ *
+ * State is kept per resource: each resource holds a small open-addressing
+ * table of timestamps and values keyed by a global attribute index, so that
+ * the store needs a single map entry per resource instead of a string key, a
+ * boxed value and a date per attribute. The table of a resource only grows
+ * with the attributes stored for that resource, regardless of how many
+ * attributes are known across all resource types.
+ *
+ * Resources that have not been accessed for longer than the configured TTL
+ * are evicted. When a state file is configured, the state is snapshotted to it
+ * on every eviction sweep and by {@link #destroy()}, and loaded from it
+ * (memory-mapped) when the store is created, so that counter rates can be
+ * calculated right after a restart.
+ *
+ * The sweeps only run between {@link #start()} and {@link #destroy()}, which
+ * are called by the daemons that threshold.
+ *
+ * The store is configured with the following system properties:
+ * <ul>
+ * <li><code>org.opennms.netmgt.threshd.counterState.ttl</code>: TTL in milliseconds, 1 day by default</li>
+ * <li><code>org.opennms.netmgt.threshd.counterState.sweepInterval</code>: interval between eviction sweeps in milliseconds, 5 minutes by default</li>
+ * <li><code>org.opennms.netmgt.threshd.counterState.file</code>: path to the state file, state is not persisted when unset</li>
+ * </ul>
+ */
+public class CounterStateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterStateStore.class);
+
+    public static final String TTL_PROPERTY = "org.opennms.netmgt.threshd.counterState.ttl";
+    public static final String SWEEP_INTERVAL_PROPERTY = "org.opennms.netmgt.threshd.counterState.sweepInterval";
+    public static final String FILE_PROPERTY = "org.opennms.netmgt.threshd.counterState.file";
+
+    private static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(1);
+    private static final long DEFAULT_SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int FILE_MAGIC = 0x4f4e4353; // "ONCS"
+    private static final int FILE_VERSION = 2;
+
+    /** Marks slots of a resource which do not hold an attribute. */
+    private static final int NO_ATTRIBUTE = -1;
+
+    private static CounterStateStore s_instance;
+
+    /**
+     * A previously collected sample, filled in by {@link ResourceState#getAndSet}.
+     */
+    public static class Sample {
+        private long m_timestamp;
+        private double m_value;
+
+        public long getTimestamp() {
+            return m_timestamp;
+        }
+
+        public double getValue() {
+            return m_value;
+        }
+    }
+
+    /**
+     * The counter state of a single resource.
+     *
+     * The samples are kept in parallel arrays forming an open-addressing hash
+     * table with linear probing, keyed by attribute index. Samples are never
+     * removed individually, the whole state is evicted instead.
+     */
+    public class ResourceState {
+        private int[] m_attributes = new int[0];
+        private long[] m_timestamps = new long[0];
+        private double[] m_values = new double[0];
+        private int m_size;
+        private volatile long m_lastAccess;
+
+        private ResourceState(long lastAccess) {
+            m_lastAccess = lastAccess;
+        }
+
+        /**
+         * Stores the given sample, and returns the sample it replaced.
+         *
+         * @param attributeIndex the index of the attribute, see {@link CounterStateStore#getAttributeIndex(String)}
+         * @param timestamp the time at which the sample was collected
+         * @param value the collected value
+         * @param previous filled in with the previous sample, if any
+         * @return true if there was a previous sample
+         */
+        public synchronized boolean getAndSet(int attributeIndex, long timestamp, double value, Sample previous) {
+            final boolean found = get(attributeIndex, previous);
+            set(attributeIndex, timestamp, value);
+            if (found) {
+                m_hits.inc();
+            } else {
+                m_misses.inc();
+            }
+            return found;
+        }
+
+        public synchronized void set(int attributeIndex, long timestamp, double value) {
+            if (attributeIndex < 0) {
+                throw new IllegalArgumentException("Invalid attribute index: " + attributeIndex);
+            }
+            // Keep the load factor at or below 3/4
+            if ((m_size + 1) * 4 > m_attributes.length * 3) {
+                resize(Math.max(4, m_attributes.length * 2));
+            }
+            final int slot = slotOf(m_attributes, attributeIndex);
+            if (m_attributes[slot] == NO_ATTRIBUTE) {
+                m_attributes[slot] = attributeIndex;
+                m_size++;
+            }
+            m_timestamps[slot] = timestamp;
+            m_values[slot] = value;
+        }
+
+        public synchronized boolean get(int attributeIndex, Sample sample) {
+            if (m_size == 0) {
+                return false;
+            }
+            final int slot = slotOf(m_attributes, attributeIndex);
+            if (m_attributes[slot] == NO_ATTRIBUTE) {
+                return false;
+            }
+            sample.m_timestamp = m_timestamps[slot];
+            sample.m_value = m_values[slot];
+            return true;
+        }
+
+        /**
+         * @return the number of attributes for which a sample is stored
+         */
+        public synchronized int size() {
+            return m_size;
+        }
+
+        private void resize(int capacity) {
+            final int[] attributes = m_attributes;
+            final long[] timestamps = m_timestamps;
+            final double[] values = m_values;
+
+            m_attributes = new int[capacity];
+            Arrays.fill(m_attributes, NO_ATTRIBUTE);
+            m_timestamps = new long[capacity];
+            m_values = new double[capacity];
+            for (int i = 0; i < attributes.length; i++) {
+                if (attributes[i] != NO_ATTRIBUTE) {
+                    final int slot = slotOf(m_attributes, attributes[i]);
+                    m_attributes[slot] = attributes[i];
+                    m_timestamps[slot] = timestamps[i];
+                    m_values[slot] = values[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding the given attribute, or the empty slot where
+     * it should be inserted. The table must have at least one empty slot.
+     */
+    private static int slotOf(int[] attributes, int attributeIndex) {
+        final int mask = attributes.length - 1;
+        int h = attributeIndex * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (attributes[slot] != NO_ATTRIBUTE && attributes[slot] != attributeIndex) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private final Map<String, Integer> m_attributeIndexes = new ConcurrentHashMap<>();
+    private final List<String> m_attributeNames = new ArrayList<>();
+    private final Map<String, ResourceState> m_resources = new ConcurrentHashMap<>();
+
+    private final long m_ttl;
+    private final long m_sweepInterval;
+    private final Path m_stateFile;
+
+    /**
+     * Guards {@link #m_executor} and {@link #m_reporter}. The store itself is not
+     * used, since a sweep holds it while saving.
+     */
+    private final Object m_lifecycleLock = new Object();
+    private ScheduledExecutorService m_executor;
+    private JmxReporter m_reporter;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Counter m_hits = m_metrics.counter("hits");
+    private final Counter m_misses = m_metrics.counter("misses");
+    private final Counter m_evictions = m_metrics.counter("evictions");
+
+    /**
+     * Returns the store shared by all of the thresholding sets, creating it
+     * from the system properties when first used.
+     *
+     * @return the shared store
+     */
+    public static synchronized CounterStateStore getInstance() {
+        if (s_instance == null) {
+            final String stateFile = System.getProperty(FILE_PROPERTY);
+            s_instance = new CounterStateStore(Long.getLong(TTL_PROPERTY, DEFAULT_TTL), Long.getLong(SWEEP_INTERVAL_PROPERTY, DEFAULT_SWEEP_INTERVAL),
+                    stateFile == null || stateFile.trim().isEmpty() ? null : Paths.get(stateFile.trim()));
+            s_instance.load();
+        }
+        return s_instance;
+    }
+
+    protected CounterStateStore(long ttl, Path stateFile) {
+        this(ttl, DEFAULT_SWEEP_INTERVAL, stateFile);
+    }
+
+    protected CounterStateStore(long ttl, long sweepInterval, Path stateFile) {
+        m_ttl = ttl;
+        m_sweepInterval = sweepInterval;
+        m_stateFile = stateFile;
+        m_metrics.register("resources", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_resources.size();
+            }
+        });
+    }
+
+    /**
+     * Starts the periodic eviction sweeps and the JMX reporter. Does nothing
+     * if the store is already started.
+     */
+    public void start() {
+        synchronized (m_lifecycleLock) {
+            if (m_executor != null) {
+                return;
+            }
+            m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName() + ".counterState").build();
+            m_reporter.start();
+
+            // Use a daemon thread so that the sweeper never prevents the JVM from exiting
+            final ThreadFactory threadFactory = new LogPreservingThreadFactory("CounterStateStore", 1);
+            m_executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = threadFactory.newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+            m_executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evict(System.currentTimeMillis());
+                        save();
+                    } catch (Throwable t) {
+                        LOG.warn("Failed to sweep the counter state.", t);
+                    }
+                }
+            }, m_sweepInterval, m_sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the sweeps and the JMX reporter, and writes a last snapshot of the
+     * state so that the samples collected since the last sweep are not lost.
+     * The store can still be used, and started again, afterwards.
+     */
+    public void destroy() {
+        synchronized (m_lifecycleLock) {
+            if (m_executor != null) {
+                // Let a running sweep complete, the pending ones are cancelled
+                m_executor.shutdown();
+                try {
+                    if (!m_executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                        LOG.warn("Timed out waiting for the counter state sweep to complete.");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                m_executor = null;
+                m_reporter.stop();
+                m_reporter = null;
+            }
+
+            try {
+                save();
+            } catch (IOException e) {
+                LOG.warn("Failed to save the counter state to {}.", m_stateFile, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the index used to address the given attribute within
+     * {@link ResourceState}s, registering the attribute if it is not known yet.
+     *
+     * @param attribute the name of the attribute
+     * @return the index of the attribute
+     */
+    public int getAttributeIndex(String attribute) {
+        final Integer index = m_attributeIndexes.get(attribute);
+        if (index != null) {
+            return index;
+        }
+        synchronized (m_attributeNames) {
+            return m_attributeIndexes.computeIfAbsent(attribute, a -> {
+                m_attributeNames.add(a);
+                return m_attributeNames.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Returns the state of the given resource, creating it if necessary.
+     *
+     * @param resourceKey uniquely identifies the resource
+     * @return the state of the resource
+     */
+    public ResourceState getResource(String resourceKey) {
+        final long now = System.currentTimeMillis();
+        final ResourceState state = m_resources.computeIfAbsent(resourceKey, k -> new ResourceState(now));
+        state.m_lastAccess = now;
+        return state;
+    }
+
+    /**
+     * Returns the last value stored for the given attribute of a resource.
+     *
+     * @return the value, or null if there is none
+     */
+    public Double getValue(String resourceKey, String attribute) {
+        final ResourceState state = m_resources.get(resourceKey);
+        // Lookups must not register the attribute, an unknown attribute has no value
+        final Integer attributeIndex = m_attributeIndexes.get(attribute);
+        final Sample sample = new Sample();
+        if (state == null || attributeIndex == null || !state.get(attributeIndex, sample)) {
+            return null;
+        }
+        return sample.getValue();
+    }
+
+    public boolean containsKey(String resourceKey, String attribute) {
+        return getValue(resourceKey, attribute) != null;
+    }
+
+    public void clear() {
+        m_resources.clear();
+    }
+
+    public int size() {
+        return m_resources.size();
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Removes the state of all resources which were not accessed within the TTL.
+     *
+     * @param now the current time
+     * @return the number of evicted resources
+     */
+    protected int evict(long now) {
+        int evicted = 0;
+        for (Iterator<ResourceState> it = m_resources.values().iterator(); it.hasNext();) {
+            if (now - it.next().m_lastAccess > m_ttl) {
+                it.remove();
+                evicted++;
+            }
+        }
+        m_evictions.inc(evicted);
+        if (evicted > 0) {
+            LOG.debug("Evicted the counter state of {} resources.", evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Writes a snapshot of the state to the state file, if configured. The
+     * snapshot is written to a temporary file first, and then moved in place.
+     */
+    protected synchronized void save() throws IOException {
+        if (m_stateFile == null) {
+            return;
+        }
+        final Path tempFile = m_stateFile.resolveSibling(m_stateFile.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+
+            final List<String> attributeNames;
+            synchronized (m_attributeNames) {
+                attributeNames = new ArrayList<>(m_attributeNames);
+            }
+            out.writeInt(attributeNames.size());
+            for (String attributeName : attributeNames) {
+                writeString(out, attributeName);
+            }
+
+            for (Map.Entry<String, ResourceState> entry : m_resources.entrySet()) {
+                final ResourceState state = entry.getValue();
+                synchronized (state) {
+                    out.writeBoolean(true);
+                    writeString(out, entry.getKey());
+                    out.writeLong(state.m_lastAccess);
+                    out.writeInt(state.m_size);
+                    for (int i = 0; i < state.m_attributes.length; i++) {
+                        if (state.m_attributes[i] != NO_ATTRIBUTE) {
+                            out.writeInt(state.m_attributes[i]);
+                            out.writeLong(state.m_timestamps[i]);
+                            out.writeDouble(state.m_values[i]);
+                        }
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tempFile, m_stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the state from the state file, if configured and present.
+     */
+    protected synchronized void load() {
+        if (m_stateFile == null || !Files.isRegularFile(m_stateFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(m_stateFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                LOG.warn("Ignoring counter state file {} with unknown format.", m_stateFile);
+                return;
+            }
+
+            // Map the attribute indexes of the file to the ones of this store
+            final int[] attributeIndexes = new int[buffer.getInt()];
+            for (int i = 0; i < attributeIndexes.length; i++) {
+                attributeIndexes[i] = getAttributeIndex(readString(buffer));
+            }
+
+            int resources = 0;
+            while (buffer.get() != 0) {
+                final String resourceKey = readString(buffer);
+                final ResourceState state = new ResourceState(buffer.getLong());
+                final int samples = buffer.getInt();
+                for (int i = 0; i < samples; i++) {
+                    final int attributeIndex = attributeIndexes[buffer.getInt()];
+                    final long timestamp = buffer.getLong();
+                    final double value = buffer.getDouble();
+                    state.set(attributeIndex, timestamp, value);
+                }
+                m_resources.put(resourceKey, state);
+                resources++;
+            }
+            LOG.info("Loaded the counter state of {} resources from {}.", resources, m_stateFile);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to load the counter state from {}, starting with an empty state.", m_stateFile, e);
+            m_resources.clear();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
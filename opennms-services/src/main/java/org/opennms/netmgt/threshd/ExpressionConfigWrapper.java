@@ -30,13 +30,14 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +51,38 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * The engine is shared by all of the expressions. Parsed expressions are
+     * immutable and can be evaluated concurrently.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
+    /**
+     * Evaluation contexts are reused by the thread doing the evaluation, so
+     * that evaluating an expression does not allocate a context per sample.
+     */
+    private static final ThreadLocal<ValuesContext> CONTEXT = new ThreadLocal<ValuesContext>() {
+        @Override
+        protected ValuesContext initialValue() {
+            return new ValuesContext();
+        }
+    };
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final org.apache.commons.jexl2.Expression m_parsedExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            // The expression is parsed once, and kept until the thresholding configuration is reloaded
+            ExpressionImpl e = (ExpressionImpl) JEXL_ENGINE.createExpression(m_expression.getExpression());
+            m_parsedExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -140,20 +163,65 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * A {@link JexlContext} that exposes the datasource values without copying them.
+     * The values are available both as variables, and through the <code>datasources</code>
+     * map to support names which are not valid JEXL identifiers (see NMS-5019).
+     */
+    private static class ValuesContext implements JexlContext {
+        private Map<String, Double> m_values = Collections.emptyMap();
+        private Map<String, Object> m_locals;
+
+        private void reset(Map<String, Double> values) {
+            m_values = values;
+            if (m_locals != null) {
+                m_locals.clear();
+            }
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_locals != null && m_locals.containsKey(name)) {
+                return m_locals.get(name);
+            } else if ("math".equals(name)) {
+                return MATH_BINDING;
+            } else if ("datasources".equals(name)) {
+                return Collections.unmodifiableMap(m_values);
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            // Assignments must not modify the collected values
+            if (m_locals == null) {
+                m_locals = new HashMap<>();
+            }
+            m_locals.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return (m_locals != null && m_locals.containsKey(name))
+                    || "math".equals(name)
+                    || "datasources".equals(name)
+                    || m_values.containsKey(name);
+        }
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        final ValuesContext context = CONTEXT.get();
+        context.reset(values);
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_parsedExpression.evaluate(context);
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
+        } finally {
+            // Don't hold on to the values after the evaluation
+            context.reset(Collections.<String, Double>emptyMap());
         }
         return result;
     }
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class AsyncCollectionEngineTest {
+
+    private ExecutorService m_executor;
+
+    private AsyncCollectionEngine m_engine;
+
+    @Before
+    public void setUp() {
+        m_executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        if (m_engine != null) {
+            m_engine.stop();
+        }
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void canReportTheCollectionsInFlight() throws Exception {
+        m_engine = new AsyncCollectionEngine(1, 1, 1, m_executor);
+        final CompletableFuture<Void> collection = new CompletableFuture<>();
+        final CompletableFuture<Void> first = m_engine.collect(() -> collection);
+        final CompletableFuture<Void> second = m_engine.collect(() -> CompletableFuture.completedFuture(null));
+
+        final MetricRegistry metrics = m_engine.getMetrics();
+        assertEquals(1, metrics.getGauges().get("collectd.inFlight").getValue());
+        assertEquals(1, metrics.getGauges().get("collectd.pending").getValue());
+
+        collection.complete(null);
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        await().atMost(5, TimeUnit.SECONDS).until(m_engine::getNumCollectionsInFlight, equalTo(0));
+        assertEquals(0, metrics.getGauges().get("collectd.pending").getValue());
+    }
+
+    @Test
+    public void canChainTheStagesOnTheirExecutors() throws Exception {
+        m_engine = new AsyncCollectionEngine(1, 1, 1, m_executor);
+        final List<String> threads = new ArrayList<>();
+        m_engine.collect(() -> CompletableFuture.completedFuture("set")
+                .thenApplyAsync(set -> threads.add(Thread.currentThread().getName()), m_engine.getPersistExecutor())
+                .thenAcceptAsync(added -> threads.add(Thread.currentThread().getName()), m_engine.getThresholdExecutor()))
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(0), threads.get(0).startsWith("Collectd-Persister"));
+        assertTrue(threads.get(1), threads.get(1).startsWith("Collectd-Thresholder"));
+    }
+
+    @Test
+    public void canTrackTheLagPerPackage() {
+        m_engine = new AsyncCollectionEngine(1, 1, 1, m_executor);
+        m_engine.collectionStarted("example1", 300000, 10);
+        m_engine.collectionStarted("example1", 300000, 300000);
+        m_engine.collectionStarted("example2", 60000, 120000);
+
+        final MetricRegistry metrics = m_engine.getMetrics();
+        assertEquals(2, metrics.histogram("collectd.packages.example1.lag").getCount());
+        assertEquals(300000, metrics.histogram("collectd.packages.example1.lag").getSnapshot().getMax());
+        assertEquals(1, metrics.counter("collectd.packages.example1.late").getCount());
+        assertEquals(1, metrics.histogram("collectd.packages.example2.lag").getCount());
+        assertEquals(1, metrics.counter("collectd.packages.example2.late").getCount());
+    }
+}
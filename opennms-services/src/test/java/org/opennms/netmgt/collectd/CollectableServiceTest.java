@@ -28,11 +28,17 @@
 
 package org.opennms.netmgt.collectd;
 
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,6 +48,10 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
@@ -76,6 +86,8 @@ import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.test.FileAnticipator;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import com.codahale.metrics.Histogram;
+
 public class CollectableServiceTest {
 
     private CollectionSpecification spec;
@@ -221,7 +233,87 @@ public class CollectableServiceTest {
                 lastUpdateTimeInSecs < (afterInSecs - (collectionDelayInSecs / 2d)));
     }
 
+    /**
+     * Verifies that the scheduler thread does not wait for the collection when
+     * it is run by an {@link AsyncCollectionEngine}, and that the service is
+     * rescheduled once the collection completes.
+     */
+    @Test
+    public void collectAsynchronously() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsyncCollectionEngine engine = new AsyncCollectionEngine(1, 1, 1, executor);
+        try {
+            createCollectableService(engine);
+
+            Long serviceIntervalInMs = 300 * 1000L;
+            when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+            CompletableFuture<CollectionSet> collection = new CompletableFuture<>();
+            when(spec.collectAsync(any())).thenReturn(collection);
+
+            service.run();
+            verify(scheduler, never()).schedule(anyLong(), any());
+            assertEquals(1, engine.getNumCollectionsInFlight());
+
+            collection.complete(null);
+            verify(scheduler, timeout(5000).times(1)).schedule(eq(serviceIntervalInMs), any());
+            assertEquals(0, engine.getNumCollectionsInFlight());
+        } finally {
+            engine.stop();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Verifies that the lag of a collection includes the time it waited for
+     * the other collections in flight.
+     */
+    @Test
+    public void recordsTheLagOfQueuedCollections() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsyncCollectionEngine engine = new AsyncCollectionEngine(1, 1, 1, executor);
+        try {
+            Long serviceIntervalInMs = 300 * 1000L;
+            createCollectableService(engine);
+            CollectableService first = service;
+            when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+            when(spec.getPackageName()).thenReturn("example1");
+            CompletableFuture<CollectionSet> firstCollection = new CompletableFuture<>();
+            when(spec.collectAsync(any())).thenReturn(firstCollection);
+
+            createCollectableService(engine);
+            CollectableService second = service;
+            Scheduler secondScheduler = scheduler;
+            when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+            when(spec.getPackageName()).thenReturn("example1");
+            when(spec.collectAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+            Histogram lag = engine.getMetrics().histogram("collectd.packages.example1.lag");
+            first.run();
+            assertEquals(1, lag.getCount());
+
+            // The second collection waits for the first one, its lag is only
+            // recorded once it is started
+            second.run();
+            assertEquals(1, engine.getNumPendingCollections());
+            assertEquals(1, lag.getCount());
+
+            Thread.sleep(500);
+            firstCollection.complete(null);
+            await().atMost(5, TimeUnit.SECONDS).until(lag::getCount, equalTo(2L));
+            assertTrue("The lag should include the time spent in the queue, got " + lag.getSnapshot().getMax(),
+                    lag.getSnapshot().getMax() >= 500);
+            verify(secondScheduler, timeout(5000).times(1)).schedule(anyLong(), any());
+        } finally {
+            engine.stop();
+            executor.shutdown();
+        }
+    }
+
     private void createCollectableService() throws CollectionInitializationException, IOException {
+        createCollectableService(null);
+    }
+
+    private void createCollectableService(AsyncCollectionEngine engine) throws CollectionInitializationException, IOException {
         // Mock it all!
         OnmsIpInterface iface = mock(OnmsIpInterface.class, RETURNS_DEEP_STUBS);
         IpInterfaceDao ifaceDao = mock(IpInterfaceDao.class);
@@ -244,7 +336,7 @@ public class CollectableServiceTest {
         when(ifaceDao.load(any())).thenReturn(iface);
         when(iface.getIpAddress()).thenReturn(InetAddrUtils.getLocalHostAddress());
 
-        service = new CollectableService(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, resourceStorageDao);
+        service = new CollectableService(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, resourceStorageDao, engine);
     }
 
     private RrdRepository createRrdRepository() throws IOException {
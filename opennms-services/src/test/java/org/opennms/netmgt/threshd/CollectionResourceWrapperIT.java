@@ -156,7 +156,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceKey = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "1000");
         attributes.put(attribute.getName(), attribute);
@@ -167,10 +167,10 @@ public class CollectionResourceWrapperIT {
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
 
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "2500");
@@ -180,15 +180,15 @@ public class CollectionResourceWrapperIT {
        
         // Get counter value - second time
         // Last value is 1000.0, so 2500-1000/300 = 1500/300 =  5.
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
         //Validate that the cached counter value has been updated
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         //but that calling getAttributeValue doesn't re-calculate the rate inappropriately
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "5500");
@@ -198,13 +198,13 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - third time
         // Last value is 2500.0, so 5500-2500/300 = 3000/300 =  10;
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
     }
         
     
@@ -224,7 +224,7 @@ public class CollectionResourceWrapperIT {
 
 		// Add Counter Attribute
 		String attributeName = "myCounter";
-	        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+	        String resourceKey = "node[1].resourceType[node].instance[null]";
 		Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
 		SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "1000");
 		attributes.put(attribute.getName(), attribute);
@@ -238,13 +238,13 @@ public class CollectionResourceWrapperIT {
 				baseDate);
 
 		Assert.assertFalse(CollectionResourceWrapper.s_cache
-				.containsKey(attributeId));
+				.containsKey(resourceKey, attributeName));
 		Assert.assertEquals(Double.valueOf(Double.NaN),
 				wrapper.getAttributeValue(attributeName)); // Last value is null
 		Assert.assertEquals(Double.valueOf(Double.NaN),
 				wrapper.getAttributeValue(attributeName)); // Last value is null
 		Assert.assertEquals(Double.valueOf(1000.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "2500");
@@ -254,13 +254,13 @@ public class CollectionResourceWrapperIT {
        
         // Get counter value - second time
         // Last value is 1000.0, so 2500-1000/300 = 1500/300 =  5.
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
         //Validate that the cached counter value has been updated
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         //but that calling getAttributeValue doesn't re-calculate the rate inappropriately or update the static cache
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
 		// Now create a collection that is missing the counter value; we're
 		// expecting null result and no cache updates
@@ -275,10 +275,10 @@ public class CollectionResourceWrapperIT {
 		// No change, so we expect the cache to have (and continue to) remain
 		// the same, and to get no attribute value out
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 		Assert.assertNull(wrapper.getAttributeValue(attributeName)); 
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
 		// Now if we collect successfully again, we expect the counter to be the
 		// change divided by two collection cycles
@@ -295,16 +295,16 @@ public class CollectionResourceWrapperIT {
 		// Last value is 5500, but we've had two collection cycles, so
 		// 7300-2500/600 = 4800/600 = 8
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
 		EasyMock.verify(agent);
 	}
@@ -321,7 +321,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceKey = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         BigInteger initialValue = new BigDecimal(Math.pow(2, 32) - 20000).toBigInteger();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", initialValue);
@@ -329,10 +329,10 @@ public class CollectionResourceWrapperIT {
         
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("40000"));
@@ -341,13 +341,13 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - second time (wrap)
         // last = MAX - 20000, new = 40000; then last - new = 60000, rate: 60000/300 = 200
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
 
         EasyMock.verify(agent);
     }
@@ -497,7 +497,7 @@ public class CollectionResourceWrapperIT {
         // Add Counter Attribute
         System.err.println("------------------------");
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceKey = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         BigInteger initialValue = new BigInteger("300");
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", initialValue);
@@ -505,26 +505,26 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertTrue(wrapper.getAttributeValue(attributeName).isNaN());
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("600"));
         attributes.put(attribute.getName(), attribute);
         wrapper = createWrapper(resource, attributes, new Date(baseDate.getTime() + 300000));
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.get(attributeId).getValue().isNaN());
-        Assert.assertEquals(Double.valueOf(300.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertFalse(CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName).isNaN());
+        Assert.assertEquals(Double.valueOf(300.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(1.0), wrapper.getAttributeValue(attributeName)); // 600 - 300 / 300 = 1.0
 
         // Increase counter again
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("900"));
         attributes.put(attribute.getName(), attribute);
         wrapper = createWrapper(resource, attributes, new Date(baseDate.getTime() + 600000));
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.get(attributeId).getValue().isNaN());
-        Assert.assertEquals(Double.valueOf(600.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertFalse(CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName).isNaN());
+        Assert.assertEquals(Double.valueOf(600.0), CollectionResourceWrapper.s_cache.getValue(resourceKey, attributeName));
         Assert.assertEquals(Double.valueOf(1.0), wrapper.getAttributeValue(attributeName)); // 900 - 600 / 300 = 1.0
 
         // Emulate a sysUpTime restart
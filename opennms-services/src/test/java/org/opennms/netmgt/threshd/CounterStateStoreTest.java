@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CounterStateStoreTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canReplaceSamples() {
+        final CounterStateStore store = new CounterStateStore(1000, null);
+        final CounterStateStore.ResourceState state = store.getResource("node[1].resourceType[node].instance[null]");
+        final int ifInOctets = store.getAttributeIndex("ifInOctets");
+        final int ifOutOctets = store.getAttributeIndex("ifOutOctets");
+        assertEquals(ifInOctets, store.getAttributeIndex("ifInOctets"));
+
+        final CounterStateStore.Sample last = new CounterStateStore.Sample();
+        assertFalse(state.getAndSet(ifOutOctets, 1000, 1.0, last));
+        assertFalse(state.getAndSet(ifInOctets, 1000, 2.0, last));
+        assertTrue(state.getAndSet(ifInOctets, 2000, 3.0, last));
+        assertEquals(1000, last.getTimestamp());
+        assertEquals(2.0, last.getValue(), 0.0);
+
+        assertEquals(Double.valueOf(3.0), store.getValue("node[1].resourceType[node].instance[null]", "ifInOctets"));
+        assertEquals(Double.valueOf(1.0), store.getValue("node[1].resourceType[node].instance[null]", "ifOutOctets"));
+        assertNull(store.getValue("node[1].resourceType[node].instance[null]", "ifInErrors"));
+        assertNull(store.getValue("node[2].resourceType[node].instance[null]", "ifInOctets"));
+    }
+
+    @Test
+    public void canEvictStaleResources() {
+        final CounterStateStore store = new CounterStateStore(1000, null);
+        store.getResource("a").set(store.getAttributeIndex("x"), 1, 1.0);
+        final long now = System.currentTimeMillis();
+
+        assertEquals(0, store.evict(now));
+        assertEquals(1, store.size());
+        assertEquals(1, store.evict(now + 1001));
+        assertEquals(0, store.size());
+        assertEquals(1, store.getMetrics().counter("evictions").getCount());
+    }
+
+    @Test
+    public void canSaveAndLoadState() throws Exception {
+        final Path stateFile = m_tempFolder.getRoot().toPath().resolve("counters.state");
+        final CounterStateStore store = new CounterStateStore(60000, stateFile);
+        store.getResource("a").set(store.getAttributeIndex("x"), 1000, 1.0);
+        store.getResource("a").set(store.getAttributeIndex("y"), 1000, 2.0);
+        store.getResource("b").set(store.getAttributeIndex("y"), 2000, 3.0);
+        store.save();
+
+        final CounterStateStore loaded = new CounterStateStore(60000, stateFile);
+        // Use a different attribute order to verify the indexes are remapped
+        loaded.getAttributeIndex("z");
+        loaded.getAttributeIndex("y");
+        loaded.load();
+
+        assertEquals(2, loaded.size());
+        assertEquals(Double.valueOf(1.0), loaded.getValue("a", "x"));
+        assertEquals(Double.valueOf(2.0), loaded.getValue("a", "y"));
+        assertEquals(Double.valueOf(3.0), loaded.getValue("b", "y"));
+        assertNull(loaded.getValue("b", "x"));
+    }
+
+    @Test
+    public void savesTheStateWhenDestroyed() throws Exception {
+        final Path stateFile = m_tempFolder.getRoot().toPath().resolve("counters.state");
+        // The sweep would only save the state an hour from now
+        final CounterStateStore store = new CounterStateStore(60000, TimeUnit.HOURS.toMillis(1), stateFile);
+        store.start();
+        store.getResource("a").set(store.getAttributeIndex("x"), 1000, 1.0);
+        store.destroy();
+
+        final CounterStateStore loaded = new CounterStateStore(60000, stateFile);
+        loaded.load();
+        assertEquals(Double.valueOf(1.0), loaded.getValue("a", "x"));
+    }
+
+    @Test
+    public void sweepsOnADaemonThreadUntilDestroyed() throws Exception {
+        final Path stateFile = m_tempFolder.getRoot().toPath().resolve("counters.state");
+        final CounterStateStore store = new CounterStateStore(60000, 10, stateFile);
+        store.getResource("a").set(store.getAttributeIndex("x"), 1000, 1.0);
+        store.start();
+        // Starting twice does not start a second sweeper
+        store.start();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> Files.isRegularFile(stateFile));
+        final List<Thread> sweepers = getSweeperThreads();
+        assertEquals(1, sweepers.size());
+        assertTrue(sweepers.get(0).isDaemon());
+
+        store.destroy();
+        sweepers.get(0).join(5000);
+        assertFalse(sweepers.get(0).isAlive());
+        assertEquals(0, getSweeperThreads().size());
+    }
+
+    private static List<Thread> getSweeperThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("CounterStateStore") && t.isAlive())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void onlyHoldsStoredAttributes() {
+        final CounterStateStore store = new CounterStateStore(1000, null);
+        // Attributes of other resource types
+        for (int i = 0; i < 10000; i++) {
+            store.getAttributeIndex("other" + i);
+        }
+
+        final CounterStateStore.ResourceState state = store.getResource("a");
+        state.set(store.getAttributeIndex("x"), 1000, 1.0);
+        assertEquals(1, state.size());
+
+        // Grow the table past its initial capacity
+        for (int i = 0; i < 100; i++) {
+            state.set(store.getAttributeIndex("other" + (i * 97)), 1000 + i, i);
+        }
+        assertEquals(101, state.size());
+        assertEquals(Double.valueOf(1.0), store.getValue("a", "x"));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Double.valueOf(i), store.getValue("a", "other" + (i * 97)));
+        }
+        assertNull(store.getValue("a", "other1"));
+    }
+
+    @Test
+    public void lookupsDoNotRegisterAttributes() {
+        final CounterStateStore store = new CounterStateStore(1000, null);
+        assertEquals(0, store.getAttributeIndex("x"));
+        store.getResource("a").set(0, 1000, 1.0);
+
+        assertNull(store.getValue("a", "y"));
+        assertFalse(store.containsKey("a", "z"));
+        assertTrue(store.containsKey("a", "x"));
+        assertEquals(1, store.getAttributeIndex("w"));
+    }
+}
@@ -171,4 +171,23 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testEvaluationDoesNotLeakValues() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression("x = a * 2 + b");
+        ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("a", 1.0);
+        values.put("b", 2.0);
+        Assert.assertEquals(4.0, wrapper.evaluate(values), 0.0);
+        // Assignments must not end up in the collected values
+        Assert.assertEquals(2, values.size());
+
+        // Neither the values nor the assignments of the previous evaluation must be visible
+        values = new HashMap<String,Double>();
+        values.put("a", 3.0);
+        values.put("b", 0.0);
+        Assert.assertEquals(6.0, wrapper.evaluate(values), 0.0);
+    }
 }
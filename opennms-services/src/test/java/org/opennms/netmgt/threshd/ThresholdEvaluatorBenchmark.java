@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.netmgt.config.threshd.Expression;
+import org.opennms.netmgt.config.threshd.ThresholdType;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorState.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of evaluating expression based thresholds with the
+ * different evaluators.
+ *
+ * The <code>*Uncompiled</code> benchmarks reproduce the previous behavior,
+ * where the expression was parsed on every evaluation, and serve as a baseline.
+ *
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.threshd.ThresholdEvaluatorBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThresholdEvaluatorBenchmark {
+
+    private static final String FORMULA = "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)";
+
+    private ExpressionConfigWrapper m_highLowExpression;
+    private ThresholdEvaluatorState m_highLowState;
+
+    private ExpressionConfigWrapper m_relativeChangeExpression;
+    private ThresholdEvaluatorState m_relativeChangeState;
+
+    private ExpressionConfigWrapper m_absoluteChangeExpression;
+    private ThresholdEvaluatorState m_absoluteChangeState;
+
+    private Map<String, Double> m_values;
+
+    private long m_sample;
+
+    @Setup
+    public void setUp() throws ThresholdExpressionException {
+        m_highLowExpression = createExpression(ThresholdType.HIGH, 90.0);
+        m_highLowState = new ThresholdEvaluatorHighLow().getThresholdEvaluatorState(m_highLowExpression);
+
+        m_relativeChangeExpression = createExpression(ThresholdType.RELATIVE_CHANGE, 1.5);
+        m_relativeChangeState = new ThresholdEvaluatorRelativeChange().getThresholdEvaluatorState(m_relativeChangeExpression);
+
+        m_absoluteChangeExpression = createExpression(ThresholdType.ABSOLUTE_CHANGE, 10.0);
+        m_absoluteChangeState = new ThresholdEvaluatorAbsoluteChange().getThresholdEvaluatorState(m_absoluteChangeExpression);
+
+        m_values = new HashMap<>();
+        m_values.put("ifInOctets", 200000.0);
+        m_values.put("ifHCInOctets", 200000.0);
+        m_values.put("ifSpeed", 10000000.0);
+        m_values.put("ifHighSpeed", 10.0);
+    }
+
+    private static ExpressionConfigWrapper createExpression(ThresholdType type, double value) throws ThresholdExpressionException {
+        final Expression expression = new Expression();
+        expression.setType(type);
+        expression.setDsType("if");
+        expression.setExpression(FORMULA);
+        expression.setValue(value);
+        expression.setRearm(0.5);
+        expression.setTrigger(1);
+        return new ExpressionConfigWrapper(expression);
+    }
+
+    private Map<String, Double> nextSample() {
+        // Vary the input so that the change evaluators see different samples
+        m_values.put("ifInOctets", 200000.0 + (m_sample++ % 100) * 1000.0);
+        return m_values;
+    }
+
+    @Benchmark
+    public Status highLow() throws ThresholdExpressionException {
+        return m_highLowState.evaluate(m_highLowExpression.evaluate(nextSample()));
+    }
+
+    @Benchmark
+    public Status relativeChange() throws ThresholdExpressionException {
+        return m_relativeChangeState.evaluate(m_relativeChangeExpression.evaluate(nextSample()));
+    }
+
+    @Benchmark
+    public Status absoluteChange() throws ThresholdExpressionException {
+        return m_absoluteChangeState.evaluate(m_absoluteChangeExpression.evaluate(nextSample()));
+    }
+
+    @Benchmark
+    public Status highLowUncompiled() {
+        return m_highLowState.evaluate(evaluateUncompiled(nextSample()));
+    }
+
+    @Benchmark
+    public Status relativeChangeUncompiled() {
+        return m_relativeChangeState.evaluate(evaluateUncompiled(nextSample()));
+    }
+
+    @Benchmark
+    public Status absoluteChangeUncompiled() {
+        return m_absoluteChangeState.evaluate(evaluateUncompiled(nextSample()));
+    }
+
+    private static double evaluateUncompiled(Map<String, Double> values) {
+        final Map<String,Object> context = new HashMap<String,Object>();
+        context.putAll(values);
+        context.put("datasources", new HashMap<String, Double>(values));
+        context.put("math", new ExpressionConfigWrapper.MathBinding());
+        final Object result = new JexlEngine().createExpression(FORMULA).evaluate(new MapContext(context));
+        return Double.parseDouble(result.toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(ThresholdEvaluatorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}